@@ -19,17 +19,16 @@
 package com.sshtools.common.auth;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileFactory;
@@ -37,10 +36,10 @@ import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.policy.FileSystemPolicy;
 import com.sshtools.common.publickey.SshPublicKeyFile;
 import com.sshtools.common.publickey.SshPublicKeyFileFactory;
+import com.sshtools.common.publickey.authorized.AuthorizedKeyFile;
 import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.components.SshPublicKey;
-import com.sshtools.common.ssh.components.jce.JCEComponentManager;
 
 /**
  * 
@@ -59,6 +58,20 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 	 **/
 	protected String authorizedKeysFile = ".ssh/authorized_keys";
 
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+	
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+	
+	private final Map<String,CachedKeys> cache = new LinkedHashMap<String,CachedKeys>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedKeys> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
 	/**
 	 * Create a default <em>authorized_keys</em> store that reads keys from
 	 * <em>.ssh/authorized_keys</em>.
@@ -94,63 +107,89 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 
 		try {
 			AbstractFile file = getFile(con);
+			AuthorizedKeyFile keys = getAuthorizedKeys(file, con);
+			return keys != null && keys.isAuthorizedKey(key);
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
 
-			InputStream in = file.getInputStream();
-
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			int read;
-			byte[] buf = new byte[4096];
-
-			try {
-				while ((read = in.read(buf, 0, buf.length)) > 0) {
-					out.write(buf, 0, read);
-				}
-			} catch (EOFException ex) {
-			}
-
-			in.close();
-
-			/**
-			 * Process the authorized keys
-			 */
-			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					new ByteArrayInputStream(out.toByteArray())));
-			String line;
-			SshPublicKeyFile pubfile;
+	/**
+	 * Get the parsed keys from an <em>authorized_keys</em> file. The parsed file is cached
+	 * and reused until the modification time or length of the file changes. Entries are
+	 * keyed by user as well as path because a virtual file system may present the same
+	 * path to every user while each resolves to a different file.
+	 * 
+	 * @param file
+	 * @param con
+	 * @return the parsed keys or null if the file does not exist
+	 */
+	protected AuthorizedKeyFile getAuthorizedKeys(AbstractFile file, SshConnection con) throws IOException, PermissionDeniedException {
 
-			while ((line = reader.readLine()) != null) {
-            	if(line.trim().equals("") || line.startsWith("#")) {
-            		continue;
-            	}
-				/**
-				 * Split up line and only reconstruct with key type as first token
-				 * ignoring any other tokens before hand.
-				 */
-				String[] tokens = line.split(" ");
-            	StringBuffer keyline = new StringBuffer();
-            	boolean skip = true;
-            	for(String t : tokens) {
-            		if(skip) {
-            			if(JCEComponentManager.getInstance().supportedPublicKeys().contains(t)) {
-            				skip = false;
-            			}
-            		}
-            		if(!skip) {
-            			if(keyline.length() > 0) {
-            				keyline.append(" ");
-            			}
-            			keyline.append(t);
-            		}
-            	}
-                pubfile = SshPublicKeyFileFactory.parse(keyline.toString().getBytes("US-ASCII"));
-                if (pubfile.toPublicKey().equals(key)) {
-                    return true;
-                }
+		if(!file.exists()) {
+			return null;
+		}
+		
+		String path = getCacheKey(file, con);
+		long lastModified = file.lastModified();
+		long length = file.length();
+		
+		CachedKeys cached;
+		synchronized(cache) {
+			cached = cache.get(path);
+		}
+		
+		if(cached != null && cached.lastModified == lastModified && cached.length == length) {
+			return cached.keys;
+		}
+		
+		AuthorizedKeyFile keys = new AuthorizedKeyFile();
+		keys.load(file.getInputStream());
+		
+		if(cacheSize > 0) {
+			synchronized(cache) {
+				cache.put(path, new CachedKeys(keys, lastModified, length));
 			}
+		}
+		return keys;
+	}
+	
+	/**
+	 * Discard any parsed keys cached for a file.
+	 * 
+	 * @param file
+	 * @param con
+	 */
+	protected void invalidate(AbstractFile file, SshConnection con) throws IOException, PermissionDeniedException {
+		String path = getCacheKey(file, con);
+		synchronized(cache) {
+			cache.remove(path);
+		}
+	}
+	
+	private String getCacheKey(AbstractFile file, SshConnection con) throws IOException, PermissionDeniedException {
+		return con.getUsername() + '\0' + file.getCanonicalPath();
+	}
+	
+	/**
+	 * Get the maximum number of parsed <em>authorized_keys</em> files that are cached.
+	 * 
+	 * @return int
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
 
-			return false;
-		} catch (Throwable ex) {
-			return false;
+	/**
+	 * Set the maximum number of parsed <em>authorized_keys</em> files that are cached. Set 
+	 * to zero to parse the file on every authentication attempt.
+	 * 
+	 * @param cacheSize int
+	 */
+	public void setCacheSize(int cacheSize) {
+		synchronized(cache) {
+			this.cacheSize = cacheSize;
+			cache.clear();
 		}
 	}
 
@@ -169,6 +208,7 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 			out.write((keyFile.toString() + "\n").getBytes("US-ASCII"));
 		} finally {
 			out.close();
+			invalidate(file, con);
 		}
 	}
 
@@ -201,6 +241,7 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 			out.write(outBuffer.toByteArray());
 		} finally {
 			out.close();
+			invalidate(file, con);
 		}
 
 	}
@@ -240,4 +281,16 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 	public boolean checkKey(SshPublicKey key, SshConnection con) throws IOException {
 		return isAuthorizedKey(key, con);
 	}
+	
+	static class CachedKeys {
+		AuthorizedKeyFile keys;
+		long lastModified;
+		long length;
+		
+		CachedKeys(AuthorizedKeyFile keys, long lastModified, long length) {
+			this.keys = keys;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
 }
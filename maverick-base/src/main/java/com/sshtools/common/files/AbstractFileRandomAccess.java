@@ -19,6 +19,7 @@
 package com.sshtools.common.files;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface AbstractFileRandomAccess {
 	public int read(byte[] buf, int off, int len) throws IOException;
@@ -27,4 +28,61 @@ public interface AbstractFileRandomAccess {
 	public void seek(long position) throws IOException;
 	public void close() throws IOException;
 	public long getFilePointer() throws IOException;
+	
+	/**
+	 * Read from the file at the given position into the remaining space of a buffer, advancing
+	 * the position of the buffer by the number of bytes read. Implementations backed by a 
+	 * {@link java.nio.channels.FileChannel} should override this to read directly into the buffer
+	 * without changing the file pointer; the default implementation seeks and reads through 
+	 * {@link #read(byte[], int, int)}.
+	 * 
+	 * @param buf
+	 * @param position
+	 * @return the number of bytes read, or -1 if the position is at or past the end of the file
+	 * @throws IOException
+	 */
+	public default int read(ByteBuffer buf, long position) throws IOException {
+		if(getFilePointer() != position) {
+			seek(position);
+		}
+		return readThroughArray(buf, this::read);
+	}
+	
+	/**
+	 * Read into the remaining space of a buffer through a method that reads into a byte array,
+	 * advancing the position of the buffer by the number of bytes read. Heap buffers are read 
+	 * into directly; other buffers are read through a temporary array.
+	 * 
+	 * @param buf
+	 * @param reader
+	 * @return the number of bytes read, or -1 if the reader is at the end of its data
+	 * @throws IOException
+	 * @throws E
+	 */
+	public static <E extends Exception> int readThroughArray(ByteBuffer buf, ArrayReader<E> reader) throws IOException, E {
+		int r;
+		if(buf.hasArray()) {
+			r = reader.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+			if(r > 0) {
+				buf.position(buf.position() + r);
+			}
+		} else {
+			byte[] tmp = new byte[buf.remaining()];
+			r = reader.read(tmp, 0, tmp.length);
+			if(r > 0) {
+				buf.put(tmp, 0, r);
+			}
+		}
+		return r;
+	}
+	
+	/**
+	 * A method that reads into a byte array, such as {@link #read(byte[], int, int)}.
+	 *
+	 * @param <E> a checked exception thrown by the method other than IOException
+	 */
+	@FunctionalInterface
+	public interface ArrayReader<E extends Exception> {
+		int read(byte[] buf, int off, int len) throws IOException, E;
+	}
 }
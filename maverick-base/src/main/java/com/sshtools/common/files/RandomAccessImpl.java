@@ -21,6 +21,7 @@ package com.sshtools.common.files;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 public class RandomAccessImpl implements AbstractFileRandomAccess {
 	
@@ -52,6 +53,10 @@ public class RandomAccessImpl implements AbstractFileRandomAccess {
 		return raf.read(buf, off, len);
 	}
 	
+	public int read(ByteBuffer buf, long position) throws IOException {
+		return raf.getChannel().read(buf, position);
+	}
+	
 	public void setLength(long length) throws IOException {
 		raf.setLength(length);
 	}
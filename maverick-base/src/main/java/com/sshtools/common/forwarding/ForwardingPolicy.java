@@ -37,6 +37,7 @@ public class ForwardingPolicy extends Permissions {
 	private int forwardingMaxPacketSize = 65536;
 	private int forwardingMaxWindowSize = 65536 * 5;
 	private int forwardingMinWindowSize = 32768;
+	private boolean directForwarding = false;
 	
 	public ForwardingPolicy() {
 	}
@@ -172,6 +173,22 @@ public class ForwardingPolicy extends Permissions {
 	public void setForwardingMinWindowSize(int forwardingMinWindowSize) {
 		this.forwardingMinWindowSize = forwardingMinWindowSize;
 	}
+
+	/**
+	 * Is data read from forwarding sockets sent directly from pooled buffers? When 
+	 * enabled, the socket is only read while the remote window has space and each
+	 * read becomes an SSH_MSG_CHANNEL_DATA message without being staged in the 
+	 * channel's data window or handed to the executor. Disabled by default.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isDirectForwarding() {
+		return directForwarding;
+	}
+
+	public void setDirectForwarding(boolean directForwarding) {
+		this.directForwarding = directForwarding;
+	}
 	
 	
 }
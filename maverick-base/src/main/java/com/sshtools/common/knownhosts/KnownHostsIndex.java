@@ -0,0 +1,298 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.knownhosts;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sshtools.common.knownhosts.KnownHostsKeyVerification.KeyEntry;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.SshHmac;
+import com.sshtools.common.util.Base64;
+import com.sshtools.common.util.Utils;
+
+/**
+ * Indexes the key entries of a known_hosts file by the host names they match.
+ * <p>
+ * Plain host names are held in a map. Hashed names are grouped by their salt so 
+ * that a candidate name is hashed once per distinct salt and then looked up, and 
+ * the outcome for each name is remembered until the hashed entries change. Entries 
+ * using wildcards, or any other name that cannot be matched by equality, are kept 
+ * in a separate list that is checked for every lookup.
+ * <p>
+ * The index only narrows the entries that need checking; callers still validate 
+ * each candidate. It is not thread safe for writes, and relies on the lock held 
+ * by {@link KnownHostsKeyVerification}. Lookups may run concurrently.
+ */
+class KnownHostsIndex {
+
+	static final int MAXIMUM_HASH_CACHE_SIZE = 4096;
+	static final int HASH_LENGTH = 20;
+	
+	private final Map<String,Set<KeyEntry>> byHostname = new HashMap<>();
+	private final Map<String,SaltBucket> hashedBySalt = new HashMap<>();
+	private final Set<KeyEntry> patterns = new LinkedHashSet<>();
+	private final Map<String,Set<KeyEntry>> hashCache = new ConcurrentHashMap<>();
+	
+	void add(KeyEntry entry) {
+		
+		String hashed = getHashedName(entry);
+		if(hashed!=null) {
+			if(addHashed(hashed, entry)) {
+				return;
+			}
+			patterns.add(entry);
+			return;
+		}
+		
+		boolean indexed = false;
+		for(String name : entry.names) {
+			if(name.startsWith("!")) {
+				continue;
+			}
+			if(!isPlainName(name)) {
+				patterns.add(entry);
+				return;
+			}
+			indexed = true;
+		}
+		
+		if(!indexed) {
+			/**
+			 * Only negated names, this entry can never match a host
+			 * but keep it where a lookup will still find it.
+			 */
+			patterns.add(entry);
+			return;
+		}
+		
+		for(String name : entry.names) {
+			if(!name.startsWith("!")) {
+				byHostname.computeIfAbsent(name, (k) -> new LinkedHashSet<>()).add(entry);
+			}
+		}
+	}
+	
+	void remove(KeyEntry entry) {
+		
+		if(patterns.remove(entry)) {
+			return;
+		}
+		
+		String hashed = getHashedName(entry);
+		if(hashed!=null) {
+			String[] parsed = parseHash(hashed);
+			SaltBucket bucket = hashedBySalt.get(parsed[0]);
+			if(bucket!=null) {
+				bucket.remove(parsed[1], entry);
+				if(bucket.isEmpty()) {
+					hashedBySalt.remove(parsed[0]);
+				}
+			}
+			hashCache.clear();
+			return;
+		}
+		
+		for(String name : entry.names) {
+			Set<KeyEntry> entries = byHostname.get(name);
+			if(entries!=null) {
+				entries.remove(entry);
+				if(entries.isEmpty()) {
+					byHostname.remove(name);
+				}
+			}
+		}
+	}
+	
+	void clear() {
+		byHostname.clear();
+		hashedBySalt.clear();
+		patterns.clear();
+		hashCache.clear();
+	}
+	
+	/**
+	 * Get the entries that may match any of the names provided, in no particular order.
+	 * 
+	 * @param names
+	 * @return entries
+	 * @throws SshException
+	 */
+	Set<KeyEntry> getCandidates(String... names) throws SshException {
+		
+		Set<KeyEntry> candidates = new LinkedHashSet<>();
+		for(String name : names) {
+			Set<KeyEntry> entries = byHostname.get(name);
+			if(entries!=null) {
+				candidates.addAll(entries);
+			}
+		}
+		
+		if(!hashedBySalt.isEmpty()) {
+			SshHmac sha1 = null;
+			for(String name : names) {
+				Set<KeyEntry> entries = hashCache.get(name);
+				if(entries==null) {
+					if(sha1==null) {
+						sha1 = ComponentManager.getInstance().supportedHMacsCS().getInstance("hmac-sha1");
+					}
+					entries = matchHashed(sha1, name);
+					if(hashCache.size() >= MAXIMUM_HASH_CACHE_SIZE) {
+						hashCache.clear();
+					}
+					hashCache.put(name, entries);
+				}
+				candidates.addAll(entries);
+			}
+		}
+		
+		candidates.addAll(patterns);
+		return candidates;
+	}
+	
+	private Set<KeyEntry> matchHashed(SshHmac sha1, String name) throws SshException {
+		
+		Set<KeyEntry> matches = null;
+		byte[] data = Utils.getUTF8Bytes(name);
+		for(SaltBucket bucket : hashedBySalt.values()) {
+			sha1.init(bucket.salt);
+			sha1.update(data);
+			Set<KeyEntry> entries = bucket.entries.get(Base64.encodeBytes(sha1.doFinal(), false));
+			if(entries!=null) {
+				if(matches==null) {
+					matches = new LinkedHashSet<>();
+				}
+				matches.addAll(entries);
+			}
+		}
+		return matches==null ? Collections.<KeyEntry>emptySet() : Collections.unmodifiableSet(matches);
+	}
+	
+	private boolean addHashed(String name, KeyEntry entry) {
+		
+		String[] parsed = parseHash(name);
+		if(parsed==null) {
+			return false;
+		}
+		
+		SaltBucket bucket = hashedBySalt.get(parsed[0]);
+		if(bucket==null) {
+			bucket = new SaltBucket(Base64.decode(parsed[0]));
+			hashedBySalt.put(parsed[0], bucket);
+		}
+		bucket.add(parsed[1], entry);
+		hashCache.clear();
+		return true;
+	}
+	
+	/**
+	 * Matching only considers the first hashed name of an entry, so that 
+	 * is the only one indexed.
+	 */
+	private static String getHashedName(KeyEntry entry) {
+		for(String name : entry.names) {
+			if(name.startsWith(KnownHostsKeyVerification.HASH_MAGIC)) {
+				return name;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Parse a hashed name into its salt and hash, both normalised to unbroken Base64. Names 
+	 * that are not well formed HMAC-SHA1 hashes are left to be checked like patterns.
+	 */
+	private static String[] parseHash(String name) {
+		
+		String hashData = name.substring(KnownHostsKeyVerification.HASH_MAGIC.length());
+		int idx = hashData.indexOf(KnownHostsKeyVerification.HASH_DELIM);
+		if(idx == -1) {
+			return null;
+		}
+		
+		try {
+			byte[] salt = Base64.decode(hashData.substring(0, idx));
+			byte[] hash = Base64.decode(hashData.substring(idx + 1));
+			if(salt==null || hash==null || salt.length!=HASH_LENGTH || hash.length!=HASH_LENGTH) {
+				return null;
+			}
+			return new String[] { Base64.encodeBytes(salt, false), Base64.encodeBytes(hash, false) };
+		} catch(RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * A name is plain if matching it as a pattern is the same as testing it for equality.
+	 */
+	static boolean isPlainName(String name) {
+		for(int i=0;i<name.length();i++) {
+			switch(name.charAt(i)) {
+			case '*':
+			case '?':
+			case '\\':
+			case '^':
+			case '$':
+			case '|':
+			case '+':
+			case '(':
+			case ')':
+			case '{':
+			case '}':
+				return false;
+			default:
+			}
+		}
+		return true;
+	}
+	
+	static class SaltBucket {
+		
+		final byte[] salt;
+		final Map<String,Set<KeyEntry>> entries = new LinkedHashMap<>();
+		
+		SaltBucket(byte[] salt) {
+			this.salt = salt;
+		}
+		
+		void add(String hash, KeyEntry entry) {
+			entries.computeIfAbsent(hash, (k) -> new LinkedHashSet<>()).add(entry);
+		}
+		
+		void remove(String hash, KeyEntry entry) {
+			Set<KeyEntry> hashed = entries.get(hash);
+			if(hashed!=null) {
+				hashed.remove(entry);
+				if(hashed.isEmpty()) {
+					entries.remove(hash);
+				}
+			}
+		}
+		
+		boolean isEmpty() {
+			return entries.isEmpty();
+		}
+	}
+}
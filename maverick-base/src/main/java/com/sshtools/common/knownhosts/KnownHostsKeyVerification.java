@@ -36,6 +36,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,6 +58,12 @@ import com.sshtools.common.util.Utils;
  * class implementation providing validation against the known_hosts format.
  * </p>
  * 
+ * <p>
+ * Entries are indexed by host name, so verification does not need to examine
+ * every entry. Verification takes a shared lock and may run concurrently; loading
+ * and changing entries takes an exclusive lock.
+ * </p>
+ * 
  * @author Lee David Painter
  */
 public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUpdater {
@@ -64,15 +73,18 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	Set<KeyEntry> revokedEntries = new LinkedHashSet<>();
 	Map<SshPublicKey, List<KeyEntry>> entriesByPublicKey = new HashMap<>();
 	List<CertAuthorityEntry> certificateAuthorities = new ArrayList<>();
+	KnownHostsIndex index = new KnownHostsIndex();
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
 // Hashed support
-	private boolean hashHosts = false;
+	private volatile boolean hashHosts = false;
 	private boolean useCanonicalHostname = System.getProperty("maverick.knownHosts.enableReverseDNS", "true")
 			.equalsIgnoreCase("true");
 	private boolean useReverseDNS = System.getProperty("maverick.knownHosts.enableReverseDNS", "true")
 			.equalsIgnoreCase("true");
-	private static final String HASH_MAGIC = "|1|";
-	private static final String HASH_DELIM = "|";
+	static final String HASH_MAGIC = "|1|";
+	static final String HASH_DELIM = "|";
 
 	Pattern nonStandard = Pattern.compile("\\[([^\\]]+)\\]:([\\d]{1,5})");
 
@@ -87,15 +99,30 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	public KnownHostsKeyVerification() {
 	}
 
-	public synchronized void clear() {
-		entries.clear();
-		keyEntries.clear();
-		revokedEntries.clear();
-		entriesByPublicKey.clear();
-		certificateAuthorities.clear();
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entries.clear();
+			keyEntries.clear();
+			revokedEntries.clear();
+			entriesByPublicKey.clear();
+			certificateAuthorities.clear();
+			index.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
-	public synchronized void load(InputStream in) throws SshException, IOException {
+	public void load(InputStream in) throws SshException, IOException {
+		lock.writeLock().lock();
+		try {
+			doLoad(in);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void doLoad(InputStream in) throws SshException, IOException {
 
 		clear();
 		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
@@ -229,6 +256,7 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 		if (entry instanceof RevokedEntry) {
 			revokedEntries.add(entry);
 		}
+		index.add(entry);
 		onHostKeyAdded(getNames(entry.getNames()), entry.getKey());
 	}
 
@@ -236,12 +264,17 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 	}
 
-	public synchronized void setComment(KeyEntry entry, String comment) {
+	public void setComment(KeyEntry entry, String comment) {
 
-		if (!keyEntries.contains(entry)) {
-			throw new IllegalArgumentException("KeyEntry provided is no longer in this known_hosts file.");
+		lock.writeLock().lock();
+		try {
+			if (!keyEntries.contains(entry)) {
+				throw new IllegalArgumentException("KeyEntry provided is no longer in this known_hosts file.");
+			}
+			entry.comment = comment;
+		} finally {
+			lock.writeLock().unlock();
 		}
-		entry.comment = comment;
 	}
 
 	private boolean loadSsh1PublicKey(String host, String algorithm, StringTokenizer tokens, String line)
@@ -279,7 +312,7 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 		return true;
 	}
 
-	public synchronized void setHashHosts(boolean hashHosts) {
+	public void setHashHosts(boolean hashHosts) {
 		this.hashHosts = hashHosts;
 	}
 
@@ -349,47 +382,71 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	 * 
 	 * @since 0.2.0
 	 */
-	public synchronized void removeEntries(String host) throws SshException {
-
-		List<KeyEntry> toRemove = new ArrayList<>();
+	public void removeEntries(String host) throws SshException {
 
-		for (KeyEntry entry : getKeyEntries()) {
-			if (entry.matchesHost(host)) {
-				toRemove.add(entry);
+		lock.writeLock().lock();
+		try {
+			List<KeyEntry> toRemove = new ArrayList<>();
+	
+			for (KeyEntry entry : index.getCandidates(host)) {
+				if (entry.matchesHost(host)) {
+					toRemove.add(entry);
+				}
 			}
+	
+			removeEntry(toRemove.toArray(new KeyEntry[0]));
+		} finally {
+			lock.writeLock().unlock();
 		}
-
-		removeEntry(toRemove.toArray(new KeyEntry[0]));
 	}
 
-	public synchronized void removeEntries(String... hosts) throws SshException {
-		for (String host : hosts) {
-			removeEntries(host);
+	public void removeEntries(String... hosts) throws SshException {
+		lock.writeLock().lock();
+		try {
+			for (String host : hosts) {
+				removeEntries(host);
+			}
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 
-	public synchronized void removeEntries(SshPublicKey key) {
-
-		List<KeyEntry> toRemove = entriesByPublicKey.get(key);
-		removeEntry(toRemove.toArray(new KeyEntry[0]));
-	}
-
-	public synchronized void removeEntry(KeyEntry... keys) {
-
-		List<KeyEntry> toRemove = Arrays.asList(keys);
-
-		keyEntries.removeAll(toRemove);
-		revokedEntries.removeAll(toRemove);
-		entries.removeAll(toRemove);
+	public void removeEntries(SshPublicKey key) {
 
-		for (Map.Entry<SshPublicKey, List<KeyEntry>> entry : entriesByPublicKey.entrySet()) {
-			entry.getValue().removeAll(toRemove);
+		lock.writeLock().lock();
+		try {
+			List<KeyEntry> toRemove = entriesByPublicKey.get(key);
+			removeEntry(toRemove.toArray(new KeyEntry[0]));
+		} finally {
+			lock.writeLock().unlock();
 		}
+	}
 
-		certificateAuthorities.removeAll(toRemove);
+	public void removeEntry(KeyEntry... keys) {
 
-		for (KeyEntry entry : keys) {
-			onHostKeyRemoved(getNames(entry.getNames()), entry.getKey());
+		lock.writeLock().lock();
+		try {
+			List<KeyEntry> toRemove = Arrays.asList(keys);
+	
+			keyEntries.removeAll(toRemove);
+			revokedEntries.removeAll(toRemove);
+			entries.removeAll(toRemove);
+	
+			for (Map.Entry<SshPublicKey, List<KeyEntry>> entry : entriesByPublicKey.entrySet()) {
+				entry.getValue().removeAll(toRemove);
+			}
+	
+			certificateAuthorities.removeAll(toRemove);
+	
+			for (KeyEntry entry : keys) {
+				index.remove(entry);
+			}
+			
+			for (KeyEntry entry : keys) {
+				onHostKeyRemoved(getNames(entry.getNames()), entry.getKey());
+			}
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 
@@ -405,14 +462,19 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 		addEntry(key, "", resolveNames(host).toArray(new String[0]));
 	}
 
-	public synchronized void addEntry(SshPublicKey key, String comment, String... names) throws SshException {
+	public void addEntry(SshPublicKey key, String comment, String... names) throws SshException {
 
-		if (useHashHosts()) {
-			for (String name : names) {
-				addEntry(new Ssh2KeyEntry(new HashSet<String>(Arrays.asList(generateHash(name))), key, comment));
+		lock.writeLock().lock();
+		try {
+			if (useHashHosts()) {
+				for (String name : names) {
+					addEntry(new Ssh2KeyEntry(new HashSet<String>(Arrays.asList(generateHash(name))), key, comment));
+				}
+			} else {
+				addEntry(new Ssh2KeyEntry(new HashSet<String>(Arrays.asList(names)), key, comment));
 			}
-		} else {
-			addEntry(new Ssh2KeyEntry(new HashSet<String>(Arrays.asList(names)), key, comment));
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 
@@ -436,36 +498,30 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	 * 
 	 * @since 0.2.0
 	 */
-	public synchronized boolean verifyHost(String host, SshPublicKey pk) throws SshException {
+	public boolean verifyHost(String host, SshPublicKey pk) throws SshException {
 		return verifyHost(host, pk, true);
 	}
 
-	private synchronized boolean verifyHost(String host, SshPublicKey pk, boolean validateUnknown) throws SshException {
+	private boolean verifyHost(String host, SshPublicKey pk, boolean validateUnknown) throws SshException {
 
-		Set<String> resolvedNames = resolveNames(host);
+		String[] resolvedNames = resolveNames(host).toArray(new String[0]);
 
-		for (KeyEntry entry : revokedEntries) {
-			if (entry.validate(pk, resolvedNames.toArray(new String[0]))) {
-				onRevokedKey(host, pk);
-				return false;
-			}
-		}
-
-		if (entriesByPublicKey.containsKey(pk)) {
-			List<KeyEntry> keys = entriesByPublicKey.get(pk);
-			for (KeyEntry entry : keys) {
-				if (entry.validate(pk, resolvedNames.toArray(new String[0]))) {
-					return true;
-				}
-			}
+		/**
+		 * Callbacks are made without the lock held so that they may add or remove entries.
+		 */
+		Boolean result;
+		lock.readLock().lock();
+		try {
+			result = checkHost(pk, resolvedNames);
+		} finally {
+			lock.readLock().unlock();
 		}
-
-		if (pk instanceof OpenSshCertificate) {
-			for (CertAuthorityEntry ca : certificateAuthorities) {
-				if (ca.validate(pk, resolvedNames.toArray(new String[0]))) {
-					return true;
-				}
+		
+		if (result != null) {
+			if (!result) {
+				onRevokedKey(host, pk);
 			}
+			return result;
 		}
 
 // The host is unknown os ask the user
@@ -479,6 +535,29 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 	}
 
+	/**
+	 * Check the key against the entries matching the host. Returns false if the key
+	 * has been revoked, true if it is allowed, or null if the host is unknown.
+	 */
+	private Boolean checkHost(SshPublicKey pk, String... resolvedNames) throws SshException {
+		
+		Set<KeyEntry> candidates = index.getCandidates(resolvedNames);
+		
+		for (KeyEntry entry : candidates) {
+			if (entry.isRevoked() && entry.validate(pk, resolvedNames)) {
+				return Boolean.FALSE;
+			}
+		}
+
+		for (KeyEntry entry : candidates) {
+			if (!entry.isRevoked() && entry.validate(pk, resolvedNames)) {
+				return Boolean.TRUE;
+			}
+		}
+		
+		return null;
+	}
+	
 	protected Set<String> resolveNames(String host) {
 
 		String fqn = null;
@@ -583,14 +662,19 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	 * @since 0.2.0
 	 */
 
-	public synchronized String toString() {
+	public String toString() {
 
-		StringBuffer buf = new StringBuffer("");
-		for (HostFileEntry entry : entries) {
-			buf.append(entry.getFormattedLine());
-			buf.append(System.getProperty("line.separator"));
+		lock.readLock().lock();
+		try {
+			StringBuffer buf = new StringBuffer("");
+			for (HostFileEntry entry : entries) {
+				buf.append(entry.getFormattedLine());
+				buf.append(System.getProperty("line.separator"));
+			}
+			return buf.toString();
+		} finally {
+			lock.readLock().unlock();
 		}
-		return buf.toString();
 	}
 
 	public abstract class HostFileEntry {
@@ -609,6 +693,7 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 		Set<String> names;
 		SshPublicKey key;
 		boolean hashedEntry = false;
+		Map<String, Pattern> patterns = new ConcurrentHashMap<>();
 
 		KeyEntry(Set<String> names, SshPublicKey key, String comment) {
 			this.names = names;
@@ -693,6 +778,19 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 		boolean matches(String name, String... resolvedNames) {
 
+			Pattern pattern = patterns.computeIfAbsent(name, (n) -> Pattern.compile(toRegex(n)));
+
+			for (String resolvedName : resolvedNames) {
+				if (pattern.matcher(resolvedName).matches()) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		String toRegex(String name) {
+
 			// First escape any dots
 			name = name.replace(".", "\\.");
 			name = name.replace("[", "\\[");
@@ -706,13 +804,7 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 				name = name.replace("?", ".");
 			}
 
-			for (String resolvedName : resolvedNames) {
-				if (resolvedName.matches(name)) {
-					return true;
-				}
-			}
-
-			return false;
+			return name;
 		}
 
 		public String getComment() {
@@ -913,22 +1005,27 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 		KeyEntry existingEntry = null;
 		Set<String> names = resolveNames(host);
 
-		for (KeyEntry e : getKeyEntries()) {
-			if (e.isHashedEntry()) {
-				if (e.matchesHash(e.getNames(), names.toArray(new String[0]))) {
+		lock.writeLock().lock();
+		try {
+			for (KeyEntry e : index.getCandidates(names.toArray(new String[0]))) {
+				if (e.isHashedEntry()) {
+					if (e.matchesHash(e.getNames(), names.toArray(new String[0]))) {
+						existingEntry = e;
+					}
+				} else if (e.matchesHost(names.toArray(new String[0]))) {
 					existingEntry = e;
 				}
-			} else if (e.matchesHost(names.toArray(new String[0]))) {
-				existingEntry = e;
 			}
+	
+			if (existingEntry != null) {
+				removeEntries(host);
+			}
+	
+			addEntry(key, "", names.toArray(new String[0]));
+		} finally {
+			lock.writeLock().unlock();
 		}
 
-		if (existingEntry != null) {
-			removeEntries(host);
-		}
-
-		addEntry(key, "", names.toArray(new String[0]));
-
 		if (existingEntry != null) {
 			onHostKeyUpdated(names, key);
 		}
@@ -19,9 +19,11 @@
 /* HEADER */
 package com.sshtools.common.nio;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * Class that checks the idle state of another class.
@@ -72,6 +74,34 @@ public class IdleStateManager  {
      *
      * @return boolean
      */
+    public synchronized boolean isRegistered(IdleStateListener obj) {
+    	return listeners.containsKey(obj);
+    }
+
+    /**
+     * Move the listeners accepted by the filter to another manager, keeping the time 
+     * of their last activity.
+     * 
+     * @param target
+     * @param filter
+     */
+    public void transfer(IdleStateManager target, Predicate<IdleStateListener> filter) {
+    	Map<IdleStateListener, Long> moved = new HashMap<IdleStateListener, Long>();
+    	synchronized(this) {
+	    	for(Iterator<Map.Entry<IdleStateListener, Long>> it = listeners.entrySet().iterator();
+	    			it.hasNext();) {
+	    		Map.Entry<IdleStateListener, Long> entry = it.next();
+	    		if(filter.test(entry.getKey())) {
+	    			moved.put(entry.getKey(), entry.getValue());
+	    			it.remove();
+	    		}
+	    	}
+    	}
+    	synchronized(target) {
+    		target.listeners.putAll(moved);
+    	}
+    }
+
     public boolean isReady() {
         return ((System.currentTimeMillis() - lastService) / 1000) >= servicePeriodSeconds;
     }
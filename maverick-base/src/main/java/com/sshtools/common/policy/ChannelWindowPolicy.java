@@ -0,0 +1,89 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.policy;
+
+/**
+ * Controls the automatic tuning of channel windows. When enabled, the window
+ * advertised to the remote side of each channel is grown towards twice the 
+ * bandwidth-delay product measured on that channel, so that a single stream 
+ * over a high latency link is not limited by the statically configured window.
+ * Growth is bounded per channel, per connection and across all connections.
+ */
+public class ChannelWindowPolicy {
+
+	boolean autoTuning = false;
+	int maximumWindowSize = 16 * 1024 * 1024;
+	long connectionWindowBudget = 64 * 1024 * 1024;
+	
+	/**
+	 * Is window auto-tuning enabled?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isAutoTuning() {
+		return autoTuning;
+	}
+
+	/**
+	 * Enable or disable window auto-tuning. This is disabled by default. 
+	 * 
+	 * @param autoTuning
+	 */
+	public void setAutoTuning(boolean autoTuning) {
+		this.autoTuning = autoTuning;
+	}
+
+	/**
+	 * Get the largest window that auto-tuning will advertise on a single channel.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumWindowSize() {
+		return maximumWindowSize;
+	}
+
+	/**
+	 * Set the largest window that auto-tuning will advertise on a single channel. 
+	 * 
+	 * @param maximumWindowSize
+	 */
+	public void setMaximumWindowSize(int maximumWindowSize) {
+		this.maximumWindowSize = maximumWindowSize;
+	}
+
+	/**
+	 * Get the total number of bytes that auto-tuning may add to the configured windows 
+	 * of all channels on a single connection.
+	 * 
+	 * @return long
+	 */
+	public long getConnectionWindowBudget() {
+		return connectionWindowBudget;
+	}
+
+	/**
+	 * Set the total number of bytes that auto-tuning may add to the configured windows 
+	 * of all channels on a single connection.
+	 * 
+	 * @param connectionWindowBudget
+	 */
+	public void setConnectionWindowBudget(long connectionWindowBudget) {
+		this.connectionWindowBudget = connectionWindowBudget;
+	}
+}
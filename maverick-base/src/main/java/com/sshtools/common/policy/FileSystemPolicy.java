@@ -50,6 +50,7 @@ public class FileSystemPolicy extends Permissions {
 	List<SftpExtensionFactory> sftpExtensionFactories = new ArrayList<SftpExtensionFactory>();
 	boolean closeFileBeforeFailedTransferEvents = false;
 	boolean mkdirParentMustExist = true;
+	int sftpHandleQueues = 0;
 	
 	private int sftpMaxPacketSize = 65536;
 	private int sftpMaxWindowSize = 1024000;
@@ -243,4 +244,30 @@ public class FileSystemPolicy extends Permissions {
 	public boolean isMkdirParentMustExist() {
 		return mkdirParentMustExist;
 	}
+	
+	/**
+	 * Get the number of queues used to process SFTP requests that operate on an open handle. When
+	 * this is zero (the default) all requests in a session are processed one at a time, in the
+	 * order they are received.
+	 * 
+	 * @return int
+	 */
+	public int getSFTPHandleQueues() {
+		return sftpHandleQueues;
+	}
+	
+	/**
+	 * Process SFTP requests concurrently. Requests that operate on an open handle (read, write,
+	 * readdir, fstat, fsetstat and close) are distributed across this number of queues by handle. 
+	 * Requests on the same handle are serialised and processed in the order they were received, 
+	 * while requests on different handles may run concurrently. All other requests are processed 
+	 * in order on a separate queue, and never at the same time as a request on a handle; each waits 
+	 * for every earlier request on a handle to complete, and a request on a handle waits for every 
+	 * earlier request that is not. Set to zero to disable.
+	 * 
+	 * @param sftpHandleQueues int
+	 */
+	public void setSFTPHandleQueues(int sftpHandleQueues) {
+		this.sftpHandleQueues = sftpHandleQueues;
+	}
 }
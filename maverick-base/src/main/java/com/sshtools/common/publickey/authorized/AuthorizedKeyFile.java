@@ -28,9 +28,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -50,6 +52,8 @@ public class AuthorizedKeyFile {
 	
 	LinkedList<Entry<?>> allEntries = new LinkedList<Entry<?>>();
 	LinkedList<PublicKeyEntry> keyEntries = new LinkedList<PublicKeyEntry>();
+	Map<String,PublicKeyEntry> keysByFingerprint = new HashMap<String,PublicKeyEntry>();
+	LinkedList<PublicKeyEntry> unindexedEntries = new LinkedList<PublicKeyEntry>();
 
 	Set<String> supportedOptions = new HashSet<String>(Arrays.asList("agent-forwarding",
 		"cert-authority", "command", "environment", "from", "no-agent-forwarding",
@@ -87,7 +91,7 @@ public class AuthorizedKeyFile {
 					// SSH1 style public key string without any options
 					try {
 						addSSH1KeyEntry("", tokens[0], tokens[1], tokens[2], tokens.length > 3 ? tokens[3] : "");
-					} catch (SshException e) {
+					} catch (SshException | IllegalArgumentException e) {
 						addErrorEntry(line);
 					}
 					
@@ -95,21 +99,21 @@ public class AuthorizedKeyFile {
 					// SSH2 style public key string without any options
 					try {
 						addSSH2KeyEntry("", tokens[0], tokens[1], tokens.length > 2 ? tokens[2] : "");
-					} catch (SshException e) {
+					} catch (SshException | IllegalArgumentException e) {
 						addErrorEntry(line);
 					}
 				} else if(isNumeric(tokens[1]) && tokens.length >= 4) {
 					// SSH1 style public key string with options
 					try {
 						addSSH1KeyEntry(tokens[0], tokens[1], tokens[2], tokens[3], tokens.length > 4 ? tokens[4] : "");
-					} catch (SshException e) {
+					} catch (SshException | IllegalArgumentException e) {
 						addErrorEntry(line);
 					}
 				} else if(tokens.length > 2 && isBase64(tokens[2])) {
 					// SSH2 style public key string with options
 					try {
 						addSSH2KeyEntry(tokens[0], tokens[1], tokens[2], tokens.length > 3 ? tokens[3] : "");
-					} catch (SshException e) {
+					} catch (SshException | IllegalArgumentException e) {
 						addErrorEntry(line);
 					}
 				}
@@ -125,17 +129,18 @@ public class AuthorizedKeyFile {
 	}
 	
 	public boolean isAuthorizedKey(SshPublicKey key) {
-		
-		for(PublicKeyEntry k : keyEntries) {
-			if(k.getValue().equals(key)) {
-				return true;
-			}
-		}
-		return false;
+		return getKeyEntry(key) != null;
 	}
 	
 	public PublicKeyEntry getKeyEntry(SshPublicKey key){
-		for(PublicKeyEntry k : keyEntries) {
+		try {
+			PublicKeyEntry k = keysByFingerprint.get(key.getFingerprint());
+			if(k != null && k.getValue().equals(key)) {
+				return k;
+			}
+		} catch (SshException e) {
+		}
+		for(PublicKeyEntry k : unindexedEntries) {
 			if(k.getValue().equals(key)) {
 				return k;
 			}
@@ -143,6 +148,16 @@ public class AuthorizedKeyFile {
 		return null;
 	}
 	
+	private void addEntry(PublicKeyEntry entry) {
+		allEntries.addLast(entry);
+		keyEntries.addLast(entry);
+		try {
+			keysByFingerprint.putIfAbsent(entry.getValue().getFingerprint(), entry);
+		} catch (SshException e) {
+			unindexedEntries.addLast(entry);
+		}
+	}
+	
 	public Collection<PublicKeyEntry> getKeys() {
 		return Collections.unmodifiableCollection(keyEntries);
 	}
@@ -158,14 +173,29 @@ public class AuthorizedKeyFile {
 	}
 	
 	public void removeKey(PublicKeyEntry entry) {
+		if(entry == null) {
+			return;
+		}
 		keyEntries.remove(entry);
 		allEntries.remove(entry);
+		unindexedEntries.remove(entry);
+		try {
+			String fingerprint = entry.getValue().getFingerprint();
+			if(keysByFingerprint.remove(fingerprint, entry)) {
+				for(PublicKeyEntry k : keyEntries) {
+					if(k.getValue().getFingerprint().equals(fingerprint)) {
+						keysByFingerprint.put(fingerprint, k);
+						break;
+					}
+				}
+			}
+		} catch (SshException e) {
+		}
 	}
 	
 	public void addKey(SshPublicKey key, String comment) {
 		PublicKeyEntry entry = new PublicKeyEntry(key, new LinkedList<Option<?>>(), comment);
-		allEntries.addLast(entry);
-		keyEntries.addLast(entry);
+		addEntry(entry);
 	}
 	
 	public void addKey(SshPublicKey key, String comment, Option<?>... options) {
@@ -175,8 +205,7 @@ public class AuthorizedKeyFile {
 		PublicKeyEntry entry = new PublicKeyEntry(key, 
 				new LinkedList<Option<?>>(Arrays.asList(options)), 
 				comment);
-		allEntries.addLast(entry);
-		keyEntries.addLast(entry);
+		addEntry(entry);
 	}
 	
 	public void setOption(PublicKeyEntry entry, Option<?> option) {
@@ -240,8 +269,7 @@ public class AuthorizedKeyFile {
 			
 			PublicKeyEntry entry = new PublicKeyEntry(key, parsedOptions, comment);
 			
-			keyEntries.add(entry);
-			allEntries.add(entry);
+			addEntry(entry);
 	
 	}
 	
@@ -253,8 +281,7 @@ public class AuthorizedKeyFile {
 		
 		PublicKeyEntry entry = new PublicKeyEntry(key, parsedOptions, comment);
 		
-		keyEntries.add(entry);
-		allEntries.add(entry);
+		addEntry(entry);
 	}
 	
 	static String splitName(String option) {
@@ -316,8 +343,14 @@ public class AuthorizedKeyFile {
 				builtOptions.add(new NoArgOption(option));
 			} else if(option.equalsIgnoreCase("X11-forwarding")) {
 				builtOptions.add(new NoArgOption(option));
+			} else if(option.indexOf('=') > -1) {
+				builtOptions.add(new UnrecognisedOption(splitName(option), splitValue(option)));
 			} else {
-				throw new IllegalArgumentException(option + " not recognised");
+				/**
+				 * Newer servers add options such as no-touch-required; keep them 
+				 * rather than rejecting the key.
+				 */
+				builtOptions.add(new NoArgOption(option));
 			}
 		}
 		
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -394,6 +395,38 @@ public final class AbstractFileSystem {
 		throw new InvalidHandleException("The handle is invalid 2");
 	}
 
+	/**
+	 * Read from an open file directly into the remaining space of a buffer, advancing the position
+	 * of the buffer by the number of bytes read. Files that support random access are read at the 
+	 * offset without an intermediate copy.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param buf
+	 * @return the number of bytes read or -1 if the file is EOF
+	 */
+	public int readFile(byte[] handle, UnsignedInteger64 offset, ByteBuffer buf)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		String shandle = getHandle(handle);
+
+		if (openFiles.containsKey(shandle)) {
+			OpenFile file = openFiles.get(shandle);
+
+			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ) {
+
+				int read = file.read(buf, offset.longValue());
+
+				if (read >= 0) {
+					return read;
+				}
+				return -1;
+			}
+			throw new InvalidHandleException("The file handle was not opened for reading");
+
+		}
+		throw new InvalidHandleException("The handle is invalid 2");
+	}
+
 	public void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len)
 			throws InvalidHandleException, IOException, PermissionDeniedException {
 		String shandle = getHandle(handle);
@@ -713,6 +746,20 @@ public final class AbstractFileSystem {
 			}
 		}
 
+		public int read(ByteBuffer buf, long position) throws IOException, PermissionDeniedException {
+			if(closed) {
+				return -1;
+			}
+			if (raf == null || isTextMode()) {
+				if (!isTextMode() && getFilePointer() != position) {
+					seek(position);
+				}
+				return AbstractFileRandomAccess.readThroughArray(buf, this::read);
+			} else {
+				return raf.read(buf, position);
+			}
+		}
+
 		public void write(byte[] buf, int off, int len) throws IOException, PermissionDeniedException {
 			if(closed) {
 				throw new IOException("File has been closed.");
@@ -23,11 +23,12 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -55,6 +56,7 @@ import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.Subsystem;
 import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 import com.sshtools.common.util.Version;
@@ -71,12 +73,27 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	
 	public static final Integer SFTP_QUEUE = ExecutorOperationQueues.generateUniqueQueue("Subsystem.queue");
 	
+	static final int MAXIMUM_HANDLE_QUEUES = 32;
+	static final Integer[] SFTP_HANDLE_QUEUES = new Integer[MAXIMUM_HANDLE_QUEUES];
+	
+	static {
+		for(int i=0;i<MAXIMUM_HANDLE_QUEUES;i++) {
+			SFTP_HANDLE_QUEUES[i] = ExecutorOperationQueues.generateUniqueQueue("Subsystem.queue.handle" + i);
+		}
+	}
+	
 	private AbstractFileSystem nfs;
 	private List<SftpOperationWrapper> wrappers = new ArrayList<SftpOperationWrapper>();
 	private SshConnection con;
 	private boolean nfsClosed = false;
 	
 	int writeBlockSize = 4096;
+	int handleQueues = 0;
+	
+	final LinkedList<FileSystemOperation> deferredOperations = new LinkedList<FileSystemOperation>();
+	int runningHandleOperations = 0;
+	int runningPathOperations = 0;
+	boolean operationsClosed = false;
 	
 	// maximum version of SFTP protocol supported
 	static final int MAX_VERSION = 4;
@@ -103,6 +120,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		
 		this.filePolicy = context.getPolicy(FileSystemPolicy.class);
 		this.con = session.getConnection();
+		this.handleQueues = Math.max(0, Math.min(MAXIMUM_HANDLE_QUEUES, filePolicy.getSFTPHandleQueues()));
 		
 		// Check charset encoding
 		try {
@@ -133,6 +151,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	
 	protected void cleanupSubsystem() {
 
+		discardDeferredOperations();
+		
 		if (!nfsClosed) {
 
 			if(Log.isDebugEnabled()) {
@@ -263,21 +283,21 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		case SSH_FXP_READ: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READ");
-			executeOperation(SFTP_QUEUE, new ReadFileOperation(msg));
+			executeHandleOperation(msg, new ReadFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_WRITE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_WRITE");
-			executeOperation(SFTP_QUEUE, new WriteFileOperation(msg));
+			executeHandleOperation(msg, new WriteFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_READDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READDIR");
-			executeOperation(SFTP_QUEUE, new ReadDirectoryOperation(msg));
+			executeHandleOperation(msg, new ReadDirectoryOperation(msg));
 			break;
 		}
 
@@ -298,14 +318,14 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		case SSH_FXP_FSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSTAT");
-			executeOperation(SFTP_QUEUE, new FStatOperation(msg));
+			executeHandleOperation(msg, new FStatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_CLOSE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_CLOSE");
-			executeOperation(SFTP_QUEUE, new CloseFileOperation(msg));
+			executeHandleOperation(msg, new CloseFileOperation(msg));
 			break;
 		}
 
@@ -340,7 +360,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		case SSH_FXP_FSETSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSETSTAT");
-			executeOperation(SFTP_QUEUE, new SetFStatOperation(msg));
+			executeHandleOperation(msg, new SetFStatOperation(msg));
 			break;
 		}
 
@@ -382,6 +402,120 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		}
 	}
 
+	@Override
+	protected void executeOperation(Integer messageQueue, ConnectionAwareTask r) {
+		if(handleQueues > 0) {
+			if(r instanceof FileSystemOperation) {
+				executeOrderedOperation(messageQueue, (FileSystemOperation) r, false);
+			} else {
+				session.getConnection().addTask(messageQueue, r);
+			}
+		} else {
+			super.executeOperation(messageQueue, r);
+		}
+	}
+	
+	/**
+	 * Execute an operation on an open handle. When handle queues are enabled the operation is 
+	 * placed on the queue selected by its handle, so operations on the same handle complete in the 
+	 * order they were received but can run in parallel with operations on other handles.
+	 * 
+	 * @param msg
+	 * @param r
+	 */
+	protected void executeHandleOperation(byte[] msg, FileSystemOperation r) {
+		if(handleQueues > 0) {
+			executeOrderedOperation(SFTP_HANDLE_QUEUES[selectHandleQueue(msg)], r, true);
+		} else {
+			executeOperation(SFTP_QUEUE, r);
+		}
+	}
+	
+	/**
+	 * Handle operations run in parallel and path operations run in order on the SFTP queue,
+	 * but the two kinds never overlap. An operation waits until every earlier operation of
+	 * the other kind has completed, so a path operation such as a rename or stat always sees 
+	 * the result of the writes received before it, and a handle operation always sees the 
+	 * result of earlier path operations.
+	 */
+	private void executeOrderedOperation(Integer messageQueue, FileSystemOperation op, boolean handleOperation) {
+		op.queue = messageQueue;
+		op.handleOperation = handleOperation;
+		synchronized(deferredOperations) {
+			if(operationsClosed) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Discarding SFTP operation received after the subsystem closed");
+				}
+				op.msg = null;
+				return;
+			}
+			if(deferredOperations.isEmpty() && canStartOperation(op)) {
+				startOperation(op);
+			} else {
+				deferredOperations.addLast(op);
+			}
+		}
+	}
+	
+	private boolean canStartOperation(FileSystemOperation op) {
+		return op.handleOperation ? runningPathOperations == 0 : runningHandleOperations == 0;
+	}
+	
+	private void startOperation(FileSystemOperation op) {
+		if(op.handleOperation) {
+			runningHandleOperations++;
+		} else {
+			runningPathOperations++;
+		}
+		session.getConnection().addTask(op.queue, op);
+	}
+	
+	private void completedOrderedOperation(FileSystemOperation op) {
+		synchronized(deferredOperations) {
+			if(op.handleOperation) {
+				runningHandleOperations--;
+			} else {
+				runningPathOperations--;
+			}
+			while(!deferredOperations.isEmpty() && canStartOperation(deferredOperations.getFirst())) {
+				startOperation(deferredOperations.removeFirst());
+			}
+		}
+	}
+	
+	/**
+	 * The subsystem is closing, so operations still waiting for earlier operations will never
+	 * be answered. Discard them now rather than start them later against a closed file system.
+	 */
+	private void discardDeferredOperations() {
+		synchronized(deferredOperations) {
+			operationsClosed = true;
+			if(!deferredOperations.isEmpty()) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Discarding {} SFTP operations waiting when the subsystem closed", deferredOperations.size());
+				}
+				for(FileSystemOperation op : deferredOperations) {
+					op.msg = null;
+				}
+				deferredOperations.clear();
+			}
+		}
+	}
+	
+	private int selectHandleQueue(byte[] msg) {
+		
+		// Messages on a handle start with type, request id then the handle string
+		int hash = 0;
+		if(msg.length >= 9) {
+			long length = ByteArrayReader.readInt(msg, 5);
+			int end = (int) Math.min(msg.length, 9 + length);
+			for(int i=9;i<end;i++) {
+				hash = 31 * hash + msg[i];
+			}
+		}
+		return (hash & 0x7FFFFFFF) % handleQueues;
+	}
+	
 	class ExtendedMessageOperation extends FileSystemOperation {
 		
 		SftpExtension ext;
@@ -977,7 +1111,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					
 					openFileHandles.put(evt.key, evt);
 					if(!openFilesByContext.containsKey(getContext())) {
-						openFilesByContext.put(getContext(), new HashSet<String>());
+						openFilesByContext.putIfAbsent(getContext(), ConcurrentHashMap.newKeySet());
 					}
 					openFilesByContext.get(getContext()).add(evt.key);
 					if(Log.isDebugEnabled()) {
@@ -1195,17 +1329,18 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				evt = (TransferEvent) openFileHandles.get(h);
 
 				UnsignedInteger64 offset = bar.readUINT64();
-				int count = (int) bar.readInt();
+				
+				// The length is unsigned; never read more than the largest packet we accept 
+				int count = (int) Math.min(bar.readInt(), filePolicy.getSftpMaxPacketSize());
 
-				// Construct the correct size packet and read the file
-				Packet reply = new Packet(count + 13);
+				// Read the file straight into a pooled buffer, leaving space for the length, type, id and data length
+				ByteBufferPool pool = context.getByteBufferPool();
+				ByteBuffer reply = pool.get(count + 13);
+				boolean release = true;
 				try {
-					reply.write(SSH_FXP_DATA);
-					reply.writeInt(id);
-	
-					// Save the current position so we can update the length later
-					int position = reply.position();
-					reply.writeInt(0);
+					reply.clear();
+					reply.position(13);
+					reply.limit(13 + count);
 	
 					if(Log.isDebugEnabled())
 						Log.debug("Remote client wants " + String.valueOf(count)
@@ -1214,8 +1349,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								+ " remotewindow=" + session.getRemoteWindow());
 	
 					// Read from the file
-					count = nfs.readFile(handle, offset, reply.array(),
-							reply.position(), count);
+					count = nfs.readFile(handle, offset, reply);
 	
 					if (count == -1) {
 						if (Log.isDebugEnabled()) {
@@ -1230,10 +1364,13 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						if(Log.isDebugEnabled())
 							Log.debug("Read " + count + " bytes from filesystem");
 	
-						// Update the position and write the correct length
-						position = reply.setPosition(position);
-						reply.writeInt(count);
-						reply.setPosition(position + count);
+						// Write the header now we know the length
+						reply.putInt(0, count + 9);
+						reply.put(4, (byte) SSH_FXP_DATA);
+						reply.putInt(5, id);
+						reply.putInt(9, count);
+						reply.limit(13 + count);
+						reply.position(0);
 	
 						try {
 							if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
@@ -1260,7 +1397,9 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
 							}
-							sendMessage(reply);
+							// The channel owns the buffer from here and returns it once it is done with it
+							release = false;
+							sendMessage(reply, () -> pool.add(reply));
 							
 						} catch(SftpStatusEventException ex) {
 							sendStatusMessage(id, ex.getStatus(), ex.getMessage());
@@ -1268,9 +1407,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						
 					}
 				} finally {
-					try {
-						reply.close();
-					} catch (IOException e) {
+					if(release) {
+						pool.add(reply);
 					}
 				}
 				
@@ -2382,6 +2520,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	abstract class FileSystemOperation extends ConnectionAwareTask {
 		protected byte[] msg;
+		Integer queue;
+		boolean handleOperation;
 
 		FileSystemOperation(byte[] msg) {
 			super(SftpSubsystem.this.session.getConnection());
@@ -2417,6 +2557,9 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					onFreeMessage(msg);
 				}
 				msg = null;
+				if(queue!=null) {
+					completedOrderedOperation(this);
+				}
 			}
 			
 		}
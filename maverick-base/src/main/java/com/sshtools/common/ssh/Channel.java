@@ -19,6 +19,8 @@
 package com.sshtools.common.ssh;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 public interface Channel {
 
@@ -32,6 +34,46 @@ public interface Channel {
 
 	void sendData(byte[] array, int i, int size) throws IOException;
 
+	/**
+	 * Send the remaining data in a buffer. The buffer may be reused by the caller once this 
+	 * method returns.
+	 * 
+	 * @param data
+	 * @throws IOException
+	 */
+	default void sendData(ByteBuffer data) throws IOException {
+		if(data.hasArray()) {
+			sendData(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		} else {
+			byte[] tmp = new byte[data.remaining()];
+			data.get(tmp);
+			sendData(tmp, 0, tmp.length);
+		}
+	}
+
+	/**
+	 * Send the remaining data in a buffer without waiting for the remote window. The returned
+	 * future completes once all of the data has been written to the transport, or completes
+	 * exceptionally if the channel closes first. The buffer must not be modified by the caller 
+	 * until the future has completed.
+	 * <p>
+	 * The default implementation sends the data synchronously and returns a completed future.
+	 * 
+	 * @param data
+	 * @return CompletableFuture<Void>
+	 */
+	default CompletableFuture<Void> sendDataAsync(ByteBuffer data) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		try {
+			sendData(data);
+			future.complete(null);
+		} catch(IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
 	void sendWindowAdjust(int bytesSinceLastWindowIssue);
 
 	boolean isClosed();
@@ -18,13 +18,14 @@
  */
 package com.sshtools.common.ssh;
 
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.common.logger.Log;
+import com.sshtools.common.util.MpscLinkedQueue;
 
 public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider> {
 
@@ -33,10 +34,10 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 	public static final Integer EVENTS = ExecutorOperationQueues.generateUniqueQueue("ExecutorOperationSupport.events");
 	public static final Integer CALLBACKS = ExecutorOperationQueues.generateUniqueQueue("ExecutorOperationSupport.callbacks");
 	
-	boolean shutdown = false;
+	volatile boolean shutdown = false;
 	String queueName;
 	
-	Map<Integer,OperationTask> operationQueues = new HashMap<Integer,OperationTask>();
+	Map<Integer,OperationTask> operationQueues = new ConcurrentHashMap<Integer,OperationTask>();
 	
 	protected ExecutorOperationSupport(String queueName) {
 		this.queueName = queueName;
@@ -53,26 +54,34 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 	}
 	
 	public void addTask(Integer queue, ConnectionAwareTask r) {
-		if(!operationQueues.containsKey(queue)) {
-			operationQueues.put(queue, new OperationTask());
+		OperationTask task = operationQueues.get(queue);
+		if(task==null) {
+			task = operationQueues.computeIfAbsent(queue, (q) -> new OperationTask());
 		}
-		operationQueues.get(queue).addTask(r);
+		task.addTask(r);
 	}
 	
 	public void cleanupOperations(ConnectionAwareTask doCleanup) {
 		for(OperationTask task : operationQueues.values()) {
-			if(task.running) {
+			if(task.isRunning()) {
 				task.cleanupOperations();
 			}
 		}
 		addTask(ExecutorOperationSupport.EVENTS, doCleanup);
 	}
 
+	/**
+	 * Executes the tasks of a single operation queue in order. Any thread may add
+	 * tasks to the lock-free queue, and at most one run of this task is scheduled 
+	 * on the executor at a time. A producer only submits the task when it changes
+	 * the running flag from false to true, so an already running consumer is never 
+	 * woken or contended with; it picks up new tasks on its next poll.
+	 */
 	class OperationTask implements Runnable {
 
-		boolean running = false;
-		Future<?> operationFuture = null;
-		LinkedList<Runnable> subsystemOperations = new LinkedList<Runnable>();
+		final AtomicBoolean running = new AtomicBoolean();
+		volatile Future<?> operationFuture = null;
+		final MpscLinkedQueue<Runnable> subsystemOperations = new MpscLinkedQueue<Runnable>();
 
 		public void run() {
 
@@ -85,62 +94,56 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 				executeAllTasks();
 
 				if(Log.isTraceEnabled()) {
-					Log.trace("{}: No more tasks, will wait for a few more seconds before completing task", queueName);
+					Log.trace("{}: No more tasks, operation task will complete", queueName);
 				}
 
-				synchronized (this) {
-					running = !subsystemOperations.isEmpty();
-				}
-
-			} while (running);
+				running.set(false);
+				
+				/**
+				 * A producer that added a task after we drained the queue but before
+				 * we cleared the flag will not have scheduled us, so take the flag 
+				 * back if there is more work. If the CAS fails another producer has 
+				 * already scheduled a new run which will process it.
+				 */
+			} while (!subsystemOperations.isEmpty() && running.compareAndSet(false, true));
 
 			if(Log.isTraceEnabled()) {
-				Log.trace("{}: Operation task has ended");
+				Log.trace("{}: Operation task has ended", queueName);
 			}
 		}
 
-		public synchronized void addTask(Runnable r) {
+		boolean isRunning() {
+			return running.get();
+		}
+		
+		public void addTask(Runnable r) {
 
-			subsystemOperations.addLast(r);
+			subsystemOperations.offer(r);
 			
-			if (!running) {
-				running = true;
+			if (running.compareAndSet(false, true)) {
 				
 				if(Log.isTraceEnabled()) {
 					Log.trace("{}: Starting new subsystem task", queueName);
 				}
-				operationFuture = getContext().getExecutorService().submit(this);
-			} else {
-				notifyAll();
+				try {
+					operationFuture = getContext().getExecutorService().submit(this);
+				} catch(RuntimeException e) {
+					running.set(false);
+					throw e;
+				}
 			}
 		}
 
 		private void executeAllTasks() {
-			while (!subsystemOperations.isEmpty()) {
+			Runnable r;
+			while ((r = subsystemOperations.poll()) != null) {
 				try {
-					Runnable r = null;
-
-					synchronized (this) {
-						r = subsystemOperations.removeFirst();
-					}
-					if (r != null) {
-						try {
-							r.run();
-						} catch (Throwable t) {
-							t.printStackTrace();
-							Log.error("{}: Caught exception in operation remainingTasks={}", queueName, subsystemOperations.size(), t);
-						} 
-					} else {
-						if(Log.isWarnEnabled()) {
-							Log.warn("{}: Unexpected null task in operation queue", queueName);
-						}
-					}
+					r.run();
 				} catch (Throwable t) {
 					t.printStackTrace();
 					Log.error("{}: Caught exception in operation remainingTasks={}", queueName, subsystemOperations.size(), t);
-				}
+				} 
 			}
-
 		}
 		
 		protected synchronized void cleanupOperations() {
@@ -153,7 +156,8 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 
 				getContext().getExecutorService().submit(new Runnable() {
 					public void run() {
-						if (operationFuture != null) {
+						Future<?> future = operationFuture;
+						if (future != null) {
 				
 							if(Log.isTraceEnabled()) {
 								Log.trace("{}: Cleaning up operations", queueName);
@@ -163,7 +167,7 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 								if(Log.isTraceEnabled()) {
 									Log.trace("{}: Waiting for operations to complete", queueName);
 								}
-								operationFuture.get();
+								future.get();
 								if(Log.isTraceEnabled()) {
 									Log.trace("{}: All operations have completed", queueName);
 								}
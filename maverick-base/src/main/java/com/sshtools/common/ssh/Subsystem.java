@@ -20,7 +20,12 @@
 package com.sshtools.common.ssh;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -36,6 +41,12 @@ public abstract class Subsystem {
 	public static final Integer SUBSYSTEM_INCOMING = ExecutorOperationQueues.generateUniqueQueue("Subsystem.queue.in");
 	public static final Integer SUBSYSTEM_OUTGOING = ExecutorOperationQueues.generateUniqueQueue("Subsystem.queue.out");
 	
+	/**
+	 * How long to wait for a message to be sent before giving up, in milliseconds. This is the
+	 * same limit the channel places on blocking sends waiting for window space.
+	 */
+	static final long SEND_TIMEOUT = 120000;
+	
 	protected SessionChannel session;
 	protected Context context;
 	String name;
@@ -46,6 +57,7 @@ public abstract class Subsystem {
 	
 	boolean shutdown = false;
 	int bytesSinceLastWindowIssue = 0;
+	private final Object sendLock = new Object();
 	
 	public Subsystem(String name) {
 		this.name = name;
@@ -330,6 +342,46 @@ public abstract class Subsystem {
 		}
 	}
 
+	/**
+	 * Send a subsystem message that has already been prefixed with its length, waiting until
+	 * it has been sent. The channel owns the buffer from the moment this method is called, 
+	 * whether or not it returns normally; the release callback is run once the channel no longer 
+	 * references the buffer, and only then may it be reused. If the message has not been sent 
+	 * within two minutes, for example because the remote side has stopped adjusting the window, 
+	 * an IOException is thrown.
+	 * 
+	 * @param message
+	 * @param release
+	 * @throws IOException
+	 */
+	public void sendMessage(ByteBuffer message, Runnable release) throws IOException {
+		if (session.isClosed()) {
+			release.run();
+			throw new IOException("Failed to send subsystem packet, session closed");
+		} 
+		
+		if(Log.isTraceEnabled())
+			Log.trace("Sending subsystem packet of " + message.remaining()
+					+ " bytes");
+		
+		CompletableFuture<Void> sent;
+		synchronized(sendLock) {
+			sent = session.sendDataAsync(message);
+		}
+		sent.whenComplete((v, e) -> release.run());
+		
+		try {
+			sent.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new IOException("Timeout waiting for subsystem packet to be sent");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted whilst sending subsystem packet");
+		}
+	}
+	
 	private void doSendMessage(Packet packet) throws IOException {
 		if (session.isClosed()) {
 			throw new IOException("Failed to send subsystem packet, session closed");
@@ -338,11 +390,15 @@ public abstract class Subsystem {
 				Log.trace("Sending subsystem packet of " + packet.size()
 						+ " bytes");
 			packet.finish();
-			session.sendData(packet.array(), 0, packet.size());
+			// The channel releases its lock whilst waiting for window space so keep
+			// whole packets together when operations are sending concurrently
+			synchronized(sendLock) {
+				session.sendData(packet.array(), 0, packet.size());
+			}
 		}
 	}
 	
-	public void onFreeMessage(byte[] msg) {
+	public synchronized void onFreeMessage(byte[] msg) {
 	
 		if(maximumPacketSize < msg.length + 4) {
 			maximumPacketSize = msg.length + 4;
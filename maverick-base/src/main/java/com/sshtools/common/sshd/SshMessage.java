@@ -78,4 +78,16 @@ public interface SshMessage {
     public boolean writeMessageIntoBuffer(ByteBuffer buf);
 
     public void messageSent(Long sequenceNo) throws SshException;
+    
+    /**
+     * The maximum number of bytes this message will write into the buffer. The transport
+     * uses this to decide whether the message can be written into the same socket write 
+     * as the messages queued before it. Return -1 if the length is not known; the message
+     * will then only be written into an empty buffer.
+     * 
+     * @return int
+     */
+    default int getMaximumMessageLength() {
+    	return -1;
+    }
 }
@@ -28,6 +28,7 @@ import com.sshtools.common.knownhosts.HostKeyVerification;
 import com.sshtools.common.knownhosts.KnownHostsKeyVerification;
 import com.sshtools.common.publickey.SshKeyUtils;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshPublicKey;
 
 import junit.framework.TestCase;
 
@@ -152,4 +153,53 @@ public abstract class AbstractKnownHostsTests extends TestCase {
 		assertFalse(k.verifyHost("[127.0.0.1]:4022", SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/rsa1024.pub"))));
 		
 	}
+	
+	public void testAddedAndRemovedEntries() throws SshException, IOException {
+		
+		KnownHostsKeyVerification k = loadKnownHosts(getClass().getResourceAsStream("/known_hosts"));
+		k.setUseReverseDNS(false);
+		k.setUseCanonicalHostnames(false);
+		
+		SshPublicKey key = SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/rsa2048.pub"));
+		for(int i=0;i<1000;i++) {
+			k.addEntry(key, "", "host" + i + ".example.com");
+		}
+		
+		assertTrue(k.isKnownHost("host500.example.com", key));
+		assertFalse(k.isKnownHost("host1000.example.com", key));
+		
+		k.removeEntries("host500.example.com");
+		assertFalse(k.isKnownHost("host500.example.com", key));
+		assertTrue(k.isKnownHost("host501.example.com", key));
+		
+		k.removeEntries(key);
+		assertFalse(k.isKnownHost("host501.example.com", key));
+		assertTrue(k.isKnownHost("localhost", SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/rsa1024.pub"))));
+	}
+	
+	public void testAddedHashedEntries() throws SshException, IOException {
+		
+		KnownHostsKeyVerification k = loadKnownHosts(getClass().getResourceAsStream("/known_hosts"));
+		k.setUseReverseDNS(false);
+		k.setUseCanonicalHostnames(false);
+		k.setHashHosts(true);
+		
+		SshPublicKey key = SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/rsa2048.pub"));
+		SshPublicKey other = SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/dsa1024.pub"));
+		for(int i=0;i<100;i++) {
+			k.addEntry(key, "", "host" + i + ".example.com");
+		}
+		
+		assertFalse(k.isKnownHost("host100.example.com", key));
+		assertTrue(k.isKnownHost("host50.example.com", key));
+		assertFalse(k.isKnownHost("host50.example.com", other));
+		
+		k.updateHostKey("host50.example.com", other);
+		assertTrue(k.isKnownHost("host50.example.com", other));
+		assertFalse(k.isKnownHost("host50.example.com", key));
+		
+		k.removeEntries("host50.example.com");
+		assertFalse(k.isKnownHost("host50.example.com", other));
+		assertTrue(k.isKnownHost("host51.example.com", key));
+	}
 }
@@ -0,0 +1,95 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.IOException;
+
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.publickey.SshPublicKeyFileFactory;
+import com.sshtools.common.publickey.authorized.AuthorizedKeyFile;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshPublicKey;
+
+import junit.framework.TestCase;
+
+public class AuthorizedKeyFileTests extends TestCase {
+
+	private String format(SshPublicKey key, String comment) throws IOException {
+		return SshPublicKeyFileFactory.create(key, comment, SshPublicKeyFileFactory.OPENSSH_FORMAT).toString();
+	}
+	
+	public void testLookupWithOptions() throws IOException, SshException {
+		
+		SshPublicKey rsa = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.SSH2_RSA, 2048).getPublicKey();
+		SshPublicKey ed25519 = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519).getPublicKey();
+		SshPublicKey other = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		
+		AuthorizedKeyFile file = new AuthorizedKeyFile("# keys\n" 
+				+ format(rsa, "rsa") + "\n\n" 
+				+ "no-pty,command=\"echo hello, world\" " + format(ed25519, "ed25519") + "\n");
+		
+		assertTrue(file.isAuthorizedKey(rsa));
+		assertTrue(file.isAuthorizedKey(ed25519));
+		assertFalse(file.isAuthorizedKey(other));
+		assertFalse(file.getKeyEntry(ed25519).supportsPty());
+		assertTrue(file.getKeyEntry(rsa).supportsPty());
+	}
+	
+	/**
+	 * Options added by newer versions of OpenSSH are kept rather than rejected, and
+	 * a line that cannot be parsed does not stop the rest of the file being read.
+	 */
+	public void testUnrecognisedOptions() throws IOException, SshException {
+		
+		SshPublicKey rsa = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.SSH2_RSA, 2048).getPublicKey();
+		SshPublicKey ed25519 = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519).getPublicKey();
+		SshPublicKey ecdsa = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		SshPublicKey malformed = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		
+		String options = "no-touch-required,verify-required,expiry-time=\"20300101\",no-pty";
+		AuthorizedKeyFile file = new AuthorizedKeyFile(format(rsa, "rsa") + "\n" 
+				+ options + " " + format(ed25519, "ed25519") + "\n"
+				+ "tunnel " + format(malformed, "malformed") + "\n"
+				+ format(ecdsa, "ecdsa") + "\n");
+		
+		assertTrue(file.isAuthorizedKey(rsa));
+		assertTrue(file.isAuthorizedKey(ed25519));
+		assertTrue(file.isAuthorizedKey(ecdsa));
+		assertFalse(file.isAuthorizedKey(malformed));
+		assertFalse(file.getKeyEntry(ed25519).supportsPty());
+		
+		assertTrue(file.getFormattedFile().contains(options + " " + format(ed25519, "ed25519").trim()));
+	}
+	
+	public void testRemoveKey() throws IOException, SshException {
+		
+		SshPublicKey rsa = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.SSH2_RSA, 2048).getPublicKey();
+		SshPublicKey ecdsa = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		
+		AuthorizedKeyFile file = new AuthorizedKeyFile();
+		file.addKey(rsa, "rsa");
+		file.addKey(ecdsa, "ecdsa");
+		assertTrue(file.isAuthorizedKey(ecdsa));
+		
+		file.removeKeys(ecdsa);
+		assertFalse(file.isAuthorizedKey(ecdsa));
+		assertTrue(file.isAuthorizedKey(rsa));
+		assertEquals(1, file.getKeys().size());
+	}
+}
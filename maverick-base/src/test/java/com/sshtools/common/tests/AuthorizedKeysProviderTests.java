@@ -0,0 +1,142 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sshtools.common.auth.AuthorizedKeysPublicKeyAuthenticationProvider;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAdapter;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.publickey.SshPublicKeyFileFactory;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshPublicKey;
+import com.sshtools.common.util.IOUtils;
+
+import junit.framework.TestCase;
+
+public class AuthorizedKeysProviderTests extends TestCase {
+
+	static final String VIRTUAL_PATH = "/.ssh/authorized_keys";
+	
+	File root;
+	Map<String,File> homes = new HashMap<>();
+	
+	@Override
+	protected void setUp() throws Exception {
+		root = Files.createTempDirectory("authorized-keys").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		IOUtils.recurseDeleteDirectory(root);
+	}
+
+	/**
+	 * Every user sees their own file at the same virtual path. A key cached 
+	 * for one user must never authorize another.
+	 */
+	public void testUsersSharingAVirtualPathHaveSeparateKeys() throws IOException, SshException, PermissionDeniedException {
+		
+		SshPublicKey aliceKey = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		SshPublicKey bobKey = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		
+		File alice = writeKeys("alice", aliceKey);
+		File bob = writeKeys("bob", bobKey);
+		
+		/* Identical metadata so only the key distinguishes the two files */
+		assertEquals(alice.length(), bob.length());
+		assertTrue(bob.setLastModified(alice.lastModified()));
+		
+		AuthorizedKeysPublicKeyAuthenticationProvider provider = new VirtualPathProvider();
+		MockContext context = new MockContext();
+		SshConnection aliceCon = connection("alice", context);
+		SshConnection bobCon = connection("bob", context);
+		
+		assertTrue(provider.checkKey(aliceKey, aliceCon));
+		assertFalse(provider.checkKey(aliceKey, bobCon));
+		assertTrue(provider.checkKey(bobKey, bobCon));
+		assertFalse(provider.checkKey(bobKey, aliceCon));
+	}
+	
+	public void testChangedFileIsReloaded() throws IOException, SshException, PermissionDeniedException {
+		
+		SshPublicKey key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		SshPublicKey other = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256).getPublicKey();
+		
+		writeKeys("alice", key);
+		
+		AuthorizedKeysPublicKeyAuthenticationProvider provider = new VirtualPathProvider();
+		SshConnection con = connection("alice", new MockContext());
+		
+		assertTrue(provider.checkKey(key, con));
+		assertFalse(provider.checkKey(other, con));
+		
+		provider.add(other, "other", con);
+		assertTrue(provider.checkKey(other, con));
+		
+		provider.remove(key, con);
+		assertFalse(provider.checkKey(key, con));
+		assertTrue(provider.checkKey(other, con));
+	}
+	
+	private File writeKeys(String username, SshPublicKey key) throws IOException {
+		File home = new File(root, username);
+		File file = new File(home, ".ssh/authorized_keys");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), (SshPublicKeyFileFactory.create(key, "key", 
+				SshPublicKeyFileFactory.OPENSSH_FORMAT).toString() + "\n").getBytes("US-ASCII"));
+		homes.put(username, home);
+		return file;
+	}
+	
+	private SshConnection connection(String username, MockContext context) {
+		return new MockConnection(username, username, 
+				new InetSocketAddress("127.0.0.1", 22), new InetSocketAddress("127.0.0.1", 10000), context);
+	}
+	
+	/**
+	 * Resolves each user's file like a virtual file system would, reporting
+	 * the same path for every user.
+	 */
+	class VirtualPathProvider extends AuthorizedKeysPublicKeyAuthenticationProvider {
+		@Override
+		protected AbstractFile getFile(SshConnection con) throws PermissionDeniedException, IOException {
+			return new AbstractFileAdapter(new DirectFileFactory(homes.get(con.getUsername()))
+					.getFile(".ssh/authorized_keys")) {
+				@Override
+				public String getAbsolutePath() {
+					return VIRTUAL_PATH;
+				}
+				@Override
+				public String getCanonicalPath() {
+					return VIRTUAL_PATH;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.nio.ByteBuffer;
+
+import com.sshtools.common.util.ByteBufferPool;
+
+import junit.framework.TestCase;
+
+public class ByteBufferPoolTests extends TestCase {
+
+	public void testDirectFlagIsHonoured() {
+		
+		assertTrue(new ByteBufferPool(65536, true).get().isDirect());
+		assertFalse(new ByteBufferPool(65536, false).get().isDirect());
+	}
+	
+	public void testBuffersAreReused() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		ByteBuffer buf = pool.get();
+		assertEquals(1, pool.getBuffersInUse());
+		
+		pool.add(buf);
+		assertEquals(0, pool.getBuffersInUse());
+		assertEquals(1, pool.getFreeBuffers());
+		
+		assertSame(buf, pool.get());
+		assertEquals(1, pool.getReusedBuffers());
+		assertEquals(1, pool.getAllocatedBuffers());
+	}
+	
+	public void testSizeClasses() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		int[] classes = pool.getSizeClasses();
+		assertEquals(65536, classes[classes.length-1]);
+		
+		ByteBuffer small = pool.get(1000);
+		assertEquals(classes[0], small.capacity());
+		
+		ByteBuffer large = pool.get(100000);
+		assertEquals(100000, large.capacity());
+		
+		pool.add(small);
+		pool.add(large);
+		
+		assertEquals(1, pool.getFreeBuffers());
+		assertEquals(1, pool.getDiscardedBuffers());
+		assertSame(small, pool.get(classes[0]));
+	}
+	
+	public void testRetainedMemoryIsBounded() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		pool.setMaximumRetainedMemory(65536 * 2);
+		
+		ByteBuffer[] bufs = new ByteBuffer[4];
+		for(int i=0;i<bufs.length;i++) {
+			bufs[i] = pool.get();
+		}
+		for(int i=0;i<bufs.length;i++) {
+			pool.add(bufs[i]);
+		}
+		
+		assertEquals(2, pool.getFreeBuffers());
+		assertEquals(65536 * 2, pool.getRetainedMemory());
+		assertEquals(2, pool.getDiscardedBuffers());
+	}
+	
+	public void testDiscardedBuffersAreNotInUse() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		pool.setMaximumRetainedMemory(0);
+		
+		for(int i=0;i<10;i++) {
+			pool.add(pool.get());
+		}
+		
+		assertEquals(10, pool.getDiscardedBuffers());
+		assertEquals(0, pool.getTotalMemoryInUse());
+		assertEquals(0, pool.getTotalMemoryAllocated());
+		
+		ByteBuffer buf = pool.get();
+		assertEquals(65536, pool.getTotalMemoryInUse());
+		pool.add(buf);
+		assertEquals(0, pool.getTotalMemoryInUse());
+	}
+	
+	public void testBuffersOfTheWrongKindAreIgnored() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		assertFalse(pool.isTracking());
+		ByteBuffer buf = pool.get();
+		
+		pool.add(ByteBuffer.allocateDirect(65536));
+		pool.add(ByteBuffer.allocate(1000));
+		pool.add(buf.asReadOnlyBuffer());
+		
+		assertEquals(1, pool.getBuffersInUse());
+		assertEquals(0, pool.getFreeBuffers());
+		assertEquals(0, pool.getDiscardedBuffers());
+		
+		pool.add(buf);
+		assertEquals(0, pool.getBuffersInUse());
+		assertEquals(1, pool.getFreeBuffers());
+	}
+	
+	public void testForeignBuffersAreIgnoredWhenTracking() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		pool.setTracking(true);
+		ByteBuffer buf = pool.get();
+		
+		pool.add(ByteBuffer.allocate(65536));
+		
+		assertEquals(1, pool.getBuffersInUse());
+		assertEquals(0, pool.getFreeBuffers());
+		assertEquals(0, pool.getRetainedMemory());
+		
+		pool.add(buf);
+		assertEquals(0, pool.getBuffersInUse());
+		assertEquals(1, pool.getFreeBuffers());
+	}
+	
+	public void testBuffersReturnedTwiceAreIgnoredWhenTracking() {
+		
+		ByteBufferPool pool = new ByteBufferPool(65536, false);
+		pool.setTracking(true);
+		ByteBuffer buf = pool.get();
+		
+		pool.add(buf);
+		pool.add(buf);
+		
+		assertEquals(0, pool.getBuffersInUse());
+		assertEquals(1, pool.getFreeBuffers());
+		assertEquals(65536, pool.getRetainedMemory());
+		
+		assertSame(buf, pool.get());
+		assertNotSame(buf, pool.get());
+		assertEquals(2, pool.getBuffersInUse());
+	}
+	
+	public void testConcurrentAccess() throws InterruptedException {
+		
+		final ByteBufferPool pool = new ByteBufferPool(8192, true, 4);
+		Thread[] threads = new Thread[8];
+		for(int i=0;i<threads.length;i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for(int j=0;j<10000;j++) {
+						ByteBuffer buf = pool.get();
+						buf.put((byte)j);
+						pool.add(buf);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		
+		assertEquals(0, pool.getBuffersInUse());
+		assertEquals(pool.getAllocatedBuffers(), pool.getFreeBuffers());
+	}
+}
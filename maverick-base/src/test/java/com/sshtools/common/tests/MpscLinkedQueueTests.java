@@ -0,0 +1,93 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.sshtools.common.util.MpscLinkedQueue;
+
+import junit.framework.TestCase;
+
+public class MpscLinkedQueueTests extends TestCase {
+
+	public void testElementsAreReturnedInOrder() {
+		
+		MpscLinkedQueue<Integer> queue = new MpscLinkedQueue<Integer>();
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		
+		for(int i=0;i<10;i++) {
+			queue.offer(i);
+		}
+		assertEquals(10, queue.size());
+		assertEquals(Integer.valueOf(0), queue.peek());
+		
+		for(int i=0;i<10;i++) {
+			assertEquals(Integer.valueOf(i), queue.poll());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+	}
+	
+	public void testConcurrentProducers() throws InterruptedException {
+		
+		final int producers = 4;
+		final int count = 100000;
+		final MpscLinkedQueue<int[]> queue = new MpscLinkedQueue<int[]>();
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		Thread[] threads = new Thread[producers];
+		for(int p=0;p<producers;p++) {
+			final int producer = p;
+			threads[p] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for(int i=0;i<count;i++) {
+						queue.offer(new int[] { producer, i });
+					}
+				}
+			};
+			threads[p].start();
+		}
+		
+		start.countDown();
+		
+		int[] next = new int[producers];
+		int received = 0;
+		while(received < producers * count) {
+			int[] e = queue.poll();
+			if(e==null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals("Elements from a producer must be in order", next[e[0]], e[1]);
+			next[e[0]]++;
+			received++;
+		}
+		
+		for(Thread t : threads) {
+			t.join();
+		}
+		assertTrue(queue.isEmpty());
+	}
+}
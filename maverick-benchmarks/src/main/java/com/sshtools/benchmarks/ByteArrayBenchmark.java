@@ -0,0 +1,109 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.ByteArrayWriter;
+
+/**
+ * Measures building and parsing a message with {@link ByteArrayWriter} and 
+ * {@link ByteArrayReader}. The message has the layout of an SFTP write request 
+ * carried in SSH_MSG_CHANNEL_DATA, the most common message on a busy connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteArrayBenchmark {
+
+	static final int SSH_MSG_CHANNEL_DATA = 94;
+	static final int SSH_FXP_WRITE = 6;
+	
+	@Param({ "64", "32768" })
+	int dataSize;
+	
+	byte[] data;
+	byte[] handle;
+	byte[] message;
+	
+	@Setup
+	public void setup() throws IOException {
+		Random r = new Random(0);
+		data = new byte[dataSize];
+		handle = new byte[16];
+		r.nextBytes(data);
+		r.nextBytes(handle);
+		message = write();
+	}
+	
+	@Benchmark
+	public byte[] write() throws IOException {
+		ByteArrayWriter msg = new ByteArrayWriter(dataSize + 64);
+		try {
+			msg.write(SSH_MSG_CHANNEL_DATA);
+			msg.writeInt(0);
+			msg.writeInt(dataSize + 34);
+			msg.writeInt(dataSize + 30);
+			msg.write(SSH_FXP_WRITE);
+			msg.writeInt(1);
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(65536L);
+			msg.writeBinaryString(data);
+			return msg.toByteArray();
+		} finally {
+			msg.close();
+		}
+	}
+	
+	@Benchmark
+	public byte[] read() throws IOException {
+		ByteArrayReader msg = new ByteArrayReader(message);
+		try {
+			msg.read();
+			msg.readInt();
+			msg.readInt();
+			msg.readInt();
+			msg.read();
+			msg.readInt();
+			msg.readBinaryString();
+			msg.readUINT64();
+			return msg.readBinaryString();
+		} finally {
+			msg.close();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.synergy.ssh.CachingDataWindow;
+
+/**
+ * Measures putting data into and getting data out of a {@link CachingDataWindow}, 
+ * both from a single thread and with one thread producing and another consuming as 
+ * a channel's selector and reader threads do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachingDataWindowBenchmark {
+
+	static final int WINDOW_SIZE = 1024 * 1024;
+	
+	@State(Scope.Group)
+	public static class Window {
+		
+		@Param({ "false", "true" })
+		boolean direct;
+		
+		CachingDataWindow window;
+		
+		@Setup
+		public void setup() {
+			window = new CachingDataWindow(WINDOW_SIZE, false, direct);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Buffers {
+		
+		@Param({ "256", "4096", "32768" })
+		int chunkSize;
+		
+		ByteBuffer source;
+		ByteBuffer destination;
+		
+		@Setup
+		public void setup() {
+			source = ByteBuffer.allocate(chunkSize);
+			destination = ByteBuffer.allocate(chunkSize);
+		}
+	}
+	
+	@Benchmark
+	@Group("roundTrip")
+	public int putAndGet(Window window, Buffers buffers) {
+		buffers.source.clear();
+		window.window.put(buffers.source);
+		buffers.destination.clear();
+		return window.window.get(buffers.destination);
+	}
+	
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public int put(Window window, Buffers buffers) {
+		if(window.window.remaining() > WINDOW_SIZE - buffers.chunkSize) {
+			return 0;
+		}
+		buffers.source.clear();
+		window.window.put(buffers.source);
+		return buffers.chunkSize;
+	}
+	
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public int get(Window window, Buffers buffers) {
+		buffers.destination.clear();
+		return window.window.get(buffers.destination);
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.SshCipher;
+
+/**
+ * Measures the raw transform rate of the ciphers created by the 
+ * {@link ComponentManager}, encrypting one packet per operation.
+ * <p>
+ * The AEAD ciphers (aes-gcm and chacha20-poly1305) transform a whole binary 
+ * packet including its length and tag, so they are measured by 
+ * TransportProtocolBenchmark instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherBenchmark {
+
+	@Param({ "aes128-ctr", "aes192-ctr", "aes256-ctr" })
+	String cipher;
+	
+	@Param({ "1024", "32768" })
+	int packetSize;
+	
+	SshCipher encryption;
+	byte[] packet;
+	
+	@Setup
+	public void setup() throws IOException, SshException {
+		
+		Random r = new Random(0);
+		
+		encryption = ComponentManager.getInstance().supportedSsh2CiphersCS().getInstance(cipher);
+		
+		byte[] iv = new byte[encryption.getBlockSize()];
+		byte[] key = new byte[encryption.getKeyLength()];
+		r.nextBytes(iv);
+		r.nextBytes(key);
+		encryption.init(SshCipher.ENCRYPT_MODE, iv, key);
+		
+		packet = new byte[packetSize];
+		r.nextBytes(packet);
+	}
+	
+	@Benchmark
+	public byte[] encrypt() throws IOException {
+		encryption.transform(packet, 0, packet, 0, packet.length);
+		return packet;
+	}
+}
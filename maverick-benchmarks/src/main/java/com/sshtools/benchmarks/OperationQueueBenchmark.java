@@ -0,0 +1,215 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.ExecutorOperationListener;
+import com.sshtools.common.ssh.ExecutorOperationSupport;
+import com.sshtools.common.ssh.ExecutorServiceProvider;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshConnectionManager;
+import com.sshtools.common.util.MpscLinkedQueue;
+
+/**
+ * Measures the enqueue/dequeue throughput of the operation queues used to dispatch 
+ * connection tasks.
+ * <p>
+ * The <code>queue</code> group runs three producers against a single consumer, 
+ * comparing {@link MpscLinkedQueue} with a {@link ConcurrentLinkedQueue} and 
+ * with the monitor guarded {@link LinkedList} previously used by 
+ * {@link ExecutorOperationSupport}. Producers back off while the backlog is 
+ * above a limit so the queue cannot grow without bound when the consumer 
+ * falls behind.
+ * <p>
+ * The <code>dispatch</code> benchmark adds batches of tasks from several threads
+ * to one {@link ExecutorOperationSupport} queue and waits for each batch to run, 
+ * which includes scheduling the consumer on the executor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationQueueBenchmark {
+
+	static final int MAXIMUM_BACKLOG = 65536;
+	static final int BATCH = 100;
+	
+	static final Object TASK = new Object();
+	
+	interface OperationQueue {
+		void offer(Object o);
+		Object poll();
+	}
+	
+	@State(Scope.Group)
+	public static class QueueState {
+		
+		@Param({ "mpsc", "concurrent", "synchronized" })
+		String queue;
+		
+		OperationQueue operations;
+		AtomicLong backlog = new AtomicLong();
+		
+		@Setup(Level.Iteration)
+		public void setup() {
+			backlog.set(0);
+			switch(queue) {
+			case "mpsc":
+				final MpscLinkedQueue<Object> mpsc = new MpscLinkedQueue<Object>();
+				operations = new OperationQueue() {
+					public void offer(Object o) { mpsc.offer(o); }
+					public Object poll() { return mpsc.poll(); }
+				};
+				break;
+			case "concurrent":
+				final ConcurrentLinkedQueue<Object> clq = new ConcurrentLinkedQueue<Object>();
+				operations = new OperationQueue() {
+					public void offer(Object o) { clq.offer(o); }
+					public Object poll() { return clq.poll(); }
+				};
+				break;
+			default:
+				final LinkedList<Object> list = new LinkedList<Object>();
+				operations = new OperationQueue() {
+					public void offer(Object o) { 
+						synchronized(list) { 
+							list.addLast(o); 
+							list.notifyAll(); 
+						} 
+					}
+					public Object poll() { 
+						synchronized(list) { 
+							return list.isEmpty() ? null : list.removeFirst(); 
+						} 
+					}
+				};
+				break;
+			}
+		}
+	}
+	
+	@Benchmark
+	@Group("queue")
+	@GroupThreads(3)
+	public boolean offer(QueueState state) {
+		if(state.backlog.get() >= MAXIMUM_BACKLOG) {
+			Thread.yield();
+			return false;
+		}
+		state.backlog.incrementAndGet();
+		state.operations.offer(TASK);
+		return true;
+	}
+	
+	@Benchmark
+	@Group("queue")
+	@GroupThreads(1)
+	public Object poll(QueueState state) {
+		Object o = state.operations.poll();
+		if(o!=null) {
+			state.backlog.decrementAndGet();
+		}
+		return o;
+	}
+	
+	@State(Scope.Benchmark)
+	public static class DispatchState implements ExecutorServiceProvider {
+		
+		ExecutorService executor;
+		ExecutorOperationSupport<DispatchState> support;
+		SshConnection con;
+		
+		@Setup
+		public void setup() {
+			executor = Executors.newCachedThreadPool();
+			support = new ExecutorOperationSupport<DispatchState>("benchmark") {
+				public DispatchState getContext() {
+					return DispatchState.this;
+				}
+			};
+			
+			final SshConnectionManager manager = (SshConnectionManager) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[] { SshConnectionManager.class }, 
+					(proxy, method, args) -> null);
+			con = (SshConnection) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[] { SshConnection.class }, 
+					(proxy, method, args) -> method.getName().equals("getConnectionManager") ? manager : null);
+		}
+		
+		@TearDown
+		public void teardown() {
+			executor.shutdownNow();
+		}
+		
+		public ExecutorService getExecutorService() {
+			return executor;
+		}
+		
+		public List<ExecutorOperationListener> getExecutorListeners() {
+			return Collections.emptyList();
+		}
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public void dispatch(DispatchState state) {
+		
+		final AtomicInteger remaining = new AtomicInteger(BATCH);
+		for(int i=0;i<BATCH;i++) {
+			state.support.addIncomingTask(new ConnectionAwareTask(state.con) {
+				protected void doTask() {
+					remaining.decrementAndGet();
+				}
+			});
+		}
+		
+		while(remaining.get() > 0) {
+			Thread.yield();
+		}
+	}
+}
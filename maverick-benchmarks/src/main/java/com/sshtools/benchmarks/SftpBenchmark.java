@@ -0,0 +1,173 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.client.PasswordAuthenticator;
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.util.FileUtils;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+
+/**
+ * Measures end to end SFTP upload and download of a single file between an 
+ * {@link SshServer} and an {@link SshClient} connected over the loopback interface.
+ * Each operation transfers the whole file, so throughput is the file size divided 
+ * by the reported time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SftpBenchmark {
+
+	static final String USERNAME = "benchmark";
+	static final String PASSWORD = "benchmark";
+	static final int CONNECT_ATTEMPTS = 3;
+	
+	/**
+	 * The cipher and MAC, separated by a colon. The MAC is not used by AEAD ciphers.
+	 */
+	@Param({ "aes128-ctr:hmac-sha2-256", 
+		"aes128-gcm@openssh.com:hmac-sha2-256", 
+		"chacha20-poly1305@openssh.com:hmac-sha2-256" })
+	String algorithms;
+	
+	@Param({ "16" })
+	int megabytes;
+	
+	File folder;
+	File local;
+	File downloaded;
+	SshServer server;
+	SshClient ssh;
+	SftpClient sftp;
+	
+	@Setup
+	public void setup() throws Exception {
+		
+		folder = File.createTempFile("sftp", "benchmark");
+		folder.delete();
+		File home = new File(folder, "home");
+		home.mkdirs();
+		
+		local = new File(folder, "local.dat");
+		downloaded = new File(folder, "downloaded.dat");
+		
+		try(OutputStream out = new FileOutputStream(local)) {
+			Random r = new Random(0);
+			byte[] tmp = new byte[65536];
+			for(int i = 0; i < megabytes * 16; i++) {
+				r.nextBytes(tmp);
+				out.write(tmp);
+			}
+		}
+		
+		server = new SshServer("127.0.0.1", getFreePort());
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser(USERNAME, PASSWORD.toCharArray()));
+		server.setFileFactory((con) -> new DirectFileFactory(home));
+		server.start();
+		
+		String cipher = algorithms.substring(0, algorithms.indexOf(':'));
+		String mac = algorithms.substring(algorithms.indexOf(':') + 1);
+		
+		SshClientContext context = new SshClientContext();
+		context.setPreferredCipherCS(cipher);
+		context.setPreferredCipherSC(cipher);
+		context.setPreferredMacCS(mac);
+		context.setPreferredMacSC(mac);
+		
+		ssh = connect(context);
+		sftp = new SftpClient(ssh);
+		
+		sftp.put(local.getAbsolutePath(), "download.dat");
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		try {
+			ssh.close();
+		} finally {
+			server.close();
+			FileUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Benchmark
+	public void upload() throws Exception {
+		sftp.put(local.getAbsolutePath(), "upload.dat");
+	}
+	
+	@Benchmark
+	public void download() throws Exception {
+		sftp.get("download.dat", downloaded.getAbsolutePath());
+	}
+	
+	/**
+	 * Connect and authenticate, allowing a few attempts while the freshly started 
+	 * server settles.
+	 */
+	private SshClient connect(SshClientContext context) throws Exception {
+		
+		for(int i = 1; ; i++) {
+			SshClient client = new SshClient("127.0.0.1", server.getPort(), USERNAME, context);
+			if(client.authenticate(new PasswordAuthenticator(PASSWORD), 30000)) {
+				return client;
+			}
+			client.close();
+			if(i == CONNECT_ATTEMPTS) {
+				throw new IOException("Failed to authenticate with the benchmark server");
+			}
+			Thread.sleep(500);
+		}
+	}
+	
+	private static int getFreePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.TransportProtocolClient;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.SshCipher;
+import com.sshtools.common.ssh.components.SshHmac;
+import com.sshtools.common.sshd.SshMessage;
+
+/**
+ * Measures the binary packet encoding and decoding of the {@link TransportProtocol}.
+ * <p>
+ * A transport is placed into the connected state with its outgoing and incoming keys 
+ * set to the same values, so that the packets it encodes can be fed straight back 
+ * into it. Each operation encodes one SSH_MSG_IGNORE message of the given payload size, 
+ * and for {@link #encodeDecode()} decodes it again. No socket is involved. This class 
+ * lives in the transport's package so that it can set the negotiated components 
+ * without a key exchange.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportProtocolBenchmark {
+
+	/**
+	 * The cipher and MAC, separated by a colon. The MAC is not used by AEAD ciphers.
+	 */
+	@Param({ "aes128-ctr:hmac-sha2-256", 
+		"aes128-ctr:hmac-sha2-256-etm@openssh.com", 
+		"aes128-gcm@openssh.com:hmac-sha2-256", 
+		"chacha20-poly1305@openssh.com:hmac-sha2-256" })
+	String algorithms;
+	
+	@Param({ "1024", "32768" })
+	int payloadSize;
+	
+	TransportProtocol<SshClientContext> transport;
+	ByteBuffer wire;
+	SshMessage message;
+	
+	@Setup
+	public void setup() throws IOException, SshException {
+		
+		Random r = new Random(0);
+		String cipher = algorithms.substring(0, algorithms.indexOf(':'));
+		String mac = algorithms.substring(algorithms.indexOf(':') + 1);
+		
+		transport = new TransportProtocolClient(new SshClientContext(), null);
+		
+		SshCipher encryption = ComponentManager.getInstance().supportedSsh2CiphersCS().getInstance(cipher);
+		SshCipher decryption = ComponentManager.getInstance().supportedSsh2CiphersCS().getInstance(cipher);
+		
+		byte[] iv = new byte[encryption.getBlockSize()];
+		byte[] key = new byte[encryption.getKeyLength()];
+		r.nextBytes(iv);
+		r.nextBytes(key);
+		
+		encryption.init(SshCipher.ENCRYPT_MODE, iv, key);
+		decryption.init(SshCipher.DECRYPT_MODE, iv, key);
+		
+		transport.encryption = encryption;
+		transport.decryption = decryption;
+		
+		if(!encryption.isMAC()) {
+			SshHmac outgoingMac = ComponentManager.getInstance().supportedHMacsCS().getInstance(mac);
+			SshHmac incomingMac = ComponentManager.getInstance().supportedHMacsCS().getInstance(mac);
+			byte[] macKey = new byte[outgoingMac.getMacSize()];
+			r.nextBytes(macKey);
+			outgoingMac.init(macKey);
+			incomingMac.init(macKey);
+			transport.outgoingMac = outgoingMac;
+			transport.incomingMac = incomingMac;
+			transport.incomingMacLength = incomingMac.getMacLength();
+		} else {
+			transport.incomingMacLength = decryption.getMacLength();
+		}
+		
+		transport.incomingCipherLength = decryption.getBlockSize();
+		transport.currentState = TransportProtocol.CONNECTED;
+		
+		final byte[] payload = new byte[payloadSize];
+		r.nextBytes(payload);
+		
+		message = new SshMessage() {
+			public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+				buf.put((byte) TransportProtocol.SSH_MSG_IGNORE);
+				buf.putInt(payload.length);
+				buf.put(payload);
+				return true;
+			}
+
+			public void messageSent(Long sequenceNo) {
+			}
+			
+			public int getMaximumMessageLength() {
+				return payload.length + 5;
+			}
+		};
+		
+		wire = ByteBuffer.allocate(payloadSize + TransportProtocol.MAXIMUM_PACKET_OVERHEAD);
+	}
+	
+	@TearDown(Level.Iteration)
+	public void checkState() {
+		if(!transport.isConnected()) {
+			throw new IllegalStateException("The transport disconnected during the benchmark");
+		}
+		if(transport.incomingSequence > 0 && transport.incomingSequence != transport.outgoingSequence) {
+			throw new IllegalStateException(String.format("Decoded %d packets but encoded %d", 
+					transport.incomingSequence, transport.outgoingSequence));
+		}
+	}
+	
+	@Benchmark
+	public ByteBuffer encode() {
+		wire.clear();
+		transport.outgoingQueue.add(message);
+		transport.onSocketWrite(wire);
+		resetKeyExchangeLimits();
+		return wire;
+	}
+	
+	@Benchmark
+	public ByteBuffer encodeDecode() {
+		encode();
+		wire.flip();
+		transport.onSocketRead(wire);
+		return wire;
+	}
+	
+	/**
+	 * Stop the transport from starting a key exchange once it has encoded enough data.
+	 */
+	private void resetKeyExchangeLimits() {
+		transport.numOutgoingBytesSinceKEX = 0;
+		transport.numOutgoingPacketsSinceKEX = 0;
+		transport.numIncomingBytesSinceKEX = 0;
+		transport.numIncomingPacketsSinceKEX = 0;
+	}
+}
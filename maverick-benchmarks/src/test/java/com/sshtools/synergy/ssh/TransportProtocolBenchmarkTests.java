@@ -0,0 +1,71 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import org.openjdk.jmh.annotations.Param;
+
+import junit.framework.TestCase;
+
+/**
+ * A benchmark that measures a transport that has failed measures nothing useful; 
+ * check that every configuration of the benchmark really encodes packets that 
+ * decode again.
+ */
+public class TransportProtocolBenchmarkTests extends TestCase {
+
+	public void testEveryConfigurationRoundTrips() throws Exception {
+		
+		String[] algorithms = TransportProtocolBenchmark.class.getDeclaredField("algorithms").getAnnotation(Param.class).value();
+		String[] payloadSizes = TransportProtocolBenchmark.class.getDeclaredField("payloadSize").getAnnotation(Param.class).value();
+		
+		for(String algorithm : algorithms) {
+			for(String payloadSize : payloadSizes) {
+				
+				TransportProtocolBenchmark benchmark = new TransportProtocolBenchmark();
+				benchmark.algorithms = algorithm;
+				benchmark.payloadSize = Integer.parseInt(payloadSize);
+				benchmark.setup();
+				
+				for(int i=0;i<100;i++) {
+					benchmark.encodeDecode();
+				}
+				
+				assertTrue(algorithm, benchmark.transport.isConnected());
+				assertEquals(algorithm, 100, benchmark.transport.outgoingSequence);
+				assertEquals(algorithm, 100, benchmark.transport.incomingSequence);
+				benchmark.checkState();
+			}
+		}
+	}
+	
+	public void testEncodeOnly() throws Exception {
+		
+		TransportProtocolBenchmark benchmark = new TransportProtocolBenchmark();
+		benchmark.algorithms = "aes128-ctr:hmac-sha2-256";
+		benchmark.payloadSize = 1024;
+		benchmark.setup();
+		
+		for(int i=0;i<100;i++) {
+			assertTrue(benchmark.encode().position() > benchmark.payloadSize);
+		}
+		
+		assertEquals(100, benchmark.transport.outgoingSequence);
+		benchmark.checkState();
+	}
+}
@@ -74,6 +74,12 @@ public class SessionChannelNG extends AbstractSessionChannel implements SessionC
 		}
 	}
 	
+	@Override
+	protected void onWindowTuned(int maximumWindowSpace) {
+		super.onWindowTuned(maximumWindowSpace);
+		extendedData.ensureCapacity(maximumWindowSpace);
+	}
+	
 	public InputStream getStderrStream() {
 		return stderrInputStream;
 	}
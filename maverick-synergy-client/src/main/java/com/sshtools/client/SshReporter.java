@@ -181,8 +181,7 @@ public class SshReporter {
         long ended = System.currentTimeMillis();
         System.out.println("Upload took " + ((double)(ended-started)/ 1000) + " seconds");
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.write.optimizedBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.write.blockRoundtrip"));
+        System.out.println("Upload: " + sftp.getTransferStatistics());
         
         System.out.println("Downloading " + size + " File");
         started = System.currentTimeMillis();
@@ -192,9 +191,7 @@ public class SshReporter {
 		
         ssh.disconnect();
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.read.optimizedBlock"));
-        System.out.println("Final Block: " + System.getProperty("maverick.read.finalBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.read.blockRoundtrip"));
+        System.out.println("Download: " + sftp.getTransferStatistics());
         
         System.out.println("#####");
 	}
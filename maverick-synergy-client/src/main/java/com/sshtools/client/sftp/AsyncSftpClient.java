@@ -0,0 +1,926 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.events.Event;
+import com.sshtools.common.events.EventCodes;
+import com.sshtools.common.events.EventServiceImplementation;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * An SFTP client that does not block. Every operation posts its request and 
+ * returns a {@link CompletableFuture} that is completed with the result when the 
+ * response arrives, or exceptionally with an {@link SftpStatusException} or 
+ * {@link SshException} if the operation fails. Operations may be started from any 
+ * number of threads, and many requests can be outstanding at once so that the 
+ * latency of the connection is paid once rather than once per operation.
+ * <p>
+ * At most {@link #getMaximumOutstandingRequests()} requests are sent to the server
+ * at any time. Further operations are queued and sent in order as responses arrive,
+ * so a large batch does not flood the server or the channel window.
+ * <p>
+ * Futures are completed on the thread that reads responses from the channel. Actions
+ * chained to them must not block, and should use the <i>Async</i> methods of 
+ * {@link CompletableFuture} to do any lengthy work. Operations started from a chained 
+ * action are queued and sent by a separate thread, from an executor created by the 
+ * {@link com.sshtools.synergy.nio.ExecutorFactory} of the connection.
+ * <p>
+ * Paths are passed to the server exactly as given; relative paths are resolved by the
+ * server against the default directory of the user.
+ */
+public class AsyncSftpClient implements Closeable {
+
+	public static final int DEFAULT_MAXIMUM_OUTSTANDING_REQUESTS = 64;
+	
+	final SftpChannel sftp;
+	final boolean closeChannel;
+	final int maximumOutstandingRequests;
+	final Semaphore available;
+	final Queue<Request<?>> pending = new ConcurrentLinkedQueue<Request<?>>();
+	final AtomicBoolean sending = new AtomicBoolean();
+	final ExecutorService sender;
+	volatile boolean closed;
+	
+	/**
+	 * Create an asynchronous client that shares an existing SFTP channel. Closing this
+	 * client does not close the channel.
+	 * 
+	 * @param sftp
+	 */
+	public AsyncSftpClient(SftpChannel sftp) {
+		this(sftp, DEFAULT_MAXIMUM_OUTSTANDING_REQUESTS);
+	}
+	
+	/**
+	 * Create an asynchronous client that shares an existing SFTP channel, with a limit on 
+	 * the number of requests it sends to the server at once. Closing this client does not 
+	 * close the channel.
+	 * 
+	 * @param sftp
+	 * @param maximumOutstandingRequests
+	 */
+	public AsyncSftpClient(SftpChannel sftp, int maximumOutstandingRequests) {
+		this(sftp, maximumOutstandingRequests, false);
+	}
+	
+	/**
+	 * Create an asynchronous client on a new SFTP channel of a connection.
+	 * 
+	 * @param con
+	 * @throws SshException
+	 */
+	public AsyncSftpClient(SshConnection con) throws SshException {
+		this(con, DEFAULT_MAXIMUM_OUTSTANDING_REQUESTS);
+	}
+	
+	/**
+	 * Create an asynchronous client on a new SFTP channel of a connection, with a limit 
+	 * on the number of requests it sends to the server at once.
+	 * 
+	 * @param con
+	 * @param maximumOutstandingRequests
+	 * @throws SshException
+	 */
+	public AsyncSftpClient(SshConnection con, int maximumOutstandingRequests) throws SshException {
+		this(new SftpChannel(con), maximumOutstandingRequests, true);
+	}
+	
+	/**
+	 * Create an asynchronous client on a new SFTP channel of a client.
+	 * 
+	 * @param ssh
+	 * @throws SshException
+	 */
+	public AsyncSftpClient(SshClient ssh) throws SshException {
+		this(ssh.getConnection());
+	}
+	
+	/**
+	 * Create an asynchronous client on a new SFTP channel of a client, with a limit 
+	 * on the number of requests it sends to the server at once.
+	 * 
+	 * @param ssh
+	 * @param maximumOutstandingRequests
+	 * @throws SshException
+	 */
+	public AsyncSftpClient(SshClient ssh, int maximumOutstandingRequests) throws SshException {
+		this(ssh.getConnection(), maximumOutstandingRequests);
+	}
+	
+	AsyncSftpClient(SftpChannel sftp, int maximumOutstandingRequests, boolean closeChannel) {
+		if(maximumOutstandingRequests <= 0) {
+			throw new IllegalArgumentException("The maximum number of outstanding requests must be greater than zero");
+		}
+		this.sftp = sftp;
+		this.closeChannel = closeChannel;
+		this.maximumOutstandingRequests = maximumOutstandingRequests;
+		this.available = new Semaphore(maximumOutstandingRequests);
+		this.sender = sftp.getExecutorFactory().createExecutor("SFTP-Async-Sender");
+	}
+	
+	/**
+	 * Get the SFTP channel this client sends its requests on.
+	 * 
+	 * @return SftpChannel
+	 */
+	public SftpChannel getSubsystemChannel() {
+		return sftp;
+	}
+	
+	/**
+	 * Get the maximum number of requests this client sends to the server at once.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumOutstandingRequests() {
+		return maximumOutstandingRequests;
+	}
+	
+	/**
+	 * Get the number of requests that have been sent and not yet answered.
+	 * 
+	 * @return int
+	 */
+	public int getOutstandingRequests() {
+		return maximumOutstandingRequests - available.availablePermits();
+	}
+	
+	/**
+	 * Get the number of operations waiting to be sent.
+	 * 
+	 * @return int
+	 */
+	public int getQueuedRequests() {
+		return pending.size();
+	}
+	
+	/**
+	 * Close this client. Operations that have not yet been sent fail with an {@link SshException}.
+	 * If this client created its own channel the channel is closed, failing any outstanding requests.
+	 */
+	public void close() {
+		closed = true;
+		sender.shutdown();
+		failQueued();
+		if(closeChannel) {
+			sftp.close();
+		}
+	}
+	
+	private void failQueued() {
+		Request<?> request;
+		while((request = pending.poll()) != null) {
+			request.result.completeExceptionally(new SshException("The client has been closed", 
+					SshException.CHANNEL_FAILURE));
+		}
+	}
+	
+	/**
+	 * Get the attributes of a file, following symbolic links.
+	 * 
+	 * @param path
+	 * @return future of the attributes
+	 */
+	public CompletableFuture<SftpFileAttributes> getAttributes(String path) {
+		return stat(SftpChannel.SSH_FXP_STAT, path);
+	}
+	
+	/**
+	 * Get the attributes of a file without following symbolic links.
+	 * 
+	 * @param path
+	 * @return future of the attributes
+	 */
+	public CompletableFuture<SftpFileAttributes> getLinkAttributes(String path) {
+		return stat(SftpChannel.SSH_FXP_LSTAT, path);
+	}
+	
+	private CompletableFuture<SftpFileAttributes> stat(int type, String path) {
+		return submit(type, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+			if(sftp.getVersion() > 3) {
+				msg.writeInt(sftp.getAttributeFlags());
+			}
+		}, (bar) -> sftp.extractAttributes(bar));
+	}
+	
+	/**
+	 * Get the attributes of an open file.
+	 * 
+	 * @param file
+	 * @return future of the attributes
+	 */
+	public CompletableFuture<SftpFileAttributes> getAttributes(SftpFile file) {
+		return submit(SftpChannel.SSH_FXP_FSTAT, (msg) -> {
+			msg.writeBinaryString(checkHandle(file));
+			if(sftp.getVersion() > 3) {
+				msg.writeInt(sftp.getAttributeFlags());
+			}
+		}, (bar) -> sftp.extractAttributes(bar));
+	}
+	
+	/**
+	 * Set the attributes of a file.
+	 * 
+	 * @param path
+	 * @param attrs
+	 * @return future completed when the attributes have been set
+	 */
+	public CompletableFuture<Void> setAttributes(String path, SftpFileAttributes attrs) {
+		return submit(SftpChannel.SSH_FXP_SETSTAT, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+			msg.write(attrs.toByteArray(sftp.getVersion()));
+		}, this::status);
+	}
+	
+	/**
+	 * Set the attributes of an open file.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @return future completed when the attributes have been set
+	 */
+	public CompletableFuture<Void> setAttributes(SftpFile file, SftpFileAttributes attrs) {
+		return submit(SftpChannel.SSH_FXP_FSETSTAT, (msg) -> {
+			msg.writeBinaryString(checkHandle(file));
+			msg.write(attrs.toByteArray(sftp.getVersion()));
+		}, this::status);
+	}
+	
+	/**
+	 * Open a file.
+	 * 
+	 * @param path
+	 * @param flags the {@link SftpChannel} OPEN_* flags
+	 * @return future of the open file
+	 */
+	public CompletableFuture<SftpFile> openFile(String path, int flags) {
+		return openFile(path, flags, new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN, sftp.getCharsetEncoding()));
+	}
+	
+	/**
+	 * Open a file, setting the attributes of the file if it is created.
+	 * 
+	 * @param path
+	 * @param flags the {@link SftpChannel} OPEN_* flags
+	 * @param attrs
+	 * @return future of the open file
+	 */
+	public CompletableFuture<SftpFile> openFile(String path, int flags, SftpFileAttributes attrs) {
+		return submit(SftpChannel.SSH_FXP_OPEN, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+			if(sftp.getVersion() >= 5) {
+				msg.writeInt(sftp.getVersion5AccessFlags(flags));
+				msg.writeInt(sftp.getVersion5Flags(flags));
+			} else {
+				msg.writeInt(flags);
+			}
+			msg.write(attrs.toByteArray(sftp.getVersion()));
+		}, (bar) -> {
+			SftpFile file = new SftpFile(path, null);
+			file.setHandle(sftp.getHandleResponse(bar));
+			file.setSFTPSubsystem(sftp);
+			EventServiceImplementation.getInstance().fireEvent(
+					(new Event(sftp, EventCodes.EVENT_SFTP_FILE_OPENED, true))
+					.addAttribute(EventCodes.ATTRIBUTE_FILE_NAME, path));
+			return file;
+		});
+	}
+	
+	/**
+	 * Open a directory to read its children with {@link #readDirectory(SftpFile)}.
+	 * 
+	 * @param path
+	 * @return future of the open directory
+	 */
+	public CompletableFuture<SftpFile> openDirectory(String path) {
+		return submit(SftpChannel.SSH_FXP_OPENDIR, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+		}, (bar) -> {
+			SftpFile file = new SftpFile(path, null);
+			file.setHandle(sftp.getHandleResponse(bar));
+			file.setSFTPSubsystem(sftp);
+			return file;
+		});
+	}
+	
+	/**
+	 * Close an open file or directory.
+	 * 
+	 * @param file
+	 * @return future completed when the handle has been closed
+	 */
+	public CompletableFuture<Void> closeFile(SftpFile file) {
+		return submit(SftpChannel.SSH_FXP_CLOSE, (msg) -> {
+			msg.writeBinaryString(checkHandle(file));
+		}, (bar) -> {
+			sftp.checkStatusResponse(bar);
+			file.setHandle(null);
+			EventServiceImplementation.getInstance().fireEvent(
+					(new Event(sftp, EventCodes.EVENT_SFTP_FILE_CLOSED, true))
+					.addAttribute(EventCodes.ATTRIBUTE_FILE_NAME, file.getAbsolutePath()));
+			return null;
+		});
+	}
+	
+	/**
+	 * Read a block of an open file. The block may be shorter than requested.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param len
+	 * @return future of the data read, or <tt>null</tt> if the offset is at or past the end of the file
+	 */
+	public CompletableFuture<byte[]> readFile(byte[] handle, long offset, int len) {
+		return submit(SftpChannel.SSH_FXP_READ, (msg) -> {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeInt(len);
+		}, (bar) -> {
+			if(bar.getType() == SftpChannel.SSH_FXP_DATA) {
+				return bar.readBinaryString();
+			}
+			return statusOrEOF(bar);
+		});
+	}
+	
+	/**
+	 * Write a block of an open file. The data is not copied, and must not be modified 
+	 * until the returned future is complete.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @return future completed when the server has written the data
+	 */
+	public CompletableFuture<Void> writeFile(byte[] handle, long offset, byte[] data, int off, int len) {
+		return submit(SftpChannel.SSH_FXP_WRITE, (msg) -> {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeBinaryString(data, off, len);
+		}, this::status);
+	}
+	
+	/**
+	 * Read the next batch of children of an open directory. 
+	 * 
+	 * @param dir
+	 * @return future of the children read, or <tt>null</tt> when the directory has been completely read 
+	 */
+	public CompletableFuture<List<SftpFile>> readDirectory(SftpFile dir) {
+		return submit(SftpChannel.SSH_FXP_READDIR, (msg) -> {
+			msg.writeBinaryString(checkHandle(dir));
+		}, (bar) -> {
+			if(bar.getType() == SftpChannel.SSH_FXP_NAME) {
+				return Arrays.asList(sftp.extractFiles(bar, dir.getAbsolutePath()));
+			}
+			return statusOrEOF(bar);
+		});
+	}
+	
+	/**
+	 * List the children of a directory. The path is resolved to an absolute path, and 
+	 * the directory is opened, read to the end and closed.
+	 * 
+	 * @param path
+	 * @return future of the children of the directory
+	 */
+	public CompletableFuture<List<SftpFile>> listDirectory(String path) {
+		return getAbsolutePath(path).thenCompose(this::openDirectory).thenCompose((dir) -> {
+			CompletableFuture<List<SftpFile>> listed = new CompletableFuture<List<SftpFile>>();
+			readDirectory(dir, new ArrayList<SftpFile>(), listed);
+			return listed.handle((files, e) -> closeFile(dir).handle((v, e2) -> {
+				if(e != null) {
+					throw wrap(e);
+				}
+				if(e2 != null) {
+					throw wrap(e2);
+				}
+				return files;
+			})).thenCompose(Function.identity());
+		});
+	}
+	
+	private void readDirectory(SftpFile dir, List<SftpFile> children, CompletableFuture<List<SftpFile>> listed) {
+		readDirectory(dir).whenComplete((files, e) -> {
+			if(e != null) {
+				listed.completeExceptionally(unwrap(e));
+			} else if(files == null) {
+				listed.complete(children);
+			} else {
+				children.addAll(files);
+				readDirectory(dir, children, listed);
+			}
+		});
+	}
+	
+	/**
+	 * Remove a file.
+	 * 
+	 * @param path
+	 * @return future completed when the file has been removed
+	 */
+	public CompletableFuture<Void> removeFile(String path) {
+		return submit(SftpChannel.SSH_FXP_REMOVE, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+		}, (bar) -> {
+			sftp.checkStatusResponse(bar);
+			EventServiceImplementation.getInstance().fireEvent(
+					(new Event(sftp, EventCodes.EVENT_SFTP_FILE_DELETED, true))
+					.addAttribute(EventCodes.ATTRIBUTE_FILE_NAME, path));
+			return null;
+		});
+	}
+	
+	/**
+	 * Remove an empty directory.
+	 * 
+	 * @param path
+	 * @return future completed when the directory has been removed
+	 */
+	public CompletableFuture<Void> removeDirectory(String path) {
+		return submit(SftpChannel.SSH_FXP_RMDIR, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+		}, (bar) -> {
+			sftp.checkStatusResponse(bar);
+			EventServiceImplementation.getInstance().fireEvent(
+					(new Event(sftp, EventCodes.EVENT_SFTP_DIRECTORY_DELETED, true))
+					.addAttribute(EventCodes.ATTRIBUTE_DIRECTORY_PATH, path));
+			return null;
+		});
+	}
+	
+	/**
+	 * Make a directory.
+	 * 
+	 * @param path
+	 * @return future completed when the directory has been created
+	 */
+	public CompletableFuture<Void> makeDirectory(String path) {
+		return makeDirectory(path, new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY, sftp.getCharsetEncoding()));
+	}
+	
+	/**
+	 * Make a directory with the given attributes.
+	 * 
+	 * @param path
+	 * @param attrs
+	 * @return future completed when the directory has been created
+	 */
+	public CompletableFuture<Void> makeDirectory(String path, SftpFileAttributes attrs) {
+		return submit(SftpChannel.SSH_FXP_MKDIR, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+			msg.write(attrs.toByteArray(sftp.getVersion()));
+		}, this::status);
+	}
+	
+	/**
+	 * Rename a file.
+	 * 
+	 * @param oldpath
+	 * @param newpath
+	 * @return future completed when the file has been renamed
+	 */
+	public CompletableFuture<Void> renameFile(String oldpath, String newpath) {
+		return renameFile(oldpath, newpath, 0);
+	}
+	
+	/**
+	 * Rename a file. The flags are only sent to servers of version 5 or later.
+	 * 
+	 * @param oldpath
+	 * @param newpath
+	 * @param flags
+	 * @return future completed when the file has been renamed
+	 */
+	public CompletableFuture<Void> renameFile(String oldpath, String newpath, int flags) {
+		if(sftp.getVersion() < 2) {
+			return unsupported("Renaming files");
+		}
+		return submit(SftpChannel.SSH_FXP_RENAME, (msg) -> {
+			msg.writeString(oldpath, sftp.getCharsetEncoding());
+			msg.writeString(newpath, sftp.getCharsetEncoding());
+			if(sftp.getVersion() >= 5) {
+				msg.writeInt(flags);
+			}
+		}, (bar) -> {
+			sftp.checkStatusResponse(bar);
+			EventServiceImplementation.getInstance().fireEvent(
+					(new Event(sftp, EventCodes.EVENT_SFTP_FILE_RENAMED, true))
+					.addAttribute(EventCodes.ATTRIBUTE_FILE_NAME, oldpath)
+					.addAttribute(EventCodes.ATTRIBUTE_FILE_NEW_NAME, newpath));
+			return null;
+		});
+	}
+	
+	/**
+	 * Create a symbolic link.
+	 * 
+	 * @param targetpath the path to which the symbolic link points
+	 * @param linkpath the symbolic link to create
+	 * @return future completed when the link has been created
+	 */
+	public CompletableFuture<Void> createSymbolicLink(String targetpath, String linkpath) {
+		return createLink(targetpath, linkpath, true);
+	}
+	
+	/**
+	 * Create a symbolic or hard link. Hard links require a server of version 6 or later.
+	 * 
+	 * @param targetpath the path to which the link points
+	 * @param linkpath the link to create
+	 * @param symbolic
+	 * @return future completed when the link has been created
+	 */
+	public CompletableFuture<Void> createLink(String targetpath, String linkpath, boolean symbolic) {
+		if(sftp.getVersion() < 3) {
+			return unsupported("Symbolic links");
+		}
+		if(sftp.getVersion() < 6 && !symbolic) {
+			return unsupported("Hard links");
+		}
+		return submit(sftp.getVersion() >= 6 ? SftpChannel.SSH_FXP_LINK : SftpChannel.SSH_FXP_SYMLINK, (msg) -> {
+			msg.writeString(linkpath, sftp.getCharsetEncoding());
+			msg.writeString(targetpath, sftp.getCharsetEncoding());
+			if(sftp.getVersion() >= 6) {
+				msg.writeBoolean(symbolic);
+			}
+		}, this::status);
+	}
+	
+	/**
+	 * Get the target of a symbolic link.
+	 * 
+	 * @param linkpath
+	 * @return future of the target path
+	 */
+	public CompletableFuture<String> getSymbolicLinkTarget(String linkpath) {
+		if(sftp.getVersion() < 3) {
+			return unsupported("Symbolic links");
+		}
+		return submit(SftpChannel.SSH_FXP_READLINK, (msg) -> {
+			msg.writeString(linkpath, sftp.getCharsetEncoding());
+		}, (bar) -> sftp.getSingleFileResponse(bar, "SSH_FXP_READLINK").getAbsolutePath());
+	}
+	
+	/**
+	 * Get the canonical absolute path of a path.
+	 * 
+	 * @param path
+	 * @return future of the absolute path
+	 */
+	public CompletableFuture<String> getAbsolutePath(String path) {
+		return submit(SftpChannel.SSH_FXP_REALPATH, (msg) -> {
+			msg.writeString(path, sftp.getCharsetEncoding());
+		}, (bar) -> sftp.getSingleFileResponse(bar, "SSH_FXP_REALPATH").getAbsolutePath());
+	}
+	
+	/**
+	 * Lock a range of an open file. Requires a server of version 6 or later.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param length
+	 * @param lockFlags
+	 * @return future completed when the lock has been obtained
+	 */
+	public CompletableFuture<Void> lockFile(byte[] handle, long offset, long length, int lockFlags) {
+		if(sftp.getVersion() < 6) {
+			return unsupported("Locks");
+		}
+		return submit(SftpChannel.SSH_FXP_BLOCK, (msg) -> {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(length);
+			msg.writeInt(lockFlags);
+		}, this::status);
+	}
+	
+	/**
+	 * Unlock a range of an open file. Requires a server of version 6 or later.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param length
+	 * @return future completed when the lock has been released
+	 */
+	public CompletableFuture<Void> unlockFile(byte[] handle, long offset, long length) {
+		if(sftp.getVersion() < 6) {
+			return unsupported("Locks");
+		}
+		return submit(SftpChannel.SSH_FXP_UNBLOCK, (msg) -> {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(length);
+		}, this::status);
+	}
+	
+	/**
+	 * Get the attributes of many files. All of the requests are pipelined, subject to the 
+	 * limit on outstanding requests. The returned future always completes normally once 
+	 * every file has been answered; files that could not be read are reported in the failures
+	 * of the result.
+	 * 
+	 * @param paths
+	 * @return future of the attributes of each path
+	 */
+	public CompletableFuture<BatchResult<SftpFileAttributes>> getAttributes(Collection<String> paths) {
+		return batch(paths, this::getAttributes);
+	}
+	
+	/**
+	 * Remove many files. All of the requests are pipelined, subject to the limit on 
+	 * outstanding requests. The returned future always completes normally once every 
+	 * file has been answered; files that could not be removed are reported in the failures
+	 * of the result.
+	 * 
+	 * @param paths
+	 * @return future of the outcome for each path
+	 */
+	public CompletableFuture<BatchResult<Void>> removeFiles(Collection<String> paths) {
+		return batch(paths, this::removeFile);
+	}
+	
+	/**
+	 * Rename many files. All of the requests are pipelined, subject to the limit on 
+	 * outstanding requests, so no rename should depend on another in the same batch. The 
+	 * returned future always completes normally once every file has been answered; files 
+	 * that could not be renamed are reported in the failures of the result.
+	 * 
+	 * @param paths map of old paths to new paths
+	 * @return future of the outcome for each old path
+	 */
+	public CompletableFuture<BatchResult<Void>> renameFiles(Map<String,String> paths) {
+		return batch(paths.keySet(), (path) -> renameFile(path, paths.get(path)));
+	}
+	
+	private <T> CompletableFuture<BatchResult<T>> batch(Collection<String> paths, 
+			Function<String,CompletableFuture<T>> operation) {
+		Map<String,CompletableFuture<T>> futures = new LinkedHashMap<String,CompletableFuture<T>>();
+		for(String path : paths) {
+			futures.put(path, operation.apply(path));
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+				.handle((v, e) -> new BatchResult<T>(futures));
+	}
+	
+	/**
+	 * The outcome of an operation on many paths. Results and failures are held in the 
+	 * order the paths were submitted.
+	 *
+	 * @param <T> the result type of the operation
+	 */
+	public static class BatchResult<T> {
+		
+		final Map<String,T> results = new LinkedHashMap<String,T>();
+		final Map<String,Throwable> failures = new LinkedHashMap<String,Throwable>();
+		
+		BatchResult(Map<String,CompletableFuture<T>> futures) {
+			for(Map.Entry<String,CompletableFuture<T>> future : futures.entrySet()) {
+				try {
+					results.put(future.getKey(), future.getValue().join());
+				} catch(CompletionException e) {
+					failures.put(future.getKey(), unwrap(e));
+				}
+			}
+		}
+		
+		/**
+		 * Get the result of each path that succeeded.
+		 * 
+		 * @return Map
+		 */
+		public Map<String,T> getResults() {
+			return Collections.unmodifiableMap(results);
+		}
+		
+		/**
+		 * Get the exception of each path that failed, usually an {@link SftpStatusException}.
+		 * 
+		 * @return Map
+		 */
+		public Map<String,Throwable> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+		
+		/**
+		 * Did the operation succeed on every path?
+		 * 
+		 * @return boolean
+		 */
+		public boolean isSuccess() {
+			return failures.isEmpty();
+		}
+	}
+	
+	private Void status(SftpMessage bar) throws SftpStatusException, SshException {
+		sftp.checkStatusResponse(bar);
+		return null;
+	}
+	
+	private <T> T statusOrEOF(SftpMessage bar) throws SftpStatusException, SshException {
+		try {
+			sftp.checkStatusResponse(bar);
+		} catch(SftpStatusException e) {
+			if(e.getStatus() == SftpStatusException.SSH_FX_EOF) {
+				return null;
+			}
+			throw e;
+		}
+		throw new SshException("The server responded with an unexpected status!", 
+				SshException.CHANNEL_FAILURE);
+	}
+	
+	private byte[] checkHandle(SftpFile file) throws SftpStatusException {
+		if(!sftp.isValidHandle(file.getHandle())) {
+			throw new SftpStatusException(SftpStatusException.INVALID_HANDLE,
+					"The handle is not an open file handle!");
+		}
+		return file.getHandle();
+	}
+	
+	private <T> CompletableFuture<T> unsupported(String feature) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		result.completeExceptionally(new SftpStatusException(
+				SftpStatusException.SSH_FX_OP_UNSUPPORTED,
+				feature + " are not supported by the server SFTP version "
+						+ String.valueOf(sftp.getVersion())));
+		return result;
+	}
+	
+	static Throwable unwrap(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+	
+	static CompletionException wrap(Throwable e) {
+		return e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+	}
+	
+	<T> CompletableFuture<T> submit(int type, RequestWriter writer, ResponseReader<T> reader) {
+		
+		Request<T> request = new Request<T>(type, writer, reader);
+		
+		/**
+		 * Send directly when nothing is queued ahead of us and there is room. The 
+		 * response thread must never send, since a full channel window would stop 
+		 * it reading the responses that open the window again.
+		 */
+		if(pending.isEmpty() && !sftp.isDispatchThread() && available.tryAcquire()) {
+			request.send();
+		} else {
+			pending.offer(request);
+			/**
+			 * Once closed nothing takes requests from the queue, so fail any 
+			 * queued after close() emptied it.
+			 */
+			if(closed) {
+				failQueued();
+			} else {
+				schedule();
+			}
+		}
+		return request.result;
+	}
+	
+	void schedule() {
+		if(sending.compareAndSet(false, true)) {
+			try {
+				sender.execute(this::sendQueued);
+			} catch(RejectedExecutionException e) {
+				sending.set(false);
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * Send queued requests while there is room. Only one run of this is scheduled at a 
+	 * time; a request queued after we release the flag is picked up by taking it back.
+	 */
+	void sendQueued() {
+		do {
+			while(!pending.isEmpty() && available.tryAcquire()) {
+				Request<?> request = pending.poll();
+				if(request == null) {
+					available.release();
+					break;
+				}
+				request.send();
+			}
+			sending.set(false);
+		} while(!pending.isEmpty() && available.availablePermits() > 0 && sending.compareAndSet(false, true));
+	}
+	
+	void completed() {
+		available.release();
+		if(!pending.isEmpty()) {
+			schedule();
+		}
+	}
+	
+	interface RequestWriter {
+		void write(Packet msg) throws IOException, SftpStatusException;
+	}
+	
+	interface ResponseReader<T> {
+		T read(SftpMessage bar) throws IOException, SftpStatusException, SshException;
+	}
+	
+	class Request<T> {
+		
+		final int type;
+		final RequestWriter writer;
+		final ResponseReader<T> reader;
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		
+		Request(int type, RequestWriter writer, ResponseReader<T> reader) {
+			this.type = type;
+			this.writer = writer;
+			this.reader = reader;
+		}
+		
+		void send() {
+			try {
+				if(closed) {
+					throw new SshException("The client has been closed", SshException.CHANNEL_FAILURE);
+				}
+				UnsignedInteger32 requestId = sftp.nextRequestId();
+				Packet msg = sftp.createPacket();
+				msg.write(type);
+				msg.writeInt(requestId.longValue());
+				writer.write(msg);
+				
+				sftp.sendMessage(msg);
+				
+				sftp.getResponseFuture(requestId).whenComplete(this::received);
+			} catch(Throwable e) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Failed to send asynchronous SFTP request type={}", e, type);
+				}
+				completed();
+				result.completeExceptionally(e);
+			}
+		}
+		
+		void received(SftpMessage bar, Throwable e) {
+			completed();
+			if(e != null) {
+				result.completeExceptionally(unwrap(e));
+				return;
+			}
+			try {
+				result.complete(reader.read(bar));
+			} catch(Throwable t) {
+				result.completeExceptionally(t);
+			} finally {
+				bar.release();
+			}
+		}
+	}
+}
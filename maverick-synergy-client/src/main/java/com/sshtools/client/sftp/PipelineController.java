@@ -0,0 +1,220 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sizes the pipeline of a single transfer. The round trip time of every request is
+ * measured from the first block onwards, and the rate at which responses arrive is 
+ * sampled at intervals of at least one round trip. The highest recent rate and the 
+ * lowest round trip give the bandwidth-delay product of the connection, and the 
+ * number of outstanding requests is moved towards enough requests to keep twice 
+ * that amount of data in flight.
+ * <p>
+ * Until the first rate is sampled the number of outstanding requests grows by one 
+ * with each response. When the maximum number of requests cannot cover the target 
+ * the block size is doubled, up to the maximum block size, and it is halved again 
+ * when far fewer requests would do.
+ * <p>
+ * Instances are not thread safe; each is used by the thread performing a transfer.
+ */
+class PipelineController {
+
+	static final int GAIN = 2;
+	static final int BANDWIDTH_SAMPLES = 8;
+	static final long MINIMUM_SAMPLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	final TransferStatistics stats;
+	final LongSupplier clock;
+	final int maximumRequests;
+	int minimumBlockSize;
+	int maximumBlockSize;
+	int blockSize;
+	int requests = 1;
+	int outstanding;
+	
+	long[] samples = new long[BANDWIDTH_SAMPLES];
+	int sample;
+	long intervalStarted;
+	long intervalBytes;
+	
+	/**
+	 * Create a controller for a transfer.
+	 * 
+	 * @param blockSize the initial, and smallest, block size
+	 * @param maximumBlockSize the largest block size the pipeline may use
+	 * @param maximumRequests the largest number of requests that may be outstanding
+	 * @param stats the statistics to update, or null to create them
+	 */
+	PipelineController(int blockSize, int maximumBlockSize, int maximumRequests, TransferStatistics stats) {
+		this(blockSize, maximumBlockSize, maximumRequests, stats, System::nanoTime);
+	}
+	
+	/**
+	 * Create a controller for a transfer that reads the time from the given source 
+	 * of nanoseconds.
+	 * 
+	 * @param blockSize the initial, and smallest, block size
+	 * @param maximumBlockSize the largest block size the pipeline may use
+	 * @param maximumRequests the largest number of requests that may be outstanding
+	 * @param stats the statistics to update, or null to create them
+	 * @param clock the source of the time in nanoseconds
+	 */
+	PipelineController(int blockSize, int maximumBlockSize, int maximumRequests, TransferStatistics stats, LongSupplier clock) {
+		this.stats = stats == null ? new TransferStatistics() : stats;
+		this.clock = clock;
+		this.blockSize = blockSize;
+		this.minimumBlockSize = blockSize;
+		this.maximumBlockSize = Math.max(blockSize, maximumBlockSize);
+		this.maximumRequests = Math.max(1, maximumRequests);
+		
+		this.stats.started = clock.getAsLong();
+		this.stats.finished = 0;
+		this.stats.bytesTransferred = 0;
+		this.stats.requests = 0;
+		this.stats.firstRoundTrip = 0;
+		this.stats.minimumRoundTrip = 0;
+		this.stats.smoothedRoundTrip = 0;
+		this.stats.bandwidth = 0;
+		this.stats.shortReads = 0;
+		this.stats.maximumOutstandingRequests = 0;
+		this.stats.blockSize = blockSize;
+		this.stats.outstandingRequests = requests;
+	}
+	
+	TransferStatistics getStatistics() {
+		return stats;
+	}
+	
+	int getBlockSize() {
+		return blockSize;
+	}
+	
+	int getOutstandingRequests() {
+		return requests;
+	}
+	
+	/**
+	 * Record that a request has been posted.
+	 * 
+	 * @return the time the request was posted, to be passed to {@link #received(long, int)}
+	 */
+	long posted() {
+		if(++outstanding > stats.maximumOutstandingRequests) {
+			stats.maximumOutstandingRequests = outstanding;
+		}
+		return clock.getAsLong();
+	}
+	
+	/**
+	 * Record the response to a request.
+	 * 
+	 * @param posted the time returned by {@link #posted()} for the request
+	 * @param bytes the amount of data transferred by the request
+	 */
+	void received(long posted, int bytes) {
+		
+		long now = clock.getAsLong();
+		long rtt = Math.max(1, now - posted);
+		outstanding--;
+		
+		if(stats.firstRoundTrip == 0) {
+			stats.firstRoundTrip = rtt;
+			stats.minimumRoundTrip = rtt;
+			stats.smoothedRoundTrip = rtt;
+		} else {
+			stats.minimumRoundTrip = Math.min(stats.minimumRoundTrip, rtt);
+			stats.smoothedRoundTrip += (rtt - stats.smoothedRoundTrip) / 8;
+		}
+		stats.bytesTransferred += bytes;
+		stats.requests++;
+		
+		if(intervalStarted == 0) {
+			intervalStarted = posted;
+		}
+		intervalBytes += bytes;
+		
+		long interval = now - intervalStarted;
+		if(interval >= Math.max(stats.minimumRoundTrip, MINIMUM_SAMPLE_INTERVAL)) {
+			samples[sample++ % samples.length] = intervalBytes * TimeUnit.SECONDS.toNanos(1) / interval;
+			long bandwidth = 0;
+			for(long s : samples) {
+				bandwidth = Math.max(bandwidth, s);
+			}
+			stats.bandwidth = bandwidth;
+			intervalStarted = now;
+			intervalBytes = 0;
+		}
+		
+		adjust();
+	}
+	
+	/**
+	 * Record that the remote side returned less data than requested. No larger
+	 * blocks than it returned are requested from then on.
+	 * 
+	 * @param bytes the amount of data returned
+	 */
+	void shortRead(int bytes) {
+		stats.shortReads++;
+		if(bytes > 0) {
+			maximumBlockSize = Math.min(maximumBlockSize, bytes);
+			minimumBlockSize = Math.min(minimumBlockSize, maximumBlockSize);
+			blockSize = Math.min(blockSize, maximumBlockSize);
+			stats.blockSize = blockSize;
+		}
+	}
+	
+	/**
+	 * Record that the transfer has completed, successfully or not.
+	 */
+	void completed() {
+		stats.finished = clock.getAsLong();
+	}
+	
+	private void adjust() {
+		
+		if(stats.bandwidth == 0) {
+			requests = Math.min(maximumRequests, requests + 1);
+		} else {
+			long target = GAIN * stats.getBandwidthDelayProduct();
+			long needed = (target + blockSize - 1) / blockSize;
+			
+			if(needed > maximumRequests && blockSize < maximumBlockSize) {
+				blockSize = Math.min(maximumBlockSize, blockSize * 2);
+				needed = (target + blockSize - 1) / blockSize;
+			} else if(needed < maximumRequests / 4 && blockSize > minimumBlockSize) {
+				blockSize = Math.max(minimumBlockSize, blockSize / 2);
+				needed = (target + blockSize - 1) / blockSize;
+			}
+			
+			needed = Math.max(1, Math.min(maximumRequests, needed));
+			if(needed > requests) {
+				requests++;
+			} else if(needed < requests) {
+				requests--;
+			}
+		}
+		
+		stats.blockSize = blockSize;
+		stats.outstandingRequests = requests;
+	}
+}
@@ -22,6 +22,9 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -32,13 +35,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.tasks.AbstractSubsystem;
 import com.sshtools.client.tasks.FileTransferProgress;
-import com.sshtools.client.tasks.Message;
-import com.sshtools.client.tasks.MessageHolder;
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventServiceImplementation;
@@ -55,11 +59,13 @@ import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.Arrays;
 import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.ByteArrayWriter;
-import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
+import com.sshtools.synergy.nio.ExecutorFactory;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
 import com.sshtools.synergy.ssh.ByteArrays;
 import com.sshtools.synergy.ssh.PacketPool;
+import com.sshtools.synergy.ssh.SshContext;
 
 /**
  * Abstract task implementing SFTP operations.
@@ -162,9 +168,8 @@ public class SftpChannel extends AbstractSubsystem {
 	
 	int version = MAX_VERSION;
 	int serverVersion = -1;
-	UnsignedInteger32 requestId = new UnsignedInteger32(0);
-	Map<UnsignedInteger32, SftpMessage> responses = new HashMap<UnsignedInteger32, SftpMessage>();
-	SftpThreadSynchronizer sync = new SftpThreadSynchronizer();
+	AtomicInteger requestId = new AtomicInteger();
+	SftpResponseDispatcher responses;
 	Map<String, byte[]> extensions = new HashMap<String, byte[]>();
 
 	/**
@@ -201,6 +206,7 @@ public class SftpChannel extends AbstractSubsystem {
 	public SftpChannel(SshConnection con) throws SshException {
 		super(con);
 		con.setProperty("sftpVersion", initializeSftp(session));
+		startResponseDispatcher();
 	}
 
 	public int getVersion() {
@@ -517,43 +523,109 @@ public class SftpChannel extends AbstractSubsystem {
 		return extensions.get(name);
 	}
 	
+	/**
+	 * Get the factory of executors for work done on behalf of this channel. 
+	 * 
+	 * @return ExecutorFactory
+	 */
+	ExecutorFactory getExecutorFactory() {
+		return getExecutorFactory(con);
+	}
+	
+	/**
+	 * Work done on behalf of a connection runs on an executor created by the same 
+	 * {@link ExecutorFactory} as the connection's own executor, so that it uses virtual 
+	 * threads when the connection does.
+	 * 
+	 * @param con
+	 * @return ExecutorFactory
+	 */
+	static ExecutorFactory getExecutorFactory(SshConnection con) {
+		if(con.getContext() instanceof SshContext) {
+			SshContext context = (SshContext) con.getContext();
+			if(context.getExecutorFactory() != null) {
+				return context.getExecutorFactory();
+			}
+			if(context.getEngine() != null) {
+				return context.getEngine().getContext().getExecutorFactory();
+			}
+		}
+		return new PlatformThreadExecutorFactory();
+	}
+	
 	UnsignedInteger32 nextRequestId() {
-		requestId = UnsignedInteger32.add(requestId, 1);
-		return requestId;
+		return new UnsignedInteger32(requestId.incrementAndGet() & UnsignedInteger32.MAX_VALUE);
 	}
 	
 	public void close() {
-		responses.clear();
 		getSession().close();
 	}
 	
-	public SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
-
-		SftpMessage msg;
-		MessageHolder holder = new MessageHolder();
-		while (holder.msg == null) {
-			try {
-				// Read the next response message
-				if (sync.requestBlock(requestId, holder)) {
-					msg = new SftpMessage(nextMessage());
-					responses.put(new UnsignedInteger32(msg.getMessageId()),msg);
-					if(Log.isTraceEnabled()) {
-						Log.trace("There are " + responses.size() + " SFTP responses waiting to be processed");
-					}
-				}
-			} catch (InterruptedException e) {
-				close();
-				throw new SshException("The thread was interrupted",
-						SshException.CHANNEL_FAILURE);
-			} catch (IOException ex) {
-				throw new SshException(SshException.INTERNAL_ERROR, ex);
-			} finally {
-				sync.releaseBlock();
+	/**
+	 * Start the thread that reads every message from the channel once the 
+	 * protocol version has been negotiated, and completes the future of the
+	 * request it responds to. Callers waiting for responses never read from
+	 * the channel themselves, so any number of threads can have requests 
+	 * outstanding on the same channel.
+	 */
+	private void startResponseDispatcher() {
+		responses = new SftpResponseDispatcher(new SftpResponseDispatcher.MessageSource() {
+			public byte[] nextMessage() throws SshException {
+				return SftpChannel.this.nextMessage();
 			}
-		}
-
-		return (SftpMessage) responses.remove(requestId);
-
+			public void close() {
+				SftpChannel.this.close();
+			}
+		}, getExecutorFactory(), "SFTP-Responses-" + session.getLocalId());
+		responses.start();
+	}
+	
+	/**
+	 * Is the current thread the one that completes the futures of responses? 
+	 * Anything that might wait for a response must not run on this thread.
+	 * 
+	 * @return boolean
+	 */
+	boolean isDispatchThread() {
+		return responses.isDispatchThread();
+	}
+	
+	/**
+	 * Get a future that is completed with the response to a request. The response 
+	 * is completed on the thread that reads responses from the channel, so any 
+	 * action chained to the future should not block. The caller is responsible 
+	 * for releasing the message once it has been processed.
+	 * 
+	 * @param requestId
+	 * @return CompletableFuture
+	 */
+	public CompletableFuture<SftpMessage> getResponseFuture(UnsignedInteger32 requestId) {
+		return responses.getResponseFuture(requestId);
+	}
+	
+	/**
+	 * Wait for the response to a request. This fails rather than waiting forever 
+	 * when called from an action chained to a response future, which runs on the 
+	 * thread that delivers responses.
+	 * 
+	 * @param requestId
+	 * @return SftpMessage
+	 * @throws SshException
+	 */
+	public SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
+		return responses.getResponse(requestId);
+	}
+	
+	/**
+	 * Get the first response to arrive for any of a number of requests whose futures 
+	 * add themselves to a queue when completed.
+	 * 
+	 * @param arrived
+	 * @return SftpMessage
+	 * @throws SshException
+	 */
+	SftpMessage getResponse(BlockingQueue<CompletableFuture<SftpMessage>> arrived) throws SshException {
+		return responses.getResponse(arrived);
 	}
 	
 	/**
@@ -628,6 +700,22 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 
 		SftpMessage bar = getResponse(requestId);
+		try {
+			checkStatusResponse(bar);
+		} finally {
+			bar.release();
+		}
+	}
+	
+	/**
+	 * Verify that a response is an OK status.
+	 * 
+	 * @param bar
+	 * @throws SftpStatusException
+	 *             , SshException
+	 */
+	void checkStatusResponse(SftpMessage bar)
+			throws SftpStatusException, SshException {
 		try {
 			if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
@@ -650,10 +738,7 @@ public class SftpChannel extends AbstractSubsystem {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
-		} finally {
-			bar.release();
 		}
-
 	}
 
 	/**
@@ -849,7 +934,48 @@ public class SftpChannel extends AbstractSubsystem {
 			FileTransferProgress progress, long position)
 			throws SftpStatusException, SshException,
 			TransferCancelledException {
+		performOptimizedWrite(filename, handle, blocksize, outstandingRequests, in, 
+				buffersize, progress, position, null);
+	}
+	
+	/**
+	 * Performs an optimized write of a file through asynchronous messaging and
+	 * through buffering the local file into memory. 
+	 * <p>
+	 * The number of outstanding requests starts at one and is adjusted from the round 
+	 * trip times and throughput measured as the transfer runs, so that enough data is 
+	 * in flight to fill the bandwidth-delay product of the connection without exceeding
+	 * <code>outstandingRequests</code>. If that is not enough the block size is raised,
+	 * up to 65536 bytes or the maximum packet length of the remote side.
+	 * 
+	 * @param handle
+	 *            the open file handle to write to
+	 * @param blocksize
+	 *            the initial block size to send data, should be between 4096 and 65536
+	 * @param outstandingRequests
+	 *            the maximum number of requests that can be outstanding at any
+	 *            one time
+	 * @param in
+	 *            the InputStream to read from
+	 * @param buffersize
+	 *            the size of the temporary buffer to read from the InputStream.
+	 * @param progress
+	 *            provides progress information, may be null.
+	 * @param position
+	 *            the position in the file to start writing to.
+	 * @param statistics
+	 *            receives the measurements taken during the transfer, may be null.
+	 * @throws SshException
+	 */
+	public void performOptimizedWrite(String filename, byte[] handle, int blocksize,
+			int outstandingRequests, java.io.InputStream in, int buffersize,
+			FileTransferProgress progress, long position, TransferStatistics statistics)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
 
+		PipelineController pipeline = null;
+		Vector<long[]> requests = new Vector<long[]>();
+		
 		try {
 			if (blocksize < 4096) {
 				throw new SshException("Block size cannot be less than 4096",
@@ -869,11 +995,13 @@ public class SftpChannel extends AbstractSubsystem {
 					8 + 			// Offset Field Length
 					4;				// Data Size Field Length
 			
-			if(blocksize + overhead > getSession().getMaximumRemotePacketLength()) {
-				blocksize = getSession().getMaximumRemotePacketLength() - overhead;
+			int maximumBlocksize = getSession().getMaximumRemotePacketLength() - overhead;
+			if(blocksize > maximumBlocksize) {
+				blocksize = maximumBlocksize;
 			}
+			maximumBlocksize = Math.min(maximumBlocksize, Math.max(blocksize, 65536));
 			
-			System.setProperty("maverick.write.optimizedBlock", String.valueOf(blocksize));
+			pipeline = new PipelineController(blocksize, maximumBlocksize, outstandingRequests, statistics);
 			
 			if(Log.isTraceEnabled()) {
 				Log.trace("Performing optimized write length=" + in.available()
@@ -895,20 +1023,17 @@ public class SftpChannel extends AbstractSubsystem {
 				buffersize = blocksize;
 			}
 
-			byte[] buf = new byte[blocksize];
+			byte[] buf = new byte[maximumBlocksize];
 
-			long started = System.currentTimeMillis();
 			long transfered = position;
 			int buffered = 0;
 
-			buffered = in.read(buf);
+			buffered = in.read(buf, 0, blocksize);
 			if(buffered != -1) {
 			
-				long time = System.currentTimeMillis();
+				long firstPosted = pipeline.posted();
 				writeFile(handle, new UnsignedInteger64(position), buf, 0, buffered);
-				time = System.currentTimeMillis() - time;
-				
-				System.setProperty("maverick.write.blockRoundtrip", String.valueOf(time));
+				pipeline.received(firstPosted, buffered);
 				
 				transfered += buffered;
 	
@@ -918,7 +1043,6 @@ public class SftpChannel extends AbstractSubsystem {
 					progress.progressed(transfered);
 				}
 				
-				Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>();
 				// BufferedInputStream is not in J2ME, whatever type of input stream
 				// has been passed in can be used in conjunction with the abstract
 				// InputStream class.
@@ -926,12 +1050,13 @@ public class SftpChannel extends AbstractSubsystem {
 	
 				while (true) {
 	
-					buffered = in.read(buf);
+					buffered = in.read(buf, 0, pipeline.getBlockSize());
 					if (buffered == -1)
 						break;
 	
-					requests.addElement(postWriteRequest(handle, transfered, buf,
-							0, buffered));
+					long posted = pipeline.posted();
+					UnsignedInteger32 requestId = postWriteRequest(handle, transfered, buf, 0, buffered);
+					requests.addElement(new long[] { requestId.longValue(), posted, buffered });
 	
 					transfered += buffered;
 	
@@ -943,23 +1068,14 @@ public class SftpChannel extends AbstractSubsystem {
 						progress.progressed(transfered);
 					}
 					
-					if (requests.size() > outstandingRequests) {
-						requestId = (UnsignedInteger32) requests.elementAt(0);
-						requests.removeElementAt(0);
-						getOKRequestStatus(requestId);
+					while (requests.size() >= pipeline.getOutstandingRequests()) {
+						completeWriteRequest(requests.remove(0), pipeline);
 					}
 	
 				}
 
 				while(requests.size() > 0) {
-					getOKRequestStatus(requests.remove(0));
-				}
-				
-				long finished = System.currentTimeMillis();
-				long transferTime = finished - started;
-				long seconds = TimeUnit.MILLISECONDS.toSeconds(transferTime);
-				if(Log.isInfoEnabled()) {
-					Log.info("Optimized write to {} took {} seconds at {}",  filename, seconds, IOUtils.toByteSize(transfered / transferTime * 1000, 1));
+					completeWriteRequest(requests.remove(0), pipeline);
 				}
 			}
 
@@ -970,10 +1086,31 @@ public class SftpChannel extends AbstractSubsystem {
 					"Resource Shortage: try reducing the local file buffer size",
 					SshException.BAD_API_USAGE);
 		} finally {
-			
+			if(pipeline != null) {
+				pipeline.completed();
+				if(Log.isInfoEnabled()) {
+					Log.info("Optimized write to {} transferred {}",  filename, pipeline.getStatistics());
+				}
+			}
+			/**
+			 * Collect the responses to any requests left outstanding by a failure
+			 */
+			while(!requests.isEmpty()) {
+				try {
+					getResponse(new UnsignedInteger32(requests.remove(0)[0])).release();
+				} catch(SshException e) {
+					break;
+				}
+			}
 		}
 
 	}
+	
+	private void completeWriteRequest(long[] request, PipelineController pipeline) 
+			throws SftpStatusException, SshException {
+		getOKRequestStatus(new UnsignedInteger32(request[0]));
+		pipeline.received(request[1], (int) request[2]);
+	}
 
 	/**
 	 * Performs an optimized read of a file through use of asynchronous
@@ -1036,6 +1173,48 @@ public class SftpChannel extends AbstractSubsystem {
 			FileTransferProgress progress, long position)
 			throws SftpStatusException, SshException,
 			TransferCancelledException {
+		performOptimizedRead(filename, handle, length, blocksize, out, 
+				outstandingRequests, progress, position, null);
+	}
+	
+	/**
+	 * Performs an optimized read of a file through use of asynchronous
+	 * messages. This should be safe on file objects as the SSH protocol states 
+	 * that file read operations should return the exact number of bytes requested
+	 * in each request. However the server is not required to return the exact number 
+	 * of bytes on device files and so this method should not be used for device
+	 * files.
+	 * <p>
+	 * The number of outstanding requests starts at one and is adjusted from the round 
+	 * trip times and throughput measured as the transfer runs, so that enough data is 
+	 * in flight to fill the bandwidth-delay product of the connection without exceeding
+	 * <code>outstandingRequests</code>. If that is not enough the block size is raised, 
+	 * up to 65536 bytes, the maximum packet length of the local side, or the amount of 
+	 * data the server returned for the first block, whichever is lowest.
+	 * 
+	 * @param handle
+	 *            the open files handle
+	 * @param length
+	 *            the amount of the file file to be read, equal to the file
+	 *            length when reading the whole file
+	 * @param blocksize
+	 *            the initial blocksize to read
+	 * @param out
+	 *            an OutputStream to output the file into
+	 * @param outstandingRequests
+	 *            the maximum number of read requests to
+	 * @param progress
+	 * @param position
+	 *            the postition from which to start reading the file
+	 * @param statistics
+	 *            receives the measurements taken during the transfer, may be null.
+	 * @throws SshException
+	 */
+	public void performOptimizedRead(String filename, byte[] handle, long length, int blocksize,
+			OutputStream out, int outstandingRequests,
+			FileTransferProgress progress, long position, TransferStatistics statistics)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
 
 		if (blocksize < 1 || blocksize > 65536) {
 			if(Log.isTraceEnabled()) {
@@ -1054,11 +1233,12 @@ public class SftpChannel extends AbstractSubsystem {
 				4 + 			// Request Id Length
 				4;				// Data Size Field Length
 		
-		if(blocksize + overhead > getSession().getMaximumLocalPacketLength()) {
-			blocksize = getSession().getMaximumLocalPacketLength() - overhead;
+		int maximumBlocksize = Math.min(65536, getSession().getMaximumLocalPacketLength() - overhead);
+		if(blocksize > maximumBlocksize) {
+			blocksize = maximumBlocksize;
 		}
 		
-		System.setProperty("maverick.read.optimizedBlock", String.valueOf(blocksize));
+		PipelineController pipeline = new PipelineController(blocksize, maximumBlocksize, outstandingRequests, statistics);
 		
 		if(Log.isTraceEnabled()) {
 			Log.trace("Performing optimized read length=" + length
@@ -1090,7 +1270,9 @@ public class SftpChannel extends AbstractSubsystem {
 		 * LDP - Obtain the first block using a synchronous call. We do this
 		 * to determine if the server is conforming to the spec and
 		 * returning as much data as we have asked for. If not we
-		 * reconfigure the block size to the number of bytes returned.
+		 * reconfigure the block size to the number of bytes returned. The 
+		 * largest block is requested so that we also learn how far the 
+		 * pipeline can raise the block size.
 		 */
 
 		if (position < 0) {
@@ -1101,22 +1283,20 @@ public class SftpChannel extends AbstractSubsystem {
 
 		long transfered = 0;
 		boolean reachedEOF = false;
-		long started = System.currentTimeMillis();
+		Vector<long[]> requests = new Vector<long[]>();
 		
 		try {
-			byte[] tmp = new byte[blocksize];
+			byte[] tmp = new byte[maximumBlocksize];
 	
-			long time = System.currentTimeMillis();
+			long firstPosted = pipeline.posted();
 			int i = readFile(handle, new UnsignedInteger64(0), tmp, 0, tmp.length);
-			time = System.currentTimeMillis() - time;
-			
-			System.setProperty("maverick.read.blockRoundtrip", String.valueOf(time));
 	
 			// if i=-1 then eof so return, maybe should throw exception on null
 			// files?
 			if (i == -1) {
 				return;
 			}
+			pipeline.received(firstPosted, i);
 			// if the first block contains required data, write to the output
 			// buffer,
 			// write the portion of tmp needed to out
@@ -1143,22 +1323,16 @@ public class SftpChannel extends AbstractSubsystem {
 			}
 	
 			// reconfigure the blocksize if necessary
-			if (i < blocksize && length > i) {
-				blocksize = i;
+			if (i < maximumBlocksize && length > i) {
+				pipeline.shortRead(i);
 			}
-	
-			Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>(
-					outstandingRequests);
-			
-			int osr = 1;
 			
 			long offset = position;	
-			UnsignedInteger32 requestId;
 			int dataLen;
 			
 			while (true) {
 				
-				while(requests.size() < osr) {
+				while(requests.size() < pipeline.getOutstandingRequests()) {
 					
 					if(i > 0 && session.getRemoteWindow() < 29) {
 						if (Log.isDebugEnabled())
@@ -1168,17 +1342,19 @@ public class SftpChannel extends AbstractSubsystem {
 					if(Log.isTraceEnabled())
 						Log.trace("Posting request for file offset " + offset);
 		
-					requests.addElement(postReadRequest(handle, offset, blocksize));
-					offset += blocksize;
+					int len = pipeline.getBlockSize();
+					long posted = pipeline.posted();
+					UnsignedInteger32 requestId = postReadRequest(handle, offset, len);
+					requests.addElement(new long[] { requestId.longValue(), posted });
+					offset += len;
 		
 					if (progress != null && progress.isCancelled()) {
 						throw new TransferCancelledException();
 					}
 				}
 				
-				requestId = (UnsignedInteger32) requests.elementAt(0);
-				requests.removeElementAt(0);
-				SftpMessage bar = getResponse(requestId);
+				long[] request = requests.remove(0);
+				SftpMessage bar = getResponse(new UnsignedInteger32(request[0]));
 				try {
 					if (bar.getType() == SSH_FXP_DATA) {
 						dataLen = (int) bar.readInt();
@@ -1192,6 +1368,7 @@ public class SftpChannel extends AbstractSubsystem {
 							throw new TransferCancelledException();
 						}
 						transfered += dataLen;
+						pipeline.received(request[1], dataLen);
 						if (progress != null) {
 							progress.progressed(transfered);
 						}
@@ -1229,20 +1406,26 @@ public class SftpChannel extends AbstractSubsystem {
 				} finally {
 					bar.release();
 				}
-				
-				if(osr < outstandingRequests) {
-					osr++;
-				}
 			}
 			
 			
 		} finally {
 			
-			long finished = System.currentTimeMillis();
-			long transferTime = finished - started;
-			long seconds = TimeUnit.MILLISECONDS.toSeconds(transferTime);
+			pipeline.completed();
 			if(Log.isInfoEnabled()) {
-				Log.info("Optimized read from {} took {} seconds at {}",  filename, seconds, IOUtils.toByteSize(transfered / seconds, 1));
+				Log.info("Optimized read from {} transferred {}",  filename, pipeline.getStatistics());
+			}
+			
+			/**
+			 * Collect the responses to requests that were outstanding when the 
+			 * end of the file was reached, or when the transfer failed
+			 */
+			while(!requests.isEmpty()) {
+				try {
+					getResponse(new UnsignedInteger32(requests.remove(0)[0])).release();
+				} catch(SshException e) {
+					break;
+				}
 			}
 			
 			if(reachedEOF && performVerification && transfered > 0) {
@@ -1293,6 +1476,264 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Performs a read of a file into a channel, writing the data of each response 
+	 * at its offset as soon as it arrives rather than in the order the requests were 
+	 * made. A new request is made as each response arrives, so one slow response 
+	 * does not stop the others being consumed or new requests being made. When the 
+	 * server returns less data than requested the remainder is requested again, and 
+	 * the block size of later requests is reduced to what the server returned. A
+	 * response with no data is treated as the end of the file.
+	 * <p>
+	 * The number of outstanding requests and the block size are adjusted from the 
+	 * round trip times and throughput measured as the transfer runs, as described
+	 * for {@link #performOptimizedRead(String, byte[], long, int, OutputStream, int, FileTransferProgress, long, TransferStatistics)}.
+	 * <p>
+	 * The output channel must support writing at any position. An error writing to it 
+	 * fails the transfer with an {@link SshException} caused by the error. A {@link FileChannel} 
+	 * is written with positional writes; any other channel is positioned before each 
+	 * write.
+	 * 
+	 * @param filename
+	 *            the name of the file, used for logging
+	 * @param handle
+	 *            the open file handle
+	 * @param position
+	 *            the position in the file to start reading from, which is also the 
+	 *            position the data is written to in the output channel
+	 * @param length
+	 *            the amount of data to read, or a negative value to read until the end 
+	 *            of the file
+	 * @param blocksize
+	 *            the initial size of each read request
+	 * @param outstandingRequests
+	 *            the maximum number of read requests to keep outstanding
+	 * @param out
+	 *            the channel to write the data to
+	 * @param progress
+	 *            provides progress information, may be null.
+	 * @return the number of bytes transferred
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public long performRandomAccessRead(String filename, byte[] handle, long position, long length, 
+			int blocksize, int outstandingRequests, SeekableByteChannel out, 
+			FileTransferProgress progress) throws SftpStatusException, SshException, TransferCancelledException {
+		return performRandomAccessRead(filename, handle, position, length, blocksize, 
+				outstandingRequests, out, progress, null);
+	}
+	
+	/**
+	 * Performs a read of a file into a channel, writing the data of each response 
+	 * at its offset as soon as it arrives, and records the measurements taken during
+	 * the transfer.
+	 * 
+	 * @param filename
+	 *            the name of the file, used for logging
+	 * @param handle
+	 *            the open file handle
+	 * @param position
+	 *            the position in the file to start reading from, which is also the 
+	 *            position the data is written to in the output channel
+	 * @param length
+	 *            the amount of data to read, or a negative value to read until the end 
+	 *            of the file
+	 * @param blocksize
+	 *            the initial size of each read request
+	 * @param outstandingRequests
+	 *            the maximum number of read requests to keep outstanding
+	 * @param out
+	 *            the channel to write the data to
+	 * @param progress
+	 *            provides progress information, may be null.
+	 * @param statistics
+	 *            receives the measurements taken during the transfer, may be null.
+	 * @return the number of bytes transferred
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @see #performRandomAccessRead(String, byte[], long, long, int, int, SeekableByteChannel, FileTransferProgress)
+	 */
+	public long performRandomAccessRead(String filename, byte[] handle, long position, long length, 
+			int blocksize, int outstandingRequests, SeekableByteChannel out, 
+			FileTransferProgress progress, TransferStatistics statistics) 
+					throws SftpStatusException, SshException, TransferCancelledException {
+		
+		if (position < 0) {
+			throw new SshException(
+					"Position value must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		if (outstandingRequests < 1) {
+			throw new SshException(
+					"Outstanding requests must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		if (blocksize < 1 || blocksize > 65536) {
+			if(Log.isTraceEnabled()) {
+				Log.trace("Blocksize to large for some SFTP servers, reseting to 32K");
+			}
+			blocksize = 32768;
+		}
+
+		int overhead = 4 + 		// Packet Length Field Length
+				1 + 			// Message Id Length
+				4 + 			// Request Id Length
+				4;				// Data Size Field Length
+		
+		int maximumBlocksize = Math.min(65536, getSession().getMaximumLocalPacketLength() - overhead);
+		if(blocksize > maximumBlocksize) {
+			blocksize = maximumBlocksize;
+		}
+		
+		PipelineController pipeline = new PipelineController(blocksize, maximumBlocksize, outstandingRequests, statistics);
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Performing random access read length=" + length
+					+ " postion=" + position + " blocksize=" + blocksize
+					+ " outstandingRequests=" + outstandingRequests);
+		}
+		
+		long end = length < 0 ? Long.MAX_VALUE : position + length;
+		long next = position;
+		long eof = Long.MAX_VALUE;
+		long transfered = 0;
+		
+		Map<UnsignedInteger32,long[]> requests = new HashMap<UnsignedInteger32,long[]>();
+		BlockingQueue<CompletableFuture<SftpMessage>> arrived = new LinkedBlockingQueue<CompletableFuture<SftpMessage>>();
+		
+		try {
+			while(true) {
+				
+				while(next < Math.min(end, eof) && requests.size() < pipeline.getOutstandingRequests()) {
+					int len = (int) Math.min(pipeline.getBlockSize(), end - next);
+					postRandomAccessRead(handle, next, len, pipeline, requests, arrived);
+					next += len;
+				}
+				
+				if(requests.isEmpty()) {
+					break;
+				}
+				
+				if (progress != null && progress.isCancelled()) {
+					throw new TransferCancelledException();
+				}
+				
+				SftpMessage bar = getResponse(arrived);
+				long[] request = requests.remove(new UnsignedInteger32(bar.getMessageId() & UnsignedInteger32.MAX_VALUE));
+				long offset = request[0];
+				int requested = (int) request[1];
+				
+				try {
+					if (bar.getType() == SSH_FXP_DATA) {
+						int dataLen = (int) bar.readInt();
+						
+						if(dataLen > 0) {
+							try {
+								write(out, ByteBuffer.wrap(bar.array(), bar.getPosition(), dataLen), offset);
+							} catch (IOException e) {
+								throw new SshException("Failed to write data read from " + filename, 
+										SshException.INTERNAL_ERROR, e);
+							}
+							transfered += dataLen;
+							if (progress != null) {
+								progress.progressed(transfered);
+							}
+						}
+						pipeline.received(request[2], dataLen);
+						
+						if(dataLen == 0) {
+							/**
+							 * The server has no more data at this offset, requesting it 
+							 * again would never make progress.
+							 */
+							if(Log.isTraceEnabled())
+								Log.trace("Received empty data at offset " + offset + ", treating as EOF");
+							eof = Math.min(eof, offset);
+						} else if(dataLen < requested && offset + dataLen < eof) {
+							/**
+							 * A short read leaves a hole, request the rest of the block 
+							 * and make no larger requests than the server will satisfy.
+							 */
+							pipeline.shortRead(dataLen);
+							postRandomAccessRead(handle, offset + dataLen, requested - dataLen, 
+									pipeline, requests, arrived);
+						}
+					} else if (bar.getType() == SSH_FXP_STATUS) {
+						int status = (int) bar.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+							if(Log.isTraceEnabled())
+								Log.trace("Received file EOF at offset " + offset);
+							pipeline.received(request[2], 0);
+							eof = Math.min(eof, offset);
+							continue;
+						}
+						if (version >= 3) {
+							throw new SftpStatusException(status, bar.readString());
+						}
+						throw new SftpStatusException(status);
+					} else {
+						throw new SshException(
+								"The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE);
+					}
+				} catch(IOException ex) {
+					throw new SshException(
+							"Failed to read expected data from server response",
+							SshException.CHANNEL_FAILURE);
+				} finally {
+					bar.release();
+				}
+			}
+			
+			return transfered;
+		} finally {
+			pipeline.completed();
+			if(Log.isInfoEnabled()) {
+				Log.info("Random access read from {} transferred {}",  filename, pipeline.getStatistics());
+			}
+			/**
+			 * Collect the responses to any requests left outstanding by a failure
+			 */
+			while(!requests.isEmpty()) {
+				try {
+					SftpMessage bar = getResponse(arrived);
+					requests.remove(new UnsignedInteger32(bar.getMessageId() & UnsignedInteger32.MAX_VALUE));
+					bar.release();
+				} catch(SshException e) {
+					break;
+				}
+			}
+		}
+	}
+	
+	private void postRandomAccessRead(byte[] handle, long offset, int len, PipelineController pipeline,
+			Map<UnsignedInteger32,long[]> requests, BlockingQueue<CompletableFuture<SftpMessage>> arrived) 
+					throws SftpStatusException, SshException {
+		long posted = pipeline.posted();
+		UnsignedInteger32 requestId = postReadRequest(handle, offset, len);
+		requests.put(requestId, new long[] { offset, len, posted });
+		CompletableFuture<SftpMessage> future = getResponseFuture(requestId);
+		future.whenComplete((msg, e) -> arrived.add(future));
+	}
+	
+	private void write(SeekableByteChannel out, ByteBuffer buf, long offset) throws IOException {
+		if(out instanceof FileChannel) {
+			FileChannel channel = (FileChannel) out;
+			while(buf.hasRemaining()) {
+				offset += channel.write(buf, offset);
+			}
+		} else {
+			out.position(offset);
+			while(buf.hasRemaining()) {
+				out.write(buf);
+			}
+		}
+	}
+
 	/**
 	 * Perform a synchronous read of a file from the remote file system. This
 	 * implementation waits for acknowledgement of every data packet before
@@ -1975,59 +2416,8 @@ public class SftpChannel extends AbstractSubsystem {
 			SftpFileAttributes attrs) throws SftpStatusException, SshException {
 
 		if (version >= 5) {
-
-			if(Log.isTraceEnabled()) {
-				Log.trace("Converting openFile request to version 5+ format");
-			}
-			// Translate old flags and access to new values
-			int accessFlags = 0;
-			int newFlags = 0;
-
-			if ((flags & OPEN_READ) == OPEN_READ) {
-				accessFlags |= ACL.ACE4_READ_DATA | ACL.ACE4_READ_ATTRIBUTES;
-				if(Log.isTraceEnabled()) {
-					Log.trace("OPEN_READ present, adding ACE4_READ_DATA, ACE4_READ_ATTRIBUTES");
-				}
-			}
-			if ((flags & OPEN_WRITE) == OPEN_WRITE) {
-				accessFlags |= ACL.ACE4_WRITE_DATA;
-				accessFlags |= ACL.ACE4_WRITE_ATTRIBUTES;
-				if(Log.isTraceEnabled()) {
-					Log.trace("OPEN_WRITE present, adding ACE4_WRITE_DATA, ACE4_WRITE_ATTRIBUTES ");
-				}
-			}
-			if ((flags & OPEN_APPEND) == OPEN_APPEND) {
-				accessFlags |= ACL.ACE4_APPEND_DATA;
-				accessFlags |= ACL.ACE4_WRITE_DATA;
-				accessFlags |= ACL.ACE4_WRITE_ATTRIBUTES;
-				newFlags |= SSH_FXF_ACCESS_APPEND_DATA;
-				if(Log.isTraceEnabled()) {
-					Log.trace("OPEN_APPEND present, adding ACE4_APPEND_DATA,ACE4_WRITE_DATA, ACE4_WRITE_ATTRIBUTES");
-				}
-			}
-			
-			if((flags & OPEN_CREATE)==OPEN_CREATE) {
-				if((flags & OPEN_TRUNCATE)==OPEN_TRUNCATE) {
-					newFlags |= SSH_FXF_CREATE_TRUNCATE;
-					if(Log.isTraceEnabled()) {
-						Log.trace("OPEN_CREATE and OPEN_TRUNCATE present, adding SSH_FXF_CREATE_TRUNCATE");
-					}
-				} 
-			} else {
-				newFlags |= SSH_FXF_OPEN_EXISTING;
-				if(Log.isTraceEnabled()) {
-					Log.trace("OPEN_CREATE not present, adding SSH_FXF_OPEN_EXISTING");
-				}
-			}
-			
-			if((flags & OPEN_TEXT)==OPEN_TEXT) {
-				newFlags |= SSH_FXF_ACCESS_TEXT_MODE;
-				if(Log.isTraceEnabled()) {
-					Log.trace("OPEN_TEXT present adding SSH_FXF_ACCESS_TEXT_MODE");
-				}
-			}
-			
-			return openFileVersion5(absolutePath, newFlags, accessFlags, attrs);
+			int accessFlags = getVersion5AccessFlags(flags);
+			return openFileVersion5(absolutePath, getVersion5Flags(flags), accessFlags, attrs);
 		} else {
 			if (attrs == null) {
 				attrs = new SftpFileAttributes(
@@ -2067,6 +2457,81 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Translate the open flags of versions 3 and 4 into the access flags of version 5+.
+	 * 
+	 * @param flags
+	 * @return int
+	 */
+	int getVersion5AccessFlags(int flags) {
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Converting openFile request to version 5+ format");
+		}
+		
+		int accessFlags = 0;
+		
+		if ((flags & OPEN_READ) == OPEN_READ) {
+			accessFlags |= ACL.ACE4_READ_DATA | ACL.ACE4_READ_ATTRIBUTES;
+			if(Log.isTraceEnabled()) {
+				Log.trace("OPEN_READ present, adding ACE4_READ_DATA, ACE4_READ_ATTRIBUTES");
+			}
+		}
+		if ((flags & OPEN_WRITE) == OPEN_WRITE) {
+			accessFlags |= ACL.ACE4_WRITE_DATA;
+			accessFlags |= ACL.ACE4_WRITE_ATTRIBUTES;
+			if(Log.isTraceEnabled()) {
+				Log.trace("OPEN_WRITE present, adding ACE4_WRITE_DATA, ACE4_WRITE_ATTRIBUTES ");
+			}
+		}
+		if ((flags & OPEN_APPEND) == OPEN_APPEND) {
+			accessFlags |= ACL.ACE4_APPEND_DATA;
+			accessFlags |= ACL.ACE4_WRITE_DATA;
+			accessFlags |= ACL.ACE4_WRITE_ATTRIBUTES;
+			if(Log.isTraceEnabled()) {
+				Log.trace("OPEN_APPEND present, adding ACE4_APPEND_DATA,ACE4_WRITE_DATA, ACE4_WRITE_ATTRIBUTES");
+			}
+		}
+		return accessFlags;
+	}
+	
+	/**
+	 * Translate the open flags of versions 3 and 4 into the flags of version 5+.
+	 * 
+	 * @param flags
+	 * @return int
+	 */
+	int getVersion5Flags(int flags) {
+		
+		int newFlags = 0;
+		
+		if ((flags & OPEN_APPEND) == OPEN_APPEND) {
+			newFlags |= SSH_FXF_ACCESS_APPEND_DATA;
+		}
+		
+		if((flags & OPEN_CREATE)==OPEN_CREATE) {
+			if((flags & OPEN_TRUNCATE)==OPEN_TRUNCATE) {
+				newFlags |= SSH_FXF_CREATE_TRUNCATE;
+				if(Log.isTraceEnabled()) {
+					Log.trace("OPEN_CREATE and OPEN_TRUNCATE present, adding SSH_FXF_CREATE_TRUNCATE");
+				}
+			} 
+		} else {
+			newFlags |= SSH_FXF_OPEN_EXISTING;
+			if(Log.isTraceEnabled()) {
+				Log.trace("OPEN_CREATE not present, adding SSH_FXF_OPEN_EXISTING");
+			}
+		}
+		
+		if((flags & OPEN_TEXT)==OPEN_TEXT) {
+			newFlags |= SSH_FXF_ACCESS_TEXT_MODE;
+			if(Log.isTraceEnabled()) {
+				Log.trace("OPEN_TEXT present adding SSH_FXF_ACCESS_TEXT_MODE");
+			}
+		}
+		return newFlags;
+	}
+
 	public SftpFile openFileVersion5(String absolutePath, int flags,
 			int accessFlags, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
@@ -2351,21 +2816,7 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.writeString(path, CHARSET_ENCODING);
 
 			if (version > 3) {
-				
-				long flags = SftpFileAttributes.SSH_FILEXFER_ATTR_SIZE
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_PERMISSIONS
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_ACCESSTIME
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_CREATETIME
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_MODIFYTIME
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_ACL
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_OWNERGROUP
-						| SftpFileAttributes.SSH_FILEXFER_ATTR_SUBSECOND_TIMES;
-				
-				if(version > 4) {
-					flags |= SftpFileAttributes.SSH_FILEXFER_ATTR_BITS;
-				}
-				
-				msg.writeInt(flags);
+				msg.writeInt(getAttributeFlags());
 			}
 
 			sendMessage(msg);
@@ -2383,6 +2834,27 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * The attributes requested by a stat when the version is greater than 3.
+	 * 
+	 * @return long
+	 */
+	long getAttributeFlags() {
+		long flags = SftpFileAttributes.SSH_FILEXFER_ATTR_SIZE
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_PERMISSIONS
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_ACCESSTIME
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_CREATETIME
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_MODIFYTIME
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_ACL
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_OWNERGROUP
+				| SftpFileAttributes.SSH_FILEXFER_ATTR_SUBSECOND_TIMES;
+		
+		if(version > 4) {
+			flags |= SftpFileAttributes.SSH_FILEXFER_ATTR_BITS;
+		}
+		return flags;
+	}
+	
 	SftpFileAttributes extractAttributes(SftpMessage bar)
 			throws SftpStatusException, SshException {
 		try {
@@ -2606,36 +3078,6 @@ public class SftpChannel extends AbstractSubsystem {
 	    return PacketPool.getInstance().getPacket();
 	  }
 	  
-	  class SftpThreadSynchronizer {
-
-			boolean isBlocking = false;
-
-			public boolean requestBlock(UnsignedInteger32 requestId,
-					MessageHolder holder) throws InterruptedException {
-
-				if (responses.containsKey(requestId)) {
-					holder.msg = (Message) responses.get(requestId);
-					return false;
-				}
-
-				synchronized (this) {
-					boolean canBlock = !isBlocking;
-					if (canBlock) {
-						isBlocking = true;
-					} else {
-						wait();
-					}
-					return canBlock;
-				}
-			}
-
-			public synchronized void releaseBlock() {
-				isBlocking = false;
-				notifyAll();
-			}
-
-		}
-
 	public boolean isClosed() {
 		return getSession().isClosed();
 	}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.SeekableByteChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -71,6 +72,7 @@ public class SftpClient {
 	private int blocksize = 16384;
 	private int asyncRequests = 16;
 	private int buffersize = 1024000;
+	private volatile TransferStatistics statistics;
 
 	// Default permissions is determined by default_permissions ^ umask
 	int umask = 0022;
@@ -162,6 +164,16 @@ public class SftpClient {
 	public SftpChannel getSubsystemChannel() {
 		return sftp;
 	}
+	
+	/**
+	 * Returns the measurements taken during the current or most recent get or put
+	 * of this client, or null if no file has been transferred.
+	 * 
+	 * @return TransferStatistics
+	 */
+	public TransferStatistics getTransferStatistics() {
+		return statistics;
+	}
 
 	/**
 	 * <p>
@@ -1535,7 +1547,7 @@ public class SftpClient {
 
 			sftp.performOptimizedRead(remotePath, file.getHandle(), attrs.getSize()
 					.longValue(), blocksize, local, asyncRequests, progress,
-					position);
+					position, statistics = new TransferStatistics());
 		} catch(IOException ex) {
 			throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
 					"Failed to open text conversion outputstream");
@@ -1561,6 +1573,70 @@ public class SftpClient {
 		return attrs;
 	}
 
+	/**
+	 * <p>
+	 * Download the remote file into a <code>SeekableByteChannel</code>, such as a 
+	 * <code>FileChannel</code>. Each block of data is written at its offset as soon as
+	 * it arrives, so a slow response does not hold up those behind it. Data is written at 
+	 * the same position in the channel as it is read from in the remote file. The channel
+	 * is not closed by this method. Only binary transfers are supported.
+	 * </p>
+	 * 
+	 * @param remote
+	 *            the path/name of the remote file
+	 * @param local
+	 *            the channel to write to
+	 * @param progress
+	 * @param position
+	 *            the position within the file to start reading from
+	 * 
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public SftpFileAttributes get(String remote, SeekableByteChannel local,
+			FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
+
+		if (transferMode == MODE_TEXT) {
+			throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED,
+					"Text mode is not supported when downloading into a channel");
+		}
+		
+		String remotePath = resolveRemotePath(remote);
+		SftpFileAttributes attrs = sftp.getAttributes(remotePath);
+
+		if (position > attrs.getSize().longValue()) {
+			throw new SftpStatusException(
+					SftpStatusException.INVALID_RESUME_STATE,
+					"The local file size is greater than the remote file");
+		}
+
+		if (progress != null) {
+			progress.started(attrs.getSize().longValue()-position, remotePath);
+		}
+
+		SftpFile file = sftp.openFile(remotePath, SftpChannel.OPEN_READ);
+		try {
+			sftp.performRandomAccessRead(remotePath, file.getHandle(), position, -1, 
+					blocksize, asyncRequests, local, progress, statistics = new TransferStatistics());
+		} finally {
+			try {
+				sftp.closeFile(file);
+			} catch (SftpStatusException ex) {
+			}
+		}
+
+		if (progress != null) {
+			progress.completed();
+		}
+
+		return attrs;
+	}
+
 	/**
 	 * Create an InputStream for reading a remote file.
 	 * 
@@ -2014,7 +2090,8 @@ public class SftpClient {
 		}
 
 		try {
-			sftp.performOptimizedWrite(remotePath, file.getHandle(), blocksize, asyncRequests, in, buffersize, progress, position < 0 ? 0 : position);
+			sftp.performOptimizedWrite(remotePath, file.getHandle(), blocksize, asyncRequests, in, buffersize, progress, 
+					position < 0 ? 0 : position, statistics = new TransferStatistics());
 		} catch (SftpStatusException e) {
 			Log.error("SFTP status exception during transfer [" + e.getStatus() + "]", e);
 			throw e;
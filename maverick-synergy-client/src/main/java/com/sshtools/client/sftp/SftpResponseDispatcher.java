@@ -0,0 +1,225 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.synergy.nio.ExecutorFactory;
+
+/**
+ * Reads every message from an SFTP channel on its own thread, and completes the 
+ * future of the request each one responds to. Callers waiting for responses never 
+ * read from the channel themselves, so any number of threads can have requests 
+ * outstanding on the same channel, and responses can arrive in any order.
+ * <p>
+ * A response that arrives before its future is requested is kept until it is. Once 
+ * the channel fails, every outstanding future, and every future requested from then 
+ * on, completes with the failure.
+ * <p>
+ * The reader runs on an executor created by an {@link ExecutorFactory}, so that it 
+ * uses a virtual thread when the connection is configured to. The executor is shut 
+ * down when the channel fails or is closed.
+ */
+class SftpResponseDispatcher {
+
+	/**
+	 * The source of the messages to dispatch.
+	 */
+	interface MessageSource {
+		
+		/**
+		 * Wait for the next message.
+		 * 
+		 * @return byte[]
+		 * @throws SshException if no more messages can be read
+		 */
+		byte[] nextMessage() throws SshException;
+		
+		/**
+		 * Close the source because a thread waiting for a response was interrupted.
+		 */
+		void close();
+	}
+	
+	final MessageSource source;
+	final Map<Integer, CompletableFuture<SftpMessage>> responses = new ConcurrentHashMap<Integer, CompletableFuture<SftpMessage>>();
+	final ExecutorService executor;
+	volatile Thread thread;
+	volatile SshException failure;
+	
+	SftpResponseDispatcher(MessageSource source, ExecutorFactory executorFactory, String name) {
+		this.source = source;
+		this.executor = executorFactory.createExecutor(name);
+	}
+	
+	void start() {
+		executor.execute(new Runnable() {
+			public void run() {
+				thread = Thread.currentThread();
+				try {
+					dispatchResponses();
+				} finally {
+					executor.shutdown();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Is the current thread the one that completes the futures of responses? 
+	 * Anything that might wait for a response must not run on this thread.
+	 * 
+	 * @return boolean
+	 */
+	boolean isDispatchThread() {
+		return Thread.currentThread() == thread;
+	}
+	
+	/**
+	 * Get the number of futures waiting for a response, or holding a response that
+	 * has not been requested yet.
+	 * 
+	 * @return int
+	 */
+	int getPendingResponses() {
+		return responses.size();
+	}
+	
+	private void dispatchResponses() {
+		try {
+			while(true) {
+				SftpMessage msg;
+				try {
+					msg = new SftpMessage(source.nextMessage());
+				} catch (IOException e) {
+					throw new SshException(SshException.INTERNAL_ERROR, e);
+				}
+				CompletableFuture<SftpMessage> future = responses.computeIfAbsent(msg.getMessageId(), 
+						(id) -> new CompletableFuture<SftpMessage>());
+				if(!future.complete(msg)) {
+					msg.release();
+				}
+				if(Log.isTraceEnabled()) {
+					Log.trace("There are " + responses.size() + " SFTP requests outstanding or responses waiting to be processed");
+				}
+			}
+		} catch(SshException e) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("SFTP response dispatcher {} has stopped", Thread.currentThread().getName(), e);
+			}
+			failure = e;
+			for(CompletableFuture<SftpMessage> future : responses.values()) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	/**
+	 * Get a future that is completed with the response to a request. The response 
+	 * is completed on the dispatch thread, so any action chained to the future should 
+	 * not block. The caller is responsible for releasing the message once it has been 
+	 * processed.
+	 * 
+	 * @param requestId
+	 * @return CompletableFuture
+	 */
+	CompletableFuture<SftpMessage> getResponseFuture(UnsignedInteger32 requestId) {
+		
+		Integer id = (int) requestId.longValue();
+		CompletableFuture<SftpMessage> future = responses.computeIfAbsent(id, 
+				(k) -> new CompletableFuture<SftpMessage>());
+		future.whenComplete((msg, e) -> responses.remove(id, future));
+		
+		SshException e = failure;
+		if(e != null) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Wait for the response to a request.
+	 * 
+	 * @param requestId
+	 * @return SftpMessage
+	 * @throws SshException if the channel failed, or the response has not arrived and 
+	 * the caller is the dispatch thread, which would never deliver it
+	 */
+	SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
+		CompletableFuture<SftpMessage> future = getResponseFuture(requestId);
+		if(!future.isDone()) {
+			checkNotDispatchThread();
+		}
+		return waitFor(future);
+	}
+	
+	/**
+	 * Get the first response to arrive for any of a number of requests whose futures 
+	 * add themselves to a queue when completed.
+	 * 
+	 * @param arrived
+	 * @return SftpMessage
+	 * @throws SshException
+	 */
+	SftpMessage getResponse(BlockingQueue<CompletableFuture<SftpMessage>> arrived) throws SshException {
+		try {
+			CompletableFuture<SftpMessage> future = arrived.poll();
+			if(future == null) {
+				checkNotDispatchThread();
+				future = arrived.take();
+			}
+			return waitFor(future);
+		} catch (InterruptedException e) {
+			source.close();
+			throw new SshException("The thread was interrupted",
+					SshException.CHANNEL_FAILURE);
+		}
+	}
+	
+	private void checkNotDispatchThread() throws SshException {
+		if(isDispatchThread()) {
+			throw new SshException("Cannot wait for an SFTP response on the thread that dispatches them",
+					SshException.BAD_API_USAGE);
+		}
+	}
+	
+	private SftpMessage waitFor(CompletableFuture<SftpMessage> future) throws SshException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			source.close();
+			throw new SshException("The thread was interrupted",
+					SshException.CHANNEL_FAILURE);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof SshException) {
+				throw (SshException) e.getCause();
+			}
+			throw new SshException(SshException.INTERNAL_ERROR, e.getCause());
+		}
+	}
+}
@@ -0,0 +1,1036 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * Transfers files over a pool of SFTP channels in parallel.
+ * <p>
+ * {@link SftpClient} transfers files one after another over a single channel, so 
+ * every file waits for the open, close and pipeline ramp up of the one before it. 
+ * This engine opens a number of SFTP channels, optionally spread over several 
+ * connections, and transfers files on all of them at once. Files at least as large 
+ * as the stripe threshold are split into ranges which are transferred on separate
+ * channels at the same time. The progress of each operation is reported to a single
+ * {@link FileTransferProgress} as the total of all files.
+ * <p>
+ * Files are always transferred in binary mode and transfers are not resumed.
+ */
+public class SftpTransferEngine implements Closeable {
+
+	public static final long DEFAULT_STRIPE_THRESHOLD = 32 * 1024 * 1024;
+	public static final long DEFAULT_STRIPE_SIZE = 8 * 1024 * 1024;
+	
+	final List<SftpClient> clients = new ArrayList<SftpClient>();
+	final BlockingQueue<SftpClient> idle = new LinkedBlockingQueue<SftpClient>();
+	final AtomicInteger available = new AtomicInteger();
+	final ExecutorService executor;
+	final AbstractFile lcwd;
+	
+	private int blocksize = 16384;
+	private int asyncRequests = 16;
+	private int buffersize = 1024000;
+	private long stripeThreshold = DEFAULT_STRIPE_THRESHOLD;
+	private long stripeSize = DEFAULT_STRIPE_SIZE;
+	
+	/**
+	 * Create an engine with a number of SFTP channels, opened in turn on each of the 
+	 * connections provided. Local paths are resolved against the user's home directory.
+	 * 
+	 * @param channels
+	 * @param connections
+	 * @throws SshException
+	 * @throws PermissionDeniedException
+	 * @throws IOException
+	 */
+	public SftpTransferEngine(int channels, SshConnection... connections) throws SshException, PermissionDeniedException, IOException {
+		this(channels, new DirectFileFactory(new java.io.File(System.getProperty("user.home"))), connections);
+	}
+	
+	public SftpTransferEngine(int channels, SshClient... ssh) throws SshException, PermissionDeniedException, IOException {
+		this(channels, new DirectFileFactory(new java.io.File(System.getProperty("user.home"))), connections(ssh));
+	}
+	
+	public SftpTransferEngine(int channels, AbstractFileFactory<?> fileFactory, SshClient... ssh) throws SshException, PermissionDeniedException, IOException {
+		this(channels, fileFactory, connections(ssh));
+	}
+	
+	/**
+	 * Create an engine with a number of SFTP channels, opened in turn on each of the 
+	 * connections provided.
+	 * 
+	 * @param channels
+	 * @param fileFactory
+	 * @param connections
+	 * @throws SshException
+	 * @throws PermissionDeniedException
+	 * @throws IOException
+	 */
+	public SftpTransferEngine(int channels, AbstractFileFactory<?> fileFactory, SshConnection... connections) throws SshException, PermissionDeniedException, IOException {
+		
+		if(channels < 1) {
+			throw new IllegalArgumentException("The number of channels must be greater or equal to 1");
+		}
+		if(connections.length == 0) {
+			throw new IllegalArgumentException("At least one connection is required");
+		}
+		
+		this.lcwd = fileFactory.getFile("");
+		
+		try {
+			for(int i=0;i<channels;i++) {
+				clients.add(new SftpClient(connections[i % connections.length], fileFactory));
+			}
+		} catch(SshException | PermissionDeniedException | IOException | RuntimeException e) {
+			closeClients();
+			throw e;
+		}
+		
+		idle.addAll(clients);
+		available.set(clients.size());
+		
+		executor = SftpChannel.getExecutorFactory(connections[0]).createExecutor("sftp-transfer");
+	}
+	
+	private static SshConnection[] connections(SshClient... ssh) {
+		SshConnection[] connections = new SshConnection[ssh.length];
+		for(int i=0;i<ssh.length;i++) {
+			connections[i] = ssh[i].getConnection();
+		}
+		return connections;
+	}
+	
+	/**
+	 * Get the number of SFTP channels in the pool.
+	 * 
+	 * @return int
+	 */
+	public int getChannels() {
+		return clients.size();
+	}
+	
+	/**
+	 * Set the block size used for each read or write request.
+	 * 
+	 * @param blocksize
+	 */
+	public void setBlockSize(int blocksize) {
+		if (blocksize < 4096) {
+			throw new IllegalArgumentException(
+					"Block size must be greater or equal to 4096");
+		}
+		this.blocksize = blocksize;
+	}
+	
+	/**
+	 * Set the maximum number of requests outstanding on each channel.
+	 * 
+	 * @param asyncRequests
+	 */
+	public void setMaxAsyncRequests(int asyncRequests) {
+		if (asyncRequests < 1) {
+			throw new IllegalArgumentException(
+					"Maximum asynchronous requests must be greater or equal to 1");
+		}
+		this.asyncRequests = asyncRequests;
+	}
+	
+	/**
+	 * Set the size of the buffer used to read local files when uploading.
+	 * 
+	 * @param buffersize
+	 */
+	public void setBufferSize(int buffersize) {
+		this.buffersize = buffersize;
+	}
+	
+	/**
+	 * Set the size at which a file is split into stripes which are transferred in parallel.
+	 * 
+	 * @param stripeThreshold
+	 */
+	public void setStripeThreshold(long stripeThreshold) {
+		if(stripeThreshold < 1) {
+			throw new IllegalArgumentException("Stripe threshold must be greater than zero");
+		}
+		this.stripeThreshold = stripeThreshold;
+	}
+	
+	/**
+	 * Set the size of each stripe of a large file.
+	 * 
+	 * @param stripeSize
+	 */
+	public void setStripeSize(long stripeSize) {
+		if(stripeSize < 4096) {
+			throw new IllegalArgumentException("Stripe size must be greater or equal to 4096");
+		}
+		this.stripeSize = stripeSize;
+	}
+	
+	/**
+	 * Upload a single file. If the remote path is a directory the file is placed inside it.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param progress
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void put(String local, String remote, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		SftpClient client = borrow();
+		try {
+			AbstractFile file = lcwd.resolveFile(local);
+			String remotePath = resolveRemotePath(client, remote);
+			try {
+				if(client.stat(remotePath).isDirectory()) {
+					remotePath = childPath(remotePath, file.getName());
+				}
+			} catch(SftpStatusException e) {
+			}
+			planUpload(transfer, client, file, remotePath);
+		} finally {
+			release(client);
+		}
+		transfer.execute(remote);
+	}
+	
+	/**
+	 * Download a single file. If the local path is a directory the file is placed inside it.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param progress
+	 * @return the attributes of the remote file
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public SftpFileAttributes get(String remote, String local, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		SftpFileAttributes attrs;
+		SftpClient client = borrow();
+		try {
+			String remotePath = resolveRemotePath(client, remote);
+			attrs = client.stat(remotePath);
+			AbstractFile file = lcwd.resolveFile(local);
+			if(file.isDirectory()) {
+				file = file.resolveFile(FileUtils.getFilename(remotePath));
+			}
+			planDownload(transfer, client, remotePath, attrs, file);
+		} finally {
+			release(client);
+		}
+		transfer.execute(remote);
+		return attrs;
+	}
+	
+	/**
+	 * Download the remote files matching a glob pattern into a local directory. The 
+	 * local path may name a file only when a single file matches.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param progress
+	 * @return the files that were downloaded
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public SftpFile[] getFiles(String remote, String local, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		List<SftpFile> retrieved = new ArrayList<SftpFile>();
+		SftpClient client = borrow();
+		try {
+			AbstractFile target = lcwd.resolveFile(local);
+			for(SftpFile file : client.matchRemoteFiles(resolveRemotePath(client, remote))) {
+				if(file.isFile()) {
+					retrieved.add(file);
+				}
+			}
+			/**
+			 * Several files cannot be downloaded into the same local file
+			 */
+			if(retrieved.size() > 1 && !target.isDirectory()) {
+				throw new IOException(local + " is not a local directory!");
+			}
+			for(SftpFile file : retrieved) {
+				planDownload(transfer, client, file.getAbsolutePath(), file.getAttributes(), 
+						target.isDirectory() ? target.resolveFile(file.getFilename()) : target);
+			}
+		} finally {
+			release(client);
+		}
+		transfer.execute(remote);
+		return retrieved.toArray(new SftpFile[0]);
+	}
+	
+	/**
+	 * Upload the local files matching a glob pattern into a remote directory.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param progress
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void putFiles(String local, String remote, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		SftpClient client = borrow();
+		try {
+			String remotePath = resolveRemotePath(client, remote);
+			if(!client.stat(remotePath).isDirectory()) {
+				throw new SftpStatusException(
+						SftpStatusException.SSH_FX_NO_SUCH_PATH, "Remote path '"
+								+ remote + "' is not a directory!");
+			}
+			
+			AbstractFile dir = FileUtils.hasParents(local) ? lcwd.resolveFile(FileUtils.getParentPath(local)) : lcwd;
+			String pattern = FileUtils.getFilename(local);
+			AbstractFile[] children = dir.getChildren().toArray(new AbstractFile[0]);
+			
+			for(String name : new GlobRegExpMatching().matchFileNamesWithPattern(children, pattern)) {
+				AbstractFile file = dir.resolveFile(name);
+				if(file.isFile()) {
+					planUpload(transfer, client, file, childPath(remotePath, file.getName()));
+				}
+			}
+		} finally {
+			release(client);
+		}
+		transfer.execute(local);
+	}
+	
+	/**
+	 * Upload the contents of a local directory, and all of its child directories, into a 
+	 * remote directory. The remote directories are created if they do not exist.
+	 * 
+	 * @param localdir
+	 * @param remotedir
+	 * @param progress
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void putLocalDirectory(String localdir, String remotedir, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		SftpClient client = borrow();
+		try {
+			AbstractFile dir = lcwd.resolveFile(localdir);
+			if(!dir.isDirectory()) {
+				throw new IOException(localdir + " is not a local directory!");
+			}
+			String remotePath = resolveRemotePath(client, remotedir);
+			client.mkdirs(remotePath);
+			planUploadDirectory(transfer, client, dir, remotePath);
+		} finally {
+			release(client);
+		}
+		transfer.execute(localdir);
+	}
+	
+	/**
+	 * Download the contents of a remote directory, and all of its child directories, into
+	 * a local directory. The local directories are created if they do not exist.
+	 * 
+	 * @param remotedir
+	 * @param localdir
+	 * @param progress
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void getRemoteDirectory(String remotedir, String localdir, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		Transfer transfer = new Transfer(progress);
+		SftpClient client = borrow();
+		try {
+			AbstractFile dir = lcwd.resolveFile(localdir);
+			if(!dir.exists()) {
+				dir.createFolder();
+			}
+			planDownloadDirectory(transfer, client, resolveRemotePath(client, remotedir), dir);
+		} finally {
+			release(client);
+		}
+		transfer.execute(remotedir);
+	}
+	
+	/**
+	 * Close all of the channels in the pool.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		closeClients();
+	}
+	
+	private void closeClients() {
+		for(SftpClient client : clients) {
+			try {
+				client.quit();
+			} catch (SshException e) {
+			}
+		}
+	}
+	
+	private void planUploadDirectory(Transfer transfer, SftpClient client, AbstractFile dir, String remotedir) 
+			throws SftpStatusException, SshException, IOException, PermissionDeniedException {
+		
+		for(AbstractFile file : dir.getChildren()) {
+			String remotePath = childPath(remotedir, file.getName());
+			if(file.isDirectory()) {
+				try {
+					client.stat(remotePath);
+				} catch(SftpStatusException e) {
+					client.mkdir(remotePath);
+				}
+				planUploadDirectory(transfer, client, file, remotePath);
+			} else if(file.isFile()) {
+				planUpload(transfer, client, file, remotePath);
+			}
+		}
+	}
+	
+	private void planDownloadDirectory(Transfer transfer, SftpClient client, String remotedir, AbstractFile dir) 
+			throws SftpStatusException, SshException, IOException, PermissionDeniedException {
+		
+		for(SftpFile file : client.ls(remotedir)) {
+			String name = file.getFilename();
+			if(name.equals(".") || name.equals("..")) {
+				continue;
+			}
+			AbstractFile localFile = dir.resolveFile(name);
+			if(file.isDirectory()) {
+				if(!localFile.exists()) {
+					localFile.createFolder();
+				}
+				planDownloadDirectory(transfer, client, file.getAbsolutePath(), localFile);
+			} else if(file.isFile()) {
+				planDownload(transfer, client, file.getAbsolutePath(), file.getAttributes(), localFile);
+			}
+		}
+	}
+	
+	private void planUpload(Transfer transfer, SftpClient client, AbstractFile file, String remotePath) 
+			throws SftpStatusException, SshException, IOException, PermissionDeniedException {
+		
+		long length = file.length();
+		transfer.total += length;
+		
+		if(length >= stripeThreshold && file.supportsRandomAccess()) {
+			/**
+			 * Create the remote file once so that each stripe can open it for writing
+			 */
+			SftpChannel channel = client.getSubsystemChannel();
+			channel.closeFile(channel.openFile(remotePath, 
+					SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_WRITE, 
+					newAttributes()));
+			
+			Striped striped = new Striped(stripes(length), null);
+			for(long offset = 0; offset < length; offset += stripeSize) {
+				transfer.units.add(new StripeUpload(striped, file, remotePath, offset, Math.min(stripeSize, length - offset)));
+			}
+		} else {
+			transfer.units.add(new Upload(file, remotePath, length));
+		}
+	}
+	
+	private void planDownload(Transfer transfer, SftpClient client, String remotePath, SftpFileAttributes attrs, AbstractFile file) 
+			throws IOException, PermissionDeniedException {
+		
+		long length = attrs.getSize().longValue();
+		transfer.total += length;
+		
+		AbstractFile parent = file.resolveFile(FileUtils.getParentPath(file.getAbsolutePath()));
+		if(!parent.exists()) {
+			parent.createFolder();
+		}
+		
+		if(length >= stripeThreshold && file.supportsRandomAccess()) {
+			/**
+			 * Size the local file up front so that each stripe can write its range
+			 */
+			AbstractFileRandomAccess raf = file.openFile(true);
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+			
+			Striped striped = new Striped(stripes(length), new Runnable() {
+				public void run() {
+					setAttributes(file, attrs);
+				}
+			});
+			for(long offset = 0; offset < length; offset += stripeSize) {
+				transfer.units.add(new StripeDownload(striped, remotePath, file, offset, Math.min(stripeSize, length - offset)));
+			}
+		} else {
+			transfer.units.add(new Download(remotePath, file, attrs));
+		}
+	}
+	
+	private int stripes(long length) {
+		return (int) ((length + stripeSize - 1) / stripeSize);
+	}
+	
+	/**
+	 * Resolve a relative remote path against the default directory of the channel so 
+	 * that the paths planned for each unit do not depend on the channel they run on.
+	 */
+	private static String resolveRemotePath(SftpClient client, String path) throws SftpStatusException, SshException {
+		if(path.startsWith("/")) {
+			return path;
+		}
+		return childPath(client.pwd(), path);
+	}
+	
+	private static String childPath(String dir, String name) {
+		return dir + (dir.endsWith("/") ? "" : "/") + name;
+	}
+	
+	private static SftpFileAttributes newAttributes() {
+		return new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+	}
+	
+	/**
+	 * Apply the attributes of a downloaded file. The data has been transferred by 
+	 * then, so a failure is logged rather than failing the transfer.
+	 */
+	private static void setAttributes(AbstractFile file, SftpFileAttributes attrs) {
+		try {
+			file.setAttributes(attrs);
+		} catch (IOException e) {
+			Log.warn("Could not set the attributes of {}: {}", file.getName(), e.getMessage());
+		}
+	}
+	
+	SftpClient borrow() throws SshException {
+		try {
+			SftpClient client;
+			while((client = idle.poll(1, TimeUnit.SECONDS)) == null) {
+				if(available.get() == 0) {
+					throw new SshException("There are no open SFTP channels available", 
+							SshException.CHANNEL_FAILURE);
+				}
+			}
+			return client;
+		} catch (InterruptedException e) {
+			throw new SshException("The thread was interrupted", SshException.CHANNEL_FAILURE);
+		}
+	}
+	
+	void release(SftpClient client) {
+		if(client.isClosed()) {
+			available.decrementAndGet();
+		} else {
+			idle.add(client);
+		}
+	}
+	
+	/**
+	 * The units of work of a single operation, and the aggregate progress and
+	 * outcome of them. 
+	 */
+	class Transfer {
+		
+		final FileTransferProgress progress;
+		final List<Unit> units = new ArrayList<Unit>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		long total;
+		long transfered;
+		
+		Transfer(FileTransferProgress progress) {
+			this.progress = progress;
+		}
+		
+		void execute(String name) throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+			
+			if(progress != null) {
+				progress.started(total, name);
+			}
+			
+			/**
+			 * Start the largest units first so that a large file is not left running 
+			 * on its own at the end of the transfer.
+			 */
+			Collections.sort(units, (u1, u2) -> Long.compare(u2.length, u1.length));
+			
+			if(Log.isDebugEnabled()) {
+				Log.debug("Transferring {} bytes of {} in {} units over {} channels", total, name, units.size(), clients.size());
+			}
+			
+			/**
+			 * One worker for each channel takes units from the queue, so no more threads
+			 * are used than there are channels to run them on.
+			 */
+			Queue<Unit> queue = new ConcurrentLinkedQueue<Unit>(units);
+			int workers = Math.min(clients.size(), units.size());
+			List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+			for(int i=0;i<workers;i++) {
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						Unit unit;
+						while((unit = queue.poll()) != null) {
+							execute(unit);
+						}
+					}
+				}));
+			}
+			
+			boolean interrupted = false;
+			for(Future<?> future : futures) {
+				while(true) {
+					try {
+						future.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+						fail(new TransferCancelledException());
+					} catch (ExecutionException e) {
+						fail(e.getCause());
+						break;
+					}
+				}
+			}
+			
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			
+			rethrow();
+			
+			if(progress != null) {
+				progress.completed();
+			}
+		}
+		
+		void execute(Unit unit) {
+			
+			if(failure.get() != null) {
+				return;
+			}
+			
+			SftpClient client = null;
+			try {
+				client = borrow();
+				unit.transfer(client.getSubsystemChannel(), new UnitProgress(this, unit.base));
+				if(unit.striped != null) {
+					unit.striped.completed();
+				}
+			} catch(Throwable e) {
+				fail(e);
+			} finally {
+				if(client != null) {
+					release(client);
+				}
+			}
+		}
+		
+		synchronized void progressed(long count) {
+			transfered += count;
+			if(progress != null) {
+				progress.progressed(transfered);
+			}
+		}
+		
+		boolean isCancelled() {
+			return failure.get() != null || (progress != null && progress.isCancelled());
+		}
+		
+		void fail(Throwable e) {
+			if(failure.compareAndSet(null, e)) {
+				if(!(e instanceof TransferCancelledException)) {
+					Log.error("Parallel SFTP transfer failed", e);
+				}
+			}
+		}
+		
+		void rethrow() throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+			Throwable e = failure.get();
+			if(e == null) {
+				return;
+			}
+			if(e instanceof SftpStatusException) {
+				throw (SftpStatusException) e;
+			}
+			if(e instanceof SshException) {
+				throw (SshException) e;
+			}
+			if(e instanceof TransferCancelledException) {
+				throw (TransferCancelledException) e;
+			}
+			if(e instanceof IOException) {
+				throw (IOException) e;
+			}
+			if(e instanceof PermissionDeniedException) {
+				throw (PermissionDeniedException) e;
+			}
+			if(e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			if(e instanceof Error) {
+				throw (Error) e;
+			}
+			throw new SshException(e);
+		}
+	}
+	
+	/**
+	 * Converts the progress of a single unit into the progress of its transfer.
+	 */
+	static class UnitProgress implements FileTransferProgress {
+		
+		final Transfer transfer;
+		long last;
+		
+		UnitProgress(Transfer transfer, long base) {
+			this.transfer = transfer;
+			this.last = base;
+		}
+
+		public void started(long bytesTotal, String remoteFile) {
+		}
+
+		public boolean isCancelled() {
+			return transfer.isCancelled();
+		}
+
+		public void progressed(long bytesSoFar) {
+			transfer.progressed(bytesSoFar - last);
+			last = bytesSoFar;
+		}
+
+		public void completed() {
+		}
+	}
+	
+	/**
+	 * Tracks the stripes of a single file.
+	 */
+	static class Striped {
+		
+		final AtomicInteger remaining;
+		final Runnable onCompletion;
+		
+		Striped(int stripes, Runnable onCompletion) {
+			this.remaining = new AtomicInteger(stripes);
+			this.onCompletion = onCompletion;
+		}
+		
+		void completed() {
+			if(remaining.decrementAndGet() == 0 && onCompletion != null) {
+				onCompletion.run();
+			}
+		}
+	}
+	
+	abstract class Unit {
+		
+		final Striped striped;
+		final long length;
+		final long base;
+		
+		Unit(Striped striped, long length, long base) {
+			this.striped = striped;
+			this.length = length;
+			this.base = base;
+		}
+		
+		abstract void transfer(SftpChannel channel, FileTransferProgress progress) throws Exception;
+	}
+	
+	class Upload extends Unit {
+		
+		final AbstractFile file;
+		final String remotePath;
+		
+		Upload(AbstractFile file, String remotePath, long length) {
+			super(null, length, 0);
+			this.file = file;
+			this.remotePath = remotePath;
+		}
+		
+		void transfer(SftpChannel channel, FileTransferProgress progress) throws Exception {
+			
+			InputStream in = file.getInputStream();
+			try {
+				SftpFile remote = channel.openFile(remotePath, 
+						SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_WRITE,
+						newAttributes());
+				try {
+					channel.performOptimizedWrite(remotePath, remote.getHandle(), blocksize, 
+							asyncRequests, in, buffersize, progress, 0);
+				} finally {
+					channel.closeFile(remote);
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	class StripeUpload extends Unit {
+		
+		final AbstractFile file;
+		final String remotePath;
+		final long offset;
+		
+		StripeUpload(Striped striped, AbstractFile file, String remotePath, long offset, long length) {
+			super(striped, length, offset);
+			this.file = file;
+			this.remotePath = remotePath;
+			this.offset = offset;
+		}
+		
+		void transfer(SftpChannel channel, FileTransferProgress progress) throws Exception {
+			
+			AbstractFileRandomAccess raf = file.openFile(false);
+			try {
+				raf.seek(offset);
+				SftpFile remote = channel.openFile(remotePath, SftpChannel.OPEN_WRITE);
+				try {
+					channel.performOptimizedWrite(remotePath, remote.getHandle(), blocksize, 
+							asyncRequests, new RangeInputStream(raf, length), buffersize, progress, offset);
+				} finally {
+					channel.closeFile(remote);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+	}
+	
+	class Download extends Unit {
+		
+		final String remotePath;
+		final AbstractFile file;
+		final SftpFileAttributes attrs;
+		
+		Download(String remotePath, AbstractFile file, SftpFileAttributes attrs) {
+			super(null, attrs.getSize().longValue(), 0);
+			this.remotePath = remotePath;
+			this.file = file;
+			this.attrs = attrs;
+		}
+		
+		void transfer(SftpChannel channel, FileTransferProgress progress) throws Exception {
+			
+			OutputStream out = file.getOutputStream();
+			try {
+				SftpFile remote = channel.openFile(remotePath, SftpChannel.OPEN_READ);
+				try {
+					channel.performOptimizedRead(remotePath, remote.getHandle(), length, blocksize, 
+							out, asyncRequests, progress, 0);
+				} finally {
+					channel.closeFile(remote);
+				}
+			} finally {
+				out.close();
+			}
+			setAttributes(file, attrs);
+		}
+	}
+	
+	class StripeDownload extends Unit {
+		
+		final String remotePath;
+		final AbstractFile file;
+		final long offset;
+		
+		StripeDownload(Striped striped, String remotePath, AbstractFile file, long offset, long length) {
+			super(striped, length, 0);
+			this.remotePath = remotePath;
+			this.file = file;
+			this.offset = offset;
+		}
+		
+		void transfer(SftpChannel channel, FileTransferProgress progress) throws Exception {
+			
+			RandomAccessChannel out = new RandomAccessChannel(file, file.openFile(true));
+			try {
+				SftpFile remote = channel.openFile(remotePath, SftpChannel.OPEN_READ);
+				try {
+					channel.performRandomAccessRead(remotePath, remote.getHandle(), offset, length,
+							blocksize, asyncRequests, out, progress);
+				} finally {
+					channel.closeFile(remote);
+				}
+			} finally {
+				out.close();
+			}
+		}
+	}
+	
+	/**
+	 * Adapts a local random access file to the channel a random access read writes to. 
+	 */
+	static class RandomAccessChannel implements SeekableByteChannel {
+		
+		final AbstractFile file;
+		final AbstractFileRandomAccess raf;
+		boolean open = true;
+		
+		RandomAccessChannel(AbstractFile file, AbstractFileRandomAccess raf) {
+			this.file = file;
+			this.raf = raf;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public void close() throws IOException {
+			open = false;
+			raf.close();
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			return raf.read(dst, raf.getFilePointer());
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			int count = src.remaining();
+			if(src.hasArray()) {
+				raf.write(src.array(), src.arrayOffset() + src.position(), count);
+				src.position(src.limit());
+			} else {
+				byte[] tmp = new byte[count];
+				src.get(tmp);
+				raf.write(tmp, 0, count);
+			}
+			return count;
+		}
+
+		public long position() throws IOException {
+			return raf.getFilePointer();
+		}
+
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			raf.seek(newPosition);
+			return this;
+		}
+
+		public long size() throws IOException {
+			try {
+				return file.length();
+			} catch (PermissionDeniedException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		public SeekableByteChannel truncate(long size) throws IOException {
+			raf.setLength(size);
+			return this;
+		}
+	}
+	
+	/**
+	 * Reads a range of a local file.
+	 */
+	static class RangeInputStream extends InputStream {
+		
+		final AbstractFileRandomAccess raf;
+		long remaining;
+		
+		RangeInputStream(AbstractFileRandomAccess raf, long length) {
+			this.raf = raf;
+			this.remaining = length;
+		}
+		
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+		
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int r = raf.read(buf, off, (int) Math.min(len, remaining));
+			if(r > 0) {
+				remaining -= r;
+			}
+			return r;
+		}
+		
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, remaining);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.util.IOUtils;
+
+/**
+ * The measurements taken during a single SFTP transfer. The pipeline of a transfer 
+ * is tuned as it runs, so the block size and number of outstanding requests 
+ * reported are those in use when the statistics are read, or when the transfer 
+ * completed. Round trip times are measured from posting a request to receiving 
+ * its response.
+ * <p>
+ * An instance may be passed to the transfer methods of {@link SftpChannel}, and may 
+ * be read by another thread while the transfer is in progress.
+ */
+public class TransferStatistics {
+
+	volatile long started;
+	volatile long finished;
+	volatile long bytesTransferred;
+	volatile long requests;
+	volatile long firstRoundTrip;
+	volatile long minimumRoundTrip;
+	volatile long smoothedRoundTrip;
+	volatile long bandwidth;
+	volatile int blockSize;
+	volatile int outstandingRequests;
+	volatile int maximumOutstandingRequests;
+	volatile int shortReads;
+	
+	/**
+	 * Get the number of bytes transferred.
+	 * 
+	 * @return long
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+	
+	/**
+	 * Get the number of requests whose responses have been received.
+	 * 
+	 * @return long
+	 */
+	public long getRequests() {
+		return requests;
+	}
+	
+	/**
+	 * Get the time the transfer has taken so far, or took to complete, in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public long getElapsedTime() {
+		if(started == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis((finished == 0 ? System.nanoTime() : finished) - started);
+	}
+	
+	/**
+	 * Get the average throughput of the transfer in bytes per second.
+	 * 
+	 * @return long
+	 */
+	public long getThroughput() {
+		return bytesTransferred * 1000 / Math.max(1, getElapsedTime());
+	}
+	
+	/**
+	 * Get the round trip time of the first block in microseconds.
+	 * 
+	 * @return long
+	 */
+	public long getFirstRoundTrip() {
+		return TimeUnit.NANOSECONDS.toMicros(firstRoundTrip);
+	}
+	
+	/**
+	 * Get the lowest round trip time measured in microseconds. This is the best 
+	 * estimate of the latency of the connection without any queuing.
+	 * 
+	 * @return long
+	 */
+	public long getMinimumRoundTrip() {
+		return TimeUnit.NANOSECONDS.toMicros(minimumRoundTrip);
+	}
+	
+	/**
+	 * Get the smoothed average of the round trip times measured in microseconds.
+	 * 
+	 * @return long
+	 */
+	public long getRoundTrip() {
+		return TimeUnit.NANOSECONDS.toMicros(smoothedRoundTrip);
+	}
+	
+	/**
+	 * Get the highest rate in bytes per second at which responses were recently 
+	 * received. This is the estimate of the available bandwidth used to size
+	 * the pipeline.
+	 * 
+	 * @return long
+	 */
+	public long getBandwidth() {
+		return bandwidth;
+	}
+	
+	/**
+	 * Get the estimated bandwidth-delay product in bytes, the amount of data that 
+	 * has to be outstanding to keep the connection busy.
+	 * 
+	 * @return long
+	 */
+	public long getBandwidthDelayProduct() {
+		return bandwidth * minimumRoundTrip / TimeUnit.SECONDS.toNanos(1);
+	}
+	
+	/**
+	 * Get the block size of requests.
+	 * 
+	 * @return int
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	/**
+	 * Get the number of requests the pipeline keeps outstanding.
+	 * 
+	 * @return int
+	 */
+	public int getOutstandingRequests() {
+		return outstandingRequests;
+	}
+	
+	/**
+	 * Get the highest number of requests that were outstanding at once.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumOutstandingRequests() {
+		return maximumOutstandingRequests;
+	}
+	
+	/**
+	 * Get the number of read responses that returned less data than requested.
+	 * 
+	 * @return int
+	 */
+	public int getShortReads() {
+		return shortReads;
+	}
+	
+	public String toString() {
+		return String.format("%s in %d ms at %s/s, rtt first=%dus min=%dus avg=%dus, bandwidth %s/s, block %d, requests %d (max %d)", 
+				IOUtils.toByteSize(bytesTransferred, 1), 
+				getElapsedTime(), 
+				IOUtils.toByteSize(getThroughput(), 1), 
+				getFirstRoundTrip(), 
+				getMinimumRoundTrip(), 
+				getRoundTrip(), 
+				IOUtils.toByteSize(bandwidth, 1), 
+				blockSize, 
+				outstandingRequests, 
+				maximumOutstandingRequests);
+	}
+}
@@ -100,7 +100,7 @@ public abstract class AbstractSubsystem {
 	            throw new SshException("Invalid message length in SFTP protocol [" + len + "]",
 	                                   SshException.PROTOCOL_VIOLATION);
 
-	        byte[] msg = ByteArrays.getInstance().getByteArray();
+	        byte[] msg = ByteArrays.getInstance().getByteArray(len);
 	        in.readFully(msg, 0, len);
 
 	        return msg;
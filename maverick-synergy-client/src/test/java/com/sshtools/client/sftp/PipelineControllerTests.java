@@ -0,0 +1,214 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * The pipeline is driven over a simulated link with a fixed latency and bandwidth.
+ * Responses arrive one round trip after their request, but no faster than the link
+ * can deliver their data.
+ */
+public class PipelineControllerTests extends TestCase {
+
+	static final int BLOCK = 32768;
+	static final long ROUND_TRIP = TimeUnit.MILLISECONDS.toNanos(10);
+	
+	long now = TimeUnit.SECONDS.toNanos(1);
+	long lastArrival;
+	Deque<long[]> inFlight = new ArrayDeque<long[]>();
+	
+	private PipelineController createController(int blockSize, int maximumBlockSize, int maximumRequests) {
+		return new PipelineController(blockSize, maximumBlockSize, maximumRequests, null, () -> now);
+	}
+	
+	/**
+	 * Keep as many requests outstanding as the pipeline asks for and deliver the given
+	 * number of responses.
+	 */
+	private void transfer(PipelineController pipeline, int responses, long roundTrip, long bandwidth) {
+		
+		lastArrival = Math.max(lastArrival, now);
+		for(int i=0;i<responses;i++) {
+			while(inFlight.size() < pipeline.getOutstandingRequests()) {
+				int len = pipeline.getBlockSize();
+				long posted = pipeline.posted();
+				long arrival = Math.max(posted + roundTrip, 
+						lastArrival + len * TimeUnit.SECONDS.toNanos(1) / bandwidth);
+				lastArrival = arrival;
+				inFlight.add(new long[] { posted, arrival, len });
+			}
+			long[] response = inFlight.poll();
+			now = response[1];
+			pipeline.received(response[0], (int) response[2]);
+		}
+	}
+	
+	/**
+	 * Bandwidth in bytes per second that delivers one block in the given time.
+	 */
+	private static long blocksEvery(int blockSize, long nanos) {
+		return blockSize * TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+	
+	public void testGrowsByOneUntilBandwidthIsSampled() {
+		
+		PipelineController pipeline = createController(BLOCK, BLOCK, 64);
+		assertEquals(1, pipeline.getOutstandingRequests());
+		
+		/**
+		 * Round trips shorter than the minimum sample interval do not produce
+		 * a sample straight away.
+		 */
+		transfer(pipeline, 3, TimeUnit.MICROSECONDS.toNanos(100), blocksEvery(BLOCK, 1000));
+		
+		TransferStatistics stats = pipeline.getStatistics();
+		assertEquals(0, stats.getBandwidth());
+		assertEquals(4, pipeline.getOutstandingRequests());
+		assertEquals(4, stats.getOutstandingRequests());
+		assertEquals(3, stats.getRequests());
+		assertEquals(3L * BLOCK, stats.getBytesTransferred());
+		assertEquals(100, stats.getFirstRoundTrip());
+		assertEquals(100, stats.getMinimumRoundTrip());
+		assertEquals(3, stats.getMaximumOutstandingRequests());
+	}
+	
+	public void testGrowsToTwiceTheBandwidthDelayProduct() {
+		
+		PipelineController pipeline = createController(BLOCK, BLOCK, 64);
+		long bandwidth = blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(1));
+		
+		transfer(pipeline, 500, ROUND_TRIP, bandwidth);
+		
+		TransferStatistics stats = pipeline.getStatistics();
+		assertEquals(bandwidth, stats.getBandwidth());
+		assertEquals(10000, stats.getMinimumRoundTrip());
+		assertEquals(10L * BLOCK, stats.getBandwidthDelayProduct());
+		assertEquals(2 * 10, pipeline.getOutstandingRequests());
+		assertEquals(BLOCK, pipeline.getBlockSize());
+	}
+	
+	public void testShrinksWhenBandwidthFalls() {
+		
+		PipelineController pipeline = createController(BLOCK, BLOCK, 64);
+		
+		transfer(pipeline, 500, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(1)));
+		assertEquals(20, pipeline.getOutstandingRequests());
+		
+		/**
+		 * The highest of the recent samples is used, so the old rate is only
+		 * forgotten once enough samples at the new rate have been taken.
+		 */
+		long bandwidth = blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(4));
+		transfer(pipeline, 200, ROUND_TRIP, bandwidth);
+		
+		TransferStatistics stats = pipeline.getStatistics();
+		assertEquals(bandwidth, stats.getBandwidth());
+		assertEquals(5, pipeline.getOutstandingRequests());
+	}
+	
+	public void testRequestsAreClampedToMaximum() {
+		
+		PipelineController pipeline = createController(BLOCK, BLOCK, 8);
+		
+		transfer(pipeline, 500, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(1)));
+		
+		assertEquals(8, pipeline.getOutstandingRequests());
+		assertEquals(8, pipeline.getStatistics().getMaximumOutstandingRequests());
+		assertEquals(BLOCK, pipeline.getBlockSize());
+		
+		assertEquals(1, createController(BLOCK, BLOCK, 0).getOutstandingRequests());
+	}
+	
+	public void testBlockSizeGrowsAndShrinksWithinLimits() {
+		
+		PipelineController pipeline = createController(BLOCK, 8 * BLOCK, 8);
+		
+		/**
+		 * Eight requests cannot cover the target, so the block size is raised
+		 * to its maximum.
+		 */
+		transfer(pipeline, 500, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MICROSECONDS.toNanos(100)));
+		assertEquals(8 * BLOCK, pipeline.getBlockSize());
+		assertEquals(8 * BLOCK, pipeline.getStatistics().getBlockSize());
+		assertEquals(8, pipeline.getOutstandingRequests());
+		
+		/**
+		 * A single request covers the target of a slow link, so the block size
+		 * falls back to its minimum.
+		 */
+		transfer(pipeline, 200, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(100)));
+		assertEquals(BLOCK, pipeline.getBlockSize());
+		assertEquals(BLOCK, pipeline.getStatistics().getBlockSize());
+		assertEquals(1, pipeline.getOutstandingRequests());
+	}
+	
+	public void testShortReadLimitsBlockSize() {
+		
+		PipelineController pipeline = createController(BLOCK, 8 * BLOCK, 8);
+		
+		pipeline.shortRead(BLOCK / 2);
+		assertEquals(BLOCK / 2, pipeline.getBlockSize());
+		assertEquals(1, pipeline.getStatistics().getShortReads());
+		
+		transfer(pipeline, 500, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MICROSECONDS.toNanos(100)));
+		assertEquals(BLOCK / 2, pipeline.getBlockSize());
+		assertEquals(8, pipeline.getOutstandingRequests());
+		
+		/**
+		 * An empty response does not change the block size.
+		 */
+		pipeline.shortRead(0);
+		assertEquals(BLOCK / 2, pipeline.getBlockSize());
+		assertEquals(2, pipeline.getStatistics().getShortReads());
+	}
+	
+	public void testCompletedStopsTheClock() {
+		
+		TransferStatistics stats = new TransferStatistics();
+		assertEquals(0, stats.getElapsedTime());
+		
+		PipelineController pipeline = new PipelineController(BLOCK, BLOCK, 64, stats, () -> now);
+		assertSame(stats, pipeline.getStatistics());
+		
+		transfer(pipeline, 100, ROUND_TRIP, blocksEvery(BLOCK, TimeUnit.MILLISECONDS.toNanos(1)));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(now - TimeUnit.SECONDS.toNanos(1));
+		
+		pipeline.completed();
+		now += TimeUnit.SECONDS.toNanos(5);
+		
+		assertEquals(elapsed, stats.getElapsedTime());
+		assertEquals(100L * BLOCK * 1000 / elapsed, stats.getThroughput());
+		assertNotNull(stats.toString());
+		
+		/**
+		 * Statistics reused for another transfer start again.
+		 */
+		new PipelineController(BLOCK, BLOCK, 64, stats, () -> now);
+		assertEquals(0, stats.getBytesTransferred());
+		assertEquals(0, stats.getRequests());
+		assertEquals(0, stats.getBandwidth());
+		assertEquals(BLOCK, stats.getBlockSize());
+		assertEquals(1, stats.getOutstandingRequests());
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * The dispatcher is fed from a queue of messages in place of a channel. Each message
+ * carries its request id, and a payload byte used to check it reached the right future.
+ */
+public class SftpResponseDispatcherTests extends TestCase {
+
+	static final byte[] FAILURE = new byte[0];
+	
+	BlockingQueue<byte[]> messages = new LinkedBlockingQueue<byte[]>();
+	SshException failure = new SshException("The channel has closed", SshException.CHANNEL_FAILURE);
+	volatile boolean closed;
+	SftpResponseDispatcher dispatcher;
+	
+	@Override
+	protected void setUp() throws Exception {
+		dispatcher = new SftpResponseDispatcher(new SftpResponseDispatcher.MessageSource() {
+			public byte[] nextMessage() throws SshException {
+				try {
+					byte[] msg = messages.take();
+					if(msg == FAILURE) {
+						throw failure;
+					}
+					return msg;
+				} catch (InterruptedException e) {
+					throw new SshException(e);
+				}
+			}
+			public void close() {
+				closed = true;
+			}
+		}, new PlatformThreadExecutorFactory(), "SFTP-Responses-Test");
+		dispatcher.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		messages.add(FAILURE);
+		assertTrue(dispatcher.executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	private static byte[] response(int requestId, int payload) {
+		ByteBuffer buf = ByteBuffer.allocate(6);
+		buf.put((byte) SftpChannel.SSH_FXP_STATUS);
+		buf.putInt(requestId);
+		buf.put((byte) payload);
+		return buf.array();
+	}
+	
+	private static UnsignedInteger32 id(long requestId) {
+		return new UnsignedInteger32(requestId);
+	}
+	
+	private static void assertResponse(int requestId, int payload, CompletableFuture<SftpMessage> future) throws Exception {
+		SftpMessage msg = future.get(10, TimeUnit.SECONDS);
+		assertEquals(requestId, msg.getMessageId());
+		assertEquals(SftpChannel.SSH_FXP_STATUS, msg.getType());
+		assertEquals(payload, msg.read());
+		msg.release();
+	}
+	
+	private void waitForPendingResponses(int count) throws InterruptedException {
+		long started = System.currentTimeMillis();
+		while(dispatcher.getPendingResponses() != count) {
+			assertTrue("Timeout waiting for the dispatcher", System.currentTimeMillis() - started < 10000);
+			Thread.sleep(1);
+		}
+	}
+	
+	public void testResponsesCompleteTheirOwnRequestsInAnyOrder() throws Exception {
+		
+		CompletableFuture<SftpMessage> first = dispatcher.getResponseFuture(id(1));
+		CompletableFuture<SftpMessage> second = dispatcher.getResponseFuture(id(2));
+		CompletableFuture<SftpMessage> third = dispatcher.getResponseFuture(id(3));
+		
+		messages.add(response(3, 30));
+		assertResponse(3, 30, third);
+		assertFalse(first.isDone());
+		assertFalse(second.isDone());
+		
+		messages.add(response(1, 10));
+		messages.add(response(2, 20));
+		assertResponse(2, 20, second);
+		assertResponse(1, 10, first);
+		
+		waitForPendingResponses(0);
+	}
+	
+	public void testResponseArrivingBeforeItsFutureIsKept() throws Exception {
+		
+		messages.add(response(5, 50));
+		waitForPendingResponses(1);
+		
+		CompletableFuture<SftpMessage> future = dispatcher.getResponseFuture(id(5));
+		assertTrue(future.isDone());
+		assertResponse(5, 50, future);
+		assertEquals(0, dispatcher.getPendingResponses());
+		
+		/**
+		 * Request ids beyond the range of an int are matched to the id
+		 * the server returns.
+		 */
+		messages.add(response(0xFFFFFFFE, 60));
+		assertResponse(0xFFFFFFFE, 60, dispatcher.getResponseFuture(id(0xFFFFFFFEL)));
+		waitForPendingResponses(0);
+	}
+	
+	public void testFailureCompletesPendingAndLaterRequests() throws Exception {
+		
+		CompletableFuture<SftpMessage> first = dispatcher.getResponseFuture(id(1));
+		CompletableFuture<SftpMessage> second = dispatcher.getResponseFuture(id(2));
+		
+		/**
+		 * A response that arrived before the failure is still delivered.
+		 */
+		messages.add(response(3, 30));
+		waitForPendingResponses(3);
+		
+		messages.add(FAILURE);
+		assertFailed(first);
+		assertFailed(second);
+		assertResponse(3, 30, dispatcher.getResponseFuture(id(3)));
+		
+		CompletableFuture<SftpMessage> later = dispatcher.getResponseFuture(id(4));
+		assertTrue(later.isDone());
+		assertFailed(later);
+		
+		try {
+			dispatcher.getResponse(id(5));
+			fail("Expected the failure of the channel");
+		} catch(SshException e) {
+			assertSame(failure, e);
+		}
+		waitForPendingResponses(0);
+	}
+	
+	private void assertFailed(CompletableFuture<SftpMessage> future) throws Exception {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected the future to fail");
+		} catch(ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+	
+	public void testDispatchThreadCannotWaitForResponses() throws Exception {
+		
+		assertFalse(dispatcher.isDispatchThread());
+		
+		AtomicReference<Boolean> onDispatchThread = new AtomicReference<Boolean>();
+		AtomicReference<SshException> waitFailure = new AtomicReference<SshException>();
+		AtomicReference<SshException> queueFailure = new AtomicReference<SshException>();
+		
+		/**
+		 * Waiting for the second response from an action chained to the first
+		 * would stop the dispatcher from ever delivering it.
+		 */
+		CompletableFuture<Void> chained = dispatcher.getResponseFuture(id(1)).thenAccept((msg) -> {
+			msg.release();
+			onDispatchThread.set(dispatcher.isDispatchThread());
+			try {
+				dispatcher.getResponse(id(2)).release();
+			} catch(SshException e) {
+				waitFailure.set(e);
+			}
+			try {
+				dispatcher.getResponse(new LinkedBlockingQueue<CompletableFuture<SftpMessage>>()).release();
+			} catch(SshException e) {
+				queueFailure.set(e);
+			}
+		});
+		
+		messages.add(response(1, 10));
+		chained.get(10, TimeUnit.SECONDS);
+		
+		assertTrue(onDispatchThread.get());
+		assertNotNull(waitFailure.get());
+		assertEquals(SshException.BAD_API_USAGE, waitFailure.get().getReason());
+		assertNotNull(queueFailure.get());
+		assertEquals(SshException.BAD_API_USAGE, queueFailure.get().getReason());
+		
+		/**
+		 * The dispatcher is still running and other threads can wait.
+		 */
+		messages.add(response(2, 20));
+		SftpMessage msg = dispatcher.getResponse(id(2));
+		assertEquals(2, msg.getMessageId());
+		msg.release();
+		
+		/**
+		 * A response that has already arrived can be taken on the dispatch thread.
+		 */
+		messages.add(response(3, 30));
+		waitForPendingResponses(1);
+		CompletableFuture<Integer> taken = new CompletableFuture<Integer>();
+		dispatcher.getResponseFuture(id(4)).thenAccept((m) -> {
+			m.release();
+			try {
+				SftpMessage m3 = dispatcher.getResponse(id(3));
+				taken.complete(m3.getMessageId());
+				m3.release();
+			} catch(SshException e) {
+				taken.completeExceptionally(e);
+			}
+		});
+		messages.add(response(4, 40));
+		assertEquals(Integer.valueOf(3), taken.get(10, TimeUnit.SECONDS));
+	}
+	
+	public void testInterruptedWaitClosesTheSource() throws Exception {
+		
+		Thread.currentThread().interrupt();
+		try {
+			dispatcher.getResponse(id(1));
+			fail("Expected the wait to be interrupted");
+		} catch(SshException e) {
+			assertEquals(SshException.CHANNEL_FAILURE, e.getReason());
+		}
+		assertTrue(closed);
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Starts an in-process server serving a temporary directory over SFTP, and connects 
+ * a client to it.
+ */
+public abstract class AbstractSftpServerTests extends TestCase {
+
+	protected File home;
+	protected int port;
+	protected SshServer server;
+	protected SshClient ssh;
+	protected SftpClient sftp;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		home = Files.createTempDirectory("sftp-tests").toFile();
+		
+		try(ServerSocket s = new ServerSocket(0)) {
+			port = s.getLocalPort();
+		}
+		
+		server = new SshServer("127.0.0.1", port) {
+			@Override
+			protected void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				configureServer(sshContext);
+			}
+		};
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("admin", "admin".toCharArray()));
+		server.setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(home);
+			}
+		});
+		server.start();
+		
+		ssh = new SshClient("127.0.0.1", port, "admin", "admin".toCharArray());
+		sftp = new SftpClient(ssh);
+	}
+	
+	/**
+	 * Override to change the policies of each server connection.
+	 * 
+	 * @param sshContext
+	 */
+	protected void configureServer(SshServerContext sshContext) {
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			if(ssh != null) {
+				ssh.close();
+			}
+		} finally {
+			if(server != null) {
+				server.stop();
+			}
+			delete(home);
+		}
+	}
+	
+	protected File createFile(String name, byte[] data) throws IOException {
+		File file = new File(home, name);
+		Files.write(file.toPath(), data);
+		return file;
+	}
+	
+	private static void delete(File file) {
+		if(file == null) {
+			return;
+		}
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,359 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.sftp.AsyncSftpClient;
+import com.sshtools.client.sftp.AsyncSftpClient.BatchResult;
+import com.sshtools.common.events.Event;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.nio.ExecutorFactory;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
+
+/**
+ * The server holds back its responses to any request on a path containing
+ * {@link #GATED} until the test opens the gate, so that requests can be kept
+ * outstanding for as long as a test needs.
+ */
+public class AsyncSftpClientTests extends AbstractSftpServerTests {
+
+	static final String GATED = "gated";
+	
+	static volatile CountDownLatch gate;
+	
+	@Override
+	protected void setUp() throws Exception {
+		gate = new CountDownLatch(1);
+		super.setUp();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		gate.countDown();
+		super.tearDown();
+	}
+	
+	@Override
+	protected void configureServer(SshServerContext sshContext) {
+		sshContext.getPolicy(FileSystemPolicy.class).setFileFactory((con) -> new GatedFileFactory(new DirectFileFactory(home)));
+	}
+	
+	public void testOutstandingRequestsAreLimited() throws Exception {
+		
+		List<String> paths = createFiles("file", 20);
+		paths.set(0, createFile(GATED + ".bin", new byte[0]).getName());
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel(), 4)) {
+			
+			assertEquals(4, async.getMaximumOutstandingRequests());
+			
+			AtomicInteger maximum = new AtomicInteger();
+			List<CompletableFuture<SftpFileAttributes>> futures = new ArrayList<CompletableFuture<SftpFileAttributes>>();
+			for(String path : paths) {
+				futures.add(async.getAttributes(path).whenComplete((attrs, e) -> 
+					maximum.accumulateAndGet(async.getOutstandingRequests(), Math::max)));
+			}
+			
+			/**
+			 * Nothing is answered until the gate opens, so the first four are
+			 * outstanding and the rest are queued.
+			 */
+			assertEquals(4, async.getOutstandingRequests());
+			assertEquals(16, async.getQueuedRequests());
+			
+			gate.countDown();
+			for(CompletableFuture<SftpFileAttributes> future : futures) {
+				assertNotNull(future.get(30, TimeUnit.SECONDS));
+			}
+			
+			assertTrue(maximum.get() <= 4);
+			assertEquals(0, async.getOutstandingRequests());
+			assertEquals(0, async.getQueuedRequests());
+		}
+	}
+	
+	public void testQueuedRequestsAreSentInOrderAsResponsesArrive() throws Exception {
+		
+		List<String> paths = createFiles("file", 5);
+		paths.add(0, createFile(GATED + ".bin", new byte[0]).getName());
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel(), 1)) {
+			
+			List<String> answered = Collections.synchronizedList(new ArrayList<String>());
+			List<CompletableFuture<SftpFileAttributes>> futures = new ArrayList<CompletableFuture<SftpFileAttributes>>();
+			for(String path : paths) {
+				futures.add(async.getAttributes(path).whenComplete((attrs, e) -> answered.add(path)));
+			}
+			assertEquals(1, async.getOutstandingRequests());
+			assertEquals(5, async.getQueuedRequests());
+			
+			gate.countDown();
+			for(CompletableFuture<SftpFileAttributes> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(paths, answered);
+			assertEquals(0, async.getQueuedRequests());
+		}
+	}
+	
+	public void testChainedOperationsAreSentByTheSender() throws Exception {
+		
+		createFile(GATED + ".bin", new byte[0]);
+		createFile("next.bin", new byte[10]);
+		
+		SenderExecutorFactory executors = new SenderExecutorFactory();
+		SshClientContext context = new SshClientContext();
+		context.setExecutorFactory(executors);
+		
+		try(SshClient client = new SshClient("127.0.0.1", port, "admin", context, 30000L, "admin".toCharArray())) {
+			try(AsyncSftpClient async = new AsyncSftpClient(client)) {
+				
+				assertTrue(executors.names.contains("SFTP-Async-Sender"));
+				
+				AtomicReference<String> chainedThread = new AtomicReference<String>();
+				AtomicInteger queuedWhenChained = new AtomicInteger(-1);
+				CountDownLatch chained = new CountDownLatch(1);
+				
+				CompletableFuture<SftpFileAttributes> next = async.getAttributes(GATED + ".bin").thenCompose((attrs) -> {
+					chainedThread.set(Thread.currentThread().getName());
+					CompletableFuture<SftpFileAttributes> f = async.getAttributes("next.bin");
+					queuedWhenChained.set(async.getQueuedRequests());
+					chained.countDown();
+					return f;
+				});
+				
+				/**
+				 * The chained action runs on the thread that reads responses. There is room 
+				 * to send, but the request is queued for the sender, which is held back.
+				 */
+				gate.countDown();
+				assertTrue(chained.await(30, TimeUnit.SECONDS));
+				assertTrue(chainedThread.get().startsWith("SFTP-Responses-"));
+				assertEquals(1, queuedWhenChained.get());
+				assertEquals(0, async.getOutstandingRequests());
+				assertFalse(next.isDone());
+				
+				executors.sender.countDown();
+				assertEquals(10, next.get(30, TimeUnit.SECONDS).getSize().longValue());
+				assertTrue(executors.sent.get() > 0);
+			}
+		} finally {
+			executors.sender.countDown();
+			context.shutdown();
+		}
+	}
+	
+	public void testCloseFailsQueuedRequests() throws Exception {
+		
+		createFile(GATED + ".bin", new byte[0]);
+		createFile("queued.bin", new byte[0]);
+		
+		AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel(), 1);
+		
+		CompletableFuture<SftpFileAttributes> sent = async.getAttributes(GATED + ".bin");
+		CompletableFuture<SftpFileAttributes> first = async.getAttributes("queued.bin");
+		CompletableFuture<SftpFileAttributes> second = async.getAttributes("queued.bin");
+		assertEquals(2, async.getQueuedRequests());
+		
+		async.close();
+		
+		assertEquals(0, async.getQueuedRequests());
+		assertFailedWith(SshException.class, first);
+		assertFailedWith(SshException.class, second);
+		assertFailedWith(SshException.class, async.getAttributes("queued.bin"));
+		
+		/**
+		 * The request that was already sent is still answered on the shared channel.
+		 */
+		gate.countDown();
+		assertNotNull(sent.get(30, TimeUnit.SECONDS));
+		assertNotNull(sftp.stat("queued.bin"));
+	}
+	
+	public void testBatchOperations() throws Exception {
+		
+		List<String> paths = createFiles("file", 10);
+		List<String> stat = new ArrayList<String>(paths);
+		stat.add(3, "missing.bin");
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel(), 3)) {
+			
+			BatchResult<SftpFileAttributes> attrs = async.getAttributes(stat).get(30, TimeUnit.SECONDS);
+			assertFalse(attrs.isSuccess());
+			assertEquals(paths, new ArrayList<String>(attrs.getResults().keySet()));
+			assertEquals(Arrays.asList("missing.bin"), new ArrayList<String>(attrs.getFailures().keySet()));
+			assertNoSuchFile(attrs.getFailures().get("missing.bin"));
+			for(String path : paths) {
+				assertEquals(path.length(), attrs.getResults().get(path).getSize().longValue());
+			}
+			try {
+				attrs.getResults().clear();
+				fail("Expected the results to be unmodifiable");
+			} catch(UnsupportedOperationException e) {
+			}
+			
+			Map<String,String> renames = new LinkedHashMap<String,String>();
+			for(String path : paths) {
+				renames.put(path, "renamed-" + path);
+			}
+			BatchResult<Void> renamed = async.renameFiles(renames).get(30, TimeUnit.SECONDS);
+			assertTrue(renamed.isSuccess());
+			assertEquals(paths, new ArrayList<String>(renamed.getResults().keySet()));
+			for(String path : paths) {
+				assertFalse(new File(home, path).exists());
+				assertTrue(new File(home, "renamed-" + path).exists());
+			}
+			
+			List<String> remove = new ArrayList<String>(renames.values());
+			remove.add(0, "missing.bin");
+			BatchResult<Void> removed = async.removeFiles(remove).get(30, TimeUnit.SECONDS);
+			assertFalse(removed.isSuccess());
+			assertEquals(new ArrayList<String>(renames.values()), new ArrayList<String>(removed.getResults().keySet()));
+			assertNoSuchFile(removed.getFailures().get("missing.bin"));
+			for(String path : renames.values()) {
+				assertFalse(new File(home, path).exists());
+			}
+			
+			BatchResult<Void> empty = async.removeFiles(Collections.<String>emptyList()).get(30, TimeUnit.SECONDS);
+			assertTrue(empty.isSuccess());
+			assertTrue(empty.getResults().isEmpty());
+		}
+	}
+	
+	private List<String> createFiles(String prefix, int count) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		for(int i = 0; i < count; i++) {
+			String name = prefix + i + ".bin";
+			createFile(name, new byte[name.length()]);
+			paths.add(name);
+		}
+		return paths;
+	}
+	
+	private static void assertNoSuchFile(Throwable e) {
+		assertTrue(e instanceof SftpStatusException);
+		assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, ((SftpStatusException) e).getStatus());
+	}
+	
+	private static void assertFailedWith(Class<? extends Throwable> type, CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(30, TimeUnit.SECONDS);
+			fail("Expected the operation to fail");
+		} catch(ExecutionException e) {
+			assertTrue(type.isInstance(e.getCause()));
+		}
+	}
+	
+	/**
+	 * Holds back requests on gated paths until the gate is opened.
+	 */
+	static class GatedFileFactory implements AbstractFileFactory<AbstractFile> {
+		
+		final AbstractFileFactory<?> delegate;
+		
+		GatedFileFactory(AbstractFileFactory<?> delegate) {
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public AbstractFile getFile(String path) throws PermissionDeniedException, IOException {
+			if(path.contains(GATED)) {
+				try {
+					gate.await(60, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			return delegate.getFile(path);
+		}
+		
+		@Override
+		public Event populateEvent(Event evt) {
+			return delegate.populateEvent(evt);
+		}
+		
+		@Override
+		public AbstractFile getDefaultPath() throws PermissionDeniedException, IOException {
+			return delegate.getDefaultPath();
+		}
+	}
+	
+	/**
+	 * Creates the executors of a client, holding back the tasks of the asynchronous 
+	 * sender until it is released.
+	 */
+	static class SenderExecutorFactory implements ExecutorFactory {
+		
+		final ExecutorFactory delegate = new PlatformThreadExecutorFactory();
+		final List<String> names = new CopyOnWriteArrayList<String>();
+		final CountDownLatch sender = new CountDownLatch(1);
+		final AtomicInteger sent = new AtomicInteger();
+		
+		@Override
+		public ExecutorService createExecutor(String name) {
+			names.add(name);
+			if(!name.equals("SFTP-Async-Sender")) {
+				return delegate.createExecutor(name);
+			}
+			return new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), (r) -> {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}) {
+				@Override
+				protected void beforeExecute(Thread t, Runnable r) {
+					try {
+						sender.await(60, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+					sent.incrementAndGet();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.sftp.SftpClient;
+
+/**
+ * The transport encodes as many queued packets as fit into each socket write. Many
+ * small, pipelined messages from several channels at once fill the outgoing queue,
+ * so each write carries packets from different channels, of different sizes.
+ */
+public class BatchedWriteTests extends AbstractSftpServerTests {
+
+	public void testPipelinedSmallWrites() throws Exception {
+
+		byte[] data = random(256 * 1024, 1);
+		sftp.setBlockSize(4096);
+		sftp.setMaxAsyncRequests(128);
+
+		sftp.put(new ByteArrayInputStream(data), "small-blocks.bin");
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(home, "small-blocks.bin").toPath())));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sftp.get("small-blocks.bin", out);
+		assertTrue(Arrays.equals(data, out.toByteArray()));
+	}
+
+	public void testConcurrentChannelsKeepTheirData() throws Exception {
+
+		/**
+		 * Alternate small and large blocks so that full packets are queued
+		 * behind small ones and the other way round.
+		 */
+		final int[] blockSizes = { 4096, 32768, 4096, 16384, 4096, 8192 };
+		final byte[][] data = new byte[blockSizes.length][];
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] threads = new Thread[blockSizes.length];
+		for(int i=0;i<threads.length;i++) {
+			final int idx = i;
+			data[i] = random(64 * 1024 + i * 1111, i + 2);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						SftpClient client = new SftpClient(ssh);
+						client.setBlockSize(blockSizes[idx]);
+						client.setMaxAsyncRequests(64);
+						client.put(new ByteArrayInputStream(data[idx]), "file" + idx + ".bin");
+
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						client.get("file" + idx + ".bin", out);
+						if(!Arrays.equals(data[idx], out.toByteArray())) {
+							throw new IllegalStateException("Channel " + idx + " received corrupted data");
+						}
+						client.quit();
+					} catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join(60000);
+			assertFalse(t.isAlive());
+		}
+
+		if(failure.get() != null) {
+			throw new AssertionError("A transfer failed", failure.get());
+		}
+		for(int i=0;i<data.length;i++) {
+			assertTrue(Arrays.equals(data[i], Files.readAllBytes(new File(home, "file" + i + ".bin").toPath())));
+		}
+		assertTrue(ssh.isConnected());
+	}
+
+	static byte[] random(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
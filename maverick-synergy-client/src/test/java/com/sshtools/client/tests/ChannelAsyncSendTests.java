@@ -0,0 +1,231 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SessionChannelNG;
+import com.sshtools.common.command.ExecutableCommand;
+import com.sshtools.common.shell.ShellPolicy;
+import com.sshtools.common.util.Utils;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.nio.SelectorThread;
+
+/**
+ * Data sent with sendChannelDataAsync is queued on the channel while the remote window
+ * is exhausted. The server command used here does not read its input until the test
+ * opens its gate, so the remote window stays closed until then.
+ */
+public class ChannelAsyncSendTests extends AbstractSftpServerTests {
+
+	static final int WINDOW = 65536;
+
+	static volatile CountDownLatch gate;
+
+	@Override
+	protected void setUp() throws Exception {
+		gate = new CountDownLatch(1);
+		super.setUp();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		gate.countDown();
+		super.tearDown();
+	}
+
+	@Override
+	protected void configureServer(SshServerContext sshContext) {
+		sshContext.getPolicy(ShellPolicy.class).setSessionMaxWindowSize(WINDOW);
+		sshContext.getPolicy(ShellPolicy.class).setSessionMinWindowSize(WINDOW / 2);
+		((DefaultServerChannelFactory)sshContext.getChannelFactory()).supportedCommands().add("sink", SinkCommand.class);
+	}
+
+	public void testSendIsQueuedUntilWindowIsAvailable() throws Exception {
+
+		byte[] data = BatchedWriteTests.random(WINDOW * 8, 1);
+		SessionChannelNG session = openSink();
+
+		AtomicReference<Thread> callbackThread = new AtomicReference<Thread>();
+		CompletableFuture<Void> future = session.sendChannelDataAsync(ByteBuffer.wrap(data));
+		future.whenComplete((v, e) -> callbackThread.set(Thread.currentThread()));
+
+		assertFalse(future.isDone());
+		assertTrue(session.getPendingDataLength() > 0);
+		assertTrue(session.getPendingDataLength() <= data.length);
+
+		gate.countDown();
+		future.get(30, TimeUnit.SECONDS);
+		assertEquals(0, session.getPendingDataLength());
+
+		session.sendEOF();
+		assertEquals(digest(data), readResult(session));
+
+		assertNotNull(callbackThread.get());
+		assertFalse(callbackThread.get() instanceof SelectorThread);
+	}
+
+	public void testAsyncAndBlockingWritesKeepTheirOrder() throws Exception {
+
+		byte[] first = BatchedWriteTests.random(WINDOW * 3, 2);
+		byte[] second = BatchedWriteTests.random(1000, 3);
+		byte[] third = BatchedWriteTests.random(WINDOW * 2 + 17, 4);
+
+		SessionChannelNG session = openSink();
+
+		CompletableFuture<Void> f1 = session.sendChannelDataAsync(ByteBuffer.wrap(first));
+		CompletableFuture<Void> f2 = session.sendChannelDataAsync(ByteBuffer.wrap(second));
+
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					session.sendChannelDataAndBlock(third);
+				} catch (IOException e) {
+				}
+			}
+		};
+		writer.start();
+
+		gate.countDown();
+		f1.get(30, TimeUnit.SECONDS);
+		f2.get(30, TimeUnit.SECONDS);
+		writer.join(30000);
+		assertFalse(writer.isAlive());
+
+		session.sendEOF();
+
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(first);
+		all.write(second);
+		all.write(third);
+		assertEquals(digest(all.toByteArray()), readResult(session));
+	}
+
+	public void testClosingFailsPendingWrites() throws Exception {
+
+		SessionChannelNG session = openSink();
+
+		CompletableFuture<Void> f1 = session.sendChannelDataAsync(ByteBuffer.wrap(BatchedWriteTests.random(WINDOW * 4, 5)));
+		CompletableFuture<Void> f2 = session.sendChannelDataAsync(ByteBuffer.wrap(BatchedWriteTests.random(100, 6)));
+		assertFalse(f1.isDone());
+		assertFalse(f2.isDone());
+
+		session.close();
+
+		assertFailedWithIOException(f1);
+		assertFailedWithIOException(f2);
+		assertEquals(0, session.getPendingDataLength());
+
+		/**
+		 * Writes queued after the close fail straight away.
+		 */
+		assertFailedWithIOException(session.sendChannelDataAsync(ByteBuffer.wrap(new byte[10])));
+		assertTrue(ssh.isConnected());
+	}
+
+	private SessionChannelNG openSink() throws Exception {
+		SessionChannelNG session = ssh.openSessionChannel();
+		assertTrue(session.executeCommand("sink").waitFor(30000).isSuccess());
+		return session;
+	}
+
+	private static void assertFailedWithIOException(CompletableFuture<Void> future) throws Exception {
+		try {
+			future.get(30, TimeUnit.SECONDS);
+			fail("Expected the write to fail");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private static String readResult(SessionChannelNG session) throws IOException {
+		InputStream in = session.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[256];
+		int r;
+		while((r = in.read(buf)) > -1) {
+			out.write(buf, 0, r);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	static String digest(byte[] data) throws Exception {
+		return data.length + ":" + Utils.bytesToHex(MessageDigest.getInstance("SHA-256").digest(data));
+	}
+
+	/**
+	 * Waits for the gate, then reads its input to EOF and replies with the length and
+	 * digest of what it read.
+	 */
+	public static class SinkCommand extends ExecutableCommand {
+
+		@Override
+		public boolean createProcess(String[] args, Map<String, String> environment) {
+			return true;
+		}
+
+		@Override
+		public void onStart() {
+			try {
+				gate.await(60, TimeUnit.SECONDS);
+				session.resumeIncomingData();
+
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				InputStream in = getInputStream();
+				byte[] buf = new byte[8192];
+				long count = 0;
+				int r;
+				while((r = in.read(buf)) > -1) {
+					digest.update(buf, 0, r);
+					count += r;
+				}
+
+				OutputStream out = getOutputStream();
+				out.write((count + ":" + Utils.bytesToHex(digest.digest())).getBytes(StandardCharsets.UTF_8));
+				out.flush();
+			} catch(Exception e) {
+			} finally {
+				session.close();
+			}
+		}
+
+		@Override
+		public void kill() {
+			session.close();
+		}
+
+		@Override
+		public int getExitCode() {
+			return 0;
+		}
+	}
+}
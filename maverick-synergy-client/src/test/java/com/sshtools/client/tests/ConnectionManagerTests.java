@@ -0,0 +1,204 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.ssh.Connection;
+import com.sshtools.synergy.ssh.ConnectionManager;
+import com.sshtools.synergy.ssh.ConnectionProtocol;
+import com.sshtools.synergy.ssh.TransportProtocol;
+
+/**
+ * Registers and unregisters server connections from many threads at once.
+ */
+public class ConnectionManagerTests extends AbstractSftpServerTests {
+
+	static final int THREADS = 8;
+	static final int CONNECTIONS_PER_THREAD = 4;
+	static final int ITERATIONS = 2000;
+	
+	ConnectionManager<SshServerContext> manager = new ConnectionManager<SshServerContext>("test-" + UUID.randomUUID());
+	
+	@Override
+	protected void configureServer(SshServerContext sshContext) {
+		sshContext.setConnectionManager(manager);
+	}
+
+	public void testConcurrentConnectAndDisconnect() throws Exception {
+		
+		waitForConnections(1);
+		
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread(() -> {
+			try {
+				while(running.get()) {
+					for(SshConnection c : manager.getAllConnections()) {
+						c.getSessionId();
+					}
+					for(String user : manager.getLoggedOnUsers()) {
+						manager.getConnectionsByUsername(user).size();
+					}
+				}
+			} catch(Throwable e) {
+				failure.set(e);
+			}
+		});
+		reader.start();
+		
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0;i<THREADS;i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					for(int j=0;j<CONNECTIONS_PER_THREAD;j++) {
+						try(SshClient client = new SshClient("127.0.0.1", server.getPort(), "admin", "admin".toCharArray())) {
+							assertTrue(client.isAuthenticated());
+						}
+					}
+				} catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		
+		start.countDown();
+		for(Thread t : threads) {
+			t.join(120000);
+		}
+		running.set(false);
+		reader.join(10000);
+		
+		if(failure.get()!=null) {
+			throw new AssertionError(failure.get());
+		}
+		
+		waitForConnections(1);
+		assertEquals(1, manager.getConnectionsByUsername("admin").size());
+		
+		ssh.close();
+		waitForConnections(0);
+		assertEquals(0, manager.getLoggedOnUsers().length);
+		assertTrue(manager.getConnectionsByUsername("admin").isEmpty());
+	}
+	
+	public void testAllConnectionsIsALiveView() throws Exception {
+		
+		waitForConnections(1);
+		Collection<SshConnection> all = manager.getAllConnections();
+		Collection<Connection<SshServerContext>> admin = manager.getConnectionsByUsername("admin");
+		
+		try(SshClient client = new SshClient("127.0.0.1", server.getPort(), "admin", "admin".toCharArray())) {
+			waitForConnections(2);
+			assertEquals(2, all.size());
+			assertEquals(2, admin.size());
+			assertEquals(1, manager.getLoggedOnUsers().length);
+		}
+		
+		waitForConnections(1);
+		assertEquals(1, all.size());
+		assertEquals(1, admin.size());
+		
+		try {
+			all.clear();
+			fail("The view must be unmodifiable");
+		} catch(UnsupportedOperationException e) {
+		}
+	}
+	
+	/**
+	 * Races the registration of an authenticated connection against the unregistration 
+	 * of its transport, on a separate manager using the transport of a live connection. 
+	 * Whichever wins, neither index may keep the connection.
+	 */
+	public void testUnregisterDuringRegistration() throws Exception {
+		
+		waitForConnections(1);
+		@SuppressWarnings("unchecked")
+		Connection<SshServerContext> live = (Connection<SshServerContext>) manager.getAllConnections().iterator().next();
+		ConnectionProtocol<SshServerContext> protocol = live.getConnectionProtocol();
+		TransportProtocol<SshServerContext> transport = protocol.getTransport();
+		
+		ConnectionManager<SshServerContext> racing = new ConnectionManager<SshServerContext>("test-" + UUID.randomUUID());
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		Thread registering = new Thread(() -> {
+			try {
+				for(int i=0;i<ITERATIONS;i++) {
+					barrier.await();
+					try {
+						racing.registerConnection(protocol);
+					} catch(IllegalArgumentException e) {
+						// The transport was unregistered first
+					}
+					barrier.await();
+				}
+			} catch(Throwable e) {
+				failure.compareAndSet(null, e);
+				barrier.reset();
+			}
+		});
+		registering.start();
+		
+		try {
+			for(int i=0;i<ITERATIONS;i++) {
+				racing.registerTransport(transport, transport.getContext());
+				barrier.await();
+				racing.unregisterTransport(transport);
+				barrier.await();
+				
+				assertEquals(0, racing.getNumberOfConnections().intValue());
+				assertEquals(0, racing.getLoggedOnUsers().length);
+				assertTrue(racing.getConnectionsByUsername("admin").isEmpty());
+			}
+		} finally {
+			registering.join(10000);
+		}
+		
+		if(failure.get()!=null) {
+			throw new AssertionError(failure.get());
+		}
+		assertTrue(ssh.isConnected());
+	}
+	
+	private void waitForConnections(int count) throws InterruptedException {
+		long started = System.currentTimeMillis();
+		while(manager.getNumberOfConnections() != count 
+				|| manager.getConnectionsByUsername("admin").size() != count) {
+			assertTrue(String.format("Expected %d connections but there are %d", count, manager.getNumberOfConnections()), 
+					System.currentTimeMillis() - started < 30000);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.util.ByteBufferPool;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Local forwarding with direct forwarding enabled on both sides. The client reads
+ * the local socket and the server reads the destination socket directly into pooled
+ * buffers, and EOF must only be sent once those buffers have been written.
+ */
+public class DirectForwardingTests extends AbstractSftpServerTests {
+
+	static final int WINDOW = 65536;
+	static final int LARGE_WINDOW = 16 * 1024 * 1024;
+
+	ServerSocket destination;
+	int forwardedPort;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		ssh.getContext().getForwardingPolicy().allowForwarding();
+		ssh.getContext().getForwardingPolicy().setDirectForwarding(true);
+		ssh.getContext().getForwardingPolicy().setForwardingMaxWindowSize(getWindowSize());
+		ssh.getContext().getForwardingPolicy().setForwardingMinWindowSize(getWindowSize() / 2);
+
+		destination = new ServerSocket(0);
+		forwardedPort = ssh.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", destination.getLocalPort());
+	}
+
+	@Override
+	protected void configureServer(SshServerContext sshContext) {
+		sshContext.getForwardingPolicy().allowForwarding();
+		sshContext.getForwardingPolicy().setDirectForwarding(true);
+		sshContext.getForwardingPolicy().setForwardingMaxWindowSize(getWindowSize());
+		sshContext.getForwardingPolicy().setForwardingMinWindowSize(getWindowSize() / 2);
+	}
+
+	/**
+	 * A small window keeps the direct writes waiting for window space. A large one lets 
+	 * the client read faster than the transport writes, so that writes are still queued 
+	 * on the transport when the connection is closed under them.
+	 */
+	private int getWindowSize() {
+		return getName().equals("testFailedWritesReleaseBuffers") ? LARGE_WINDOW : WINDOW;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			destination.close();
+		} finally {
+			super.tearDown();
+		}
+	}
+
+	/**
+	 * The destination writes and closes straight away, so the server reads EOF while
+	 * most of the data is still waiting for window space.
+	 */
+	public void testEOFFollowsDataFromDestination() throws Exception {
+
+		byte[] data = BatchedWriteTests.random(4 * 1024 * 1024 + 11, 7);
+
+		CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+			try(Socket s = destination.accept()) {
+				s.getOutputStream().write(data);
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		try(Socket s = new Socket("127.0.0.1", forwardedPort)) {
+			assertTrue(Arrays.equals(data, readAll(s.getInputStream())));
+		}
+		sent.get(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * The client closes its side as soon as it has written, so the client channel
+	 * reads EOF with direct writes still in progress.
+	 */
+	public void testEOFFollowsDataFromClient() throws Exception {
+
+		byte[] data = BatchedWriteTests.random(4 * 1024 * 1024 + 13, 8);
+
+		CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+			try(Socket s = destination.accept()) {
+				return readAll(s.getInputStream());
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		try(Socket s = new Socket("127.0.0.1", forwardedPort)) {
+			s.getOutputStream().write(data);
+			s.shutdownOutput();
+			assertTrue(Arrays.equals(data, received.get(30, TimeUnit.SECONDS)));
+		}
+	}
+
+	/**
+	 * Writes that fail because the connection is closed under them must still
+	 * return their buffers to the pool.
+	 */
+	public void testFailedWritesReleaseBuffers() throws Exception {
+
+		ByteBufferPool pool = ssh.getContext().getByteBufferPool();
+		AtomicLong received = new AtomicLong();
+
+		CompletableFuture.runAsync(() -> {
+			try(Socket s = destination.accept()) {
+				InputStream in = s.getInputStream();
+				byte[] buf = new byte[8192];
+				int r;
+				while((r = in.read(buf)) > -1) {
+					received.addAndGet(r);
+				}
+			} catch(IOException e) {
+			}
+		});
+
+		try(Socket s = new Socket("127.0.0.1", forwardedPort)) {
+			CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+				byte[] block = BatchedWriteTests.random(32768, 9);
+				try {
+					OutputStream out = s.getOutputStream();
+					while(true) {
+						out.write(block);
+					}
+				} catch(IOException e) {
+				}
+			});
+
+			long started = System.currentTimeMillis();
+			while(received.get() < 2 * 1024 * 1024) {
+				assertTrue("Timeout waiting for forwarded data", System.currentTimeMillis() - started < 30000);
+				Thread.sleep(10);
+			}
+			assertTrue(pool.getAllocatedBuffers() > 0);
+
+			ssh.close();
+			s.close();
+			writer.get(30, TimeUnit.SECONDS);
+		}
+
+		long started = System.currentTimeMillis();
+		while(pool.getBuffersInUse() > 0) {
+			assertTrue("Forwarding buffers were not returned to the pool",
+					System.currentTimeMillis() - started < 10000);
+			Thread.sleep(10);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int r;
+		while((r = in.read(buf)) > -1) {
+			out.write(buf, 0, r);
+		}
+		return out.toByteArray();
+	}
+}
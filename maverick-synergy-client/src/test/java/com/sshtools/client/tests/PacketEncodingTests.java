@@ -0,0 +1,107 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.sftp.SftpClient;
+
+/**
+ * Outgoing packets are assembled and encrypted in place in a reusable buffer. Each
+ * of the packet formats is checked by transferring data both ways with a cipher
+ * and MAC that selects it; a packet encoded wrongly fails the MAC or decryption
+ * on the other side and drops the connection.
+ */
+public class PacketEncodingTests extends AbstractSftpServerTests {
+
+	public void testOriginalFormatWithMac() throws Exception {
+		roundTrip("aes128-ctr", "hmac-sha2-256");
+	}
+
+	public void testEncryptThenMacFormat() throws Exception {
+		roundTrip("aes256-ctr", "hmac-sha2-512-etm@openssh.com");
+	}
+
+	public void testChaCha20Poly1305Format() throws Exception {
+		roundTrip("chacha20-poly1305@openssh.com", null);
+	}
+
+	public void testAuthenticatedEncryption() throws Exception {
+		roundTrip("aes128-gcm@openssh.com", null);
+	}
+
+	private void roundTrip(String cipher, String mac) throws Exception {
+
+		SshClientContext context = new SshClientContext();
+		context.setPreferredCipherCS(cipher);
+		context.setPreferredCipherSC(cipher);
+		if(mac != null) {
+			context.setPreferredMacCS(mac);
+			context.setPreferredMacSC(mac);
+		}
+
+		try(SshClient client = new SshClient("127.0.0.1", port, "admin", context, 30000L, "admin".toCharArray())) {
+
+			assertEquals(cipher, client.getConnection().getCipherInUseCS());
+			assertEquals(cipher, client.getConnection().getCipherInUseSC());
+			if(mac != null) {
+				assertEquals(mac, client.getConnection().getMacInUseCS());
+				assertEquals(mac, client.getConnection().getMacInUseSC());
+			}
+
+			SftpClient sftp = new SftpClient(client);
+
+			/**
+			 * Every payload length modulo the block size, and packets of the
+			 * largest size, in both directions.
+			 */
+			for(int length = 1; length <= 64; length++) {
+				byte[] data = random(length);
+				sftp.put(new ByteArrayInputStream(data), "small.bin");
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				sftp.get("small.bin", out);
+				assertTrue(Arrays.equals(data, out.toByteArray()));
+			}
+
+			byte[] data = random(512 * 1024 + 17);
+			sftp.put(new ByteArrayInputStream(data), "large.bin");
+			assertTrue(Arrays.equals(data, Files.readAllBytes(new File(home, "large.bin").toPath())));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			sftp.get("large.bin", out);
+			assertTrue(Arrays.equals(data, out.toByteArray()));
+
+			sftp.quit();
+			assertTrue(client.isConnected());
+		}
+	}
+
+	private static byte[] random(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
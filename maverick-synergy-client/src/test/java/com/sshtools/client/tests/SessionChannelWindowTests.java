@@ -0,0 +1,82 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.sshtools.client.SessionChannelNG;
+
+import junit.framework.TestCase;
+
+public class SessionChannelWindowTests extends TestCase {
+
+	static final int WINDOW = 65536;
+	
+	/**
+	 * Once the window has been tuned the remote side may send the whole enlarged 
+	 * window as stderr, which must fit without waiting for a reader.
+	 */
+	public void testExtendedDataFillsTunedWindow() throws IOException {
+		
+		TestSessionChannel channel = new TestSessionChannel(32768, WINDOW, WINDOW, WINDOW / 2);
+		channel.onWindowTuned(WINDOW * 4);
+		
+		byte[] data = new byte[WINDOW * 4];
+		for(int i=0;i<data.length;i++) {
+			data[i] = (byte) i;
+		}
+		for(int i=0;i<data.length;i+=32768) {
+			channel.onExtendedData(ByteBuffer.wrap(data, i, 32768), SessionChannelNG.SSH_EXTENDED_DATA_STDERR);
+		}
+		
+		InputStream in = channel.getStderrStream();
+		byte[] read = new byte[data.length];
+		int off = 0;
+		while(off < read.length) {
+			int r = in.read(read, off, read.length - off);
+			assertTrue(r > 0);
+			off += r;
+		}
+		for(int i=0;i<data.length;i++) {
+			assertEquals(data[i], read[i]);
+		}
+	}
+	
+	/**
+	 * Exposes the callbacks made by the connection when data arrives.
+	 */
+	static class TestSessionChannel extends SessionChannelNG {
+		
+		TestSessionChannel(int maximumPacketSize, int initialWindowSize, int maximumWindowSpace, int minimumWindowSpace) {
+			super(maximumPacketSize, initialWindowSize, maximumWindowSpace, minimumWindowSpace);
+		}
+		
+		@Override
+		protected void onWindowTuned(int maximumWindowSpace) {
+			super.onWindowTuned(maximumWindowSpace);
+		}
+		
+		@Override
+		protected void onExtendedData(ByteBuffer data, int type) {
+			super.onExtendedData(data, type);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.sftp.AsyncSftpClient;
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Requests on handles run on separate queues from requests on paths; check that
+ * a request of one kind still sees the result of every earlier request of the other.
+ */
+public class SftpHandleQueueTests extends AbstractSftpServerTests {
+
+	static final int BLOCK = 8192;
+	
+	@Override
+	protected void configureServer(SshServerContext sshContext) {
+		sshContext.getPolicy(FileSystemPolicy.class).setSFTPHandleQueues(8);
+	}
+	
+	public void testPathOperationsWaitForEarlierWrites() throws Exception {
+		
+		byte[] data = new byte[BLOCK * 64];
+		new Random(1).nextBytes(data);
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel())) {
+			
+			SftpFile file = async.openFile("data.bin", SftpChannel.OPEN_CREATE 
+					| SftpChannel.OPEN_WRITE | SftpChannel.OPEN_TRUNCATE).get(30, TimeUnit.SECONDS);
+			
+			List<CompletableFuture<?>> writes = new ArrayList<CompletableFuture<?>>();
+			for(int off = 0; off < data.length; off += BLOCK) {
+				writes.add(async.writeFile(file.getHandle(), off, data, off, BLOCK));
+			}
+			
+			CompletableFuture<Long> size = async.getAttributes("data.bin")
+					.thenApply((attrs) -> attrs.getSize().longValue());
+			CompletableFuture<Void> renamed = async.renameFile("data.bin", "renamed.bin");
+			
+			assertEquals(data.length, size.get(30, TimeUnit.SECONDS).longValue());
+			renamed.get(30, TimeUnit.SECONDS);
+			for(CompletableFuture<?> write : writes) {
+				write.get(30, TimeUnit.SECONDS);
+			}
+			async.closeFile(file).get(30, TimeUnit.SECONDS);
+		}
+		
+		assertTrue(Arrays.equals(data, Files.readAllBytes(home.toPath().resolve("renamed.bin"))));
+	}
+	
+	public void testInterleavedWritesAndStats() throws Exception {
+		
+		byte[] data = new byte[BLOCK];
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel())) {
+			
+			SftpFile[] files = new SftpFile[2];
+			for(int i = 0; i < files.length; i++) {
+				files[i] = async.openFile("file" + i, SftpChannel.OPEN_CREATE 
+						| SftpChannel.OPEN_WRITE | SftpChannel.OPEN_TRUNCATE).get(30, TimeUnit.SECONDS);
+			}
+			
+			List<CompletableFuture<Long>> sizes = new ArrayList<CompletableFuture<Long>>();
+			for(int block = 0; block < 50; block++) {
+				for(SftpFile file : files) {
+					async.writeFile(file.getHandle(), (long) block * BLOCK, data, 0, BLOCK);
+					sizes.add(async.getAttributes(file.getFilename())
+							.thenApply((attrs) -> attrs.getSize().longValue()));
+				}
+			}
+			
+			for(int i = 0; i < sizes.size(); i++) {
+				assertEquals((i / files.length + 1) * (long) BLOCK, sizes.get(i).get(30, TimeUnit.SECONDS).longValue());
+			}
+			
+			for(SftpFile file : files) {
+				async.closeFile(file).get(30, TimeUnit.SECONDS);
+			}
+		}
+	}
+	
+	public void testClosingWithDeferredOperations() throws Exception {
+		
+		byte[] data = new byte[BLOCK];
+		
+		AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel());
+		SftpFile file = async.openFile("closing.bin", SftpChannel.OPEN_CREATE 
+				| SftpChannel.OPEN_WRITE | SftpChannel.OPEN_TRUNCATE).get(30, TimeUnit.SECONDS);
+		
+		/**
+		 * Alternate handle and path requests so that most are held back, then close
+		 * the subsystem without waiting for them.
+		 */
+		for(int block = 0; block < 50; block++) {
+			async.writeFile(file.getHandle(), (long) block * BLOCK, data, 0, BLOCK);
+			async.getAttributes("closing.bin");
+		}
+		sftp.quit();
+		async.close();
+		
+		/**
+		 * The connection is still usable by a new subsystem.
+		 */
+		SftpClient another = new SftpClient(ssh);
+		assertTrue(another.stat("closing.bin").getSize().longValue() % BLOCK == 0);
+		another.quit();
+	}
+}
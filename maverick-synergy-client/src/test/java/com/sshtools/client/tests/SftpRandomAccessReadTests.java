@@ -0,0 +1,156 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * Downloads into a channel, where blocks are written at their offsets as they arrive.
+ */
+public class SftpRandomAccessReadTests extends AbstractSftpServerTests {
+
+	public void testDownloadIntoFileChannel() throws Exception {
+
+		byte[] data = new byte[1024 * 1024 + 123];
+		new Random(3).nextBytes(data);
+		createFile("remote.bin", data);
+
+		File local = new File(home, "local.bin");
+		try(FileChannel out = FileChannel.open(local.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			sftp.get("remote.bin", out, null, 0);
+		}
+		assertTrue(Arrays.equals(data, Files.readAllBytes(local.toPath())));
+	}
+
+	public void testDownloadFromPosition() throws Exception {
+
+		byte[] data = new byte[256 * 1024];
+		new Random(4).nextBytes(data);
+		createFile("remote.bin", data);
+
+		File local = new File(home, "local.bin");
+		try(FileChannel out = FileChannel.open(local.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			out.write(ByteBuffer.wrap(data, 0, 1000), 0);
+			sftp.get("remote.bin", out, null, 1000);
+		}
+		assertTrue(Arrays.equals(data, Files.readAllBytes(local.toPath())));
+	}
+
+	public void testDownloadEmptyFile() throws Exception {
+
+		createFile("empty.bin", new byte[0]);
+
+		File local = new File(home, "local.bin");
+		try(FileChannel out = FileChannel.open(local.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			sftp.get("empty.bin", out, null, 0);
+			assertEquals(0, out.size());
+		}
+	}
+
+	public void testWriteFailureIsReported() throws Exception {
+
+		byte[] data = new byte[128 * 1024];
+		new Random(5).nextBytes(data);
+		createFile("remote.bin", data);
+
+		IOException failure = new IOException("Disk full");
+		File local = new File(home, "local.bin");
+		try(FileChannel file = FileChannel.open(local.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			SeekableByteChannel out = new FailingChannel(file, failure);
+			try {
+				sftp.get("remote.bin", out, null, 0);
+				fail("Expected the write failure to fail the transfer");
+			} catch(SshException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+
+		/**
+		 * The handle was closed and the channel is still usable.
+		 */
+		assertNotNull(sftp.stat("remote.bin"));
+	}
+
+	static class FailingChannel implements SeekableByteChannel {
+
+		final SeekableByteChannel delegate;
+		final IOException failure;
+
+		FailingChannel(SeekableByteChannel delegate, IOException failure) {
+			this.delegate = delegate;
+			this.failure = failure;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return delegate.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return delegate.read(dst);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			throw failure;
+		}
+
+		@Override
+		public long position() throws IOException {
+			return delegate.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			delegate.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			return delegate.size();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) throws IOException {
+			delegate.truncate(size);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.sftp.AsyncSftpClient;
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.policy.FileSystemPolicy;
+
+/**
+ * The server reads file data straight into pooled buffers sized from the request; 
+ * check that it limits what the client asks for.
+ */
+public class SftpReadRequestTests extends AbstractSftpServerTests {
+
+	public void testOversizedReadsAreLimited() throws Exception {
+		
+		int max = new FileSystemPolicy().getSftpMaxPacketSize();
+		byte[] data = new byte[max * 3];
+		new Random(2).nextBytes(data);
+		createFile("large.bin", data);
+		
+		try(AsyncSftpClient async = new AsyncSftpClient(sftp.getSubsystemChannel())) {
+			
+			SftpFile file = async.openFile("large.bin", SftpChannel.OPEN_READ).get(30, TimeUnit.SECONDS);
+			
+			byte[] block = async.readFile(file.getHandle(), 0, Integer.MAX_VALUE).get(30, TimeUnit.SECONDS);
+			assertEquals(max, block.length);
+			assertTrue(Arrays.equals(Arrays.copyOf(data, max), block));
+			
+			// A length with the top bit set is a very large unsigned length, not a negative one
+			block = async.readFile(file.getHandle(), max, -1).get(30, TimeUnit.SECONDS);
+			assertEquals(max, block.length);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, max, max * 2), block));
+			
+			assertNull(async.readFile(file.getHandle(), data.length, max).get(30, TimeUnit.SECONDS));
+			
+			async.closeFile(file).get(30, TimeUnit.SECONDS);
+		}
+	}
+}
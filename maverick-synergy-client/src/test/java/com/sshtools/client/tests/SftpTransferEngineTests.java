@@ -0,0 +1,231 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.SftpTransferEngine;
+import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
+
+public class SftpTransferEngineTests extends AbstractSftpServerTests {
+
+	static final int STRIPE = 16384;
+	
+	File local;
+	SftpTransferEngine engine;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		local = Files.createTempDirectory("sftp-engine").toFile();
+		engine = new SftpTransferEngine(3, new DirectFileFactory(local), ssh);
+		engine.setBlockSize(4096);
+		engine.setStripeThreshold(STRIPE * 4);
+		engine.setStripeSize(STRIPE);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			engine.close();
+			for(File f : local.listFiles()) {
+				f.delete();
+			}
+			local.delete();
+		} finally {
+			super.tearDown();
+		}
+	}
+	
+	public void testSingleFileRoundTrip() throws Exception {
+		
+		byte[] data = random(STRIPE);
+		Files.write(new File(local, "small.bin").toPath(), data);
+		
+		Progress progress = new Progress();
+		engine.put("small.bin", "small.bin", progress);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(home, "small.bin").toPath())));
+		assertEquals(data.length, progress.transferred.get());
+		assertTrue(progress.completed);
+		
+		engine.get("small.bin", "copy.bin", null);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(local, "copy.bin").toPath())));
+	}
+	
+	public void testStripedRoundTrip() throws Exception {
+		
+		/* An uneven length so that the last stripe is short */
+		byte[] data = random(STRIPE * 10 + 1234);
+		Files.write(new File(local, "large.bin").toPath(), data);
+		
+		Progress progress = new Progress();
+		engine.put("large.bin", "large.bin", progress);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(home, "large.bin").toPath())));
+		assertEquals(data.length, progress.transferred.get());
+		
+		File remote = new File(home, "large.bin");
+		assertTrue(remote.setLastModified(1500000000000L));
+		
+		progress = new Progress();
+		SftpFileAttributes attrs = engine.get("large.bin", "copy.bin", progress);
+		assertEquals(data.length, attrs.getSize().longValue());
+		assertEquals(data.length, progress.transferred.get());
+		
+		File copy = new File(local, "copy.bin");
+		assertTrue(Arrays.equals(data, Files.readAllBytes(copy.toPath())));
+		assertEquals(1500000000000L, copy.lastModified());
+	}
+	
+	public void testManyFilesInParallel() throws Exception {
+		
+		byte[][] data = new byte[8][];
+		for(int i=0;i<data.length;i++) {
+			data[i] = random(1000 * (i + 1));
+			createFile("file" + i + ".txt", data[i]);
+		}
+		createFile("other.bin", random(100));
+		
+		assertEquals(data.length, engine.getFiles("file*.txt", local.getAbsolutePath(), null).length);
+		for(int i=0;i<data.length;i++) {
+			assertTrue(Arrays.equals(data[i], Files.readAllBytes(new File(local, "file" + i + ".txt").toPath())));
+		}
+		assertFalse(new File(local, "other.bin").exists());
+	}
+	
+	public void testSeveralFilesIntoOneFileFails() throws Exception {
+		
+		createFile("file1.txt", random(100));
+		createFile("file2.txt", random(200));
+		
+		try {
+			engine.getFiles("file*.txt", "target.txt", null);
+			fail("Expected the download to fail");
+		} catch(IOException e) {
+		}
+		assertFalse(new File(local, "target.txt").exists());
+		
+		byte[] data = random(300);
+		createFile("single.txt", data);
+		assertEquals(1, engine.getFiles("single*.txt", "target.txt", null).length);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(local, "target.txt").toPath())));
+	}
+	
+	public void testTransfersRunOnEngineExecutorFactory() throws Exception {
+		
+		Set<String> created = ConcurrentHashMap.newKeySet();
+		ssh.getContext().setExecutorFactory(name -> {
+			created.add(name);
+			return new PlatformThreadExecutorFactory().createExecutor(name);
+		});
+		
+		try(SftpTransferEngine other = new SftpTransferEngine(2, new DirectFileFactory(local), ssh)) {
+			assertTrue(created.contains("sftp-transfer"));
+			
+			byte[] data = random(STRIPE);
+			createFile("remote.bin", data);
+			other.get("remote.bin", "copy.bin", null);
+			assertTrue(Arrays.equals(data, Files.readAllBytes(new File(local, "copy.bin").toPath())));
+		}
+	}
+	
+	public void testMissingRemoteFileFails() throws Exception {
+		try {
+			engine.get("missing.bin", "missing.bin", null);
+			fail("Expected the download to fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+	
+	public void testFailedUnitFailsTransfer() throws Exception {
+		
+		Files.write(new File(local, "small.bin").toPath(), random(100));
+		try {
+			engine.put("small.bin", "missing/small.bin", null);
+			fail("Expected the upload to fail");
+		} catch(SftpStatusException e) {
+		}
+		
+		/* The channels are returned to the pool after a failure */
+		engine.put("small.bin", "small.bin", null);
+		assertEquals(100, new File(home, "small.bin").length());
+	}
+	
+	public void testCancelledTransfer() throws Exception {
+		
+		byte[] data = random(STRIPE * 10);
+		Files.write(new File(local, "large.bin").toPath(), data);
+		
+		Progress progress = new Progress();
+		progress.cancelAfter = STRIPE;
+		try {
+			engine.put("large.bin", "large.bin", progress);
+			fail("Expected the upload to be cancelled");
+		} catch(TransferCancelledException e) {
+		}
+		assertFalse(progress.completed);
+		
+		engine.put("large.bin", "large.bin", null);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(home, "large.bin").toPath())));
+	}
+	
+	private static byte[] random(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+	
+	static class Progress implements FileTransferProgress {
+		
+		AtomicLong transferred = new AtomicLong();
+		long cancelAfter = Long.MAX_VALUE;
+		volatile boolean completed;
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+		}
+		
+		@Override
+		public void progressed(long bytesSoFar) {
+			transferred.set(bytesSoFar);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return transferred.get() >= cancelAfter;
+		}
+
+		@Override
+		public void completed() {
+			completed = true;
+		}
+	}
+}
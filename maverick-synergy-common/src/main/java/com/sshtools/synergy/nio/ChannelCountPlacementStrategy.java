@@ -0,0 +1,74 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.nio;
+
+import java.util.List;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * Places new sockets on the thread with the most free channel slots, selecting 
+ * an idle thread immediately if one is available.
+ */
+public class ChannelCountPlacementStrategy implements SelectorPlacementStrategy {
+
+	boolean verbose = Boolean.getBoolean("maverick.verbose");
+	
+	@Override
+	public SelectorThread selectThread(List<SelectorThread> threads) {
+		
+		int index = -1;
+		int highestAvailableLoad = 0;
+		SelectorThread t;
+		int currentThreadsAvailableLoad;
+
+		for (int i = 0; i < threads.size(); i++) {
+			t = threads.get(i);
+			currentThreadsAvailableLoad = t.getMaximumLoad()
+					- t.getThreadLoad();
+			if (currentThreadsAvailableLoad == t.getMaximumLoad()) {
+				if(verbose && Log.isDebugEnabled())
+					Log.debug("An idle thread has been selected id="
+							+ t.getSelectorId());
+				return t;
+			}
+			if(verbose && Log.isDebugEnabled())
+				Log.debug("Thread id " + t.getSelectorId()
+						+ " has a current load of " + t.getThreadLoad()
+						+ " channels");
+
+			if (currentThreadsAvailableLoad > 0
+					&& currentThreadsAvailableLoad > highestAvailableLoad) {
+				highestAvailableLoad = currentThreadsAvailableLoad;
+				index = i;
+			}
+		}
+
+		if (index > -1) {
+			t = threads.get(index);
+			if(verbose && Log.isDebugEnabled())
+				Log.debug("Existing thread id " + t.getSelectorId()
+						+ " selected with current load of " + t.getThreadLoad()
+						+ " channels");
+			return t;
+		}
+		
+		return null;
+	}
+}
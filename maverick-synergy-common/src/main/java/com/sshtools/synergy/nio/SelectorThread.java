@@ -50,6 +50,7 @@ public class SelectorThread extends Thread {
 	SelectorProvider selectorProvider;
 	IdleStateManager idleStates;
 	boolean hasOperations = false;
+	SelectorThreadLoad load = new SelectorThreadLoad();
 
 	/**
 	 * Construct a new selector thread.
@@ -196,7 +197,11 @@ public class SelectorThread extends Thread {
 						if(Log.isTraceEnabled())
 							Log.trace("Channel is registered");
 
-						if (reg.getAttachment() instanceof SelectorRegistrationListener)
+						if (reg.isMigration()) {
+							SocketHandler handler = (SocketHandler) reg.getAttachment();
+							handler.setThread(this);
+							handler.setSelectionKey(key);
+						} else if (reg.getAttachment() instanceof SelectorRegistrationListener)
 							((SocketHandler) reg.getAttachment())
 									.registrationCompleted(reg.getChannel(),
 											key, this);
@@ -315,6 +320,62 @@ public class SelectorThread extends Thread {
 		selector.wakeup();
 	}
 
+	/**
+	 * Move a socket registered with this thread to another thread. This is performed
+	 * on this thread and is skipped if the socket is currently processing an event,
+	 * in which case the pool will try again later.
+	 * 
+	 * @param handler
+	 * @param target
+	 */
+	public void migrate(final SocketHandler handler, final SelectorThread target) {
+		
+		addSelectorOperation(new Runnable() {
+			public void run() {
+				
+				SelectionKey key = null;
+				for(SelectionKey k : selector.keys()) {
+					if(k.attachment() == handler) {
+						key = k;
+						break;
+					}
+				}
+				
+				if(key==null || !key.isValid() || key.interestOps() == 0) {
+					return;
+				}
+				
+				/**
+				 * Include OP_WRITE so that any write flagged while the socket is between 
+				 * selectors is not lost. The handler resets its interest after the event.
+				 */
+				int ops = (key.interestOps() | SelectionKey.OP_WRITE) & key.channel().validOps();
+				key.cancel();
+				load.remove(handler);
+				handler.setThread(target);
+				idleStates.transfer(target.idleStates, handler::isIdleStateListener);
+				
+				if(Log.isDebugEnabled()) {
+					Log.debug("Moved {} from {} to {}", handler.getName(), getName(), target.getName());
+				}
+				
+				synchronized (target.pendingRegistrations) {
+					target.pendingRegistrations.addLast(new Registration(key.channel(), ops, handler, true));
+				}
+				target.wakeup();
+			}
+		});
+	}
+	
+	/**
+	 * Get the recent traffic serviced by this thread.
+	 * 
+	 * @return SelectorThreadLoad
+	 */
+	public SelectorThreadLoad getLoad() {
+		return load;
+	}
+	
 	/**
 	 * Get the current thread load.
 	 * 
@@ -448,6 +509,10 @@ public class SelectorThread extends Thread {
 						break;
 					}
 
+					if (load.update()) {
+						pool.rebalance();
+					}
+					
 					// Service the idle states if its ready
 					//synchronized (idleStates) {
 						if (idleStates.isReady()) {
@@ -546,12 +611,23 @@ public class SelectorThread extends Thread {
 		SelectableChannel channel;
 		int interestedOps;
 		Object attachment;
+		boolean migration;
 
 		Registration(SelectableChannel channel, int interestedOps,
 				Object attachment) {
+			this(channel, interestedOps, attachment, false);
+		}
+		
+		Registration(SelectableChannel channel, int interestedOps,
+				Object attachment, boolean migration) {
 			this.channel = channel;
 			this.interestedOps = interestedOps;
 			this.attachment = attachment;
+			this.migration = migration;
+		}
+
+		public boolean isMigration() {
+			return migration;
 		}
 
 		public SelectableChannel getChannel() {
@@ -0,0 +1,190 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.nio;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the recent I/O volume and processing time of the sockets serviced by a 
+ * {@link SelectorThread}. Activity is accumulated as it happens and converted into
+ * smoothed per-second rates once every {@link #PERIOD} milliseconds.
+ * <p>
+ * The load score combines the two measurements, counting each byte transferred as 
+ * one nanosecond of work, which is roughly the cost of passing a byte through the 
+ * cipher and MAC of a connection.
+ */
+public class SelectorThreadLoad {
+
+	static final long PERIOD = 1000;
+	
+	AtomicLong events = new AtomicLong();
+	AtomicLong bytes = new AtomicLong();
+	AtomicLong busyNanos = new AtomicLong();
+	
+	long lastUpdate = System.currentTimeMillis();
+	volatile long eventsPerSecond;
+	volatile long bytesPerSecond;
+	volatile long busyNanosPerSecond;
+	
+	Map<SocketHandler,HandlerLoad> handlers = new ConcurrentHashMap<SocketHandler,HandlerLoad>();
+	
+	/**
+	 * Record the processing of a selection event.
+	 * 
+	 * @param handler
+	 * @param transferred
+	 * @param nanos
+	 */
+	public void record(SocketHandler handler, long transferred, long nanos) {
+		events.incrementAndGet();
+		bytes.addAndGet(transferred);
+		busyNanos.addAndGet(nanos);
+		
+		HandlerLoad load = handlers.get(handler);
+		if(load==null) {
+			load = new HandlerLoad();
+			HandlerLoad existing = handlers.putIfAbsent(handler, load);
+			if(existing!=null) {
+				load = existing;
+			}
+		}
+		load.score.addAndGet(transferred + nanos);
+	}
+	
+	/**
+	 * Stop tracking a handler, for example because it has moved to another thread.
+	 * 
+	 * @param handler
+	 */
+	void remove(SocketHandler handler) {
+		handlers.remove(handler);
+	}
+	
+	/**
+	 * Roll the accumulated activity into the smoothed rates if the period has elapsed.
+	 * 
+	 * @return true if the rates were updated.
+	 */
+	synchronized boolean update() {
+		
+		long now = System.currentTimeMillis();
+		long elapsed = now - lastUpdate;
+		if(elapsed < PERIOD) {
+			return false;
+		}
+		lastUpdate = now;
+		
+		eventsPerSecond = smooth(eventsPerSecond, events.getAndSet(0), elapsed);
+		bytesPerSecond = smooth(bytesPerSecond, bytes.getAndSet(0), elapsed);
+		busyNanosPerSecond = smooth(busyNanosPerSecond, busyNanos.getAndSet(0), elapsed);
+		
+		for(Iterator<HandlerLoad> it = handlers.values().iterator(); it.hasNext();) {
+			HandlerLoad load = it.next();
+			load.scorePerSecond = smooth(load.scorePerSecond, load.score.getAndSet(0), elapsed);
+			if(load.scorePerSecond == 0) {
+				it.remove();
+			}
+		}
+		return true;
+	}
+	
+	private static long smooth(long current, long count, long elapsed) {
+		long rate = count * 1000 / elapsed;
+		return (current * 3 + rate) / 4;
+	}
+	
+	/**
+	 * Find the handler whose load is closest to, without exceeding, the amount of load 
+	 * that should be moved off this thread.
+	 * 
+	 * @param excess
+	 * @return SocketHandler or null if there is no suitable handler.
+	 */
+	SocketHandler selectMigrationCandidate(long excess) {
+		SocketHandler candidate = null;
+		long best = Long.MAX_VALUE;
+		long target = excess / 2;
+		for(Map.Entry<SocketHandler,HandlerLoad> e : handlers.entrySet()) {
+			long score = e.getValue().scorePerSecond;
+			if(score > 0 && score < excess && Math.abs(score - target) < best) {
+				best = Math.abs(score - target);
+				candidate = e.getKey();
+			}
+		}
+		return candidate;
+	}
+	
+	/**
+	 * Get the smoothed number of selection events processed per second.
+	 * 
+	 * @return long
+	 */
+	public long getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+	
+	/**
+	 * Get the smoothed number of bytes read from and written to sockets per second.
+	 * 
+	 * @return long
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	/**
+	 * Get the smoothed processing time spent on selection events per second.
+	 * 
+	 * @return long nanoseconds
+	 */
+	public long getBusyNanosPerSecond() {
+		return busyNanosPerSecond;
+	}
+	
+	/**
+	 * Get the combined load score used to balance threads.
+	 * 
+	 * @return long
+	 */
+	public long getLoadScore() {
+		return bytesPerSecond + busyNanosPerSecond;
+	}
+	
+	/**
+	 * Get the number of handlers with recent activity.
+	 * 
+	 * @return int
+	 */
+	public int getActiveHandlers() {
+		return handlers.size();
+	}
+	
+	public String toString() {
+		return String.format("%d events/s, %d bytes/s, %dms busy/s, %d active", 
+				eventsPerSecond, bytesPerSecond, busyNanosPerSecond / 1000000, handlers.size());
+	}
+	
+	static class HandlerLoad {
+		AtomicLong score = new AtomicLong();
+		volatile long scorePerSecond;
+	}
+}
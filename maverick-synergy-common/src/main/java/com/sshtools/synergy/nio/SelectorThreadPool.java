@@ -24,15 +24,24 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import com.sshtools.common.logger.Log;
 
 /**
  * Maintains a pool of {@link SelectoThread}s increasing the pool when required
  * and always maintaining the minimum number of permanent threads required.
+ * <p>
+ * New sockets are placed according to a {@link SelectorPlacementStrategy}. When
+ * migration is enabled the pool also moves busy sockets from the most loaded thread
+ * to the least loaded thread if the imbalance between them persists.
  */
 public class SelectorThreadPool {
 
+	static final int IMBALANCE_RATIO = 2;
+	static final int IMBALANCE_PERIODS = 5;
+	static final long MINIMUM_MIGRATION_LOAD = 50000000L;
+	
 	
 	SelectorThreadImpl impl;
 	ArrayList<SelectorThread> threads = new ArrayList<SelectorThread>();
@@ -42,8 +51,12 @@ public class SelectorThreadPool {
 	int idleServicePeriod;
 	int inactivePeriodsPerIdleEvent;
 	SelectorProvider selectorProvider;
-	boolean isShuttingDown = false;
+	volatile boolean isShuttingDown = false;
 	boolean verbose = Boolean.getBoolean("maverick.verbose");
+	SelectorPlacementStrategy placementStrategy = new TrafficAwarePlacementStrategy();
+	boolean migrationEnabled;
+	long lastRebalance;
+	int imbalancedPeriods;
 	
 	/**
 	 * Construct a thread pool. if(Log.isDebugEnabled()) Log.debug(
@@ -97,19 +110,26 @@ public class SelectorThreadPool {
 	/**
 	 * Shutdown all threads in the pool.
 	 */
-	public synchronized void shutdown() {
+	public void shutdown() {
 
 		if(Log.isInfoEnabled()) {
 			Log.info("Shutting down {} thread pool", impl.getName());
 		}
 		
-		isShuttingDown = true;
-		for (Iterator<SelectorThread> it = threads.iterator(); it.hasNext();) {
-			SelectorThread t = it.next();
+		List<SelectorThread> stopping;
+		synchronized(this) {
+			isShuttingDown = true;
+			stopping = new ArrayList<SelectorThread>(threads);
+			threads.clear();
+		}
+		
+		/**
+		 * Wait for the threads outside of the lock as they call back into the 
+		 * pool while stopping.
+		 */
+		for (SelectorThread t : stopping) {
 			t.shutdown();
 		}
-
-		threads.clear();
 	}
 
 	void removeThread(SelectorThread thread) {
@@ -151,6 +171,46 @@ public class SelectorThreadPool {
 		return count;
 	}
 
+	/**
+	 * Get the load of each thread in the pool.
+	 * 
+	 * @return List<SelectorThreadLoad>
+	 */
+	public synchronized List<SelectorThreadLoad> getThreadLoads() {
+		List<SelectorThreadLoad> loads = new ArrayList<SelectorThreadLoad>();
+		for(SelectorThread t : threads) {
+			loads.add(t.getLoad());
+		}
+		return loads;
+	}
+	
+	public synchronized SelectorPlacementStrategy getPlacementStrategy() {
+		return placementStrategy;
+	}
+
+	/**
+	 * Set the strategy used to place new sockets on a thread.
+	 * 
+	 * @param placementStrategy
+	 */
+	public synchronized void setPlacementStrategy(SelectorPlacementStrategy placementStrategy) {
+		this.placementStrategy = placementStrategy;
+	}
+	
+	public synchronized boolean isMigrationEnabled() {
+		return migrationEnabled;
+	}
+
+	/**
+	 * Allow busy sockets to be moved between threads when the load of the pool 
+	 * remains unbalanced.
+	 * 
+	 * @param migrationEnabled
+	 */
+	public synchronized void setMigrationEnabled(boolean migrationEnabled) {
+		this.migrationEnabled = migrationEnabled;
+	}
+
 	/**
 	 * Select the next available thread with the minimum load.
 	 * 
@@ -159,47 +219,72 @@ public class SelectorThreadPool {
 	 */
 	public synchronized SelectorThread selectNextThread() throws IOException {
 
-		int index = -1;
-		int highestAvailableLoad = 0;
-		SelectorThread t;
-		int currentThreadsAvailableLoad;
-
-		for (int i = 0; i < threads.size(); i++) {
-			t = (SelectorThread) threads.get(i);
-			currentThreadsAvailableLoad = t.getMaximumLoad()
-					- t.getThreadLoad();
-			if (currentThreadsAvailableLoad == t.getMaximumLoad()) {
-				if(verbose && Log.isDebugEnabled())
-					Log.debug("An idle thread has been selected id="
-							+ t.getSelectorId());
-				return t;
-			}
-			if(verbose && Log.isDebugEnabled())
-				Log.debug("Thread id " + t.getSelectorId()
-						+ " has a current load of " + t.getThreadLoad()
-						+ " channels");
-
-			if (currentThreadsAvailableLoad > 0
-					&& currentThreadsAvailableLoad > highestAvailableLoad) {
-				highestAvailableLoad = currentThreadsAvailableLoad;
-				index = i;
-			}
-		}
-
-		if (index > -1) {
-			t = (SelectorThread) threads.get(index);
-			if(verbose && Log.isDebugEnabled())
-				Log.debug("Existing thread id " + t.getSelectorId()
-						+ " selected with current load of " + t.getThreadLoad()
-						+ " channels");
-			return (SelectorThread) threads.get(index);
+		SelectorThread t = placementStrategy.selectThread(threads);
+		if(t!=null) {
+			return t;
 		}
-
+		
 		if(verbose && Log.isDebugEnabled())
 			Log.debug("All threads are at maximum capacity");
 		return createThread();
 
 	}
+	
+	/**
+	 * Called by each thread after it has updated its load. If the most loaded thread has
+	 * carried more than twice the load of the least loaded thread for several periods then 
+	 * a socket is moved between them.
+	 */
+	synchronized void rebalance() {
+		
+		if(!migrationEnabled || isShuttingDown || threads.size() < 2) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		if(now - lastRebalance < SelectorThreadLoad.PERIOD) {
+			return;
+		}
+		lastRebalance = now;
+		
+		SelectorThread busiest = null;
+		SelectorThread quietest = null;
+		for(SelectorThread t : threads) {
+			if(busiest==null || t.getLoad().getLoadScore() > busiest.getLoad().getLoadScore()) {
+				busiest = t;
+			}
+			if(t.getMaximumLoad() > t.getThreadLoad() 
+					&& (quietest==null || t.getLoad().getLoadScore() < quietest.getLoad().getLoadScore())) {
+				quietest = t;
+			}
+		}
+		
+		if(quietest==null || busiest==quietest) {
+			imbalancedPeriods = 0;
+			return;
+		}
+		
+		long busiestScore = busiest.getLoad().getLoadScore();
+		long quietestScore = quietest.getLoad().getLoadScore();
+		if(busiestScore < MINIMUM_MIGRATION_LOAD || busiestScore < quietestScore * IMBALANCE_RATIO) {
+			imbalancedPeriods = 0;
+			return;
+		}
+		
+		if(++imbalancedPeriods < IMBALANCE_PERIODS) {
+			return;
+		}
+		imbalancedPeriods = 0;
+		
+		SocketHandler candidate = busiest.getLoad().selectMigrationCandidate(busiestScore - quietestScore);
+		if(candidate!=null) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Migrating {} from {} [{}] to {} [{}]", candidate.getName(), 
+						busiest.getName(), busiest.getLoad(), quietest.getName(), quietest.getLoad());
+			}
+			busiest.migrate(candidate, quietest);
+		}
+	}
 
 	public void register(ServerSocketChannel socketChannel, int ops, ClientAcceptor acceptor, boolean wakeup) throws ClosedChannelException {
 		for(SelectorThread t : threads) {
@@ -26,11 +26,14 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.sshtools.common.logger.Log;
+import com.sshtools.common.nio.IdleStateListener;
 import com.sshtools.common.nio.IdleStateManager;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.ExecutorOperationQueues;
+import com.sshtools.synergy.ssh.ChannelNG;
 import com.sshtools.synergy.ssh.Connection;
 import com.sshtools.synergy.ssh.SshContext;
 
@@ -52,6 +55,8 @@ public class SocketConnection implements SocketHandler {
     protected ByteBuffer socketDataOut;
 
     protected boolean closed;
+    
+    final AtomicLong bytesTransferred = new AtomicLong();
 
     boolean hasInterestedOps = false;
 
@@ -219,6 +224,23 @@ public class SocketConnection implements SocketHandler {
         return selectorThread.getIdleStates();
     }
 
+    /**
+     * The transport and its channels register with the idle state manager of this 
+     * socket's selector thread.
+     */
+    @Override
+    public boolean isIdleStateListener(IdleStateListener listener) {
+    	if(listener == protocolEngine) {
+    		return true;
+    	}
+    	if(listener instanceof ChannelNG) {
+    		ChannelNG<?> channel = (ChannelNG<?>) listener;
+    		return channel.getConnectionProtocol() != null
+    				&& channel.getConnectionProtocol().getTransport().getSocketConnection() == this;
+    	}
+    	return false;
+    }
+
     /**
      * Is the current thread this sockets {@link SelectorThread}?
      * @return boolean
@@ -276,6 +298,10 @@ public class SocketConnection implements SocketHandler {
           int  numBytesRead = socketChannel.read(socketDataIn);
           //flip buffer so that any remaining data can be read
           socketDataIn.flip();
+          
+          if(numBytesRead > 0) {
+        	  bytesTransferred.addAndGet(numBytesRead);
+          }
 
           if(Log.isTraceEnabled()) {
         	  Log.trace("Read " + numBytesRead + " bytes from socket");
@@ -363,6 +389,7 @@ public class SocketConnection implements SocketHandler {
 
             if(socketDataOut.hasRemaining()) {
             	int written = socketChannel.write(socketDataOut);
+            	bytesTransferred.addAndGet(written);
             	if(Log.isTraceEnabled()) {
             		Log.trace("Written " + written + " bytes to socket");
             	}
@@ -433,6 +460,11 @@ public class SocketConnection implements SocketHandler {
 		return (socketDataOut!=null && socketDataOut.hasRemaining()) || (protocolEngine!=null && protocolEngine.wantsToWrite());
 	}
 
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+
 	@Override
 	public SelectorThread getSelectorThread() {
 		return selectorThread;
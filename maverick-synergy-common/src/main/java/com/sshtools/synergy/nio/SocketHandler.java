@@ -22,6 +22,7 @@ package com.sshtools.synergy.nio;
 import java.io.IOException;
 import java.nio.channels.SelectableChannel;
 
+import com.sshtools.common.nio.IdleStateListener;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.synergy.ssh.Connection;
 import com.sshtools.synergy.ssh.SshContext;
@@ -77,6 +78,25 @@ public interface SocketHandler extends SelectorRegistrationListener, SelectionKe
          * @return
          */
 		public boolean wantsWrite();
+		
+		/**
+		 * The total number of bytes read from and written to the socket, used to measure
+		 * the load of the selector thread.
+		 * @return long
+		 */
+		public default long getBytesTransferred() {
+			return 0;
+		}
+		
+		/**
+		 * Does an idle state listener belong to this handler? These listeners are moved 
+		 * with the handler when it migrates to another selector thread.
+		 * @param listener
+		 * @return boolean
+		 */
+		public default boolean isIdleStateListener(IdleStateListener listener) {
+			return false;
+		}
 
 		
 		/**
@@ -88,6 +88,15 @@ public class SshEngine {
 		return context;
 	}
 
+	/**
+	 * Get the pool of threads performing IO for connected sockets.
+	 * 
+	 * @return SelectorThreadPool
+	 */
+	public SelectorThreadPool getTransferThreadPool() {
+		return transferThreads;
+	}
+
 	private static String version = PomVersion.getVersion();
 	
 	private static long releaseDate = 0L;
@@ -228,6 +237,8 @@ public class SshEngine {
 					getIntValue(properties, "maverick.config.idlePeriod", context.getIdleServiceRunPeriod()),
 					getIntValue(properties, "maverick.config.idleEvents", context.getInactiveServiceRunsPerIdleEvent()),
 					context.getSelectorProvider());
+			transferThreads.setPlacementStrategy(context.getTransferPlacementStrategy());
+			transferThreads.setMigrationEnabled(context.isTransferMigration());
 
 			acceptThreads = new SelectorThreadPool(new AcceptSelectorThread(),
 					getIntValue(properties, "maverick.config.accept.threads", context.getPermanentAcceptThreads()),
@@ -463,6 +474,7 @@ public class SshEngine {
 			if (transferThreads != null)
 				transferThreads.shutdown();
 
+			context.shutdownExecutor();
 			
 		} finally {
 			started = false;
@@ -612,9 +624,7 @@ public class SshEngine {
 			ClientAcceptor acceptor = (ClientAcceptor) key.attachment();
 
 			if(Log.isTraceEnabled())
-				Log.trace(context.getBufferPool().getAllocatedBuffers()
-						+ " direct buffers allocated, "
-						+ context.getBufferPool().getFreeBuffers() + " free");
+				Log.trace(context.getBufferPool().toString());
 			acceptor.finishAccept(key);
 		}
 		
@@ -660,6 +670,10 @@ public class SshEngine {
 		
 		public void doTask() {
 			
+			SelectorThread thread = listener.getSelectorThread();
+			long started = System.nanoTime();
+			long transferred = listener.getBytesTransferred();
+			
 			boolean cancel = false;
 			if (key.isValid() && key.isWritable()) {
 				if(Log.isTraceEnabled()) {
@@ -674,6 +688,8 @@ public class SshEngine {
 				}
 				cancel |= listener.processReadEvent();
 			}
+			
+			thread.getLoad().record(listener, listener.getBytesTransferred() - transferred, System.nanoTime() - started);
 
 			if(cancel) {
 				key.cancel();
@@ -26,6 +26,7 @@ import java.nio.channels.spi.SelectorProvider;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import com.sshtools.common.events.EventListener;
 import com.sshtools.common.events.EventServiceImplementation;
@@ -46,10 +47,16 @@ public class SshEngineContext {
 	int permanentConnectThreads = 1;
 	int permanentTransferThreads = 2;
 	int maximumChannelsPerThread = 1000;
+	SelectorPlacementStrategy transferPlacementStrategy = new TrafficAwarePlacementStrategy();
+	boolean transferMigration = false;
+	volatile ExecutorFactory executorFactory = Boolean.getBoolean("maverick.virtualThreads") 
+			? new VirtualThreadExecutorFactory() : new PlatformThreadExecutorFactory();
+	volatile ExecutorService executor;
 	int idleServicePeriod = 1;
 	int inactivePeriodsPerIdleEvent = 1;
 	boolean useDirectByteBuffers = true;
 	int bufferPoolArraySize = 65536+4096;
+	long bufferPoolMaximumRetainedMemory = ByteBufferPool.DEFAULT_MAXIMUM_RETAINED_MEMORY;
 	Map<String, ListeningInterface> interfacesToBind = new ConcurrentHashMap<String, ListeningInterface>(8, 0.9f, 1);
 
 	int ipv6WorkaroundPort = 60022;
@@ -120,12 +127,56 @@ public class SshEngineContext {
 	 * @return ByteBufferPool
 	 */
 	public synchronized ByteBufferPool getBufferPool() {
-		if (bufferPool == null)
+		if (bufferPool == null) {
 			bufferPool = new ByteBufferPool(bufferPoolArraySize,
 					useDirectByteBuffers);
+			bufferPool.setMaximumRetainedMemory(bufferPoolMaximumRetainedMemory);
+		}
 		return bufferPool;
 	}
 
+	/**
+	 * Get the number of buffers currently allocated out of the buffer pool and not
+	 * yet returned. A value that grows over time indicates a buffer leak.
+	 * 
+	 * @return int
+	 */
+	public int getBufferPoolBuffersInUse() {
+		return getBufferPool().getBuffersInUse();
+	}
+	
+	/**
+	 * Get the total memory allocated by the buffer pool.
+	 * 
+	 * @return long
+	 */
+	public long getBufferPoolMemoryAllocated() {
+		return getBufferPool().getTotalMemoryAllocated();
+	}
+	
+	/**
+	 * Get the maximum amount of memory the buffer pool will retain in free buffers.
+	 * 
+	 * @return long
+	 */
+	public long getBufferPoolMaximumRetainedMemory() {
+		return bufferPoolMaximumRetainedMemory;
+	}
+
+	/**
+	 * Set the maximum amount of memory the buffer pool will retain in free buffers. Buffers
+	 * returned to the pool once this limit has been reached are released.
+	 * 
+	 * @param bufferPoolMaximumRetainedMemory
+	 *            long
+	 */
+	public synchronized void setBufferPoolMaximumRetainedMemory(long bufferPoolMaximumRetainedMemory) {
+		this.bufferPoolMaximumRetainedMemory = bufferPoolMaximumRetainedMemory;
+		if(bufferPool != null) {
+			bufferPool.setMaximumRetainedMemory(bufferPoolMaximumRetainedMemory);
+		}
+	}
+
 	/**
 	 * Set the SelectorProvider used by the Selector threads.
 	 * 
@@ -413,6 +464,102 @@ public class SshEngineContext {
 
 	}
 
+	/**
+	 * Get the factory used to create the executor for connection operations.
+	 * 
+	 * @return ExecutorFactory
+	 */
+	public ExecutorFactory getExecutorFactory() {
+		return executorFactory;
+	}
+
+	/**
+	 * Set the factory used to create the executor for connection operations. This must be 
+	 * set before the first connection is made. The default is a {@link PlatformThreadExecutorFactory}
+	 * unless the system property <em>maverick.virtualThreads</em> is set, in which case a 
+	 * {@link VirtualThreadExecutorFactory} is used.
+	 * 
+	 * @param executorFactory
+	 */
+	public void setExecutorFactory(ExecutorFactory executorFactory) {
+		this.executorFactory = executorFactory;
+	}
+	
+	/**
+	 * Get the executor shared by all connections of this engine, creating it if required.
+	 * This is called for every connection operation, so only its creation is locked.
+	 * 
+	 * @return ExecutorService
+	 */
+	public ExecutorService getExecutorService() {
+		ExecutorService executor = this.executor;
+		if(executor == null) {
+			synchronized(this) {
+				executor = this.executor;
+				if(executor == null) {
+					this.executor = executor = executorFactory.createExecutor(product + "-EXECUTOR");
+				}
+			}
+		}
+		return executor;
+	}
+	
+	/**
+	 * Shutdown the executor of this engine. A new executor will be created if the engine is restarted.
+	 * Tasks that are already running, which may include the caller, are allowed to complete and
+	 * this method does not wait for them.
+	 */
+	public void shutdownExecutor() {
+		ExecutorService executor;
+		synchronized(this) {
+			executor = this.executor;
+			this.executor = null;
+		}
+		if(executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Get the strategy used to place new connections on a transfer thread.
+	 * 
+	 * @return SelectorPlacementStrategy
+	 */
+	public SelectorPlacementStrategy getTransferPlacementStrategy() {
+		return transferPlacementStrategy;
+	}
+
+	/**
+	 * Set the strategy used to place new connections on a transfer thread. The default
+	 * {@link TrafficAwarePlacementStrategy} selects the thread with the lowest recent 
+	 * traffic, use {@link ChannelCountPlacementStrategy} to select the thread with 
+	 * the fewest connections.
+	 * 
+	 * @param transferPlacementStrategy
+	 */
+	public void setTransferPlacementStrategy(SelectorPlacementStrategy transferPlacementStrategy) {
+		this.transferPlacementStrategy = transferPlacementStrategy;
+	}
+
+	/**
+	 * Are busy connections moved between transfer threads?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isTransferMigration() {
+		return transferMigration;
+	}
+
+	/**
+	 * Allow busy connections to be moved from one transfer thread to another when the 
+	 * traffic on the threads remains unbalanced. This is disabled by default.
+	 * 
+	 * @param transferMigration
+	 */
+	public void setTransferMigration(boolean transferMigration) {
+		this.transferMigration = transferMigration;
+	}
+
 	/**
 	 * Get the time in seconds for each idle period service run. For example if
 	 * this setting is 10 (default) then every 10 seconds an idle service run
@@ -0,0 +1,67 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.nio;
+
+import java.util.List;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * Places new sockets on the thread with the lowest recent traffic, as measured 
+ * by its {@link SelectorThreadLoad}, rather than the fewest channels. Threads 
+ * with no free channel slots are never selected and threads with equal load 
+ * are separated by the number of free channel slots.
+ */
+public class TrafficAwarePlacementStrategy implements SelectorPlacementStrategy {
+
+	boolean verbose = Boolean.getBoolean("maverick.verbose");
+	
+	@Override
+	public SelectorThread selectThread(List<SelectorThread> threads) {
+		
+		SelectorThread selected = null;
+		long lowestScore = Long.MAX_VALUE;
+		int highestAvailableLoad = 0;
+		
+		for(SelectorThread t : threads) {
+			
+			int available = t.getMaximumLoad() - t.getThreadLoad();
+			if(available <= 0) {
+				continue;
+			}
+			
+			long score = t.getLoad().getLoadScore();
+			if(verbose && Log.isDebugEnabled()) {
+				Log.debug("Thread id {} has {} channels and load {}", 
+						t.getSelectorId(), t.getThreadLoad(), t.getLoad());
+			}
+			
+			if(score < lowestScore || (score == lowestScore && available > highestAvailableLoad)) {
+				selected = t;
+				lowestScore = score;
+				highestAvailableLoad = available;
+			}
+		}
+		
+		if(selected!=null && verbose && Log.isDebugEnabled()) {
+			Log.debug("Thread id {} selected with load score {}", selected.getSelectorId(), lowestScore);
+		}
+		return selected;
+	}
+}
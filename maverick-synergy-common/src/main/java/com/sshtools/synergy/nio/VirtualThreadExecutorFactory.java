@@ -0,0 +1,97 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.nio;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * Creates an executor that starts a new virtual thread for each task, so that
+ * tasks blocked in channel I/O do not each hold an operating system thread.
+ * Virtual threads require Java 21 or later, and as this API is built for 
+ * earlier versions they are located by reflection. On Java 19 and 20 they are a 
+ * preview feature, so they are only used if creating one actually succeeds. When they are not available 
+ * the executor falls back to a {@link PlatformThreadExecutorFactory}.
+ */
+public class VirtualThreadExecutorFactory implements ExecutorFactory {
+
+	static final Method OF_VIRTUAL;
+	static final Method NAME;
+	static final Method FACTORY;
+	static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+	
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			/**
+			 * Without --enable-preview the methods exist on Java 19 and 20 but throw 
+			 * UnsupportedOperationException when called.
+			 */
+			((ExecutorService) newThreadPerTaskExecutor.invoke(null, 
+					factory.invoke(name.invoke(ofVirtual.invoke(null), "probe-", 1L)))).shutdown();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+	
+	ExecutorFactory fallback = new PlatformThreadExecutorFactory();
+	
+	/**
+	 * Can virtual threads be created by the running JVM?
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+	
+	@Override
+	public ExecutorService createExecutor(String name) {
+		
+		if(isSupported()) {
+			try {
+				Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+				return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, FACTORY.invoke(builder));
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				Log.warn("Virtual threads could not be used, falling back to platform threads", e);
+			}
+		} else if(Log.isInfoEnabled()) {
+			Log.info("Virtual threads are not supported by this JVM, using platform threads");
+		}
+		
+		return fallback.createExecutor(name);
+	}
+
+}
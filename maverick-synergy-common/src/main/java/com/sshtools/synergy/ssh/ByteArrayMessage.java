@@ -36,4 +36,9 @@ public abstract class ByteArrayMessage implements SshMessage {
 		return true;
 	}
 
+	@Override
+	public int getMaximumMessageLength() {
+		return msg.length;
+	}
+
 }
@@ -19,29 +19,75 @@
 package com.sshtools.synergy.ssh;
 
 import java.io.IOException;
-import java.util.Vector;
 
-public class ByteArrays{
-
-	Vector<byte[]> packets = new Vector<byte[]>();
+/**
+ * A pool of byte arrays used to receive subsystem messages. All pooled arrays 
+ * have the same length; arrays of any other length are not retained.
+ */
+public class ByteArrays extends StripedObjectPool<byte[]> {
 
-	static ByteArrays instance;
+	public static final int DEFAULT_ARRAY_SIZE = 131072;
+	public static final int DEFAULT_MAXIMUM_RETAINED = 64;
+	
+	static final ByteArrays instance = new ByteArrays();
 
+	private final int arraySize;
+	
 	public static ByteArrays getInstance() {
-		return (instance == null ? instance = new ByteArrays() : instance);
+		return instance;
+	}
+	
+	public ByteArrays() {
+		this(DEFAULT_ARRAY_SIZE, DEFAULT_MAXIMUM_RETAINED);
+	}
+	
+	public ByteArrays(int arraySize, int maximumRetained) {
+		super(maximumRetained);
+		this.arraySize = arraySize;
 	}
 
+	/**
+	 * Get the length of the arrays held in this pool.
+	 * 
+	 * @return int
+	 */
+	public int getArraySize() {
+		return arraySize;
+	}
+	
 	public byte[] getByteArray() throws IOException {
-		synchronized (packets) {
-			if (packets.size() == 0)
-				return new byte[131072];
-			return packets.remove(0);
+		return take();
+	}
+	
+	/**
+	 * Get an array that can hold at least the given number of bytes. Requests larger 
+	 * than the pooled array size are satisfied with a new array that will not be 
+	 * retained when it is released.
+	 * 
+	 * @param size
+	 * @return byte[]
+	 */
+	public byte[] getByteArray(int size) throws IOException {
+		if(size > arraySize) {
+			return new byte[size];
 		}
+		return take();
 	}
 	
 	public void releaseByteArray(byte[] p) {
-		synchronized (packets) {
-			packets.add(p);
+		if(p==null || p.length != arraySize) {
+			return;
 		}
+		release(p);
+	}
+
+	@Override
+	protected byte[] create() {
+		return new byte[arraySize];
+	}
+
+	@Override
+	protected boolean recycle(byte[] obj) {
+		return true;
 	}
 }
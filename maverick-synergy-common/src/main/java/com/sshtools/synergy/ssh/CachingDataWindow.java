@@ -18,144 +18,428 @@
  */
 package com.sshtools.synergy.ssh;
 
+import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import com.sshtools.common.logger.Log;
 
+/**
+ * Holds data received on a channel until it is consumed. 
+ * <p>
+ * The window is a ring buffer with a single producer, the thread delivering 
+ * channel data, and a single consumer, the thread reading it. Each side 
+ * only advances its own index so neither side takes a lock, data is never 
+ * compacted, and a thread that has to wait for the other side parks until
+ * it is unparked. Callers must ensure that there is only one thread putting
+ * and one thread getting data at a time.
+ */
 public class CachingDataWindow {
 
-	ByteBuffer cache;
-	boolean blocking = false;
-	boolean open = true;
+	volatile Ring ring;
+	volatile long readIndex;
+	volatile long writeIndex;
+	final AtomicInteger requiredCapacity;
+	
+	volatile Thread waitingProducer;
+	volatile Thread waitingConsumer;
+	
+	boolean direct;
+	volatile boolean blocking = false;
+	volatile boolean open = true;
 	long timeout = 30000;
+	
 	public CachingDataWindow(int size, boolean blocking) {
+		this(size, blocking, false);
+	}
+	
+	/**
+	 * Create a window that can hold up to <code>size</code> bytes. 
+	 * 
+	 * @param size capacity of the window
+	 * @param blocking when true, put waits for space and get waits for data
+	 * @param direct allocate the buffer off-heap
+	 */
+	public CachingDataWindow(int size, boolean blocking, boolean direct) {
 		this.blocking = blocking;
-		cache = ByteBuffer.allocate(size);
-		cache.flip();
+		this.direct = direct;
+		this.ring = new Ring(size, direct);
+		this.requiredCapacity = new AtomicInteger(size);
 	}
 
-	public synchronized void enableBlocking() {
+	public void enableBlocking() {
 		blocking = true;
 	}
 	
-	public synchronized void disableBlocking() {
+	public void disableBlocking() {
 		blocking = false;
+		signal(waitingProducer);
+		signal(waitingConsumer);
+	}
+	
+	/**
+	 * Is the window held in an off-heap buffer?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isDirect() {
+		return direct;
 	}
 	
-	public synchronized boolean hasRemaining() {
-		return cache.hasRemaining();
+	/**
+	 * Get the number of bytes the window can currently hold.
+	 * 
+	 * @return int
+	 */
+	public int getCapacity() {
+		return Math.max(ring.capacity, requiredCapacity.get());
+	}
+	
+	/**
+	 * Grow the cache so that it can hold at least the given number of bytes. Used 
+	 * when the local window of the channel is enlarged. The buffer itself is 
+	 * replaced by the producer the next time it puts data, so this may be called 
+	 * from any thread.
+	 * 
+	 * @param size
+	 */
+	public void ensureCapacity(int size) {
+		if(requiredCapacity.accumulateAndGet(size, Math::max) > ring.capacity) {
+			signal(waitingProducer);
+		}
+	}
+	
+	public boolean hasRemaining() {
+		return writeIndex > readIndex;
 	}
 
 	public void close() {
 		this.open = false;
+		signal(waitingProducer);
+		signal(waitingConsumer);
 	}
 	
-	public synchronized void put(ByteBuffer data) {
+	public void put(ByteBuffer data) {
 		
-				
-			cache.compact();
-			
-			if(blocking) {
-				long start = System.currentTimeMillis();
-				while(cache.remaining() < data.remaining()) {
-					cache.flip();
-					try {
-						wait(1000);
-					} catch (InterruptedException e) {
-						throw new IllegalStateException("Interrupted during cache put wait");
-					}
-					cache.compact();
-					if(System.currentTimeMillis() - start > timeout) {
-						throw new IllegalStateException(String.format("Timeout trying to put %d bytes into cache with %d remaining", 
-								data.remaining(),
-								cache.remaining()));
-						
-					}
-				}
+		int remaining = data.remaining();
+		Ring r = waitForSpace(remaining);
+		
+		if(remaining > r.capacity - (int)(writeIndex - readIndex)) {
+			throw new BufferOverflowException();
+		}
+		
+		long index = writeIndex;
+		int limit = data.limit();
+		try {
+			while(data.hasRemaining()) {
+				int offset = r.offset(index);
+				int count = Math.min(data.remaining(), r.capacity - offset);
+				data.limit(data.position() + count);
+				r.writeView.clear();
+				r.writeView.position(offset);
+				r.writeView.put(data);
+				data.limit(limit);
+				index += count;
 			}
-			
-			int remaining = data.remaining();
-			
-			if(remaining > cache.remaining()) {
-				throw new BufferOverflowException();
+		} finally {
+			data.limit(limit);
+		}
+		writeIndex = index;
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Written {} bytes from cached data window readIndex={} writeIndex={} capacity={}", 
+					remaining, readIndex, index, r.capacity);
+		}
+		
+		signal(waitingConsumer);
+	}
+	
+	/**
+	 * Read data from a channel directly into the window. This is a producer operation.
+	 * 
+	 * @param channel
+	 * @return number of bytes read or -1 on EOF
+	 * @throws IOException
+	 */
+	protected int readFrom(ReadableByteChannel channel) throws IOException {
+		
+		Ring r = grow();
+		long index = writeIndex;
+		int free = r.capacity - (int)(index - readIndex);
+		if(free == 0) {
+			return 0;
+		}
+		
+		int offset = r.offset(index);
+		int first = Math.min(free, r.capacity - offset);
+		r.writeView.clear();
+		r.writeView.position(offset).limit(offset + first);
+		
+		long count;
+		if(first < free && channel instanceof ScatteringByteChannel) {
+			r.writeView2.clear();
+			r.writeView2.limit(free - first);
+			count = ((ScatteringByteChannel)channel).read(r.writeViews);
+		} else {
+			count = channel.read(r.writeView);
+		}
+		
+		if(count > 0) {
+			writeIndex = index + count;
+			signal(waitingConsumer);
+		}
+		return (int) count;
+	}
+	
+	/**
+	 * Write data from the window directly to a channel. This is a consumer operation.
+	 * 
+	 * @param channel
+	 * @param maximum keep writing until the channel accepts no more or the window is empty
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	protected int writeTo(WritableByteChannel channel, boolean maximum) throws IOException {
+		
+		int total = 0;
+		while(true) {
+			long available = writeIndex - readIndex;
+			if(available == 0) {
+				break;
 			}
+			Ring r = ring;
+			long index = readIndex;
+			int offset = r.offset(index);
+			int first = (int) Math.min(available, r.capacity - offset);
+			r.readView.clear();
+			r.readView.position(offset).limit(offset + first);
 			
-			cache.put(data);
-			cache.flip();
+			long count;
+			if(first < available && channel instanceof GatheringByteChannel) {
+				r.readView2.clear();
+				r.readView2.limit((int)(available - first));
+				count = ((GatheringByteChannel)channel).write(r.readViews);
+			} else {
+				count = channel.write(r.readView);
+			}
 			
-			int count = remaining - data.remaining();
-			if(Log.isTraceEnabled()) {
-				Log.trace("Written {} bytes from cached data window position={} remaining={} limit={}", 
-						count, cache.position(), cache.remaining(), cache.limit());
+			if(count <= 0) {
+				break;
 			}
+			readIndex = index + count;
+			total += count;
+			signal(waitingProducer);
 			
-			notifyAll();
-
+			if(!maximum) {
+				break;
+			}
+		}
+		return total;
 	}
 
-	public synchronized int get(byte[] tmp, int offset, int length) {
+	public int get(byte[] tmp, int offset, int length) {
 		
-		if(blocking) {
-			while(!cache.hasRemaining() && open) {
-				try {
-					wait(1000);
-				} catch (InterruptedException e) {
-				}
-			}
+		long available = waitForData();
+		
+		int count = (int) Math.min(length, available);
+		Ring r = ring;
+		long index = readIndex;
+		int remaining = count;
+		while(remaining > 0) {
+			int pos = r.offset(index);
+			int n = Math.min(remaining, r.capacity - pos);
+			r.readView.clear();
+			r.readView.position(pos);
+			r.readView.get(tmp, offset, n);
+			offset += n;
+			remaining -= n;
+			index += n;
 		}
+		readIndex = index;
 		
-		int count = Math.min(length, cache.remaining());
-		int limit = cache.limit();
-		cache.limit(cache.position() + count);
-		cache.get(tmp, offset, count);
-		cache.limit(limit);
 		if(Log.isTraceEnabled()) {
-			Log.trace("Read {} bytes from cached data window position={} remaining={} limit={}", 
-					count, cache.position(), cache.remaining(), cache.limit());
+			Log.trace("Read {} bytes from cached data window readIndex={} writeIndex={} capacity={}", 
+					count, index, writeIndex, r.capacity);
 		}
 		
-		notifyAll();
+		signal(waitingProducer);
 		return count;
 		
 	}
 	
-	public synchronized int get(ByteBuffer buffer) {
+	public int get(ByteBuffer buffer) {
 		
-			
-		if(blocking) {
-			while(!cache.hasRemaining() && open) {
-				try {
-					wait(0);
-				} catch (InterruptedException e) {
-				}
-			}
+		long available = waitForData();
+		
+		int count = (int) Math.min(buffer.remaining(), available);
+		Ring r = ring;
+		long index = readIndex;
+		int remaining = count;
+		while(remaining > 0) {
+			int pos = r.offset(index);
+			int n = Math.min(remaining, r.capacity - pos);
+			r.readView.clear();
+			r.readView.position(pos).limit(pos + n);
+			buffer.put(r.readView);
+			remaining -= n;
+			index += n;
 		}
+		readIndex = index;
 		
-		int count = Math.min(buffer.remaining(), cache.remaining());
-		int limit = cache.limit();
-		cache.limit(cache.position() + count);
-		buffer.put(cache);
-		cache.limit(limit);
 		if(Log.isTraceEnabled()) {
-			Log.trace("Read {} bytes from cached data window position={} remaining={} limit={}", 
-					count, cache.position(), cache.remaining(), cache.limit());
+			Log.trace("Read {} bytes from cached data window readIndex={} writeIndex={} capacity={}", 
+					count, index, writeIndex, r.capacity);
 		}
 		
-		notifyAll();
+		signal(waitingProducer);
 		return count;
 		
 	}
 	
-	public synchronized int remaining() {
-		return cache.remaining();
+	public int remaining() {
+		return (int) (writeIndex - readIndex);
 	}
 
-	public synchronized boolean isOpen() {
-		return open || cache.hasRemaining();
+	public boolean isOpen() {
+		return open || hasRemaining();
 	}
 
-	public synchronized void waitFor(long i) throws InterruptedException {
-		wait(i);
+	/**
+	 * Wait for up to the given number of milliseconds for data to arrive or for the 
+	 * window to be closed. This is a consumer operation.
+	 * 
+	 * @param i milliseconds
+	 * @throws InterruptedException
+	 */
+	public void waitFor(long i) throws InterruptedException {
+		waitingConsumer = Thread.currentThread();
+		try {
+			if(!hasRemaining() && open) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(i));
+			}
+		} finally {
+			waitingConsumer = null;
+		}
+		if(Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+	
+	private long waitForData() {
+		long available = writeIndex - readIndex;
+		if(available > 0 || !blocking) {
+			return available;
+		}
+		
+		waitingConsumer = Thread.currentThread();
+		try {
+			while((available = writeIndex - readIndex) == 0 && open && blocking) {
+				LockSupport.park(this);
+				// Interrupts do not end the wait for data
+				Thread.interrupted();
+			}
+		} finally {
+			waitingConsumer = null;
+		}
+		return available;
+	}
+	
+	private Ring waitForSpace(int length) {
+		
+		Ring r = grow();
+		if(!blocking || r.capacity - (writeIndex - readIndex) >= length) {
+			return r;
+		}
+		
+		long start = System.currentTimeMillis();
+		waitingProducer = Thread.currentThread();
+		try {
+			while((r = grow()).capacity - (writeIndex - readIndex) < length && blocking) {
+				long waited = System.currentTimeMillis() - start;
+				if(waited > timeout) {
+					throw new IllegalStateException(String.format("Timeout trying to put %d bytes into cache with %d remaining", 
+							length,
+							r.capacity - (writeIndex - readIndex)));
+				}
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.min(1000, timeout - waited)));
+				if(Thread.interrupted()) {
+					throw new IllegalStateException("Interrupted during cache put wait");
+				}
+			}
+		} finally {
+			waitingProducer = null;
+		}
+		return r;
+	}
+	
+	/**
+	 * Replace the buffer with a larger one if the capacity has been increased. Only 
+	 * the producer calls this. Unread data is copied before the new buffer is 
+	 * published, and the producer only writes into the new buffer after that, so 
+	 * a consumer that observes a write index covering new data is guaranteed to
+	 * also observe the new buffer.
+	 */
+	private Ring grow() {
+		Ring r = ring;
+		int size = requiredCapacity.get();
+		if(size <= r.capacity) {
+			return r;
+		}
+		
+		Ring tmp = new Ring(size, direct);
+		long end = writeIndex;
+		for(long index = readIndex; index < end; ) {
+			int from = r.offset(index);
+			int to = tmp.offset(index);
+			int count = (int) Math.min(end - index, Math.min(r.capacity - from, tmp.capacity - to));
+			ByteBuffer src = r.buffer.duplicate();
+			src.position(from).limit(from + count);
+			tmp.writeView.clear();
+			tmp.writeView.position(to);
+			tmp.writeView.put(src);
+			index += count;
+		}
+		ring = tmp;
+		return tmp;
+	}
+	
+	private static void signal(Thread thread) {
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	static class Ring {
+		
+		final ByteBuffer buffer;
+		final int capacity;
+		final ByteBuffer readView;
+		final ByteBuffer readView2;
+		final ByteBuffer writeView;
+		final ByteBuffer writeView2;
+		final ByteBuffer[] readViews;
+		final ByteBuffer[] writeViews;
+		
+		Ring(int capacity, boolean direct) {
+			this.capacity = capacity;
+			this.buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			this.readView = buffer.duplicate();
+			this.readView2 = buffer.duplicate();
+			this.writeView = buffer.duplicate();
+			this.writeView2 = buffer.duplicate();
+			this.readViews = new ByteBuffer[] { readView, readView2 };
+			this.writeViews = new ByteBuffer[] { writeView, writeView2 };
+		}
+		
+		int offset(long index) {
+			return (int) (index % capacity);
+		}
 	}
 }
@@ -0,0 +1,133 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocates local channel ids from <code>0</code> to <code>limit - 1</code>. 
+ * <p>
+ * Ids are tracked in a bitset of one bit per id and claimed with a compare-and-set
+ * on the word holding them, so allocation and release never take a lock. A hint
+ * records the lowest word that may have a free id, which keeps allocation close
+ * to constant time and keeps the ids in use low.
+ */
+public class ChannelIdAllocator {
+
+	private final AtomicLongArray words;
+	private final AtomicInteger hint = new AtomicInteger();
+	private final AtomicInteger allocated = new AtomicInteger();
+	private final int limit;
+	
+	public ChannelIdAllocator(int limit) {
+		this.limit = Math.max(limit, 0);
+		this.words = new AtomicLongArray(Math.max(1, (this.limit + 63) >>> 6));
+		
+		/**
+		 * Mark the ids beyond the limit in the last word as in use
+		 */
+		int unused = words.length() * 64 - this.limit;
+		if(unused > 0) {
+			words.set(words.length() - 1, unused == 64 ? -1L : -1L << (64 - unused));
+		}
+	}
+	
+	/**
+	 * Allocate the lowest free id at or after the hint.
+	 * 
+	 * @return id or -1 if all ids are in use
+	 */
+	public int allocate() {
+		
+		int start = hint.get();
+		int count = words.length();
+		for(int i=0;i<count;i++) {
+			int index = (start + i) % count;
+			long word;
+			while((word = words.get(index)) != -1L) {
+				int bit = Long.numberOfTrailingZeros(~word);
+				if(words.compareAndSet(index, word, word | (1L << bit))) {
+					if(i > 0) {
+						hint.set(index);
+					}
+					allocated.incrementAndGet();
+					return (index << 6) + bit;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Return an id so that it can be allocated again.
+	 * 
+	 * @param id
+	 */
+	public void release(int id) {
+		
+		if(id < 0 || id >= limit) {
+			throw new IllegalArgumentException(String.format("Channel id %d is out of range", id));
+		}
+		
+		int index = id >>> 6;
+		long mask = 1L << (id & 63);
+		long word;
+		do {
+			word = words.get(index);
+			if((word & mask) == 0) {
+				return;
+			}
+		} while(!words.compareAndSet(index, word, word & ~mask));
+		
+		allocated.decrementAndGet();
+		
+		int current;
+		while(index < (current = hint.get()) && !hint.compareAndSet(current, index)) {
+		}
+	}
+	
+	/**
+	 * Is the id currently allocated?
+	 * 
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isAllocated(int id) {
+		return id >= 0 && id < limit && (words.get(id >>> 6) & (1L << (id & 63))) != 0;
+	}
+	
+	/**
+	 * Get the number of ids currently allocated.
+	 * 
+	 * @return int
+	 */
+	public int getAllocated() {
+		return allocated.get();
+	}
+	
+	/**
+	 * Get the number of ids that can be allocated.
+	 * 
+	 * @return int
+	 */
+	public int getLimit() {
+		return limit;
+	}
+}
@@ -27,12 +27,19 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.IdleStateListener;
 import com.sshtools.common.nio.WriteOperationRequest;
+import com.sshtools.common.policy.ChannelWindowPolicy;
 import com.sshtools.common.ssh.Channel;
 import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.ChannelOpenException;
@@ -71,6 +78,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	protected ChannelDataWindow localWindow;
 	protected ChannelDataWindow remoteWindow;
 	protected CachingDataWindow cache;
+	ChannelWindowTuner windowTuner;
 	
 	AtomicBoolean isLocalEOF = new AtomicBoolean();
 	AtomicBoolean isRemoteEOF = new AtomicBoolean();
@@ -88,6 +96,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	LinkedList<ChannelRequestFuture> requests = new LinkedList<ChannelRequestFuture>();
 	ChannelRequestFuture closeFuture;
 	
+	LinkedList<PendingWrite> pendingWrites = new LinkedList<PendingWrite>();
+	Set<PendingWrite> inflightWrites = ConcurrentHashMap.newKeySet();
+	long pendingDataLength;
+	
 	protected SshConnection con;
 	private ChannelInputStream channelIn;
 	private ChannelOutputStream channelOut = new ChannelOutputStream(this);
@@ -165,6 +177,11 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	void init(ConnectionProtocol<T> connection) {
 		this.connection = connection;
 		this.con = connection.getConnection();
+		
+		ChannelWindowPolicy policy = connection.getContext().getPolicy(ChannelWindowPolicy.class);
+		if(policy.isAutoTuning()) {
+			windowTuner = new ChannelWindowTuner(localWindow, connection.getWindowBudget(), policy.getMaximumWindowSize());
+		}
 	}
 
 	/**
@@ -248,6 +265,16 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		return localWindow.getWindowSpace();
 	}
 
+	/**
+	 * The tuner adjusting the local window of this channel, or null if window 
+	 * auto-tuning is not enabled in the {@link ChannelWindowPolicy}. 
+	 * 
+	 * @return ChannelWindowTuner
+	 */
+	public ChannelWindowTuner getWindowTuner() {
+		return windowTuner;
+	}
+
 	/**
 	 * The maximum size of a single packet that the local side will accept.
 	 * 
@@ -342,6 +369,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		
 		remoteWindow.adjust(count);
 		
+		flushPendingWrites();
+		
 		synchronized(ChannelNG.this) {
 			ChannelNG.this.notifyAll();
 		}
@@ -403,6 +432,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			}
 			
 			localWindow.consume(length);
+			
+			if(Objects.nonNull(windowTuner)) {
+				windowTuner.onDataReceived(length);
+			}
 		}
 	}
 
@@ -453,6 +486,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	public void sendData(byte[] data, int off, int len) throws IOException {
 		sendChannelDataAndBlock(data, off, len, null);
 	}
+	
+	public void sendData(ByteBuffer data) throws IOException {
+		sendChannelDataAndBlock(data, null);
+	}
 
 	public void sendChannelDataAndBlock(byte[] data, int off, int len, Runnable r) throws IOException {
 		
@@ -484,38 +521,150 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			throw new IllegalStateException("You appear to be calling sendChannelData on a selector thread. Use TransportProtocol.addOutgoingTask to place on the outgoing message queue.");
 		}
 		
-		lastActivity = System.currentTimeMillis();
+		PendingWrite write = queueChannelData(buf, type);
+
+		while(!write.future.isDone()) {
+			if(write.isQueued() && (isClosed() 
+					|| System.currentTimeMillis() - write.queued >= 120000)) {
+				break;
+			}
+			if(Log.isTraceEnabled()) {
+				Log.trace("Waiting for sent data notification");
+			}
+			try {
+				write.future.get(1000, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | TimeoutException e) {
+			} catch (ExecutionException e) {
+				break;
+			}
+		}
 		
-		ChannelData lastMessage = null;
+		if(write.future.isCompletedExceptionally()) {
+			try {
+				write.future.join();
+			} catch(Throwable e) {
+				Throwable cause = Objects.isNull(e.getCause()) ? e : e.getCause();
+				throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+			}
+		}
+		
+		if(!write.future.isDone()) {
+			throw new IOException("Timeout waiting for data to be sent on channel " + getLocalId());
+		}
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Received sent data notification");
+		}
+
+		if(r!=null) {
+			getConnectionProtocol().addTask(ExecutorOperationSupport.CALLBACKS, new ConnectionTaskWrapper(getConnection(), r));
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Void> sendDataAsync(ByteBuffer data) {
+		return sendChannelDataAsync(data, 0);
+	}
+	
+	/**
+	 * Send channel data from a ByteBuffer without blocking the calling thread. The data 
+	 * is queued on the channel and sent as remote window space becomes available, so a 
+	 * slow remote side never ties up a thread for each write in progress. 
+	 * <p>
+	 * The returned future completes once all of the data has been written to the transport, 
+	 * or exceptionally if the channel closes first. Callbacks attached to the future are 
+	 * executed on the connection's callback queue, never on a selector thread. The buffer must 
+	 * not be modified until the future has completed. Use {@link #getPendingDataLength()} to 
+	 * apply backpressure to the producer of the data.
+	 * 
+	 * @param buf
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> sendChannelDataAsync(ByteBuffer buf) {
+		return sendChannelDataAsync(buf, 0);
+	}
+	
+	/**
+	 * Send channel data, or extended data when type is non-zero, from a ByteBuffer 
+	 * without blocking the calling thread.
+	 * 
+	 * @param buf
+	 * @param type
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> sendChannelDataAsync(ByteBuffer buf, int type) {
+		
+		CompletableFuture<Void> result = new CompletableFuture<Void>();
+		queueChannelData(buf, type).future.whenComplete((v, e) -> {
+			connection.addTask(ExecutorOperationSupport.CALLBACKS, new ConnectionTaskWrapper(getConnection(), new Runnable() {
+				public void run() {
+					if(Objects.nonNull(e)) {
+						result.completeExceptionally(e);
+					} else {
+						result.complete(null);
+					}
+				}
+			}));
+		});
+		return result;
+	}
+	
+	/**
+	 * Get the number of bytes queued on this channel that are waiting for remote window space.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getPendingDataLength() {
+		return pendingDataLength;
+	}
+	
+	PendingWrite queueChannelData(ByteBuffer buf, int type) {
+		
+		lastActivity = System.currentTimeMillis();
 
 		if(Log.isTraceEnabled()) {
 			Log.debug("Queue Buffer rem={} pos={} limit={} capacity={}", buf.remaining(), buf.position(), buf.limit(), buf.capacity());
 		}
 		
+		PendingWrite write = new PendingWrite(buf, type);
+		synchronized(ChannelNG.this) {
+			pendingWrites.addLast(write);
+			pendingDataLength += buf.remaining();
+		}
+		flushPendingWrites();
+		return write;
+	}
+	
+	/**
+	 * Send as much of the queued channel data as the remote window allows. This is called 
+	 * when data is queued and whenever the remote side adjusts the window.
+	 */
+	void flushPendingWrites() {
+		
 		synchronized(ChannelNG.this) {
 
-			do {
+			while(!pendingWrites.isEmpty()) {
 			
 				if(isLocalEOF.get() || isClosed()) {
-					throw new IOException("Channel has been closed");
+					failPendingWrites(new IOException("Channel has been closed"));
+					return;
 				}
 				
+				PendingWrite write = pendingWrites.getFirst();
+				ByteBuffer buf = write.buf;
+				
 				int count = Math.min(remoteWindow.getMaximumPacketSize(), 
 						Math.min(remoteWindow.getWindowSpace(), buf.remaining()));
 				
-				if(count == 0) {
+				if(count == 0 && buf.hasRemaining()) {
 					if(Log.isDebugEnabled()) {
-						log("Waiting", String.format("for %d bytes of remote window", buf.remaining()));
-					}
-					try {
-						wait(5000);
-					} catch (InterruptedException e) {
+						log("Waiting", String.format("for %d bytes of remote window", pendingDataLength));
 					}
-
-					continue;
+					return;
 				}	
 
 				remoteWindow.consume(count);
+				pendingDataLength -= count;
 
 				if(buf.remaining() > count) {
 					ByteBuffer processedBuffer = buf.slice();
@@ -530,7 +679,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 					for (ChannelEventListener listener : eventListeners) {
 						listener.onChannelDataOut(this, processedBuffer);
 					}
-					connection.sendMessage(new ChannelData(processedBuffer, type, remoteWindow.getWindowSpace()));
+					connection.sendMessage(new ChannelData(processedBuffer, write.type, remoteWindow.getWindowSpace()));
 				} else {
 					
 					if(Log.isTraceEnabled()) {	
@@ -540,38 +689,28 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 					for (ChannelEventListener listener : eventListeners) {
 						listener.onChannelDataOut(this, buf);
 					}
-					connection.sendMessage(lastMessage = new ChannelData(buf, type, remoteWindow.getWindowSpace()));
-				}
-			
-				
-			} while(Objects.isNull(lastMessage));
-			
-		}
-		
-		if(!Objects.isNull(lastMessage)) {
-			synchronized(lastMessage) {
-				long t = System.currentTimeMillis();
-				while(!isClosed() && !lastMessage.isMessageSent() && System.currentTimeMillis() - t < 120000) {
-					if(Log.isTraceEnabled()) {
-						Log.trace("Waiting for sent data notification");
-					}
-					try {
-						lastMessage.wait(1000);
-					} catch (InterruptedException e) {
-					}
-				}
-				if(!lastMessage.isMessageSent()) {
-					throw new IOException("Timeout waiting for data to be sent on channel " + getLocalId());
-				}
-				if(Log.isTraceEnabled()) {
-					Log.trace("Received sent data notification");
+					pendingWrites.removeFirst();
+					inflightWrites.add(write);
+					write.queued = System.currentTimeMillis();
+					connection.sendMessage(new ChannelData(buf, write.type, remoteWindow.getWindowSpace(), write));
 				}
 			}
 		}
-
-		if(r!=null) {
-			getConnectionProtocol().addTask(ExecutorOperationSupport.CALLBACKS, new ConnectionTaskWrapper(getConnection(), r));
+	}
+	
+	private synchronized void failPendingWrites(IOException e) {
+		for(PendingWrite write : pendingWrites) {
+			write.future.completeExceptionally(e);
 		}
+		pendingWrites.clear();
+		pendingDataLength = 0;
+	}
+	
+	private void failInflightWrites(IOException e) {
+		for(PendingWrite write : inflightWrites) {
+			write.future.completeExceptionally(e);
+		}
+		inflightWrites.clear();
 	}
 	
 	/**
@@ -766,6 +905,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 				
 				state = CHANNEL_CLOSED;
 
+				failPendingWrites(new IOException("Channel has been closed"));
+				
 				notifyAll();
 
 			} 
@@ -834,6 +975,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 				}
 
 				if (hasPerformedClose) {
+					failPendingWrites(new IOException("Channel has been closed"));
+					failInflightWrites(new IOException("Channel has been closed"));
 					closeFuture.done(true);
 					connection.freeChannel(ChannelNG.this);
 					free();
@@ -859,6 +1002,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		if (eventListeners != null) {
 			eventListeners.clear();
 		}
+		
+		if(Objects.nonNull(windowTuner)) {
+			windowTuner.release();
+		}
 
 		onChannelFree();
 	}
@@ -955,6 +1102,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		if (isOpen() && !sentClose.get() && !isLocalEOF.get()) {
 			isLocalEOF.set(true);
 			remoteWindow.close();
+			failPendingWrites(new IOException("Channel has been closed"));
 			connection.sendMessage(new ChannelEOF());
 			onLocalEOF();
 		}
@@ -1004,8 +1152,29 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	protected void sendWindowAdjust() {
 
 		synchronized (localWindow) {
+			if(Objects.nonNull(windowTuner) && windowTuner.tune()) {
+				if(Log.isDebugEnabled()) {
+					log("Tuned", "local window " + windowTuner);
+				}
+				onWindowTuned(localWindow.getMaximumWindowSpace());
+			}
 			int count = localWindow.getAdjustCount();
-			sendWindowAdjust(count);	
+			if(count > 0) {
+				sendWindowAdjust(count);
+			}
+		}
+	}
+
+	/**
+	 * Called when the tuner has enlarged the local window. The remote side may now
+	 * send up to the given number of bytes before we adjust, so every buffer
+	 * receiving data for this channel must be able to hold that much.
+	 * 
+	 * @param maximumWindowSpace
+	 */
+	protected void onWindowTuned(int maximumWindowSpace) {
+		if(Objects.nonNull(cache)) {
+			cache.ensureCapacity(maximumWindowSpace);
 		}
 	}
 
@@ -1014,6 +1183,9 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			if(Log.isTraceEnabled()) {
 				log("Increasing", "window space by " + String.valueOf(count) + " bytes");
 			}
+			if(Objects.nonNull(windowTuner)) {
+				windowTuner.onWindowAdjust(count);
+			}
 			connection.sendMessage(new WindowAdjust(this, count, localWindow.getWindowSpace()));
 			localWindow.adjust(count);		
 		}
@@ -1080,6 +1252,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return 9;
+		}
+
 		public void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage(String.format("SSH_MSG_CHANNEL_WINDOW_ADJUST count=%d window=%d", count, window));
@@ -1094,6 +1270,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return 5;
+		}
+
 		public void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage("SSH_MSG_CHANNEL_SUCCESS");
@@ -1108,6 +1288,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return 5;
+		}
+
 		public void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage("SSH_MSG_CHANNEL_FAILURE");
@@ -1127,11 +1311,18 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		int remoteWindow;
 		boolean sent;
 		
+		PendingWrite write;
+		
 		ChannelData(ByteBuffer msg, int type, int remoteWindow) {
+			this(msg, type, remoteWindow, null);
+		}
+		
+		ChannelData(ByteBuffer msg, int type, int remoteWindow, PendingWrite write) {
 			this.msg = msg;
 			this.type = type;
 			this.remoteWindow = remoteWindow;
 			this.count = msg.remaining();
+			this.write = write;
 		}
 
 		public boolean writeMessageIntoBuffer(ByteBuffer buf) {
@@ -1156,6 +1347,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return count + 13;
+		}
+
 		public synchronized void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage(String.format("%s seq=%d len=%d", 
@@ -1168,6 +1363,11 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 //			}
 			sent = true;
 			notifyAll();
+			
+			if(Objects.nonNull(write)) {
+				inflightWrites.remove(write);
+				write.future.complete(null);
+			}
 		}
 
 		public synchronized boolean isMessageSent() {
@@ -1175,6 +1375,23 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		}
 	}
 
+	static class PendingWrite {
+		
+		ByteBuffer buf;
+		int type;
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		volatile long queued;
+		
+		PendingWrite(ByteBuffer buf, int type) {
+			this.buf = buf;
+			this.type = type;
+		}
+		
+		boolean isQueued() {
+			return queued > 0;
+		}
+	}
+	
 	protected void logMessage(String message) {
 		log("Sent", message);
 	}
@@ -1224,6 +1441,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return 5;
+		}
+
 		public void messageSent(Long sequenceNo) {
 
 			if (finish)
@@ -1246,6 +1467,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
+		public int getMaximumMessageLength() {
+			return 5;
+		}
+
 		public void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage("SSH_MSG_CHANNEL_EOF");
@@ -1332,9 +1557,6 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			if(!streamClosed) {
 				streamClosed = true;
 				streamCache.close();
-				synchronized(streamCache) {
-					streamCache.notify();
-				}
 			}
 		}
 
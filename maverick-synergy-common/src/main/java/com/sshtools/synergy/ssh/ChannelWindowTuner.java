@@ -0,0 +1,256 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Automatically tunes the local window of a channel. The round trip time is 
+ * sampled by timing how long it takes for data that uses newly issued window 
+ * space to arrive after a window adjust has been sent, and the drain rate by 
+ * counting the bytes returned to the remote side over each round trip. The 
+ * maximum window is then grown towards twice the product of the two, in the 
+ * same way as receive buffer auto-tuning in TCP stacks, and shrunk back towards 
+ * the configured size when the channel no longer needs it.
+ * <p>
+ * Any growth above the configured window is reserved from a {@link WindowMemoryBudget}.
+ * The cache that holds the window's data only ever grows, so the reservation is kept 
+ * when the window shrinks, covers any later growth up to the same size, and is 
+ * released when the channel is freed.
+ */
+public class ChannelWindowTuner {
+
+	static final long RTT_EXPIRY = 10000000000L;
+	static final int SHRINK_EPOCHS = 4;
+	
+	ChannelDataWindow window;
+	WindowMemoryBudget budget;
+	int maximumWindowSize;
+	LongSupplier clock;
+	
+	int baseMaximum;
+	int baseMinimum;
+	int windowSize;
+	long reserved;
+	
+	long received;
+	boolean sampling;
+	long sampleStart;
+	long sampleBoundary;
+	long rtt;
+	long rttUpdated;
+	
+	long epochStart;
+	long drained;
+	long drainRate;
+	int shrinkEpochs;
+	
+	long growCount;
+	long shrinkCount;
+	
+	public ChannelWindowTuner(ChannelDataWindow window, WindowMemoryBudget budget, int maximumWindowSize) {
+		this(window, budget, maximumWindowSize, System::nanoTime);
+	}
+	
+	/**
+	 * Create a tuner that reads the time from the given source of nanoseconds.
+	 * 
+	 * @param window
+	 * @param budget
+	 * @param maximumWindowSize
+	 * @param clock
+	 */
+	public ChannelWindowTuner(ChannelDataWindow window, WindowMemoryBudget budget, int maximumWindowSize, LongSupplier clock) {
+		this.window = window;
+		this.budget = budget;
+		this.maximumWindowSize = maximumWindowSize;
+		this.clock = clock;
+	}
+	
+	/**
+	 * Called when data has been received on the channel.
+	 * 
+	 * @param count
+	 */
+	public synchronized void onDataReceived(int count) {
+		
+		long now = clock.getAsLong();
+		
+		if(baseMaximum == 0) {
+			/**
+			 * Take the configured window from when data first flows as some channels
+			 * reconfigure their window after they have been opened.
+			 */
+			baseMaximum = windowSize = window.getMaximumWindowSpace();
+			baseMinimum = window.getMinimumWindowSpace();
+			epochStart = now;
+		}
+		
+		received += count;
+		
+		if(sampling && received > sampleBoundary) {
+			sampling = false;
+			long sample = now - sampleStart;
+			if(rtt == 0 || sample < rtt || now - rttUpdated > RTT_EXPIRY) {
+				rtt = sample;
+				rttUpdated = now;
+			}
+		}
+	}
+	
+	/**
+	 * Called before a window adjust is sent to the remote side.
+	 * 
+	 * @param count
+	 */
+	public synchronized void onWindowAdjust(int count) {
+		
+		if(baseMaximum == 0) {
+			return;
+		}
+		
+		drained += count;
+		
+		if(!sampling) {
+			sampling = true;
+			sampleStart = clock.getAsLong();
+			sampleBoundary = received + window.getWindowSpace();
+		}
+	}
+	
+	/**
+	 * Re-evaluate the window size once per round trip.
+	 * 
+	 * @return true if the maximum window space has been changed.
+	 */
+	public synchronized boolean tune() {
+		
+		if(baseMaximum == 0 || rtt == 0) {
+			return false;
+		}
+		
+		long now = clock.getAsLong();
+		long elapsed = now - epochStart;
+		if(elapsed < rtt) {
+			return false;
+		}
+		
+		long rate = (long) (drained * 1000000000D / elapsed);
+		drainRate = drainRate == 0 ? rate : (drainRate * 3 + rate) / 4;
+		epochStart = now;
+		drained = 0;
+		
+		long target = Math.max(baseMaximum, Math.min(maximumWindowSize, 
+				(long) (2D * drainRate * rtt / 1000000000D)));
+		
+		if(target > windowSize) {
+			shrinkEpochs = 0;
+			long size = Math.min(target, 2L * windowSize);
+			long required = size - baseMaximum - reserved;
+			if(required > 0) {
+				reserved += budget.reserve(required);
+				size = Math.min(size, baseMaximum + reserved);
+			}
+			if(size > windowSize) {
+				growCount++;
+				setWindowSize((int) size);
+				return true;
+			}
+		} else if(target * 2 < windowSize) {
+			if(++shrinkEpochs >= SHRINK_EPOCHS) {
+				shrinkEpochs = 0;
+				shrinkCount++;
+				setWindowSize((int) target);
+				return true;
+			}
+		} else {
+			shrinkEpochs = 0;
+		}
+		
+		return false;
+	}
+	
+	private void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+		window.setMaximumWindowSpace(windowSize);
+		window.setMinimumWindowSpace((int) ((long) windowSize * baseMinimum / baseMaximum));
+	}
+	
+	/**
+	 * Release any memory reserved by this tuner.
+	 */
+	public synchronized void release() {
+		budget.release(reserved);
+		reserved = 0;
+	}
+	
+	/**
+	 * Get the smallest round trip time recently measured on the channel.
+	 * 
+	 * @return long milliseconds, or zero if no measurement has been made.
+	 */
+	public synchronized long getRoundTripTime() {
+		return rtt / 1000000;
+	}
+	
+	/**
+	 * Get the smoothed rate at which data is being consumed from the channel.
+	 * 
+	 * @return long bytes per second
+	 */
+	public synchronized long getDrainRate() {
+		return drainRate;
+	}
+	
+	/**
+	 * Get the current maximum window size.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getWindowSize() {
+		return windowSize == 0 ? window.getMaximumWindowSpace() : windowSize;
+	}
+	
+	/**
+	 * Get the number of bytes reserved from the memory budget above the configured window size. This 
+	 * is the largest growth of the window so far, which may be more than the current window needs.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getReservedBytes() {
+		return reserved;
+	}
+	
+	public synchronized long getGrowCount() {
+		return growCount;
+	}
+	
+	public synchronized long getShrinkCount() {
+		return shrinkCount;
+	}
+	
+	public synchronized long getBytesReceived() {
+		return received;
+	}
+	
+	public synchronized String toString() {
+		return String.format("window=%d reserved=%d rtt=%dms drainRate=%d grown=%d shrunk=%d", 
+				getWindowSize(), reserved, rtt / 1000000, drainRate, growCount, shrinkCount);
+	}
+}
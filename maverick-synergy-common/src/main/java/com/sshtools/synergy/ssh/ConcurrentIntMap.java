@@ -0,0 +1,155 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map for small, dense, non-negative int keys such as channel ids. 
+ * <p>
+ * Values are held in fixed size blocks of slots indexed directly by key, so keys 
+ * are never boxed or hashed and lookups take no lock. Blocks are only created when 
+ * a key within them is first used, so a map with a large key range that only uses
+ * low keys stays small.
+ *
+ * @param <V> value type
+ */
+public class ConcurrentIntMap<V> {
+
+	static final int BLOCK_SHIFT = 6;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	static final int BLOCK_MASK = BLOCK_SIZE - 1;
+	
+	private final AtomicReferenceArray<AtomicReferenceArray<V>> blocks;
+	private final AtomicInteger size = new AtomicInteger();
+	private final int capacity;
+	
+	/**
+	 * Create a map for keys from <code>0</code> to <code>capacity - 1</code>.
+	 * 
+	 * @param capacity
+	 */
+	public ConcurrentIntMap(int capacity) {
+		this.capacity = Math.max(capacity, 0);
+		this.blocks = new AtomicReferenceArray<AtomicReferenceArray<V>>(
+				Math.max(1, (this.capacity + BLOCK_MASK) >>> BLOCK_SHIFT));
+	}
+	
+	public V get(int key) {
+		if(key < 0 || key >= capacity) {
+			return null;
+		}
+		AtomicReferenceArray<V> block = blocks.get(key >>> BLOCK_SHIFT);
+		return block == null ? null : block.get(key & BLOCK_MASK);
+	}
+	
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+	
+	public V put(int key, V value) {
+		if(value == null) {
+			throw new NullPointerException();
+		}
+		V previous = block(key).getAndSet(key & BLOCK_MASK, value);
+		if(previous == null) {
+			size.incrementAndGet();
+		}
+		return previous;
+	}
+	
+	public V remove(int key) {
+		if(key < 0 || key >= capacity) {
+			return null;
+		}
+		AtomicReferenceArray<V> block = blocks.get(key >>> BLOCK_SHIFT);
+		if(block == null) {
+			return null;
+		}
+		V previous = block.getAndSet(key & BLOCK_MASK, null);
+		if(previous != null) {
+			size.decrementAndGet();
+		}
+		return previous;
+	}
+	
+	/**
+	 * Remove the key only if it is currently mapped to the given value.
+	 * 
+	 * @param key
+	 * @param value
+	 * @return true if the value was removed
+	 */
+	public boolean remove(int key, V value) {
+		if(key < 0 || key >= capacity) {
+			return false;
+		}
+		AtomicReferenceArray<V> block = blocks.get(key >>> BLOCK_SHIFT);
+		if(block != null && block.compareAndSet(key & BLOCK_MASK, value, null)) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	
+	public int size() {
+		return size.get();
+	}
+	
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+	
+	/**
+	 * Get a snapshot of the values currently in the map, in key order.
+	 * 
+	 * @return List<V>
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<V>(size.get());
+		for(int i=0;i<blocks.length();i++) {
+			AtomicReferenceArray<V> block = blocks.get(i);
+			if(block != null) {
+				for(int j=0;j<BLOCK_SIZE;j++) {
+					V value = block.get(j);
+					if(value != null) {
+						values.add(value);
+					}
+				}
+			}
+		}
+		return values;
+	}
+	
+	private AtomicReferenceArray<V> block(int key) {
+		if(key < 0 || key >= capacity) {
+			throw new IllegalArgumentException(String.format("Key %d is out of range", key));
+		}
+		int index = key >>> BLOCK_SHIFT;
+		AtomicReferenceArray<V> block = blocks.get(index);
+		if(block == null) {
+			blocks.compareAndSet(index, null, new AtomicReferenceArray<V>(BLOCK_SIZE));
+			block = blocks.get(index);
+		}
+		return block;
+	}
+}
@@ -22,10 +22,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.logger.Log.Level;
@@ -34,12 +34,22 @@ import com.sshtools.common.ssh.SshConnectionManager;
 
 /**
  * Holds and manages Connection objects.
+ * <p>
+ * Connections are indexed by session id and, once authenticated, by username in 
+ * concurrent maps. Registering and unregistering connections only locks the hash 
+ * bin of the key being changed, so acceptor and selector threads can set up and 
+ * tear down connections in parallel, and lookups never block. The collections 
+ * returned by this class are unmodifiable, weakly consistent views that reflect 
+ * connections as they are registered and unregistered and never throw 
+ * {@link java.util.ConcurrentModificationException}.
  */
 public class ConnectionManager<T extends SshContext> implements SshConnectionManager {
 
-    private HashMap<String, Connection<T>> activeConnections = new HashMap<>();
+    private final ConcurrentHashMap<String, Connection<T>> activeConnections = new ConcurrentHashMap<>(16, 0.75f,
+    		Runtime.getRuntime().availableProcessors());
+    private final ConcurrentHashMap<String, Set<Connection<T>>> connectionsByUsername = new ConcurrentHashMap<>();
     
-    private static Map<String,ConnectionManager<?>> instances = new HashMap<>();
+    private static Map<String,ConnectionManager<?>> instances = new ConcurrentHashMap<>();
     
     public static final String DEFAULT_NAME = "default";
     
@@ -54,11 +64,10 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     
     public ConnectionManager(String name, Level level) {
     	
-    	if(instances.containsKey(name)) {
+    	if(instances.putIfAbsent(name, this) != null) {
     		throw new IllegalArgumentException(String.format("There is already a connection manager registered named %s", name));
     	}
     	this.name = name;
-    	instances.put(name, this);
     	ctx = new ConnectionLoggingContext(level, this);
     }
 
@@ -108,7 +117,7 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     	return null;
     }
     
-    public synchronized Connection<T> registerConnection(ConnectionProtocol<T> connection) {
+    public Connection<T> registerConnection(ConnectionProtocol<T> connection) {
     	Connection<T> con = activeConnections.get(connection.getSessionIdentifier());
     	if(con!=null) {
     		con.connection = connection;
@@ -116,22 +125,58 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     	else {
     		throw new IllegalArgumentException("Cannot set connection instance on non-existent transport!");
     	}
+    	
+    	String username = con.getUsername();
+    	if(username==null) {
+    		username = connection.getUsername();
+    	}
+    	if(username!=null) {
+    		connectionsByUsername.compute(username, (u, connections) -> {
+    			if(connections==null) {
+    				connections = ConcurrentHashMap.newKeySet();
+    			}
+    			connections.add(con);
+    			return connections;
+    		});
+    		if(activeConnections.get(con.getSessionId())!=con) {
+    			/**
+    			 * The transport was unregistered while we were indexing it
+    			 */
+    			removeUsername(username, con);
+    		}
+    	}
+    	
     	con.getAuthenticatedFuture().done(true);
     	return con;
     }
 
     public Connection<T> getConnectionById(String sessionid) {
-    	if(sessionid != null && activeConnections.containsKey(sessionid)) {
+    	if(sessionid != null) {
         	return activeConnections.get(sessionid);
         }
         return null;
     }
 
-	public synchronized Collection<SshConnection> getAllConnections() {
+	public Collection<SshConnection> getAllConnections() {
         return Collections.unmodifiableCollection(activeConnections.values());
     }
+	
+	/**
+	 * Get the authenticated connections of a user. The view is empty once the user has 
+	 * no connections, and does not include connections the user makes after that.
+	 * 
+	 * @param username
+	 * @return Collection<Connection<T>>
+	 */
+	public Collection<Connection<T>> getConnectionsByUsername(String username) {
+		Set<Connection<T>> connections = username==null ? null : connectionsByUsername.get(username);
+		if(connections==null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(connections);
+	}
 
-    public synchronized Connection<T> registerTransport(TransportProtocol<T> transport, T sshContext) {
+    public Connection<T> registerTransport(TransportProtocol<T> transport, T sshContext) {
     	Connection<T> con = new Connection<T>(transport.getContext());
     	con.transport = transport;
     	con.remoteAddress = (InetSocketAddress)transport.getRemoteAddress();
@@ -154,31 +199,41 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
         return con;
     }
     
-    public synchronized void unregisterTransport(TransportProtocol<T> transport) {
+    public void unregisterTransport(TransportProtocol<T> transport) {
     	Connection<T> con = activeConnections.remove(transport.getUUID());
+    	if(con==null) {
+    		return;
+    	}
+    	/**
+    	 * Always remove the username as registerConnection may be indexing it concurrently
+    	 */
+    	String username = con.getUsername();
+    	ConnectionProtocol<T> connection = con.connection;
+    	if(username==null && connection!=null) {
+    		username = connection.getUsername();
+    	}
+    	removeUsername(username, con);
     	con.close();
     	ctx.close(con);
     }
     
+    private void removeUsername(String username, Connection<T> con) {
+    	if(username==null) {
+    		return;
+    	}
+    	connectionsByUsername.computeIfPresent(username, (u, connections) -> {
+    		connections.remove(con);
+    		return connections.isEmpty() ? null : connections;
+    	});
+    }
+    
     /**
      * Get a list of currently logged on users. 
        * 
        * @return String[]
      */
     public String[] getLoggedOnUsers() {
-
-      HashSet<String> users = new HashSet<String>();
-      
-      for(Connection<T> c : activeConnections.values()) {
-    	  
-    	  if(c.isAuthenticated())
-    		  users.add(c.getUsername());
-      }
-
-      String[] result = new String[users.size()];
-      users.toArray(result);
-
-      return result;
+      return connectionsByUsername.keySet().toArray(new String[0]);
     }
 
 
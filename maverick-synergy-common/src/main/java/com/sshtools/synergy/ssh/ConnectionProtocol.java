@@ -23,16 +23,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.WriteOperationRequest;
 import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.ChannelWindowPolicy;
 import com.sshtools.common.ssh.ChannelOpenException;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.ExecutorOperationQueues;
@@ -75,13 +74,14 @@ public abstract class ConnectionProtocol<T extends SshContext>
 
 	public final static String SERVICE_NAME = "ssh-connection";
 
-	Set<Integer> channeIdPool = new HashSet<Integer>();
-	Map<Integer,ChannelNG<T>> activeChannels = new ConcurrentHashMap<Integer, ChannelNG<T>>(8, 0.9f, 1);
+	ChannelIdAllocator channelIds;
+	ConcurrentIntMap<ChannelNG<T>> activeChannels;
 	Map<String, GlobalRequestHandler<T>> globalRequestHandlers = new ConcurrentHashMap<String, GlobalRequestHandler<T>>(8, 0.9f, 1);
 	
 	protected LinkedList<GlobalRequest> outstandingRequests = new LinkedList<GlobalRequest>();
 	
 	protected String username;
+	WindowMemoryBudget windowBudget;
 	protected Connection<T> con;
 	
 	public ConnectionProtocol(TransportProtocol<T> transport, String username) {
@@ -90,9 +90,9 @@ public abstract class ConnectionProtocol<T extends SshContext>
 		this.transport = transport;
 		this.con = transport.getConnection();
 		
-		for(int i=0;i<transport.getSshContext().getChannelLimit();i++) {
-			channeIdPool.add(new Integer(i));
-		}
+		int channelLimit = transport.getSshContext().getChannelLimit();
+		channelIds = new ChannelIdAllocator(channelLimit);
+		activeChannels = new ConcurrentIntMap<ChannelNG<T>>(channelLimit);
 
 		if(Log.isDebugEnabled())
 			Log.debug("Initialized MaxChannels="
@@ -156,12 +156,10 @@ public abstract class ConnectionProtocol<T extends SshContext>
 			if(Log.isDebugEnabled())
 				Log.debug("Cleaning up connection protocol references");
 
-			synchronized (activeChannels) {
-				for (ChannelNG<T> channel : activeChannels.values()) {
-					try {
-						channel.close(true);
-					} catch (Throwable t) {
-					}
+			for (ChannelNG<T> channel : activeChannels.values()) {
+				try {
+					channel.close(true);
+				} catch (Throwable t) {
 				}
 			}
 		}
@@ -173,26 +171,25 @@ public abstract class ConnectionProtocol<T extends SshContext>
 
 	int allocateChannel(ChannelNG<T> channel) {
 
-		synchronized (activeChannels) {
-			if(channeIdPool.size()==0) {
-				return -1;
-			}
-			Integer channelId = channeIdPool.iterator().next();
-			channeIdPool.remove(channelId);
+		int channelId = channelIds.allocate();
+		if(channelId > -1) {
 			activeChannels.put(channelId, channel);
-			return channelId;
 		}
+		return channelId;
 	}
 
 	void freeChannel(ChannelNG<T> channel) {
-		synchronized (activeChannels) {
-			if (channel != null) {
-				if(Log.isDebugEnabled())
-					Log.debug("Freeing channel="
-							+ String.valueOf(channel.getLocalId()));
-				Integer channelId = channel.getLocalId();
-				activeChannels.remove(channelId);
-				channeIdPool.add(channelId);
+		if (channel != null) {
+			if(Log.isDebugEnabled())
+				Log.debug("Freeing channel="
+						+ String.valueOf(channel.getLocalId()));
+			int channelId = channel.getLocalId();
+			/**
+			 * Only release the id if this channel still owns it, so that freeing
+			 * a channel twice cannot release an id since given to another channel.
+			 */
+			if(activeChannels.remove(channelId, channel)) {
+				channelIds.release(channelId);
 			}
 		}
 	}
@@ -861,6 +858,20 @@ public abstract class ConnectionProtocol<T extends SshContext>
 		}
 	}
 
+	/**
+	 * Get the memory budget shared by the auto-tuned windows of this connection's channels.
+	 * 
+	 * @return WindowMemoryBudget
+	 */
+	public synchronized WindowMemoryBudget getWindowBudget() {
+		if(windowBudget==null) {
+			windowBudget = new WindowMemoryBudget(
+					getContext().getPolicy(ChannelWindowPolicy.class).getConnectionWindowBudget(), 
+					WindowMemoryBudget.getGlobalBudget());
+		}
+		return windowBudget;
+	}
+
 	/**
 	 * Get the connections {@link ConfigurationContext}.
 	 * 
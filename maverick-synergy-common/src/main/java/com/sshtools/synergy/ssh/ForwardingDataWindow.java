@@ -27,30 +27,11 @@ public class ForwardingDataWindow extends CachingDataWindow {
 		super(maximumWindowSpace, true);
 	}
 
-	public synchronized int write(SocketChannel socketChannel) throws IOException {
-		if(Boolean.getBoolean("maverick.disableMaximumWrite")) {
-			return socketChannel.write(cache);
-		} else {
-			int c = 0;
-			while(true) {
-				int r = socketChannel.write(cache);
-				if(r<=0) {
-					break;
-				}
-				c+=r;
-			}
-			return c;
-		}
+	public int write(SocketChannel socketChannel) throws IOException {
+		return writeTo(socketChannel, !Boolean.getBoolean("maverick.disableMaximumWrite"));
 	}
 	
-	public synchronized int read(SocketChannel socketChannel) throws IOException {
-		
-		cache.compact();
-		
-		try {
-			return socketChannel.read(cache);
-		} finally {
-			cache.flip();
-		}
+	public int read(SocketChannel socketChannel) throws IOException {
+		return readFrom(socketChannel);
 	}
 }
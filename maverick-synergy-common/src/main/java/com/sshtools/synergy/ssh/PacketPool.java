@@ -19,33 +19,72 @@
 package com.sshtools.synergy.ssh;
 
 import java.io.IOException;
-import java.util.Vector;
 
 import com.sshtools.common.ssh.Packet;
 
-public class PacketPool {
-
-	Vector<Packet> packets = new Vector<Packet>();
+/**
+ * A pool of {@link Packet} objects used to build outgoing subsystem messages. 
+ * Packets whose buffer has grown beyond {@link #getMaximumPacketCapacity()} are
+ * not retained.
+ */
+public class PacketPool extends StripedObjectPool<Packet> {
 
-	static PacketPool instance;
+	public static final int DEFAULT_MAXIMUM_RETAINED = 256;
+	public static final int DEFAULT_MAXIMUM_PACKET_CAPACITY = 256 * 1024;
+	
+	static final PacketPool instance = new PacketPool();
 
+	private volatile int maximumPacketCapacity = DEFAULT_MAXIMUM_PACKET_CAPACITY;
+	
 	public static PacketPool getInstance() {
-		return (instance == null ? instance = new PacketPool() : instance);
+		return instance;
+	}
+	
+	public PacketPool() {
+		this(DEFAULT_MAXIMUM_RETAINED);
+	}
+	
+	public PacketPool(int maximumRetained) {
+		super(maximumRetained);
 	}
 
 	public Packet getPacket() throws IOException {
-		synchronized (packets) {
-			if (packets.size() == 0)
-				return new Packet();
-			Packet p = (Packet) packets.remove(0);
-			return p;
-		}
+		return take();
 	}
 	
 	public void putPacket(Packet p) {
-		synchronized (packets) {
-			p.reset();
-			packets.add(p);
+		release(p);
+	}
+	
+	/**
+	 * Get the largest buffer capacity of a packet that will be retained by the pool.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumPacketCapacity() {
+		return maximumPacketCapacity;
+	}
+	
+	/**
+	 * Set the largest buffer capacity of a packet that will be retained by the pool.
+	 * 
+	 * @param maximumPacketCapacity
+	 */
+	public void setMaximumPacketCapacity(int maximumPacketCapacity) {
+		this.maximumPacketCapacity = maximumPacketCapacity;
+	}
+
+	@Override
+	protected Packet create() throws IOException {
+		return new Packet();
+	}
+
+	@Override
+	protected boolean recycle(Packet p) {
+		if(p.array().length > maximumPacketCapacity) {
+			return false;
 		}
+		p.reset();
+		return true;
 	}
 }
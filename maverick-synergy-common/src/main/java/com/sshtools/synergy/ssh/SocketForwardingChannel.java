@@ -24,6 +24,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.common.forwarding.ForwardingPolicy;
@@ -32,6 +34,7 @@ import com.sshtools.common.nio.WriteOperationRequest;
 import com.sshtools.common.ssh.ChannelOpenException;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.synergy.nio.ProtocolEngine;
 import com.sshtools.synergy.nio.SelectorThread;
 import com.sshtools.synergy.nio.SocketHandler;
@@ -62,8 +65,12 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 	ForwardingDataWindow toChannel;
 	
-	long totalIn;
-	long totalOut;
+	boolean directForwarding;
+	volatile boolean readSuspended;
+	volatile CompletableFuture<Void> lastDirectWrite;
+	
+	volatile long totalIn;
+	volatile long totalOut;
 	AtomicBoolean socketEOF = new AtomicBoolean(false);
 	
 	/**
@@ -78,6 +85,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize(), 
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMinWindowSize());
 		toChannel = new ForwardingDataWindow(con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize());
+		directForwarding = con.getContext().getPolicy(ForwardingPolicy.class).isDirectForwarding();
 	}
 
 	protected CachingDataWindow createCache(int maximumWindowSpace) {
@@ -226,6 +234,13 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				return false;
 			}
 		}
+		
+		if (getPendingDataLength() > 0 && isOpen() && !isLocalEOF()) {
+			if (Log.isTraceEnabled()) {
+				log("Not closing due to pending channel data");
+			}
+			return false;
+		}
 
 		return super.canClose();
 
@@ -314,6 +329,18 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 	protected abstract byte[] openChannel(byte[] parm1) throws WriteOperationRequest, ChannelOpenException;
 
+	/**
+	 * Reading from the socket is suspended by the direct forwarding path while the remote 
+	 * window is full, so resume it when the remote side makes space.
+	 */
+	@Override
+	protected void onWindowAdjust(int count) {
+		if(readSuspended) {
+			readSuspended = false;
+			changeInterestedOps();
+		}
+	}
+
 	/**
 	 * read data from the start/end of tunnel and write it into the ssh tunnel.
 	 */
@@ -330,6 +357,10 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 			return true;
 		}
 
+		if(directForwarding) {
+			return processDirectReadEvent();
+		}
+		
 		try {
 
 			int numBytesRead = toChannel.read(socketChannel);
@@ -387,6 +418,117 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 	}
 
+	/**
+	 * Read data from the socket into a pooled buffer that is sent as the payload of a single 
+	 * SSH_MSG_CHANNEL_DATA message. We only read as much as the remote window and packet size 
+	 * allow so the message is always sent straight away; when the window is full we stop 
+	 * reading until it is adjusted. The buffer is returned to the pool once the message
+	 * has been written to the transport.
+	 */
+	private boolean processDirectReadEvent() {
+		
+		try {
+			
+			int space = Math.min(remoteWindow.getWindowSpace(), remoteWindow.getMaximumPacketSize());
+			if(space <= 0 || getPendingDataLength() > 0) {
+				if(Log.isTraceEnabled()) {
+					log("Suspending FORWARDING READ until the remote window is adjusted");
+				}
+				readSuspended = true;
+				/**
+				 * The window may have been adjusted since we checked it
+				 */
+				if(remoteWindow.getWindowSpace() > 0) {
+					onWindowAdjust(0);
+				}
+				return false;
+			}
+			
+			final ByteBufferPool pool = getContext().getByteBufferPool();
+			final ByteBuffer buf = pool.get(space);
+			buf.limit(Math.min(space, buf.capacity()));
+			
+			int numBytesRead;
+			try {
+				numBytesRead = socketChannel.read(buf);
+			} catch(IOException e) {
+				pool.add(buf);
+				throw e;
+			}
+			
+			if(Log.isDebugEnabled()) {
+				log(String.format("Processed FORWARDING READ read=%d", numBytesRead));
+			}
+			
+			if(numBytesRead <= 0) {
+				pool.add(buf);
+				if(numBytesRead == -1) {
+					socketEOF.set(true);
+					if(Log.isDebugEnabled()) {
+						log("Received EOF from forwarding socket");
+					}
+					sendEOFAfterDirectWrites();
+					return true;
+				}
+				return false;
+			}
+			
+			totalIn += numBytesRead;
+			buf.flip();
+			
+			CompletableFuture<Void> future = queueChannelData(buf, 0).future;
+			future.whenComplete((v, e) -> {
+				try {
+					if(closePending) {
+						getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
+							protected void doTask() {
+								if(canClose()) {
+									close();
+								}
+							}
+						});
+					}
+				} finally {
+					/**
+					 * The future completes once the data has been written to the transport, or 
+					 * fails when the channel closes. By then the message was either written 
+					 * ahead of the close or never handed to the transport, so the buffer can 
+					 * be reused either way.
+					 */
+					pool.add(buf);
+				}
+			});
+			lastDirectWrite = future;
+
+		} catch (Throwable ex) {
+			if (Log.isTraceEnabled())
+				log("processReadEvent() failed to read from socket", ex);
+
+			socketEOF.set(true);
+			sendEOFAfterDirectWrites();
+			return true;
+		} 
+
+		return !isOpen() && (socketChannel==null || !socketChannel.isConnected());
+	}
+	
+	private void sendEOFAfterDirectWrites() {
+		
+		final ConnectionAwareTask eof = new ConnectionAwareTask(con) {
+			protected void doTask() {
+				sendEOF();
+				evaluateClosure();
+			}
+		};
+		
+		CompletableFuture<Void> last = lastDirectWrite;
+		if(Objects.isNull(last)) {
+			getConnectionProtocol().addOutgoingTask(eof);
+		} else {
+			last.whenComplete((v, e) -> getConnectionProtocol().addOutgoingTask(eof));
+		}
+	}
+	
 	/**
 	 * read data from the ssh tunnel and write it to the start/end point.
 	 */
@@ -454,7 +596,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	
 	@Override
 	public boolean wantsRead() {
-		return true;
+		return !readSuspended;
 	}
 
 	public int getInitialOps() {
@@ -521,6 +663,12 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 		getConnectionProtocol().addTask(SOCKET_QUEUE & getLocalId(), task);;
 	}
 
+	@Override
+	public long getBytesTransferred() {
+		return totalIn + totalOut;
+	}
+
+	@Override
 	public SelectorThread getSelectorThread() {
 		return selectorThread;
 	}
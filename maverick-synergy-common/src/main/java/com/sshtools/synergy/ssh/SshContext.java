@@ -27,8 +27,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import com.sshtools.common.forwarding.ForwardingPolicy;
@@ -49,6 +47,8 @@ import com.sshtools.common.ssh.compression.SshCompression;
 import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.synergy.nio.ConnectRequestFuture;
 import com.sshtools.synergy.nio.DefaultSocketConnectionFactory;
+import com.sshtools.synergy.nio.ExecutorFactory;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
 import com.sshtools.synergy.nio.ProtocolContext;
 import com.sshtools.synergy.nio.ProtocolEngine;
 import com.sshtools.synergy.nio.SocketConnectionFactory;
@@ -238,7 +238,19 @@ public abstract class SshContext extends ProtocolContext implements
 	protected int keepAliveInterval = 30;
 	protected int keepAliveDataMaxLength = 128;
 
-	protected static ExecutorService executor;
+	/**
+	 * The executor used by contexts that belong to no {@link SshEngine} and have no
+	 * {@link ExecutorFactory} of their own. It is created on first use, or may be 
+	 * assigned before then to replace the default pool.
+	 * 
+	 * @deprecated configure executors with {@link #setExecutorFactory(ExecutorFactory)} or 
+	 * {@link SshEngineContext#setExecutorFactory(ExecutorFactory)} instead.
+	 */
+	@Deprecated
+	protected static volatile ExecutorService executor;
+	
+	protected volatile ExecutorService contextExecutor;
+	protected volatile ExecutorFactory executorFactory;
 	
 	protected Locale locale = Locale.getDefault();
 	protected ByteBufferPool byteBufferPool = null;
@@ -1269,41 +1281,82 @@ public abstract class SshContext extends ProtocolContext implements
 
 	}
 
+	/**
+	 * Set a factory to create an executor for this context alone. By default the executor
+	 * is shared by all contexts of the same {@link SshEngine} and configured on its
+	 * {@link SshEngineContext}. An executor created for this context is not shutdown by the 
+	 * engine, call {@link #shutdown()} once the context is no longer in use.
+	 * 
+	 * @param executorFactory
+	 */
+	public void setExecutorFactory(ExecutorFactory executorFactory) {
+		this.executorFactory = executorFactory;
+	}
+	
+	public ExecutorFactory getExecutorFactory() {
+		return executorFactory;
+	}
+	
+	/**
+	 * Get the executor for the operations of connections using this context. This is 
+	 * called for every operation, so no lock is taken once the executor exists.
+	 * 
+	 * @return ExecutorService
+	 */
 	public ExecutorService getExecutorService() {
-		if (executor == null) {
-			ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
-	            public Thread newThread(Runnable r) {
-	                Thread t = Executors.defaultThreadFactory().newThread(r);
-	                t.setDaemon(true);
-	                return t;
-	            }
-	        });
-			if(!Objects.isNull(daemon)) {
-				daemon.addShutdownHook(new Runnable() {
-					public void run() {
-						shutdown();
-					}
-				});
-			} else {
-				Runtime.getRuntime().addShutdownHook(new Thread() {
-					public void run() {
-						shutdown();
-					}
-				});
+		
+		ExecutorService contextExecutor = this.contextExecutor;
+		if(contextExecutor != null) {
+			return contextExecutor;
+		}
+		
+		if(executorFactory != null) {
+			synchronized(this) {
+				contextExecutor = this.contextExecutor;
+				if(contextExecutor == null && executorFactory != null) {
+					this.contextExecutor = contextExecutor = executorFactory.createExecutor("SSH-CONTEXT");
+				}
+			}
+			if(contextExecutor != null) {
+				return contextExecutor;
+			}
+		}
+		
+		if(!Objects.isNull(daemon)) {
+			return daemon.getContext().getExecutorService();
+		}
+		
+		return getDefaultExecutor();
+	}
+	
+	private static ExecutorService getDefaultExecutor() {
+		ExecutorService defaultExecutor = executor;
+		if (defaultExecutor == null) {
+			synchronized(SshContext.class) {
+				defaultExecutor = executor;
+				if (defaultExecutor == null) {
+					executor = defaultExecutor = new PlatformThreadExecutorFactory().createExecutor("SSH");
+				}
 			}
-			SshContext.executor = executor;
 		}
-		return executor;
+		return defaultExecutor;
 	}
 
+	/**
+	 * Shutdown the executor created for this context by {@link #setExecutorFactory(ExecutorFactory)}. An 
+	 * executor shared with other contexts is shutdown by its {@link SshEngine}.
+	 */
 	public void shutdown() {
-		if(executor != null) {
-			executor.shutdown();
+		ExecutorService contextExecutor;
+		synchronized(this) {
+			contextExecutor = this.contextExecutor;
+			this.contextExecutor = null;
+		}
+		if(contextExecutor != null) {
+			contextExecutor.shutdown();
 			try {
-				executor.awaitTermination(30, TimeUnit.SECONDS);
+				contextExecutor.awaitTermination(30, TimeUnit.SECONDS);
 			} catch (InterruptedException e) {
-			} finally {
-				executor = null;
 			}
 		}
 	}
@@ -0,0 +1,287 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of reusable objects shared between threads. 
+ * <p>
+ * Free objects are held in a number of stripes of lock-free queues and threads 
+ * are spread across the stripes, so threads getting and returning objects at the 
+ * same time do not contend on a single lock. No more than the maximum number of 
+ * free objects are retained; objects returned beyond that are released to the 
+ * garbage collector. The pool also trims itself: objects that stayed free for 
+ * a whole trim interval were not needed and are released.
+ *
+ * @param <T> pooled type
+ */
+public abstract class StripedObjectPool<T> {
+
+	public static final long DEFAULT_TRIM_INTERVAL = 30000;
+	
+	static final int MAXIMUM_STRIPES = 64;
+	
+	private final ConcurrentLinkedQueue<T>[] stripes;
+	private final int stripeMask;
+	private volatile int maximumRetained;
+	private volatile long trimInterval = DEFAULT_TRIM_INTERVAL;
+	
+	private final AtomicInteger free = new AtomicInteger();
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger minimumFree = new AtomicInteger();
+	private final AtomicLong lastTrim = new AtomicLong(System.currentTimeMillis());
+	private final AtomicLong allocated = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong trimmed = new AtomicLong();
+	
+	@SuppressWarnings("unchecked")
+	protected StripedObjectPool(int maximumRetained) {
+		this.maximumRetained = maximumRetained;
+		
+		int count = 1;
+		while(count < Math.min(Runtime.getRuntime().availableProcessors(), MAXIMUM_STRIPES)) {
+			count <<= 1;
+		}
+		this.stripeMask = count - 1;
+		this.stripes = (ConcurrentLinkedQueue<T>[]) new ConcurrentLinkedQueue<?>[count];
+		for(int i=0;i<count;i++) {
+			stripes[i] = new ConcurrentLinkedQueue<T>();
+		}
+	}
+	
+	/**
+	 * Create a new object when there is no free object in the pool.
+	 * 
+	 * @return T
+	 */
+	protected abstract T create() throws IOException;
+	
+	/**
+	 * Prepare an object that is being returned for reuse.
+	 * 
+	 * @param obj
+	 * @return false if the object should not be retained
+	 */
+	protected abstract boolean recycle(T obj);
+	
+	/**
+	 * Get a free object from the pool, creating one if none are available.
+	 * 
+	 * @return T
+	 */
+	protected T take() throws IOException {
+		
+		int stripe = stripe();
+		T obj = null;
+		for(int i=0;i<stripes.length && obj==null;i++) {
+			obj = stripes[(stripe + i) & stripeMask].poll();
+		}
+		
+		inUse.incrementAndGet();
+		
+		if(obj==null) {
+			allocated.incrementAndGet();
+			minimumFree.set(0);
+			return create();
+		}
+		
+		int f = free.decrementAndGet();
+		if(f < minimumFree.get()) {
+			minimumFree.set(f);
+		}
+		reused.incrementAndGet();
+		return obj;
+	}
+	
+	/**
+	 * Return an object to the pool.
+	 * 
+	 * @param obj
+	 */
+	protected void release(T obj) {
+		
+		if(obj==null) {
+			return;
+		}
+		
+		inUse.decrementAndGet();
+		trimIfDue();
+		
+		if(!recycle(obj)) {
+			discarded.incrementAndGet();
+			return;
+		}
+		
+		if(free.incrementAndGet() > maximumRetained) {
+			free.decrementAndGet();
+			discarded.incrementAndGet();
+			return;
+		}
+		
+		stripes[stripe()].offer(obj);
+	}
+	
+	private void trimIfDue() {
+		
+		long last = lastTrim.get();
+		long now = System.currentTimeMillis();
+		if(now - last < trimInterval || !lastTrim.compareAndSet(last, now)) {
+			return;
+		}
+		
+		releaseUnused();
+	}
+	
+	/**
+	 * Release the free objects that were not needed since the previous trim. This is
+	 * performed automatically once every trim interval as objects are returned to the pool.
+	 */
+	public void trim() {
+		lastTrim.set(System.currentTimeMillis());
+		releaseUnused();
+	}
+	
+	private void releaseUnused() {
+		
+		/**
+		 * Objects that were never taken during the last interval were not needed
+		 */
+		int count = minimumFree.get();
+		for(int i=0;i<stripes.length && count > 0;i++) {
+			T obj;
+			while(count > 0 && (obj = stripes[i].poll())!=null) {
+				free.decrementAndGet();
+				trimmed.incrementAndGet();
+				count--;
+			}
+		}
+		minimumFree.set(free.get());
+	}
+	
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & stripeMask;
+	}
+	
+	/**
+	 * Get the maximum number of free objects this pool will retain.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumRetained() {
+		return maximumRetained;
+	}
+	
+	/**
+	 * Set the maximum number of free objects this pool will retain.
+	 * 
+	 * @param maximumRetained
+	 */
+	public void setMaximumRetained(int maximumRetained) {
+		this.maximumRetained = maximumRetained;
+	}
+	
+	/**
+	 * Get the interval in milliseconds after which objects that have remained free are released.
+	 * 
+	 * @return long
+	 */
+	public long getTrimInterval() {
+		return trimInterval;
+	}
+	
+	/**
+	 * Set the interval in milliseconds after which objects that have remained free are released.
+	 * 
+	 * @param trimInterval
+	 */
+	public void setTrimInterval(long trimInterval) {
+		this.trimInterval = trimInterval;
+	}
+	
+	/**
+	 * Get the number of objects that have been created by this pool.
+	 * 
+	 * @return long
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+	
+	/**
+	 * Get the number of requests that were satisfied with a free object from the pool.
+	 * 
+	 * @return long
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+	
+	/**
+	 * Get the number of returned objects that were released rather than retained, either 
+	 * because the pool was full or because the object was not suitable for reuse.
+	 * 
+	 * @return long
+	 */
+	public long getDiscarded() {
+		return discarded.get();
+	}
+	
+	/**
+	 * Get the number of free objects released because they were not needed during a 
+	 * trim interval.
+	 * 
+	 * @return long
+	 */
+	public long getTrimmed() {
+		return trimmed.get();
+	}
+	
+	/**
+	 * Get the number of free objects currently retained by the pool.
+	 * 
+	 * @return int
+	 */
+	public int getFree() {
+		return free.get();
+	}
+	
+	/**
+	 * Get the number of objects handed out and not yet returned.
+	 * 
+	 * @return int
+	 */
+	public int getInUse() {
+		return inUse.get();
+	}
+	
+	public String toString() {
+		return String.format("%d allocated, %d free, %d in use, %d reused, %d discarded, %d trimmed", 
+				allocated.get(), 
+				free.get(), 
+				inUse.get(), 
+				reused.get(), 
+				discarded.get(),
+				trimmed.get());
+	}
+}
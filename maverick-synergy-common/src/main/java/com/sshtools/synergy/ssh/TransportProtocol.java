@@ -80,6 +80,8 @@ public abstract class TransportProtocol<T extends SshContext>
 	SecureRandom rnd = new SecureRandom();
 	
 	byte[] incomingSwap;
+	byte[] outgoingSwap;
+	byte[][] outgoingPadding = new byte[256][];
 	
 	protected String localIdentification = "SSH-2.0-";
 	protected StringBuffer remoteIdentification = new StringBuffer();
@@ -106,6 +108,12 @@ public abstract class TransportProtocol<T extends SshContext>
 	protected static final int SSH_MSG_SERVICE_REQUEST = 5;
 	public static final int SSH_MSG_SERVICE_ACCEPT = 6;
 
+	/**
+	 * The most a binary packet can add to a message payload; length, padding 
+	 * length, padding, MAC and any expansion of an incompressible payload.
+	 */
+	static final int MAXIMUM_PACKET_OVERHEAD = 1024;
+	
 	static final int SSH_MSG_KEX_INIT = 20;
 	static final int SSH_MSG_NEWKEYS = 21;
 
@@ -768,18 +776,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
-
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readIncomingPayload();
 
 				return true;
 
@@ -885,18 +882,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				}
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
-
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readIncomingPayload();
 
 				return true;
 
@@ -1014,18 +1000,7 @@ public abstract class TransportProtocol<T extends SshContext>
 					}
 				}
 
-				payloadIncoming = new byte[msglen - padlen - 1];
-				
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readIncomingPayload();
 
 				return true;
 
@@ -1035,6 +1010,25 @@ public abstract class TransportProtocol<T extends SshContext>
 		return false;
 	}
 
+	/**
+	 * Copy the decrypted payload out of the incoming swap buffer. The payload is 
+	 * handed on to the message processors, so it must be a new array; when compression
+	 * is in use the uncompressed output serves as that array.
+	 */
+	private byte[] readIncomingPayload() throws IOException {
+		
+		int payloadLength = msglen - padlen - 1;
+		
+		// Uncompress the message payload if necersary
+		if (incomingCompression != null) {
+			return incomingCompression.uncompress(incomingSwap, 5, payloadLength);
+		}
+		
+		byte[] payload = new byte[payloadLength];
+		System.arraycopy(incomingSwap, 5, payload, 0, payloadLength);
+		return payload;
+	}
+	
 	public boolean wantsToWrite() {
 		synchronized (kexlockOut) {
 			if (currentState == PERFORMING_KEYEXCHANGE
@@ -1119,87 +1113,114 @@ public abstract class TransportProtocol<T extends SshContext>
 	}
 	
 	/**
-	 * Called when the socket channel is reported to be ready for writing.
+	 * Called when the socket channel is reported to be ready for writing. Once connected,
+	 * as many queued messages as will fit are encoded into the outgoing buffer so
+	 * that they are sent with a single socket write.
 	 */
 	public SocketWriteCallback onSocketWrite(ByteBuffer outgoingMessage) {
 
 		if(Log.isTraceEnabled())
 			Log.debug("Processing APPLICATION WRITE event");
 
-		final SshMessage msg;
-
+		final List<SshMessage> messages = new ArrayList<SshMessage>();
+		final List<Long> sequenceNumbers = new ArrayList<Long>();
+		
 		try {
 
-			final Long sequenceNo = outgoingSequence;
-			
 			synchronized (kexlockOut) {
-				if ((kexQueue.size() > 0 || outgoingQueue.size() > 0)) {
-
-					// Get the next message and write into the buffer
-					if (currentState == PERFORMING_KEYEXCHANGE
-							&& completedFirstKeyExchange) {
-						if (kexQueue.size() > 0) {
-							msg = (SshMessage) kexQueue.getFirst();
-							if (msg.writeMessageIntoBuffer(outgoingMessage))
-								kexQueue.removeFirst();
+				
+				SshMessage msg;
+				do {
+					
+					final Long sequenceNo = outgoingSequence;
+					int offset = outgoingMessage.position();
+					
+					if ((kexQueue.size() > 0 || outgoingQueue.size() > 0)) {
+	
+						// Get the next message and write into the buffer
+						if (currentState == PERFORMING_KEYEXCHANGE
+								&& completedFirstKeyExchange) {
+							if (kexQueue.size() > 0) {
+								msg = (SshMessage) kexQueue.getFirst();
+								if (msg.writeMessageIntoBuffer(outgoingMessage))
+									kexQueue.removeFirst();
+							} else {
+								// Simply return there are no key exchange messages
+								// to send
+								// socketConnection.setWriteState(wantsToWrite());
+								msg = null;
+								break;
+							}
 						} else {
-							// Simply return there are no key exchange messages
-							// to send
-							// socketConnection.setWriteState(wantsToWrite());
-							return null;
-						}
-					} else {
-						synchronized (outgoingQueue) {
-							msg = (SshMessage) outgoingQueue.getFirst();
-							if (msg.writeMessageIntoBuffer(outgoingMessage)) {
-								outgoingQueue.removeFirst();
+							synchronized (outgoingQueue) {
+								msg = (SshMessage) outgoingQueue.getFirst();
+								if (msg.writeMessageIntoBuffer(outgoingMessage)) {
+									outgoingQueue.removeFirst();
+								} 
 							}
 						}
-					}
-
-					if (currentState != TransportProtocol.NEGOTIATING_PROTOCOL) {
-
-						outgoingMessage.flip();
+	
+						messages.add(msg);
+						sequenceNumbers.add(sequenceNo);
 						
-						if(encryption!=null && encryption instanceof ChaCha20Poly1305) {
-							encodeChaCha20Poly1305FormatPacket(outgoingMessage);
-						} else if(outgoingMac!=null && outgoingMac.isETM()) {
-							encodeETMFormatPacket(outgoingMessage);
-						} else {
-							encodeOriginalFormatPacket(outgoingMessage);
-						}
-
-						numOutgoingBytesSinceKEX += outgoingMessage.position();
-						numOutgoingPacketsSinceKEX++;
-
-						outgoingSequence++;
-
-						if (outgoingSequence >= 4294967296L) {
-							outgoingSequence = 0;
+						if (currentState != TransportProtocol.NEGOTIATING_PROTOCOL) {
+	
+							if(encryption!=null && encryption instanceof ChaCha20Poly1305) {
+								encodeChaCha20Poly1305FormatPacket(outgoingMessage, offset);
+							} else if(outgoingMac!=null && outgoingMac.isETM()) {
+								encodeETMFormatPacket(outgoingMessage, offset);
+							} else {
+								encodeOriginalFormatPacket(outgoingMessage, offset);
+							}
+	
+							numOutgoingBytesSinceKEX += outgoingMessage.position() - offset;
+							numOutgoingPacketsSinceKEX++;
+	
+							outgoingSequence++;
+	
+							if (outgoingSequence >= 4294967296L) {
+								outgoingSequence = 0;
+							}
 						}
+					} else {
+						msg = null;
 					}
-				} else {
-					msg = null;
-				}
-
-				// if sent lots of bytes or packets then change keys
-				if (numOutgoingBytesSinceKEX >= getContext()
-						.getKeyExchangeTransferLimit()
-						|| numOutgoingPacketsSinceKEX >= getContext()
-								.getKeyExchangePacketLimit()) {
-					sendKeyExchangeInit();
+	
+					// if sent lots of bytes or packets then change keys
+					if (numOutgoingBytesSinceKEX >= getContext()
+							.getKeyExchangeTransferLimit()
+							|| numOutgoingPacketsSinceKEX >= getContext()
+									.getKeyExchangePacketLimit()) {
+						sendKeyExchangeInit();
+					}
+					
+				} while(msg!=null && canWriteNextMessage(outgoingMessage));
+				
+				if(messages.isEmpty()) {
+					return null;
 				}
-
+				
 				return new SocketWriteCallback() {
 
 					public void completedWrite() {
 						
-							try {
-								if (msg != null) {
-									msg.messageSent(sequenceNo);
+							/**
+							 * Every message in the batch has been written, so each must be
+							 * told even if an earlier one fails.
+							 */
+							boolean failed = false;
+							for(int i=0;i<messages.size();i++) {
+								try {
+									messages.get(i).messageSent(sequenceNumbers.get(i));
+								} catch (SshException e) {
+									Log.error("Failed during messageSent", e);
+									failed = true;
+								} catch (RuntimeException e) {
+									Log.error("Failed during messageSent", e);
+									failed = true;
 								}
-							} catch (SshException e) {
-								Log.error("Failed during messageSent", e);
+							}
+							if(failed) {
 								disconnect(PROTOCOL_ERROR, "Internal error");
 							}
 					}
@@ -1221,70 +1242,73 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	}
 	
-	private void encodeChaCha20Poly1305FormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	/**
+	 * Determine if the next message on the outgoing queue can be encoded into the buffer 
+	 * behind the messages already written. We only do this once connected, so that the 
+	 * keys can never change between messages of the same write, and only for messages
+	 * that can tell us how large they will be. 
+	 */
+	private boolean canWriteNextMessage(ByteBuffer outgoingMessage) {
+		
+		if(currentState != CONNECTED || outgoingQueue.isEmpty()) {
+			return false;
+		}
+		
+		SshMessage next;
+		synchronized (outgoingQueue) {
+			next = outgoingQueue.getFirst();
+		}
+		
+		int length = next.getMaximumMessageLength();
+		return length >= 0 && outgoingMessage.remaining() >= length + MAXIMUM_PACKET_OVERHEAD;
+	}
+	
+	private void encodeChaCha20Poly1305FormatPacket(ByteBuffer outgoingMessage, int offset) throws IOException {
 		
 		ChaCha20Poly1305 cipher = (ChaCha20Poly1305) encryption;
 		
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
+		/**
+		 * Wrap the message payload into the binary packet
+		 * format. The packet is assembled in the outgoing swap 
+		 * buffer and encrypted in place.
+		 */
+		int payloadLength = readPayload(outgoingMessage, offset);
 
 		int padding = 4;
 		int cipherlen = 8;
-		
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
 
 		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
 		// Write the packet length field
-		outgoingMessage.put(cipher.writePacketLength(payload.length + 1 + padding, new UnsignedInteger64(outgoingSequence)));
+		System.arraycopy(cipher.writePacketLength(payloadLength + 1 + padding, 
+				new UnsignedInteger64(outgoingSequence)), 0, outgoingSwap, 0, 4);
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1 + cipher.getMacLength() + 4;
-
-		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
+		outgoingSwap[4] = (byte) padding;
 
-		// Write the padding
-		outgoingMessage.put(pad);
-
-		outgoingMessage.flip();
-		
-		// Get the unencrypted packet data
-		byte[] packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
+		// Write some random data for the padding
+		writePadding(5 + payloadLength, padding);
 		
-		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
-		
-		cipher.transform(packet, 4, packet, 4, packet.length-4);
+		outgoingBytes += payloadLength + padding + 1 + cipher.getMacLength() + 4;
 
-		// Reset the message
-		outgoingMessage.clear();
+		int length = 5 + payloadLength + padding + cipher.getMacLength();
+		
+		cipher.transform(outgoingSwap, 4, outgoingSwap, 4, length - 4);
 
 		// Write the packet data
-		outgoingMessage.put(packet);
-		
+		outgoingMessage.put(outgoingSwap, 0, length);
 		
 	}	
 
-	private void encodeETMFormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	private void encodeETMFormatPacket(ByteBuffer outgoingMessage, int offset) throws IOException {
 		
 		/**
 		 * Wrap the message payload into the binary packet
-		 * format
+		 * format. The packet is assembled in the outgoing swap 
+		 * buffer and encrypted in place.
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
+		int payloadLength = readPayload(outgoingMessage, offset);
 
 		int padding = 4;
 		int cipherlen = 8;
@@ -1294,84 +1318,53 @@ public abstract class TransportProtocol<T extends SshContext>
 			cipherlen = encryption.getBlockSize();
 		}
 
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
-
 		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
 		// Write the packet length field
-		outgoingMessage.putInt(payload.length + 1 + padding);
+		int msglen = payloadLength + 1 + padding;
+		ByteArrayWriter.encodeInt(outgoingSwap, 0, msglen);
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1;
-
-		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
-
-		// Write the padding
-		outgoingMessage.put(pad);
+		outgoingSwap[4] = (byte) padding;
 
-		outgoingMessage.flip();
+		// Write some random data for the padding
+		writePadding(5 + payloadLength, padding);
 		
-		// Get the unencrypted packet data
-		byte[] packet;
+		outgoingBytes += payloadLength + padding + 1;
+
+		int length = msglen + 4;
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			length += encryption.getMacLength();
 		}
-		
-		outgoingMessage.get(packet);
-		byte[] mac = null;
 
 		// Perfrom encrpytion
 		if (encryption != null) {
-			encryption.transform(packet, 4, packet, 4, packet.length-4);
+			encryption.transform(outgoingSwap, 4, outgoingSwap, 4, length-4);
 		}
 		
-		// Generate the MAC
+		// Generate the MAC after the packet
+		int macLength = 0;
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
-			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+			macLength = outgoingMac.getMacLength();
+			outgoingMac.generate(outgoingSequence, outgoingSwap, 0,
+					length, outgoingSwap, length);
+			outgoingBytes += macLength;
 		}
 
-		// Reset the message
-		outgoingMessage.clear();
-
-		// Write the packet data
-		outgoingMessage.put(packet);
-
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
-		}
+		// Write the packet data and MAC
+		outgoingMessage.put(outgoingSwap, 0, length + macLength);
 		
 	}
 
-	private void encodeOriginalFormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	private void encodeOriginalFormatPacket(ByteBuffer outgoingMessage, int offset) throws IOException {
 		
 		/**
 		 * Wrap the message payload into the binary packet
-		 * format
+		 * format. The packet is assembled in the outgoing swap 
+		 * buffer and encrypted in place.
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
-		if(Log.isTraceEnabled()) {
-			Log.raw(Level.TRACE, Utils.bytesToHex(payload, 0, payload.length, 32, true, true), true);
-		}
+		int payloadLength = readPayload(outgoingMessage, offset);
 		
 		int padding = 4;
 		int cipherlen = 8;
@@ -1381,79 +1374,100 @@ public abstract class TransportProtocol<T extends SshContext>
 			cipherlen = encryption.getBlockSize();
 		}
 
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
-
 		// Determine the padding length
 		if(encryption!=null && encryption.isMAC()) {
-			padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 		} else {
-			padding += ((cipherlen - ((payload.length + 5 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 5 + padding) % cipherlen)) % cipherlen);
 		}
 		
 		// Write the packet length field
-		int msglen = payload.length + 1 + padding;
-		outgoingMessage.putInt(msglen);
+		int msglen = payloadLength + 1 + padding;
+		ByteArrayWriter.encodeInt(outgoingSwap, 0, msglen);
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 5;
-
-		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
+		outgoingSwap[4] = (byte) padding;
 
-		// Write the padding
-		outgoingMessage.put(pad);
-
-		outgoingMessage.flip();
-		// Get the unencrypted packet data
-		byte[] packet;
+		// Write some random data for the padding
+		writePadding(5 + payloadLength, padding);
 		
+		outgoingBytes += payloadLength + padding + 5;
+
+		int length = msglen + 4;
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			length += encryption.getMacLength();
 		}
-		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
-		byte[] mac = null;
 
-		// Generate the MAC
+		// Generate the MAC after the packet
+		int macLength = 0;
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
-			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+			macLength = outgoingMac.getMacLength();
+			outgoingMac.generate(outgoingSequence, outgoingSwap, 0,
+					length, outgoingSwap, length);
+			outgoingBytes += macLength;
 		}
 
 		// Perfrom encrpytion
 		if (encryption != null) {
 			if(encryption.isMAC()) {
-				encryption.transform(packet, 0, packet, 0, msglen+4);
+				encryption.transform(outgoingSwap, 0, outgoingSwap, 0, msglen+4);
 			} else {
-				encryption.transform(packet);
+				encryption.transform(outgoingSwap, 0, outgoingSwap, 0, length);
 			}
 		}
 
-		// Reset the message
-		outgoingMessage.clear();
-
-		// Write the packet data
-		outgoingMessage.put(packet);
+		// Write the packet data and MAC
+		outgoingMessage.put(outgoingSwap, 0, length + macLength);
+		
+	}
 
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
+	/**
+	 * Read the payload written by a message from the offset to the current position 
+	 * into the outgoing swap buffer, after the space reserved for the packet length and 
+	 * padding length, compressing it if required. The position of the buffer is reset 
+	 * to the offset ready for the binary packet to be written.
+	 */
+	private int readPayload(ByteBuffer outgoingMessage, int offset) throws IOException {
+		
+		int payloadLength = outgoingMessage.position() - offset;
+		
+		int required = outgoingMessage.capacity() + MAXIMUM_PACKET_OVERHEAD;
+		if(outgoingSwap == null || outgoingSwap.length < required) {
+			outgoingSwap = new byte[required];
 		}
 		
+		outgoingMessage.position(offset);
+		outgoingMessage.get(outgoingSwap, 5, payloadLength);
+		outgoingMessage.position(offset);
+		
+		if(Log.isTraceEnabled()) {
+			Log.raw(Level.TRACE, Utils.bytesToHex(outgoingSwap, 5, payloadLength, 32, true, true), true);
+		}
+		
+		// Compress the payload if necersary
+		if (outgoingCompression != null) {
+			byte[] payload = outgoingCompression.compress(outgoingSwap, 5, payloadLength);
+			System.arraycopy(payload, 0, outgoingSwap, 5, payload.length);
+			payloadLength = payload.length;
+		}
+		
+		return payloadLength;
 	}
-
+	
+	/**
+	 * Write random padding into the outgoing swap buffer. Random data is generated into
+	 * an array kept for each padding length so that no allocation is required.
+	 */
+	private void writePadding(int offset, int padding) {
+		
+		byte[] pad = outgoingPadding[padding];
+		if(pad == null) {
+			pad = outgoingPadding[padding] = new byte[padding];
+		}
+		rnd.nextBytes(pad);
+		System.arraycopy(pad, 0, outgoingSwap, offset, padding);
+	}
+	
 	public int getState() {
 		return currentState;
 	}
@@ -0,0 +1,107 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.ssh;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the amount of memory that can be committed to channel windows by 
+ * auto-tuning. Budgets are chained, so that a reservation against a connection 
+ * budget is also made against the global budget shared by all connections.
+ */
+public class WindowMemoryBudget {
+
+	static final WindowMemoryBudget GLOBAL = new WindowMemoryBudget(Runtime.getRuntime().maxMemory() / 4, null);
+	
+	volatile long limit;
+	AtomicLong used = new AtomicLong();
+	WindowMemoryBudget parent;
+	
+	public WindowMemoryBudget(long limit, WindowMemoryBudget parent) {
+		this.limit = limit;
+		this.parent = parent;
+	}
+	
+	/**
+	 * Get the budget shared by all connections in this JVM.
+	 * 
+	 * @return WindowMemoryBudget
+	 */
+	public static WindowMemoryBudget getGlobalBudget() {
+		return GLOBAL;
+	}
+	
+	/**
+	 * Reserve up to the number of bytes requested. 
+	 * 
+	 * @param requested
+	 * @return the number of bytes actually reserved, which may be less than requested or zero.
+	 */
+	public long reserve(long requested) {
+		
+		long granted;
+		long current;
+		do {
+			current = used.get();
+			granted = Math.min(requested, limit - current);
+			if(granted <= 0) {
+				return 0;
+			}
+		} while(!used.compareAndSet(current, current + granted));
+		
+		if(parent!=null) {
+			long fromParent = parent.reserve(granted);
+			if(fromParent < granted) {
+				used.addAndGet(fromParent - granted);
+				granted = fromParent;
+			}
+		}
+		return granted;
+	}
+	
+	/**
+	 * Release bytes previously obtained from {@link #reserve(long)}.
+	 * 
+	 * @param count
+	 */
+	public void release(long count) {
+		if(count > 0) {
+			used.addAndGet(-count);
+			if(parent!=null) {
+				parent.release(count);
+			}
+		}
+	}
+	
+	public long getLimit() {
+		return limit;
+	}
+	
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+	
+	public long getUsed() {
+		return used.get();
+	}
+	
+	public String toString() {
+		return String.format("%d of %d bytes used", used.get(), limit);
+	}
+}
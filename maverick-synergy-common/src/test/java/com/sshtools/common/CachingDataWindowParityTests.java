@@ -0,0 +1,267 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.common.util.Arrays;
+import com.sshtools.synergy.ssh.CachingDataWindow;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the ring buffer behind {@link CachingDataWindow} behaves like a simple 
+ * FIFO of bytes, including when data wraps around the end of the buffer, when the 
+ * buffer grows and when one thread produces while another consumes.
+ */
+public class CachingDataWindowParityTests extends TestCase {
+
+	static final int STREAM_SIZE = 32 * 1024 * 1024;
+	
+	public void testMatchesReferenceQueue() {
+		checkAgainstReference(false);
+	}
+	
+	public void testMatchesReferenceQueueOffHeap() {
+		checkAgainstReference(true);
+	}
+	
+	private void checkAgainstReference(boolean direct) {
+		
+		CachingDataWindow window = new CachingDataWindow(1000, false, direct);
+		assertEquals(direct, window.isDirect());
+		
+		LinkedList<Byte> reference = new LinkedList<Byte>();
+		Random r = new Random(0);
+		
+		for(int i=0;i<20000;i++) {
+			if(r.nextBoolean()) {
+				byte[] data = new byte[r.nextInt(400)];
+				r.nextBytes(data);
+				if(reference.size() + data.length > 1000) {
+					try {
+						window.put(ByteBuffer.wrap(data));
+						fail("Expected overflow");
+					} catch(BufferOverflowException e) {
+					}
+				} else {
+					window.put(ByteBuffer.wrap(data));
+					for(byte b : data) {
+						reference.add(b);
+					}
+				}
+			} else {
+				byte[] data = new byte[r.nextInt(400)];
+				int count = r.nextBoolean() ? window.get(data, 0, data.length) : window.get(ByteBuffer.wrap(data));
+				assertEquals(Math.min(data.length, count), count);
+				for(int j=0;j<count;j++) {
+					assertEquals(reference.removeFirst().byteValue(), data[j]);
+				}
+			}
+			assertEquals(reference.size(), window.remaining());
+			assertEquals(!reference.isEmpty(), window.hasRemaining());
+		}
+	}
+	
+	public void testEnsureCapacityKeepsUnreadData() {
+		
+		CachingDataWindow window = new CachingDataWindow(100, false);
+		byte[] data = new byte[100];
+		for(int i=0;i<data.length;i++) {
+			data[i] = (byte) i;
+		}
+		
+		/**
+		 * Leave unread data that wraps around the end of the buffer
+		 */
+		window.put(ByteBuffer.wrap(data, 0, 80));
+		byte[] tmp = new byte[300];
+		assertEquals(60, window.get(tmp, 0, 60));
+		window.put(ByteBuffer.wrap(data, 80, 20));
+		window.put(ByteBuffer.wrap(data, 0, 50));
+		assertEquals(90, window.remaining());
+		
+		window.ensureCapacity(300);
+		assertEquals(300, window.getCapacity());
+		window.put(ByteBuffer.wrap(data));
+		window.put(ByteBuffer.wrap(data, 0, 100));
+		
+		assertEquals(290, window.get(tmp, 0, tmp.length));
+		for(int i=0;i<40;i++) {
+			assertEquals(60 + i, tmp[i]);
+		}
+		for(int i=0;i<50;i++) {
+			assertEquals(i, tmp[40 + i]);
+		}
+		for(int i=0;i<200;i++) {
+			assertEquals(i % 100, tmp[90 + i]);
+		}
+	}
+	
+	public void testCloseWakesBlockedConsumer() throws InterruptedException {
+		
+		final CachingDataWindow window = new CachingDataWindow(1024, true);
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				window.close();
+			}
+		}.start();
+		
+		assertEquals(0, window.get(ByteBuffer.allocate(16)));
+		assertFalse(window.isOpen());
+	}
+	
+	public void testProducerAndConsumerThreads() throws Exception {
+		checkStream(new CachingDataWindow(64 * 1024, true), 4096, 1500);
+	}
+	
+	public void testProducerAndConsumerThreadsOffHeap() throws Exception {
+		checkStream(new CachingDataWindow(64 * 1024, true, true), 32768, 7000);
+	}
+	
+	public void testChannelTransfer() throws Exception {
+		
+		/**
+		 * Scatter and gather through a pipe with a window size that forces every 
+		 * transfer to wrap around the end of the buffer at a different point
+		 */
+		final PipeWindow window = new PipeWindow(1000);
+		final Pipe in = Pipe.open();
+		final Pipe out = Pipe.open();
+		final byte[] data = new byte[1000000];
+		new Random(1).nextBytes(data);
+		
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					ByteBuffer buf = ByteBuffer.wrap(data);
+					while(buf.hasRemaining()) {
+						in.sink().write(buf);
+					}
+					in.sink().close();
+				} catch(Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		Thread pump = new Thread() {
+			public void run() {
+				try {
+					int r;
+					while((r = window.readFrom(in.source())) > -1) {
+						if(r==0) {
+							window.writeTo(out.sink());
+						}
+					}
+					while(window.hasRemaining()) {
+						window.writeTo(out.sink());
+					}
+					out.sink().close();
+				} catch(Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		writer.start();
+		pump.start();
+		
+		ByteBuffer received = ByteBuffer.allocate(data.length + 1);
+		while(out.source().read(received) > -1) {
+		}
+		
+		writer.join();
+		pump.join();
+		assertNull(error.get());
+		assertEquals(data.length, received.position());
+		received.flip();
+		assertEquals("Source and Target data must be equal", ByteBuffer.wrap(data), received);
+	}
+	
+	private void checkStream(final CachingDataWindow window, final int putSize, int getSize) throws NoSuchAlgorithmException, InterruptedException {
+		
+		final MessageDigest input = MessageDigest.getInstance("MD5");
+		final MessageDigest output = MessageDigest.getInstance("MD5");
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		
+		long started = System.currentTimeMillis();
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					Random r = new Random(2);
+					byte[] data = new byte[putSize];
+					for(int i=0;i<STREAM_SIZE / putSize;i++) {
+						r.nextBytes(data);
+						input.update(data);
+						window.put(ByteBuffer.wrap(data));
+					}
+				} catch(Throwable t) {
+					error.set(t);
+				} finally {
+					window.close();
+				}
+			}
+		};
+		producer.start();
+		
+		byte[] tmp = new byte[getSize];
+		long total = 0;
+		while(window.isOpen()) {
+			int count = window.get(tmp, 0, tmp.length);
+			output.update(tmp, 0, count);
+			total += count;
+		}
+		producer.join();
+		
+		System.out.println(String.format("Transferred %d bytes through %s window in %dms", 
+				total, window.isDirect() ? "direct" : "heap", System.currentTimeMillis() - started));
+		
+		assertNull(error.get());
+		assertEquals((STREAM_SIZE / putSize) * putSize, total);
+		assertTrue("Source and Target digest must be equal",
+				Arrays.areEqual(input.digest(), output.digest()));
+	}
+	
+	static class PipeWindow extends CachingDataWindow {
+		
+		PipeWindow(int size) {
+			super(size, false);
+		}
+		
+		int readFrom(Pipe.SourceChannel channel) throws IOException {
+			return super.readFrom(channel);
+		}
+		
+		int writeTo(Pipe.SinkChannel channel) throws IOException {
+			return super.writeTo(channel, true);
+		}
+	}
+}
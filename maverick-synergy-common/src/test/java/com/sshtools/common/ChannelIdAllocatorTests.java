@@ -0,0 +1,124 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sshtools.synergy.ssh.ChannelIdAllocator;
+import com.sshtools.synergy.ssh.ConcurrentIntMap;
+
+import junit.framework.TestCase;
+
+public class ChannelIdAllocatorTests extends TestCase {
+
+	public void testAllocatesUpToLimit() {
+		
+		ChannelIdAllocator ids = new ChannelIdAllocator(100);
+		for(int i=0;i<100;i++) {
+			assertEquals(i, ids.allocate());
+		}
+		assertEquals(-1, ids.allocate());
+		assertEquals(100, ids.getAllocated());
+	}
+	
+	public void testReleasedIdIsReused() {
+		
+		ChannelIdAllocator ids = new ChannelIdAllocator(200);
+		for(int i=0;i<200;i++) {
+			ids.allocate();
+		}
+		ids.release(150);
+		ids.release(3);
+		assertFalse(ids.isAllocated(3));
+		assertEquals(3, ids.allocate());
+		assertEquals(150, ids.allocate());
+		assertEquals(-1, ids.allocate());
+	}
+	
+	public void testDoubleReleaseIsIgnored() {
+		
+		ChannelIdAllocator ids = new ChannelIdAllocator(10);
+		int id = ids.allocate();
+		ids.release(id);
+		ids.release(id);
+		assertEquals(0, ids.getAllocated());
+		assertEquals(id, ids.allocate());
+		assertEquals(1, ids.getAllocated());
+	}
+	
+	public void testZeroLimit() {
+		assertEquals(-1, new ChannelIdAllocator(0).allocate());
+	}
+	
+	public void testConcurrentAllocation() throws Exception {
+		
+		final ChannelIdAllocator ids = new ChannelIdAllocator(1000);
+		final Set<Integer> owned = ConcurrentHashMap.newKeySet();
+		final AtomicBoolean duplicate = new AtomicBoolean();
+		final CountDownLatch done = new CountDownLatch(4);
+		
+		for(int t=0;t<4;t++) {
+			new Thread() {
+				public void run() {
+					try {
+						for(int i=0;i<20000;i++) {
+							int id = ids.allocate();
+							if(id == -1) {
+								continue;
+							}
+							if(!owned.add(id)) {
+								duplicate.set(true);
+							}
+							owned.remove(id);
+							ids.release(id);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		
+		done.await();
+		assertFalse(duplicate.get());
+		assertEquals(0, ids.getAllocated());
+	}
+	
+	public void testIntMap() {
+		
+		ConcurrentIntMap<String> map = new ConcurrentIntMap<String>(1000);
+		assertNull(map.get(5));
+		assertNull(map.get(-1));
+		assertNull(map.get(1000));
+		
+		map.put(5, "five");
+		map.put(700, "seven hundred");
+		assertEquals("five", map.get(5));
+		assertEquals(2, map.size());
+		assertEquals(2, map.values().size());
+		
+		assertFalse(map.remove(5, "other"));
+		assertTrue(map.remove(5, "five"));
+		assertNull(map.get(5));
+		assertEquals(1, map.size());
+	}
+}
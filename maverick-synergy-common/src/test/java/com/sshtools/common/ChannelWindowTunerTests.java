@@ -0,0 +1,146 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import com.sshtools.synergy.ssh.ChannelDataWindow;
+import com.sshtools.synergy.ssh.ChannelWindowTuner;
+import com.sshtools.synergy.ssh.WindowMemoryBudget;
+
+import junit.framework.TestCase;
+
+public class ChannelWindowTunerTests extends TestCase {
+
+	static final int WINDOW = 65536;
+	static final long ROUND_TRIP = 5000000L;
+	
+	long now;
+	
+	private ChannelWindowTuner createTuner(ChannelDataWindow window, WindowMemoryBudget budget, int maximumWindowSize) {
+		return new ChannelWindowTuner(window, budget, maximumWindowSize, () -> now);
+	}
+	
+	/**
+	 * Simulate a round trip where the remote side sends the given amount of data, 
+	 * the local side consumes it and then returns the window space.
+	 */
+	private void roundTrip(ChannelDataWindow window, ChannelWindowTuner tuner, int length) {
+		
+		int count = Math.min(length, window.getWindowSpace());
+		window.consume(count);
+		tuner.onDataReceived(count);
+		
+		tuner.tune();
+		int adjust = window.getAdjustCount();
+		tuner.onWindowAdjust(adjust);
+		window.adjust(adjust);
+		
+		now += ROUND_TRIP;
+	}
+	
+	/**
+	 * A channel that always uses its full window should grow up to the memory budget,
+	 * and return the memory when released.
+	 */
+	public void testWindowLimitedChannelGrowsWithinBudget() {
+		
+		WindowMemoryBudget global = new WindowMemoryBudget(1024 * 1024, null);
+		WindowMemoryBudget budget = new WindowMemoryBudget(4 * 1024 * 1024, global);
+		ChannelDataWindow window = new ChannelDataWindow(WINDOW, WINDOW, WINDOW / 2, 32768);
+		ChannelWindowTuner tuner = createTuner(window, budget, 16 * 1024 * 1024);
+		
+		for(int i=0;i<40;i++) {
+			roundTrip(window, tuner, Integer.MAX_VALUE);
+		}
+		
+		assertTrue(tuner.getGrowCount() > 0);
+		assertEquals(5, tuner.getRoundTripTime());
+		assertTrue(tuner.getDrainRate() > 0);
+		assertEquals(WINDOW + 1024 * 1024, tuner.getWindowSize());
+		assertEquals(tuner.getWindowSize(), window.getMaximumWindowSpace());
+		assertEquals(tuner.getWindowSize() / 2, window.getMinimumWindowSpace());
+		assertEquals(1024 * 1024, tuner.getReservedBytes());
+		assertEquals(1024 * 1024, budget.getUsed());
+		assertEquals(1024 * 1024, global.getUsed());
+		
+		tuner.release();
+		
+		assertEquals(0, budget.getUsed());
+		assertEquals(0, global.getUsed());
+	}
+	
+	/**
+	 * Once the channel stops using its window the window should shrink back. The
+	 * cache keeps its grown buffer, so the memory stays reserved until the channel
+	 * is released and covers the window growing again.
+	 */
+	public void testIdleChannelShrinks() {
+		
+		WindowMemoryBudget budget = new WindowMemoryBudget(64 * 1024 * 1024, null);
+		ChannelDataWindow window = new ChannelDataWindow(WINDOW, WINDOW, WINDOW / 2, 32768);
+		ChannelWindowTuner tuner = createTuner(window, budget, 1024 * 1024);
+		
+		for(int i=0;i<20;i++) {
+			roundTrip(window, tuner, Integer.MAX_VALUE);
+		}
+		
+		int grown = tuner.getWindowSize();
+		assertTrue(grown > WINDOW);
+		assertTrue(grown <= 1024 * 1024);
+		long reserved = budget.getUsed();
+		assertEquals(grown - WINDOW, reserved);
+		
+		for(int i=0;i<100 && tuner.getWindowSize() > WINDOW;i++) {
+			roundTrip(window, tuner, 16);
+		}
+		
+		assertTrue(tuner.getShrinkCount() > 0);
+		assertEquals(WINDOW, tuner.getWindowSize());
+		assertEquals(WINDOW, window.getMaximumWindowSpace());
+		assertEquals(reserved, tuner.getReservedBytes());
+		assertEquals(reserved, budget.getUsed());
+		
+		for(int i=0;i<20;i++) {
+			roundTrip(window, tuner, Integer.MAX_VALUE);
+		}
+		
+		assertEquals(grown, tuner.getWindowSize());
+		assertEquals(reserved, budget.getUsed());
+		
+		tuner.release();
+		assertEquals(0, budget.getUsed());
+	}
+	
+	public void testBudgetIsNotExceeded() {
+		
+		WindowMemoryBudget global = new WindowMemoryBudget(1000, null);
+		WindowMemoryBudget budget1 = new WindowMemoryBudget(800, global);
+		WindowMemoryBudget budget2 = new WindowMemoryBudget(800, global);
+		
+		assertEquals(600, budget1.reserve(600));
+		assertEquals(200, budget1.reserve(600));
+		assertEquals(200, budget2.reserve(600));
+		assertEquals(0, budget2.reserve(1));
+		assertEquals(1000, global.getUsed());
+		assertEquals(200, budget2.getUsed());
+		
+		budget1.release(800);
+		assertEquals(200, global.getUsed());
+		assertEquals(600, budget2.reserve(600));
+	}
+}
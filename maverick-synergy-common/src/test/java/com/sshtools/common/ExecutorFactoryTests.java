@@ -0,0 +1,186 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.synergy.nio.ExecutorFactory;
+import com.sshtools.synergy.nio.PlatformThreadExecutorFactory;
+import com.sshtools.synergy.nio.SshEngine;
+import com.sshtools.synergy.nio.SshEngineContext;
+import com.sshtools.synergy.nio.VirtualThreadExecutorFactory;
+
+import junit.framework.TestCase;
+
+public class ExecutorFactoryTests extends TestCase {
+
+	public void testPlatformThreadsAreNamedDaemons() throws Exception {
+		
+		ExecutorService executor = new PlatformThreadExecutorFactory().createExecutor("TEST");
+		try {
+			Thread t = executor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+			assertTrue(t.isDaemon());
+			assertTrue(t.getName().startsWith("TEST-"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Thread.ofVirtual exists on Java 19 and 20 but fails unless preview features
+	 * are enabled, so support means that a virtual thread builder can be created.
+	 */
+	public void testVirtualThreadSupportMatchesRuntime() {
+		
+		boolean ofVirtual;
+		try {
+			Thread.class.getMethod("ofVirtual").invoke(null);
+			ofVirtual = true;
+		} catch (ReflectiveOperationException e) {
+			ofVirtual = false;
+		}
+		assertEquals(ofVirtual, VirtualThreadExecutorFactory.isSupported());
+	}
+	
+	/**
+	 * Runs on virtual threads where the JVM supports them and on platform threads
+	 * otherwise; either way every task must be executed.
+	 */
+	public void testVirtualThreadExecutorRunsTasks() throws Exception {
+		
+		ExecutorService executor = new VirtualThreadExecutorFactory().createExecutor("TEST");
+		try {
+			@SuppressWarnings("unchecked")
+			Future<Thread>[] futures = new Future[100];
+			for(int i=0;i<futures.length;i++) {
+				futures[i] = executor.submit(() -> {
+					Thread.sleep(10);
+					return Thread.currentThread();
+				});
+			}
+			for(Future<Thread> f : futures) {
+				Thread t = f.get(10, TimeUnit.SECONDS);
+				assertTrue(t.getName().startsWith("TEST-"));
+				assertEquals(VirtualThreadExecutorFactory.isSupported(), isVirtual(t));
+				if(!VirtualThreadExecutorFactory.isSupported()) {
+					assertTrue(t.isDaemon());
+				}
+			}
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	public void testEngineExecutorIsCreatedByFactory() throws Exception {
+		
+		SshEngineContext context = new SshEngine().getContext();
+		CountingFactory factory = new CountingFactory();
+		context.setExecutorFactory(factory);
+		
+		ExecutorService executor = context.getExecutorService();
+		assertSame(executor, context.getExecutorService());
+		assertEquals(1, factory.created);
+		
+		context.shutdownExecutor();
+		assertTrue(executor.isShutdown());
+		
+		assertNotSame(executor, context.getExecutorService());
+		assertEquals(2, factory.created);
+		context.shutdownExecutor();
+	}
+	
+	/**
+	 * The executor is read without a lock once it exists, but must still only be
+	 * created once when many connections ask for it at the same time.
+	 */
+	public void testEngineExecutorIsCreatedOnceByConcurrentCallers() throws Exception {
+		
+		SshEngineContext context = new SshEngine().getContext();
+		CountingFactory factory = new CountingFactory();
+		context.setExecutorFactory(factory);
+		
+		CyclicBarrier barrier = new CyclicBarrier(16);
+		ExecutorService callers = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<ExecutorService>> futures = new ArrayList<Future<ExecutorService>>();
+			for(int i=0;i<16;i++) {
+				futures.add(callers.submit(() -> {
+					barrier.await(10, TimeUnit.SECONDS);
+					return context.getExecutorService();
+				}));
+			}
+			ExecutorService executor = context.getExecutorService();
+			for(Future<ExecutorService> f : futures) {
+				assertSame(executor, f.get(10, TimeUnit.SECONDS));
+			}
+			assertEquals(1, factory.created);
+		} finally {
+			callers.shutdown();
+			context.shutdownExecutor();
+		}
+	}
+	
+	/**
+	 * The engine may be shut down by one of its own tasks, which must not wait
+	 * for itself to complete.
+	 */
+	public void testShutdownFromExecutorThreadDoesNotWait() throws Exception {
+		
+		SshEngineContext context = new SshEngine().getContext();
+		ExecutorService executor = context.getExecutorService();
+		
+		long elapsed = executor.submit(() -> {
+			long started = System.currentTimeMillis();
+			context.shutdownExecutor();
+			return System.currentTimeMillis() - started;
+		}).get(10, TimeUnit.SECONDS);
+		
+		assertTrue(elapsed < 5000);
+		assertTrue(executor.isShutdown());
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	private static boolean isVirtual(Thread t) throws Exception {
+		try {
+			Method isVirtual = Thread.class.getMethod("isVirtual");
+			return (Boolean) isVirtual.invoke(t);
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	static class CountingFactory implements ExecutorFactory {
+		
+		int created;
+		
+		@Override
+		public ExecutorService createExecutor(String name) {
+			created++;
+			return new PlatformThreadExecutorFactory().createExecutor(name);
+		}
+	}
+}
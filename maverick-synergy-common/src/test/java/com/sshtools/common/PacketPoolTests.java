@@ -0,0 +1,145 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import java.io.IOException;
+
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.synergy.ssh.ByteArrays;
+import com.sshtools.synergy.ssh.PacketPool;
+
+import junit.framework.TestCase;
+
+public class PacketPoolTests extends TestCase {
+
+	public void testPacketsAreReused() throws IOException {
+		
+		PacketPool pool = new PacketPool();
+		Packet p = pool.getPacket();
+		p.writeString("hello");
+		assertEquals(1, pool.getInUse());
+		
+		pool.putPacket(p);
+		assertEquals(0, pool.getInUse());
+		assertEquals(1, pool.getFree());
+		
+		Packet p2 = pool.getPacket();
+		assertSame(p, p2);
+		assertEquals(4, p2.size());
+		assertEquals(1, pool.getAllocated());
+		assertEquals(1, pool.getReused());
+	}
+	
+	public void testRetainedPacketsAreBounded() throws IOException {
+		
+		PacketPool pool = new PacketPool(2);
+		Packet[] packets = new Packet[4];
+		for(int i=0;i<packets.length;i++) {
+			packets[i] = pool.getPacket();
+		}
+		for(int i=0;i<packets.length;i++) {
+			pool.putPacket(packets[i]);
+		}
+		assertEquals(2, pool.getFree());
+		assertEquals(2, pool.getDiscarded());
+	}
+	
+	public void testLargePacketsAreNotRetained() throws IOException {
+		
+		PacketPool pool = new PacketPool();
+		pool.setMaximumPacketCapacity(65536);
+		Packet p = pool.getPacket();
+		p.write(new byte[100000]);
+		pool.putPacket(p);
+		assertEquals(0, pool.getFree());
+		assertEquals(1, pool.getDiscarded());
+	}
+	
+	public void testUnusedPacketsAreTrimmed() throws IOException {
+		
+		PacketPool pool = new PacketPool();
+		pool.setTrimInterval(Long.MAX_VALUE);
+		
+		Packet[] packets = new Packet[4];
+		for(int i=0;i<packets.length;i++) {
+			packets[i] = pool.getPacket();
+		}
+		for(int i=0;i<packets.length;i++) {
+			pool.putPacket(packets[i]);
+		}
+		
+		/**
+		 * The packets were all needed during the first interval
+		 */
+		pool.trim();
+		assertEquals(4, pool.getFree());
+		
+		/**
+		 * Only one packet is ever needed at a time during the next interval, 
+		 * so the other three are released.
+		 */
+		for(int i=0;i<10;i++) {
+			pool.putPacket(pool.getPacket());
+		}
+		pool.trim();
+		assertEquals(1, pool.getFree());
+		assertEquals(3, pool.getTrimmed());
+		
+		/**
+		 * Nothing was needed during the last interval
+		 */
+		pool.trim();
+		assertEquals(0, pool.getFree());
+		assertEquals(4, pool.getTrimmed());
+	}
+	
+	public void testTrimRunsOnceEveryInterval() throws IOException {
+		
+		PacketPool pool = new PacketPool();
+		pool.setTrimInterval(0);
+		
+		Packet a = pool.getPacket();
+		Packet b = pool.getPacket();
+		pool.putPacket(a);
+		pool.putPacket(b);
+		
+		/**
+		 * Every return is past the interval, so a packet left free across two 
+		 * returns is released.
+		 */
+		pool.putPacket(pool.getPacket());
+		pool.putPacket(pool.getPacket());
+		assertEquals(1, pool.getFree());
+		assertEquals(1, pool.getTrimmed());
+	}
+	
+	public void testByteArrays() throws IOException {
+		
+		ByteArrays arrays = new ByteArrays(1024, 4);
+		byte[] b = arrays.getByteArray(100);
+		assertEquals(1024, b.length);
+		arrays.releaseByteArray(b);
+		assertSame(b, arrays.getByteArray());
+		
+		byte[] large = arrays.getByteArray(2048);
+		assertEquals(2048, large.length);
+		arrays.releaseByteArray(large);
+		assertEquals(0, arrays.getFree());
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.synergy.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.nio.IdleStateListener;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.synergy.ssh.Connection;
+import com.sshtools.synergy.ssh.SshContext;
+
+import junit.framework.TestCase;
+
+public class SelectorThreadPoolTests extends TestCase {
+
+	SelectorThreadPool pool;
+	LinkedBlockingQueue<SelectorThread> reads = new LinkedBlockingQueue<SelectorThread>();
+	
+	@Override
+	protected void setUp() throws Exception {
+		pool = new SelectorThreadPool(new TestSelectorThread(), 3, 2, 1, 1, SelectorProvider.provider());
+		/* Stop the threads rolling the loads so the test controls them */
+		for(SelectorThreadLoad load : pool.getThreadLoads()) {
+			load.lastUpdate = Long.MAX_VALUE;
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		long started = System.currentTimeMillis();
+		pool.shutdown();
+		assertTrue("Shutdown must not wait for threads calling back into the pool", 
+				System.currentTimeMillis() - started < 10000);
+	}
+	
+	public void testTrafficAwarePlacementSelectsQuietestThread() {
+		
+		List<SelectorThread> threads = pool.threads;
+		threads.get(0).getLoad().bytesPerSecond = 3000;
+		threads.get(1).getLoad().bytesPerSecond = 1000;
+		threads.get(2).getLoad().busyNanosPerSecond = 2000;
+		
+		assertSame(threads.get(1), new TrafficAwarePlacementStrategy().selectThread(threads));
+	}
+	
+	public void testTrafficAwarePlacementSkipsFullThreads() throws Exception {
+		
+		List<SelectorThread> threads = pool.threads;
+		SelectorThread quiet = threads.get(0);
+		threads.get(1).getLoad().bytesPerSecond = 1000;
+		threads.get(2).getLoad().bytesPerSecond = 2000;
+		
+		register(quiet, new TestHandler());
+		register(quiet, new TestHandler());
+		assertEquals(quiet.getMaximumLoad(), quiet.getThreadLoad());
+		
+		assertSame(threads.get(1), new TrafficAwarePlacementStrategy().selectThread(threads));
+	}
+	
+	public void testTrafficAwarePlacementPrefersFreeSlotsOnEqualLoad() throws Exception {
+		
+		List<SelectorThread> threads = pool.threads;
+		register(threads.get(0), new TestHandler());
+		register(threads.get(1), new TestHandler());
+		
+		assertSame(threads.get(2), new TrafficAwarePlacementStrategy().selectThread(threads));
+	}
+	
+	public void testMigratedSocketIsServicedByTarget() throws Exception {
+		
+		SelectorThread source = pool.threads.get(0);
+		SelectorThread target = pool.threads.get(1);
+		
+		TestHandler handler = new TestHandler();
+		Pipe pipe = register(source, handler);
+		
+		write(pipe);
+		assertSame(source, reads.poll(10, TimeUnit.SECONDS));
+		
+		source.migrate(handler, target);
+		waitForThread(handler, target);
+		assertEquals(0, source.getThreadLoad());
+		assertEquals(1, target.getThreadLoad());
+		
+		write(pipe);
+		assertSame(target, reads.poll(10, TimeUnit.SECONDS));
+	}
+	
+	public void testMigrationMovesIdleStateListeners() throws Exception {
+		
+		SelectorThread source = pool.threads.get(0);
+		SelectorThread target = pool.threads.get(1);
+		
+		TestHandler handler = new TestHandler();
+		register(source, handler);
+		
+		IdleStateListener other = () -> false;
+		source.getIdleStates().register(handler.listener);
+		source.getIdleStates().register(other);
+		
+		source.migrate(handler, target);
+		waitForThread(handler, target);
+		
+		assertFalse(source.getIdleStates().isRegistered(handler.listener));
+		assertTrue(target.getIdleStates().isRegistered(handler.listener));
+		assertTrue(source.getIdleStates().isRegistered(other));
+		assertFalse(target.getIdleStates().isRegistered(other));
+	}
+	
+	public void testPersistentImbalanceMigratesSocket() throws Exception {
+		
+		SelectorThread busiest = pool.threads.get(0);
+		SelectorThread quietest = pool.threads.get(1);
+		pool.threads.get(2).getLoad().bytesPerSecond = SelectorThreadPool.MINIMUM_MIGRATION_LOAD;
+		
+		TestHandler handler = new TestHandler();
+		register(busiest, handler);
+		register(busiest, new TestHandler());
+		
+		busiest.getLoad().bytesPerSecond = SelectorThreadPool.MINIMUM_MIGRATION_LOAD * 4;
+		SelectorThreadLoad.HandlerLoad load = new SelectorThreadLoad.HandlerLoad();
+		load.scorePerSecond = SelectorThreadPool.MINIMUM_MIGRATION_LOAD;
+		busiest.getLoad().handlers.put(handler, load);
+		
+		pool.setMigrationEnabled(true);
+		for(int i=0;i<SelectorThreadPool.IMBALANCE_PERIODS - 1;i++) {
+			rebalance();
+			assertSame(busiest, handler.thread);
+		}
+		rebalance();
+		
+		waitForThread(handler, quietest);
+		assertEquals(0, busiest.getLoad().getActiveHandlers());
+	}
+	
+	public void testBalancedPoolDoesNotMigrate() throws Exception {
+		
+		SelectorThread busiest = pool.threads.get(0);
+		for(SelectorThread t : pool.threads) {
+			t.getLoad().bytesPerSecond = SelectorThreadPool.MINIMUM_MIGRATION_LOAD;
+		}
+		
+		TestHandler handler = new TestHandler();
+		register(busiest, handler);
+		SelectorThreadLoad.HandlerLoad load = new SelectorThreadLoad.HandlerLoad();
+		load.scorePerSecond = SelectorThreadPool.MINIMUM_MIGRATION_LOAD;
+		busiest.getLoad().handlers.put(handler, load);
+		
+		pool.setMigrationEnabled(true);
+		for(int i=0;i<SelectorThreadPool.IMBALANCE_PERIODS * 2;i++) {
+			rebalance();
+		}
+		
+		Thread.sleep(200);
+		assertSame(busiest, handler.thread);
+	}
+	
+	private void rebalance() {
+		pool.lastRebalance = 0;
+		pool.rebalance();
+	}
+	
+	private Pipe register(SelectorThread thread, TestHandler handler) throws IOException, InterruptedException {
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		thread.register(pipe.source(), SelectionKey.OP_READ, handler, true);
+		waitForThread(handler, thread);
+		return pipe;
+	}
+	
+	private void write(Pipe pipe) throws IOException {
+		pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+	}
+	
+	private void waitForThread(TestHandler handler, SelectorThread thread) throws InterruptedException {
+		long started = System.currentTimeMillis();
+		while(handler.thread != thread || handler.key == null 
+				|| !handler.key.isValid() || thread.getThreadLoad() == 0) {
+			assertTrue("Timeout waiting for handler to register with " + thread.getName(), 
+					System.currentTimeMillis() - started < 10000);
+			Thread.sleep(10);
+		}
+	}
+	
+	class TestSelectorThread implements SelectorThreadImpl {
+
+		@Override
+		public void processSelectionKey(SelectionKey key, SelectorThread thread) {
+			try {
+				((Pipe.SourceChannel)key.channel()).read(ByteBuffer.allocate(16));
+				reads.add(thread);
+			} catch (IOException e) {
+				key.cancel();
+			}
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+	}
+	
+	static class TestHandler implements SocketHandler {
+
+		volatile SelectorThread thread;
+		volatile SelectionKey key;
+		IdleStateListener listener = () -> false;
+		
+		@Override
+		public boolean isIdleStateListener(IdleStateListener listener) {
+			return listener == this.listener;
+		}
+		
+		@Override
+		public void registrationCompleted(SelectableChannel channel, SelectionKey key, SelectorThread selectorThread)
+				throws IOException {
+			this.key = key;
+			this.thread = selectorThread;
+		}
+
+		@Override
+		public void setSelectionKey(SelectionKey key) {
+			this.key = key;
+		}
+
+		@Override
+		public void setThread(SelectorThread thread) {
+			this.thread = thread;
+		}
+
+		@Override
+		public SelectorThread getSelectorThread() {
+			return thread;
+		}
+
+		@Override
+		public void initialize(ProtocolEngine engine, SshEngine daemon, SelectableChannel channel) {
+		}
+
+		@Override
+		public boolean processReadEvent() {
+			return false;
+		}
+
+		@Override
+		public boolean processWriteEvent() {
+			return false;
+		}
+
+		@Override
+		public int getInitialOps() {
+			return SelectionKey.OP_READ;
+		}
+
+		@Override
+		public void addTask(ConnectionAwareTask task) {
+		}
+
+		@Override
+		public boolean wantsWrite() {
+			return false;
+		}
+
+		@Override
+		public boolean wantsRead() {
+			return true;
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+
+		@Override
+		public SshContext getContext() {
+			return null;
+		}
+
+		@Override
+		public Connection<? extends SshContext> getConnection() {
+			return null;
+		}
+	}
+}
@@ -18,23 +18,68 @@
  */
 package com.sshtools.common.util;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  This class provides a pool for either direct or non direct ByteBuffers.
+ *  <p>
+ *  Buffers are held in a small number of size classes, the largest of which
+ *  is the capacity of the pool. Each size class is split into a number of 
+ *  stripes of lock-free queues, and threads are spread across the stripes 
+ *  so that selector threads do not contend with each other when getting and 
+ *  returning buffers. The amount of memory retained by free buffers is 
+ *  bounded; buffers returned once that limit is reached are released to the
+ *  garbage collector.
+ *  <p>
+ *  A buffer returned with {@link #add(ByteBuffer)} that could not have come from 
+ *  the pool, because it is read-only, is of the wrong kind or its capacity matches 
+ *  no size class, is ignored. Buffers handed out and never returned stay counted 
+ *  as in use for the life of the pool, so a steadily growing 
+ *  {@link #getBuffersInUse()} indicates a leak.
+ *  <p>
+ *  To find leaks and misuse, the pool can also remember every buffer it hands out 
+ *  by identity with {@link #setTracking(boolean)}. It then also ignores buffers of 
+ *  a pooled size that it did not hand out, and buffers returned more than once. 
+ *  Tracking costs an allocation and a shared map update for every buffer handed
+ *  out and returned, so it is off unless the system property 
+ *  <em>maverick.bufferPoolTracking</em> is set.
  */
 public class ByteBufferPool
 {
-    private ArrayList<ByteBuffer> pool = new ArrayList<ByteBuffer>();
+	public static final long DEFAULT_MAXIMUM_RETAINED_MEMORY = 64 * 1024 * 1024;
+	
+	static final int MINIMUM_SIZE_CLASS = 4096;
+	static final int MAXIMUM_STRIPES = 64;
+	
     private int capacity = 4096;
-    private int allocated = 0;
-    private long totalDirectMemoryAllocated = 0;
+    private boolean direct;
+    private int[] sizeClasses;
+    private ConcurrentLinkedQueue<ByteBuffer>[][] pool;
+    private int stripeMask;
+    private volatile long maximumRetainedMemory = DEFAULT_MAXIMUM_RETAINED_MEMORY;
+    private volatile boolean tracking = Boolean.getBoolean("maverick.bufferPoolTracking");
+    private ConcurrentHashMap<BufferReference,Boolean> outstanding = new ConcurrentHashMap<BufferReference,Boolean>();
+    private ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+    
+    private AtomicInteger allocated = new AtomicInteger();
+    private AtomicInteger free = new AtomicInteger();
+    private AtomicInteger inUse = new AtomicInteger();
+    private AtomicLong totalMemoryAllocated = new AtomicLong();
+    private AtomicLong retainedMemory = new AtomicLong();
+    private AtomicLong reused = new AtomicLong();
+    private AtomicLong discarded = new AtomicLong();
     
     /**
      * Create a default pool of ByteBuffers with 4k capacity
      */
     public ByteBufferPool() {
+    	this(4096, false);
     }
 
     /**
@@ -44,9 +89,54 @@ public class ByteBufferPool
      * @param direct boolean
      */
     public ByteBufferPool(int capacity, boolean direct) {
-        this.capacity=capacity;
+        this(capacity, direct, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Create a pool of ByteBuffers with an explicit number of stripes. The number 
+     * of stripes is rounded up to the next power of two.
+     * 
+     * @param capacity int
+     * @param direct boolean
+     * @param stripes int
+     */
+    @SuppressWarnings("unchecked")
+	public ByteBufferPool(int capacity, boolean direct, int stripes) {
+    	if(capacity <= 0) {
+    		throw new IllegalArgumentException("Buffer pool capacity must be greater than zero");
+    	}
+        this.capacity = capacity;
+        this.direct = direct;
+        this.sizeClasses = calculateSizeClasses(capacity);
+        
+        int count = 1;
+        while(count < Math.min(Math.max(stripes, 1), MAXIMUM_STRIPES)) {
+        	count <<= 1;
+        }
+        this.stripeMask = count - 1;
+        
+        this.pool = (ConcurrentLinkedQueue<ByteBuffer>[][]) new ConcurrentLinkedQueue<?>[sizeClasses.length][count];
+        for(int i=0;i<sizeClasses.length;i++) {
+        	for(int j=0;j<count;j++) {
+        		pool[i][j] = new ConcurrentLinkedQueue<ByteBuffer>();
+        	}
+        }
     }
 
+    private static int[] calculateSizeClasses(int capacity) {
+    	int count = 1;
+    	for(int size = capacity / 4; size >= MINIMUM_SIZE_CLASS; size /= 4) {
+    		count++;
+    	}
+    	int[] classes = new int[count];
+    	int size = capacity;
+    	for(int i=count-1;i>=0;i--) {
+    		classes[i] = size;
+    		size /= 4;
+    	}
+    	return classes;
+    }
+    
     /**
      * Get the capacity of buffers in this pool.
      *
@@ -57,12 +147,31 @@ public class ByteBufferPool
     }
 
     /**
-     * Get the number of buffers currently allocated out.
+     * Is this pool allocating direct (off-heap) buffers?
+     * 
+     * @return boolean
+     */
+    public boolean isDirect() {
+    	return direct;
+    }
+    
+    /**
+     * Get the capacities of the size classes supported by this pool, in ascending order. The 
+     * last size class is always the capacity of the pool.
+     * 
+     * @return int[]
+     */
+    public int[] getSizeClasses() {
+    	return sizeClasses.clone();
+    }
+    
+    /**
+     * Get the number of buffers that have been allocated by this pool.
      *
      * @return int
      */
     public int getAllocatedBuffers() {
-        return allocated;
+        return allocated.get();
     }
 
     /**
@@ -71,62 +180,280 @@ public class ByteBufferPool
      * @return int
      */
     public int getFreeBuffers() {
-        return pool.size();
+        return free.get();
     }
 
+    /**
+     * Get the number of buffers currently handed out and not yet returned to the pool. A 
+     * buffer that is never returned stays counted, so if this number continues to grow it
+     * indicates that buffers are being leaked.
+     * 
+     * @return int
+     */
+    public int getBuffersInUse() {
+    	return inUse.get();
+    }
+    
+    /**
+     * Get the number of requests that were satisfied with a free buffer from the pool.
+     * 
+     * @return long
+     */
+    public long getReusedBuffers() {
+    	return reused.get();
+    }
+    
+    /**
+     * Get the number of buffers returned to the pool that were released rather 
+     * than retained, either because the pool had reached its maximum retained memory
+     * or because the buffer did not belong to any of its size classes.
+     * 
+     * @return long
+     */
+    public long getDiscardedBuffers() {
+    	return discarded.get();
+    }
+    
     /**
      * Calculate the total memory in use by this pool.
      *
      * @return long
      */
     public long getTotalMemoryInUse() {
-        return totalDirectMemoryAllocated - (pool.size() * capacity);
+        return totalMemoryAllocated.get() - retainedMemory.get();
     }
 
     /**
-     * Calculate the total memory allocated by this pool.
+     * Calculate the total memory allocated by this pool that has not been released
+     * to the garbage collector, whether in use or free.
      *
      * @return long
      */
-    public synchronized long getTotalMemoryAllocated() {
-        return totalDirectMemoryAllocated;
+    public long getTotalMemoryAllocated() {
+        return totalMemoryAllocated.get();
     }
 
+    /**
+     * Get the memory currently held by free buffers in this pool.
+     * 
+     * @return long
+     */
+    public long getRetainedMemory() {
+    	return retainedMemory.get();
+    }
+    
+    /**
+     * Get the maximum amount of memory this pool will hold in free buffers.
+     * 
+     * @return long
+     */
+    public long getMaximumRetainedMemory() {
+    	return maximumRetainedMemory;
+    }
+    
+    /**
+     * Set the maximum amount of memory this pool will hold in free buffers.
+     * 
+     * @param maximumRetainedMemory long
+     */
+    public void setMaximumRetainedMemory(long maximumRetainedMemory) {
+    	this.maximumRetainedMemory = maximumRetainedMemory;
+    }
+    
+    /**
+     * Is this pool remembering the buffers it hands out?
+     * 
+     * @return boolean
+     */
+    public boolean isTracking() {
+    	return tracking;
+    }
+    
+    /**
+     * Remember every buffer handed out so that buffers the pool did not hand out, or
+     * that have already been returned, are ignored when they are added. This is 
+     * intended for debugging and should be set before any buffer is handed out; a 
+     * buffer handed out before tracking was enabled is ignored when it is returned.
+     * 
+     * @param tracking boolean
+     */
+    public void setTracking(boolean tracking) {
+    	this.tracking = tracking;
+    	if(!tracking) {
+    		outstanding.clear();
+    	}
+    }
+    
     /**
      * Get a free buffer from the pool.
      *
      * @return ByteBuffer
      */
-    public synchronized ByteBuffer get() {
-        if (pool.isEmpty()) {
-
-            allocated++;
-            ByteBuffer buf = ByteBuffer.allocate(capacity);
-            totalDirectMemoryAllocated += capacity;
-            return buf;
-        }
+    public ByteBuffer get() {
+    	return take(sizeClasses.length - 1);
+    }
 
-        
-        ByteBuffer buffer = (ByteBuffer)pool.remove(pool.size()-1);
-        buffer.clear();
-        return buffer;
+    /**
+     * Get a free buffer from the pool with at least the given capacity. If the size
+     * requested is larger than the capacity of the pool a buffer is allocated that
+     * will not be retained when it is returned.
+     * 
+     * @param size int
+     * @return ByteBuffer
+     */
+    public ByteBuffer get(int size) {
+    	for(int i=0;i<sizeClasses.length;i++) {
+    		if(sizeClasses[i] >= size) {
+    			return take(i);
+    		}
+    	}
+    	return handOut(allocate(size));
     }
+    
+    private ByteBuffer take(int sizeClass) {
+    	
+    	ConcurrentLinkedQueue<ByteBuffer>[] stripes = pool[sizeClass];
+    	int stripe = stripe();
+    	ByteBuffer buffer = null;
+    	for(int i=0;i<stripes.length && buffer==null;i++) {
+    		buffer = stripes[(stripe + i) & stripeMask].poll();
+    	}
 
+    	if(buffer==null) {
+    		allocated.incrementAndGet();
+    		totalMemoryAllocated.addAndGet(sizeClasses[sizeClass]);
+    		return handOut(allocate(sizeClasses[sizeClass]));
+    	}
+    	
+    	free.decrementAndGet();
+    	retainedMemory.addAndGet(-buffer.capacity());
+    	reused.incrementAndGet();
+    	buffer.clear();
+        return handOut(buffer);
+    }
+    
+    private ByteBuffer handOut(ByteBuffer buffer) {
+    	if(tracking) {
+    		expungeCollected();
+    		outstanding.put(new BufferReference(buffer, collected), Boolean.TRUE);
+    	}
+    	inUse.incrementAndGet();
+    	return buffer;
+    }
+    
+    /**
+     * Forget buffers that were never returned and have since been garbage collected. They
+     * are still counted as in use, as they were leaked.
+     */
+    private void expungeCollected() {
+    	BufferReference ref;
+    	while((ref = (BufferReference) collected.poll()) != null) {
+    		outstanding.remove(ref);
+    	}
+    }
+    
+    private ByteBuffer allocate(int size) {
+    	return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+    
+    private int stripe() {
+    	return (int) Thread.currentThread().getId() & stripeMask;
+    }
+    
     /**
      * Add a buffer back to the pool.
      *
      * @param buffer ByteBuffer
      */
-    public synchronized void add(ByteBuffer buffer)
+    public void add(ByteBuffer buffer)
     {
         if(buffer==null)
             return;
-        if (buffer.capacity()==capacity) {
-            buffer.clear();
-            pool.add(buffer);
+        
+        int sizeClass = -1;
+        for(int i=0;i<sizeClasses.length;i++) {
+        	if(sizeClasses[i]==buffer.capacity()) {
+        		sizeClass = i;
+        		break;
+        	}
+        }
+        
+        if(buffer.isDirect()!=direct || buffer.isReadOnly() 
+        		|| (sizeClass==-1 && buffer.capacity() <= capacity)) {
+        	/**
+        	 * Cannot have come from this pool.
+        	 */
+        	return;
+        }
+        
+        if(tracking && outstanding.remove(new BufferReference(buffer, null))==null) {
+        	/**
+        	 * Not one of ours, or already returned.
+        	 */
+        	return;
+        }
+        
+        inUse.decrementAndGet();
+        
+        if(sizeClass==-1) {
+        	/**
+        	 * Larger than the pool capacity, and never retained.
+        	 */
+        	discarded.incrementAndGet();
+        	return;
+        }
+        
+        if(retainedMemory.addAndGet(buffer.capacity()) > maximumRetainedMemory) {
+        	retainedMemory.addAndGet(-buffer.capacity());
+        	totalMemoryAllocated.addAndGet(-buffer.capacity());
+        	discarded.incrementAndGet();
+        	return;
         }
+        
+        buffer.clear();
+        free.incrementAndGet();
+        pool[sizeClass][stripe()].offer(buffer);
     }
 
-
-
+    public String toString() {
+    	return String.format("%d %s buffers allocated, %d free, %d in use, %d reused, %d discarded, %d bytes retained", 
+    			allocated.get(), 
+    			direct ? "direct" : "heap",
+    			free.get(), 
+    			inUse.get(), 
+    			reused.get(), 
+    			discarded.get(), 
+    			retainedMemory.get());
+    }
+    
+    /**
+     * Identifies a buffer handed out by the pool by its identity rather than its 
+     * contents, without preventing a leaked buffer from being garbage collected.
+     */
+    static final class BufferReference extends WeakReference<ByteBuffer> {
+    	
+    	final int hash;
+    	
+    	BufferReference(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+    		super(buffer, queue);
+    		this.hash = System.identityHashCode(buffer);
+    	}
+    	
+    	@Override
+    	public int hashCode() {
+    		return hash;
+    	}
+    	
+    	@Override
+    	public boolean equals(Object obj) {
+    		if(obj == this) {
+    			return true;
+    		}
+    		if(!(obj instanceof BufferReference)) {
+    			return false;
+    		}
+    		ByteBuffer buffer = get();
+    		return buffer != null && buffer == ((BufferReference) obj).get();
+    	}
+    }
 }
@@ -0,0 +1,127 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded, lock-free queue for many producer threads and a single consumer
+ * thread. 
+ * <p>
+ * Producers link a new node in with a single atomic swap of the tail so that 
+ * {@link #offer(Object)} never blocks and never retries. Only one thread at a time 
+ * may call {@link #poll()}, {@link #peek()} or {@link #isEmpty()}; callers are 
+ * responsible for ensuring this, typically by scheduling a single consumer task. 
+ * An element is visible to the consumer once the {@link #offer(Object)} call that 
+ * added it has returned.
+ *
+ * @param <E> element type
+ */
+public class MpscLinkedQueue<E> {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = 
+			AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+	
+	private final AtomicReference<Node<E>> tail;
+	private Node<E> head;
+	
+	public MpscLinkedQueue() {
+		head = new Node<E>(null);
+		tail = new AtomicReference<Node<E>>(head);
+	}
+	
+	/**
+	 * Add an element to the queue. This may be called by any thread.
+	 * 
+	 * @param e element
+	 */
+	@SuppressWarnings("unchecked")
+	public void offer(E e) {
+		if(e==null) {
+			throw new NullPointerException();
+		}
+		Node<E> node = new Node<E>(e);
+		Node<E> prev = tail.getAndSet(node);
+		NEXT.lazySet(prev, node);
+	}
+	
+	/**
+	 * Remove and return the element at the head of the queue, or <code>null</code> 
+	 * if there are no elements available. Must only be called by the consumer.
+	 * 
+	 * @return element or null
+	 */
+	public E poll() {
+		Node<E> next = head.next;
+		if(next==null) {
+			return null;
+		}
+		E value = next.value;
+		next.value = null;
+		head = next;
+		return value;
+	}
+	
+	/**
+	 * Return the element at the head of the queue without removing it, or 
+	 * <code>null</code> if there are no elements available. Must only be called 
+	 * by the consumer.
+	 * 
+	 * @return element or null
+	 */
+	public E peek() {
+		Node<E> next = head.next;
+		return next==null ? null : next.value;
+	}
+	
+	/**
+	 * Are there no elements available to the consumer? Must only be called 
+	 * by the consumer.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isEmpty() {
+		return head.next==null;
+	}
+	
+	/**
+	 * Count the elements in the queue. This walks the queue so is intended for 
+	 * diagnostics only, and the result is only a snapshot when producers are active.
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		int count = 0;
+		for(Node<E> n = head.next; n!=null; n = n.next) {
+			count++;
+		}
+		return count;
+	}
+	
+	static class Node<E> {
+		volatile Node<E> next;
+		E value;
+		
+		Node(E value) {
+			this.value = value;
+		}
+	}
+}
@@ -56,13 +56,11 @@ public class PathRandomAccessImpl implements AbstractFileRandomAccess {
 	}
 	
 	public int read(byte[] buf, int off, int len) throws IOException {
-		ByteBuffer b = ByteBuffer.allocate(len);
-		int r = raf.read(b);
-		if(r != -1) {
-			byte[] arr = b.array(); 
-			System.arraycopy(arr, 0, buf, off, arr.length);
-		}
-		return r;
+		return raf.read(ByteBuffer.wrap(buf, off, len));
+	}
+	
+	public int read(ByteBuffer buf, long position) throws IOException {
+		return raf.read(buf, position);
 	}
 	
 	public void setLength(long length) throws IOException {
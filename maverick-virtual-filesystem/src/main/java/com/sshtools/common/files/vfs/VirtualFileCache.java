@@ -0,0 +1,175 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * A bounded cache of resolved {@link VirtualFile} objects keyed by their virtual path. Entries
+ * expire after a time to live and the least recently used entry is evicted once the cache
+ * reaches its maximum size.
+ */
+public class VirtualFileCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+	public static final long DEFAULT_TIME_TO_LIVE = 30000;
+	
+	private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if(size() > maximumSize) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Get a cached file, or null if there is no entry for the path or the entry has expired.
+	 * 
+	 * @param path
+	 * @return VirtualFile
+	 */
+	public synchronized VirtualFile get(String path) {
+		Entry e = entries.get(path);
+		if(e != null) {
+			if(System.currentTimeMillis() - e.created < timeToLive) {
+				hits++;
+				return e.file;
+			}
+			entries.remove(path);
+			evictions++;
+		}
+		misses++;
+		return null;
+	}
+	
+	public synchronized void put(String path, VirtualFile file) {
+		if(maximumSize > 0) {
+			entries.put(path, new Entry(file));
+		}
+	}
+	
+	/**
+	 * Remove a path from the cache along with any paths beneath it and its parent, whose 
+	 * listing will also have changed.
+	 * 
+	 * @param path
+	 */
+	public synchronized void invalidate(String path) {
+		if(entries.isEmpty()) {
+			return;
+		}
+		String normalised = path.equals("/") ? path : FileUtils.removeTrailingSlash(path);
+		entries.remove(normalised);
+		
+		int idx = normalised.lastIndexOf('/');
+		if(idx > 0) {
+			entries.remove(normalised.substring(0, idx));
+		} else if(idx == 0 && normalised.length() > 1) {
+			entries.remove("/");
+		}
+		
+		String prefix = FileUtils.addTrailingSlash(normalised);
+		for(Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			if(it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	public synchronized int getSize() {
+		return entries.size();
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	public synchronized int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Set the maximum number of files held in the cache. A value of zero disables caching.
+	 * 
+	 * @param maximumSize
+	 */
+	public synchronized void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+		for(Iterator<String> it = entries.keySet().iterator(); it.hasNext() && entries.size() > maximumSize;) {
+			it.next();
+			it.remove();
+			evictions++;
+		}
+	}
+	
+	public synchronized long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Set the number of milliseconds a file and its attributes are cached for.
+	 * 
+	 * @param timeToLive
+	 */
+	public synchronized void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+	
+	public synchronized String toString() {
+		return String.format("%d files cached, %d hits, %d misses, %d evictions", entries.size(), hits, misses, evictions);
+	}
+	
+	static class Entry {
+		VirtualFile file;
+		long created = System.currentTimeMillis();
+		
+		Entry(VirtualFile file) {
+			this.file = file;
+		}
+	}
+}
@@ -19,8 +19,6 @@
 package com.sshtools.common.files.vfs;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
 import java.util.StringTokenizer;
@@ -36,7 +34,7 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 	protected boolean cached = true;
 	protected VirtualMountManager mgr;
 	
-	Map<String,VirtualFile> cache = null;
+	protected VirtualFileCache cache = new VirtualFileCache();
 	
 	public VirtualFileFactory(VirtualMountTemplate defaultMount,
 			VirtualMountTemplate... additionalMounts) throws IOException, PermissionDeniedException {
@@ -49,6 +47,18 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 
 	public void setCached(boolean cached) {
 		this.cached = cached;
+		if(!cached) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Get the cache of resolved files used by mounts that are cached.
+	 * 
+	 * @return VirtualFileCache
+	 */
+	public VirtualFileCache getCache() {
+		return cache;
 	}
 
 
@@ -96,6 +106,16 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 			virtualPath = canonicalisePath(path);
 		}
 
+		// A mount being tested is not in the cache, so bypass it until the mount is added
+		boolean useCache = !mgr.isTestingMount();
+		if(useCache) {
+			VirtualFile cachedFile = getCachedObject(virtualPath.equals("/") 
+					? virtualPath : FileUtils.removeTrailingSlash(virtualPath));
+			if(Objects.nonNull(cachedFile)) {
+				return cachedFile;
+			}
+		}
+		
 		VirtualMount[] mounts = mgr.getMounts(virtualPath);
 		if (!virtualPath.equals("") && mounts.length > 0) {
 			String mountPath = FileUtils.addTrailingSlash(virtualPath);
@@ -131,31 +151,32 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 		}
 
 		VirtualMount m = mgr.getMount(virtualPath);
-		VirtualFile cached = getCachedObject(virtualPath);
-		if(Objects.nonNull(cached)) {
-			return cached;
-		}
 		VirtualFile f = new VirtualMappedFile(virtualPath, m, this);
-		if (m.isCached()) {
-			cacheObject(f);
+		if (useCache && cached && m.isCached()) {
+			cacheObject(virtualPath, f);
 		}
 		return f;
 
 	}
 
-	private void cacheObject(VirtualFile f) throws IOException, PermissionDeniedException {
-		if(Objects.isNull(cache)) {
-			cache = new HashMap<>();
-		}
-		
-		cache.put(f.getAbsolutePath(), f);
+	private void cacheObject(String virtualPath, VirtualFile f) {
+		cache.put(virtualPath, f);
 	}
 
 	protected VirtualFile getCachedObject(String virtualPath) {
-		if(Objects.nonNull(cache)) {
-			cache.get(virtualPath);
+		if(!cached) {
+			return null;
 		}
-		return null;
+		return cache.get(virtualPath);
+	}
+	
+	/**
+	 * Remove a path, its parent and anything beneath it from the cache because it has been changed.
+	 * 
+	 * @param virtualPath
+	 */
+	protected void invalidateCachedObject(String virtualPath) {
+		cache.invalidate(virtualPath);
 	}
 
 	public VirtualMountManager getMountManager()
@@ -18,7 +18,10 @@
  */
 package com.sshtools.common.files.vfs;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,8 +31,10 @@ import java.util.Objects;
 
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileAdapter;
+import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.util.FileUtils;
 
 public class VirtualMappedFile extends VirtualFileObject {
@@ -39,6 +44,8 @@ public class VirtualMappedFile extends VirtualFileObject {
 	private String name;
 	
 	List<AbstractFile> cachedChildren = null;
+	volatile SftpFileAttributes cachedAttributes = null;
+	long cachedAttributesTime;
 	
 	public VirtualMappedFile(String path,
 			VirtualMount parentMount, VirtualFileFactory fileFactory)
@@ -84,8 +91,126 @@ public class VirtualMappedFile extends VirtualFileObject {
 	@Override
 	public synchronized void refresh() {
 		cachedChildren = null;
+		cachedAttributes = null;
 		super.refresh();
 	}
+	
+	@Override
+	public SftpFileAttributes getAttributes() throws IOException, PermissionDeniedException {
+		if(!parentMount.isCached()) {
+			return super.getAttributes();
+		}
+		synchronized(this) {
+			if(Objects.isNull(cachedAttributes) 
+					|| System.currentTimeMillis() - cachedAttributesTime >= fileFactory.getCache().getTimeToLive()) {
+				cachedAttributes = super.getAttributes();
+				cachedAttributesTime = System.currentTimeMillis();
+			}
+			return cachedAttributes;
+		}
+	}
+	
+	/**
+	 * Discard anything cached about this file because it is being changed.
+	 */
+	void invalidate() {
+		synchronized(this) {
+			cachedChildren = null;
+			cachedAttributes = null;
+		}
+		if(parentMount.isCached()) {
+			fileFactory.invalidateCachedObject(absolutePath);
+		}
+	}
+	
+	@Override
+	public boolean createFolder() throws IOException, PermissionDeniedException {
+		try {
+			return super.createFolder();
+		} finally {
+			invalidate();
+		}
+	}
+
+	@Override
+	public boolean createNewFile() throws PermissionDeniedException, IOException {
+		try {
+			return super.createNewFile();
+		} finally {
+			invalidate();
+		}
+	}
+
+	@Override
+	public void truncate() throws PermissionDeniedException, IOException {
+		try {
+			super.truncate();
+		} finally {
+			invalidate();
+		}
+	}
+
+	@Override
+	public void setAttributes(SftpFileAttributes attrs) throws IOException {
+		try {
+			super.setAttributes(attrs);
+		} finally {
+			invalidate();
+		}
+	}
+
+	@Override
+	public boolean delete(boolean recursive) throws IOException, PermissionDeniedException {
+		try {
+			return super.delete(recursive);
+		} finally {
+			invalidate();
+		}
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException, PermissionDeniedException {
+		invalidate();
+		return wrapOutputStream(super.getOutputStream());
+	}
+
+	@Override
+	public OutputStream getOutputStream(boolean append) throws IOException, PermissionDeniedException {
+		invalidate();
+		return wrapOutputStream(super.getOutputStream(append));
+	}
+
+	@Override
+	public AbstractFileRandomAccess openFile(boolean writeAccess) throws IOException, PermissionDeniedException {
+		AbstractFileRandomAccess raf = super.openFile(writeAccess);
+		if(!writeAccess || !parentMount.isCached()) {
+			return raf;
+		}
+		invalidate();
+		return new InvalidatingRandomAccess(raf);
+	}
+	
+	private OutputStream wrapOutputStream(OutputStream out) {
+		if(!parentMount.isCached()) {
+			return out;
+		}
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				cachedAttributes = null;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					invalidate();
+				}
+			}
+		};
+	}
 
 	@Override
 	public synchronized List<AbstractFile> getChildren() throws IOException,
@@ -188,10 +313,14 @@ public class VirtualMappedFile extends VirtualFileObject {
 	public void copyFrom(AbstractFile src) throws IOException,
 			PermissionDeniedException {
 
-		if (src instanceof VirtualMappedFile) {
-			super.copyFrom(((VirtualMappedFile) src).file);
-		} else {
-			super.copyFrom(src);
+		try {
+			if (src instanceof VirtualMappedFile) {
+				super.copyFrom(((VirtualMappedFile) src).file);
+			} else {
+				super.copyFrom(src);
+			}
+		} finally {
+			invalidate();
 		}
 	}
 
@@ -199,10 +328,17 @@ public class VirtualMappedFile extends VirtualFileObject {
 	public void moveTo(AbstractFile target) throws IOException,
 			PermissionDeniedException {
 
-		if (target instanceof VirtualMappedFile) {
-			super.moveTo(((VirtualMappedFile) target).file);
-		} else {
-			super.moveTo(target);
+		try {
+			if (target instanceof VirtualMappedFile) {
+				super.moveTo(((VirtualMappedFile) target).file);
+			} else {
+				super.moveTo(target);
+			}
+		} finally {
+			invalidate();
+			if (target instanceof VirtualMappedFile) {
+				((VirtualMappedFile) target).invalidate();
+			}
 		}
 	}
 
@@ -325,7 +461,54 @@ public class VirtualMappedFile extends VirtualFileObject {
 
 	@Override
 	public void symlinkTo(String target) throws IOException, PermissionDeniedException {
-		super.symlinkTo(toActualPath(target));
+		try {
+			super.symlinkTo(toActualPath(target));
+		} finally {
+			invalidate();
+		}
+	}
+	
+	class InvalidatingRandomAccess implements AbstractFileRandomAccess {
+		
+		AbstractFileRandomAccess raf;
+		
+		InvalidatingRandomAccess(AbstractFileRandomAccess raf) {
+			this.raf = raf;
+		}
+		
+		public int read(byte[] buf, int off, int len) throws IOException {
+			return raf.read(buf, off, len);
+		}
+		
+		public int read(ByteBuffer buf, long position) throws IOException {
+			return raf.read(buf, position);
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			raf.write(buf, off, len);
+			cachedAttributes = null;
+		}
+
+		public void setLength(long length) throws IOException {
+			raf.setLength(length);
+			cachedAttributes = null;
+		}
+
+		public void seek(long position) throws IOException {
+			raf.seek(position);
+		}
+
+		public void close() throws IOException {
+			try {
+				raf.close();
+			} finally {
+				invalidate();
+			}
+		}
+
+		public long getFilePointer() throws IOException {
+			return raf.getFilePointer();
+		}
 	}
 	
 	
@@ -0,0 +1,148 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * An immutable index of mounts keyed by the segments of their mount path, so that the 
+ * mounts for a path can be found in time proportional to the depth of the path rather 
+ * than the number of mounts. A new index is built whenever the mounts change.
+ */
+class VirtualMountIndex {
+
+	private final Node root = new Node();
+	
+	/**
+	 * Build an index of mounts. Where more than one mount has the same path the first in 
+	 * the collection is used.
+	 * 
+	 * @param mounts
+	 */
+	VirtualMountIndex(Collection<VirtualMount> mounts) {
+		for(VirtualMount mount : mounts) {
+			Node node = root;
+			for(String segment : segments(mount.getMount())) {
+				node = node.child(segment);
+			}
+			if(node.mount == null) {
+				node.mount = mount;
+			}
+		}
+	}
+	
+	/**
+	 * Get the mount with the longest mount path that contains the path.
+	 * 
+	 * @param path
+	 * @return the mount or null if no mount contains the path
+	 */
+	VirtualMount getMount(String path) {
+		VirtualMount mount = null;
+		Node node = root;
+		for(String segment : segments(path)) {
+			node = node.children.get(segment);
+			if(node == null) {
+				break;
+			}
+			if(node.mount != null) {
+				mount = node.mount;
+			}
+		}
+		return mount;
+	}
+	
+	/**
+	 * Get the mounts that contain the path, or are contained by it.
+	 * 
+	 * @param path
+	 * @return List<VirtualMount>
+	 */
+	List<VirtualMount> getMounts(String path) {
+		List<VirtualMount> matched = new ArrayList<VirtualMount>();
+		Node node = root;
+		for(String segment : segments(path)) {
+			node = node.children.get(segment);
+			if(node == null) {
+				return matched;
+			}
+			if(node.mount != null) {
+				matched.add(node.mount);
+			}
+		}
+		for(Node child : node.children.values()) {
+			child.collect(matched);
+		}
+		return matched;
+	}
+	
+	/**
+	 * Is there a mount at exactly this path?
+	 * 
+	 * @param path
+	 * @return boolean
+	 */
+	boolean isMounted(String path) {
+		Node node = root;
+		for(String segment : segments(path)) {
+			node = node.children.get(segment);
+			if(node == null) {
+				return false;
+			}
+		}
+		return node.mount != null;
+	}
+	
+	/**
+	 * Split a path in the same way the mount paths are compared, i.e. with a single
+	 * trailing slash, so that "/" and "/a" have the segments [""] and ["", "a"].
+	 */
+	static String[] segments(String path) {
+		return FileUtils.removeTrailingSlash(FileUtils.addTrailingSlash(path)).split("/", -1);
+	}
+	
+	static class Node {
+		Map<String,Node> children = new HashMap<String,Node>(4);
+		VirtualMount mount;
+		
+		Node child(String segment) {
+			Node node = children.get(segment);
+			if(node == null) {
+				node = new Node();
+				children.put(segment, node);
+			}
+			return node;
+		}
+		
+		void collect(List<VirtualMount> matched) {
+			if(mount != null) {
+				matched.add(mount);
+			}
+			for(Node child : children.values()) {
+				child.collect(matched);
+			}
+		}
+	}
+}
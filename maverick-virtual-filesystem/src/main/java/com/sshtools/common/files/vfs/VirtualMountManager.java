@@ -38,6 +38,15 @@ public class VirtualMountManager {
 	private List<VirtualMount> mounts = new ArrayList<VirtualMount>();
 	private VirtualFileFactory fileFactory;
 	private ThreadLocal<VirtualMount> testingMount = new ThreadLocal<>(); 
+	private volatile VirtualMountIndex index = new VirtualMountIndex(Collections.<VirtualMount>emptyList());
+	
+	private static final Comparator<AbstractMount> MOUNT_ORDER = new Comparator<AbstractMount>() {
+
+		public int compare(AbstractMount o1, AbstractMount o2) {
+			return o1.getMount().compareTo(o2.getMount()) * -1;
+		}
+
+	};
 	
 	public VirtualMountManager(VirtualFileFactory fileFactory) throws IOException,
 			PermissionDeniedException {
@@ -131,19 +140,15 @@ public class VirtualMountManager {
 		// Add the mount
 		mounts.add(mount);
 		sort();
+		clearCache();
 
 		Log.info("Mounted " + mount.getMount() + " on " + mount.getRoot());
 
 	}
 
 	private void sort() {
-		Collections.sort(mounts, new Comparator<AbstractMount>() {
-
-			public int compare(AbstractMount o1, AbstractMount o2) {
-				return o1.getMount().compareTo(o2.getMount()) * -1;
-			}
-
-		});
+		Collections.sort(mounts, MOUNT_ORDER);
+		index = new VirtualMountIndex(mounts);
 	}
 
 	public void unmount(VirtualMount mount) throws IOException {
@@ -160,13 +165,24 @@ public class VirtualMountManager {
 		}
 		mounts.remove(mounted);
 		sort();
+		clearCache();
 		Log.info("Unmounted " + mounted.getMount() + " from " + mounted.getRoot());
 	}
 
+	private void clearCache() {
+		if(Objects.nonNull(fileFactory)) {
+			fileFactory.getCache().clear();
+		}
+	}
+
 	public VirtualMount getDefaultMount() {
 		return defaultMount;
 	}
 
+	boolean isTestingMount() {
+		return testingMount.get() != null;
+	}
+
 	public VirtualMount[] getMounts() {
 		List<VirtualMount> tmp = new ArrayList<>();
 		VirtualMount testMount = testingMount.get();
@@ -182,13 +198,7 @@ public class VirtualMountManager {
 			return true;
 		}
 
-		for (VirtualMount mount : mounts) {
-			if (FileUtils.addTrailingSlash(mount.getMount()).equals(
-					FileUtils.addTrailingSlash(path))) {
-				return true;
-			}
-		}
-		return false;
+		return index.isMounted(path);
 	}
 
 	private VirtualMount createMount(String mount, String path,
@@ -205,14 +215,17 @@ public class VirtualMountManager {
 			return defaultMount;
 		}
 
-		for (VirtualMount mount : getMounts()) {
-			String mountPath = FileUtils.checkEndsWithSlash(mount.getMount());
-			path = FileUtils.checkEndsWithSlash(path);
-			if (path.startsWith(mountPath)) {
-				return mount;
-			}
+		VirtualMount testMount = testingMount.get();
+		if (testMount != null && FileUtils.checkEndsWithSlash(path).startsWith(
+				FileUtils.checkEndsWithSlash(testMount.getMount()))) {
+			return testMount;
 		}
-		throw new FileNotFoundException("No mount for " + path);
+		
+		VirtualMount mount = index.getMount(path);
+		if (mount != null) {
+			return mount;
+		}
+		throw new FileNotFoundException("No mount for " + FileUtils.checkEndsWithSlash(path));
 	}
 
 	public VirtualMount[] getMounts(String path) {
@@ -220,13 +233,15 @@ public class VirtualMountManager {
 			return new VirtualMount[] { defaultMount };
 		}
 
-		path = FileUtils.addTrailingSlash(path);
-
-		List<VirtualMount> matched = new ArrayList<VirtualMount>();
-		for (VirtualMount m : getMounts()) {
-			String mountPath = FileUtils.addTrailingSlash(m.getMount());
+		List<VirtualMount> matched = index.getMounts(path);
+		Collections.sort(matched, MOUNT_ORDER);
+		
+		VirtualMount testMount = testingMount.get();
+		if (testMount != null) {
+			String mountPath = FileUtils.addTrailingSlash(testMount.getMount());
+			path = FileUtils.addTrailingSlash(path);
 			if (path.startsWith(mountPath) || mountPath.startsWith(path)) {
-				matched.add(m);
+				matched.add(0, testMount);
 			}
 		}
 		return matched.toArray(new VirtualMount[0]);
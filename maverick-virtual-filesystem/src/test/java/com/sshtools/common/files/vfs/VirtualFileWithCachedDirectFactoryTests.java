@@ -0,0 +1,145 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+public class VirtualFileWithCachedDirectFactoryTests extends VirtualFileWithDirectFactoryTests {
+
+	protected File getBaseFolder() throws IOException {
+		File baseFolder = super.getBaseFolder();
+		try {
+			factory.getMountManager().getDefaultMount().setCached(true);
+		} catch (PermissionDeniedException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		return baseFolder;
+	}
+	
+	@Override
+	@Test
+	public void testEquals() throws IOException, PermissionDeniedException {
+		
+		String path = "equals.txt";
+		createFile(path);
+		
+		// A cached lookup returns the same instance so resolve the second file afresh
+		AbstractFile file1 = getFile(path);
+		factory.getCache().clear();
+		AbstractFile file2 = getFile(path);
+		
+		assertNotSame(file1, file2);
+		assertTrue("equals should return true", file1.equals(file2));
+		
+		deleteFile(path);
+	}
+	
+	@Override
+	@Test
+	public void testMatchingHashCode() throws IOException, PermissionDeniedException {
+		
+		String path = "hashcode.txt";
+		createFile(path);
+		
+		AbstractFile file1 = getFile(path);
+		factory.getCache().clear();
+		AbstractFile file2 = getFile(path);
+		
+		assertNotSame(file1, file2);
+		assertTrue("hashCode return values should match", file1.hashCode() == file2.hashCode());
+		
+		deleteFile(path);
+	}
+	
+	@Test
+	public void testCachedFileIsReused() throws IOException, PermissionDeniedException {
+		
+		getBaseFolder();
+		createFile("cached.txt");
+		
+		long hits = factory.getCache().getHits();
+		AbstractFile f1 = getFile("cached.txt");
+		AbstractFile f2 = getFile("cached.txt");
+		
+		assertSame(f1, f2);
+		assertEquals(hits + 1, factory.getCache().getHits());
+	}
+	
+	@Test
+	public void testWriteInvalidatesAttributes() throws IOException, PermissionDeniedException {
+		
+		getBaseFolder();
+		createFile("written.txt");
+		
+		AbstractFile f = getFile("written.txt");
+		assertEquals(0, f.getAttributes().getSize().longValue());
+		
+		try(OutputStream out = f.getOutputStream()) {
+			out.write(new byte[] { 1, 2, 3, 4 });
+		}
+		
+		assertEquals(4, f.getAttributes().getSize().longValue());
+		assertNotSame(f, getFile("written.txt"));
+	}
+	
+	@Test
+	public void testDeleteInvalidatesFile() throws IOException, PermissionDeniedException {
+		
+		getBaseFolder();
+		createFile("deleted.txt");
+		
+		AbstractFile f = getFile("deleted.txt");
+		assertTrue(f.exists());
+		assertTrue(f.delete(false));
+		assertFalse(getFile("deleted.txt").exists());
+	}
+	
+	@Test
+	public void testMountIsNotTestedAgainstCachedFile() throws IOException, PermissionDeniedException {
+		
+		File baseFolder = getBaseFolder();
+		
+		// Cache the path on the default mount before anything is mounted there
+		assertSame(getFile("/mounted"), getFile("/mounted"));
+		
+		File mountFolder = new File(baseFolder.getParentFile(), baseFolder.getName() + "-mounted");
+		File mountRoot = new File(mountFolder, "root");
+		mountFolder.mkdirs();
+		
+		factory.getMountManager().mount(new VirtualMountTemplate("/mounted", mountRoot.getAbsolutePath(), 
+				new DirectFileFactory(mountFolder), true));
+		
+		assertTrue(mountRoot.isDirectory());
+		assertFalse(new File(baseFolder, "mounted").exists());
+	}
+}
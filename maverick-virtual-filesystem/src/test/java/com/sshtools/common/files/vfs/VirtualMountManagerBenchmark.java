@@ -0,0 +1,66 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import java.io.IOException;
+
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+/**
+ * Compares the indexed mount lookup against the linear scan it replaced. Run with
+ * the number of tenants as an optional argument; each tenant has two mounts.
+ */
+public class VirtualMountManagerBenchmark {
+
+	static final int ITERATIONS = 200000;
+	
+	public static void main(String[] args) throws IOException, PermissionDeniedException {
+		
+		int tenants = args.length > 0 ? Integer.parseInt(args[0]) : 250;
+		VirtualMountManager mgr = VirtualMountManagerTests.createFactory(tenants).getMountManager();
+		
+		String[] paths = new String[64];
+		for(int i=0;i<paths.length;i++) {
+			paths[i] = "/tenant" + (i * 7 % tenants) + "/data/archive/2021/" + i + "/file.txt";
+		}
+		
+		for(int run=0;run<3;run++) {
+			long linear = time(mgr, paths, true);
+			long indexed = time(mgr, paths, false);
+			System.out.println(String.format("%d mounts: linear %d ns/op, indexed %d ns/op", 
+					mgr.getMounts().length, linear, indexed));
+		}
+	}
+	
+	static long time(VirtualMountManager mgr, String[] paths, boolean linear) throws IOException {
+		int matched = 0;
+		long started = System.nanoTime();
+		for(int i=0;i<ITERATIONS;i++) {
+			String path = paths[i % paths.length];
+			VirtualMount m = linear ? VirtualMountManagerTests.linearGetMount(mgr, path) : mgr.getMount(path);
+			VirtualMount[] mounts = linear ? VirtualMountManagerTests.linearGetMounts(mgr, path) : mgr.getMounts(path);
+			matched += mounts.length + (m == null ? 0 : 1);
+		}
+		long elapsed = System.nanoTime() - started;
+		if(matched == 0) {
+			throw new IllegalStateException();
+		}
+		return elapsed / ITERATIONS;
+	}
+}
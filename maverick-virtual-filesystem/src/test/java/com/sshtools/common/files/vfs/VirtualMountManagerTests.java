@@ -0,0 +1,137 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.util.FileUtils;
+
+public class VirtualMountManagerTests {
+
+	static final String[] PATHS = { "", "/", "/tenant1", "/tenant1/", "/tenant1/data", "/tenant1/data/file.txt", 
+			"/tenant1/data/archive/2020/file.txt", "/tenant10/data", "/tenant1data", "/tenant2/other", 
+			"/shared/readme", "/sharedx", "/unknown/path", "/tenant3/data/archive" };
+	
+	static VirtualFileFactory createFactory(int tenants) throws IOException, PermissionDeniedException {
+		
+		File baseFolder = Files.createTempDirectory("virtual-mounts").toFile();
+		DirectFileFactory actual = new DirectFileFactory(baseFolder);
+		
+		List<VirtualMountTemplate> mounts = new ArrayList<>();
+		mounts.add(new VirtualMountTemplate("/shared", baseFolder.getAbsolutePath(), actual, false));
+		for(int i=0;i<tenants;i++) {
+			mounts.add(new VirtualMountTemplate("/tenant" + i + "/data", baseFolder.getAbsolutePath(), actual, false));
+			mounts.add(new VirtualMountTemplate("/tenant" + i + "/data/archive", baseFolder.getAbsolutePath(), actual, false));
+		}
+		return new VirtualFileFactory(new VirtualMountTemplate("/", baseFolder.getAbsolutePath(), actual, false), 
+				mounts.toArray(new VirtualMountTemplate[0]));
+	}
+	
+	/**
+	 * The linear scan previously used to find the mount for a path.
+	 */
+	static VirtualMount linearGetMount(VirtualMountManager mgr, String path) throws FileNotFoundException {
+		if (path.equals("")) {
+			return mgr.getDefaultMount();
+		}
+		for (VirtualMount mount : mgr.getMounts()) {
+			if (FileUtils.checkEndsWithSlash(path).startsWith(FileUtils.checkEndsWithSlash(mount.getMount()))) {
+				return mount;
+			}
+		}
+		throw new FileNotFoundException("No mount for " + path);
+	}
+	
+	/**
+	 * The linear scan previously used to find mounts above or below a path.
+	 */
+	static VirtualMount[] linearGetMounts(VirtualMountManager mgr, String path) {
+		if (path.equals("")) {
+			return new VirtualMount[] { mgr.getDefaultMount() };
+		}
+		path = FileUtils.addTrailingSlash(path);
+		List<VirtualMount> matched = new ArrayList<VirtualMount>();
+		for (VirtualMount m : mgr.getMounts()) {
+			String mountPath = FileUtils.addTrailingSlash(m.getMount());
+			if (path.startsWith(mountPath) || mountPath.startsWith(path)) {
+				matched.add(m);
+			}
+		}
+		return matched.toArray(new VirtualMount[0]);
+	}
+	
+	@Test
+	public void testIndexMatchesLinearScan() throws IOException, PermissionDeniedException {
+		
+		VirtualMountManager mgr = createFactory(20).getMountManager();
+		
+		for(String path : PATHS) {
+			assertSame(path, linearGetMount(mgr, path), mgr.getMount(path));
+			assertArrayEquals(path, linearGetMounts(mgr, path), mgr.getMounts(path));
+		}
+	}
+	
+	@Test
+	public void testLongestPrefix() throws IOException, PermissionDeniedException {
+		
+		VirtualMountManager mgr = createFactory(5).getMountManager();
+		
+		assertEquals("/tenant1/data/archive", mgr.getMount("/tenant1/data/archive/2020").getMount());
+		assertEquals("/tenant1/data", mgr.getMount("/tenant1/data/archived").getMount());
+		assertEquals("/", mgr.getMount("/tenant1").getMount());
+		assertEquals(3, mgr.getMounts("/tenant1").length);
+	}
+	
+	@Test
+	public void testIndexIsRebuiltOnMountAndUnmount() throws IOException, PermissionDeniedException {
+		
+		VirtualFileFactory factory = createFactory(2);
+		VirtualMountManager mgr = factory.getMountManager();
+		File folder = Files.createTempDirectory("virtual-mounts").toFile();
+		
+		assertFalse(mgr.isMounted("/tenant1/home"));
+		
+		VirtualMountTemplate template = new VirtualMountTemplate("/tenant1/home", 
+				folder.getAbsolutePath(), new DirectFileFactory(folder), false);
+		mgr.mount(template);
+		
+		assertTrue(mgr.isMounted("/tenant1/home"));
+		assertEquals("/tenant1/home", mgr.getMount("/tenant1/home/file.txt").getMount());
+		
+		mgr.unmount(mgr.getMount("/tenant1/home"));
+		
+		assertFalse(mgr.isMounted("/tenant1/home"));
+		assertEquals("/", mgr.getMount("/tenant1/home/file.txt").getMount());
+	}
+}
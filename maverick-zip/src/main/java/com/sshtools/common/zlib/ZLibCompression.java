@@ -65,7 +65,7 @@ public class ZLibCompression
     compressOut.reset();
     stream.next_in = buf;
     stream.next_in_index = start;
-    stream.avail_in = len - start;
+    stream.avail_in = len;
     int status;
 
     do {